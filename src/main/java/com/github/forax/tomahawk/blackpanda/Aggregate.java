@@ -0,0 +1,118 @@
+package com.github.forax.tomahawk.blackpanda;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * An aggregate function computed for each group of rows.
+ *
+ * The aggregates ignore the {@code null} values, the result of {@code sum}, {@code min}, {@code max}
+ * and {@code avg} is {@code null} if a group has no non-null value.
+ * The result of {@code sum}, {@code min} and {@code max} is a {@code long64} for an integral column
+ * and a {@code double64} for a floating point column, {@code count} is a {@code long64}
+ * and {@code avg} a {@code double64}.
+ *
+ * @param kind the kind of aggregate
+ * @param column the name of the aggregated column or {@code null} for {@link #count()}
+ * @param name the name of the resulting column
+ *
+ * @see Query#aggregate(Aggregate...)
+ * @see Query.GroupBy#aggregate(Aggregate...)
+ */
+public record Aggregate(Kind kind, String column, String name) {
+  /**
+   * The kind of aggregate
+   */
+  public enum Kind {
+    /** the number of rows or the number of non-null values of a column */
+    COUNT,
+    /** the sum of the values */
+    SUM,
+    /** the minimum of the values */
+    MIN,
+    /** the maximum of the values */
+    MAX,
+    /** the average of the values */
+    AVG
+  }
+
+  /**
+   * Creates an aggregate.
+   * @param kind the kind of aggregate
+   * @param column the name of the aggregated column or {@code null} to count the rows
+   * @param name the name of the resulting column
+   */
+  public Aggregate {
+    requireNonNull(kind);
+    requireNonNull(name);
+    if (column == null && kind != Kind.COUNT) {
+      throw new IllegalArgumentException("only count has no column");
+    }
+  }
+
+  private static Aggregate of(Kind kind, String column) {
+    requireNonNull(column);
+    return new Aggregate(kind, column, kind.name().toLowerCase() + "_" + column);
+  }
+
+  /**
+   * Returns an aggregate that counts the rows, named "count"
+   * @return an aggregate that counts the rows
+   */
+  public static Aggregate count() {
+    return new Aggregate(Kind.COUNT, null, "count");
+  }
+
+  /**
+   * Returns an aggregate that counts the non-null values of a column, named "count_column"
+   * @param column the name of the column
+   * @return an aggregate that counts the non-null values of a column
+   */
+  public static Aggregate count(String column) {
+    return of(Kind.COUNT, column);
+  }
+
+  /**
+   * Returns an aggregate that sums the values of a column, named "sum_column"
+   * @param column the name of the column
+   * @return an aggregate that sums the values of a column
+   */
+  public static Aggregate sum(String column) {
+    return of(Kind.SUM, column);
+  }
+
+  /**
+   * Returns an aggregate that computes the minimum of a column, named "min_column"
+   * @param column the name of the column
+   * @return an aggregate that computes the minimum of a column
+   */
+  public static Aggregate min(String column) {
+    return of(Kind.MIN, column);
+  }
+
+  /**
+   * Returns an aggregate that computes the maximum of a column, named "max_column"
+   * @param column the name of the column
+   * @return an aggregate that computes the maximum of a column
+   */
+  public static Aggregate max(String column) {
+    return of(Kind.MAX, column);
+  }
+
+  /**
+   * Returns an aggregate that computes the average of a column, named "avg_column"
+   * @param column the name of the column
+   * @return an aggregate that computes the average of a column
+   */
+  public static Aggregate avg(String column) {
+    return of(Kind.AVG, column);
+  }
+
+  /**
+   * Returns the same aggregate with another name
+   * @param name the name of the resulting column
+   * @return the same aggregate with another name
+   */
+  public Aggregate as(String name) {
+    return new Aggregate(kind, column, name);
+  }
+}
@@ -0,0 +1,158 @@
+package com.github.forax.tomahawk.blackpanda;
+
+import com.github.forax.tomahawk.blackpanda.Filter.Compare;
+import com.github.forax.tomahawk.blackpanda.Filter.IsNull;
+import com.github.forax.tomahawk.blackpanda.Filter.Op;
+import com.github.forax.tomahawk.blackpanda.Filter.TextEquals;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A reference to a column by its name, used to create {@link Filter}s and {@link Expr}essions.
+ *
+ * @param name the name of the column
+ *
+ * @see Query#col(String)
+ */
+public record Column(String name) implements Expr {
+  /**
+   * Creates a reference to a column.
+   * @param name the name of the column
+   */
+  public Column {
+    requireNonNull(name);
+  }
+
+  /**
+   * Returns a filter true if the value of the column is lower than {@code value}
+   * @param value a constant
+   * @return a filter true if the value of the column is lower than {@code value}
+   */
+  public Filter lt(long value) {
+    return new Compare(name, Op.LT, value);
+  }
+
+  /**
+   * Returns a filter true if the value of the column is lower than {@code value}
+   * @param value a constant
+   * @return a filter true if the value of the column is lower than {@code value}
+   */
+  public Filter lt(double value) {
+    return new Compare(name, Op.LT, value);
+  }
+
+  /**
+   * Returns a filter true if the value of the column is lower or equals to {@code value}
+   * @param value a constant
+   * @return a filter true if the value of the column is lower or equals to {@code value}
+   */
+  public Filter le(long value) {
+    return new Compare(name, Op.LE, value);
+  }
+
+  /**
+   * Returns a filter true if the value of the column is lower or equals to {@code value}
+   * @param value a constant
+   * @return a filter true if the value of the column is lower or equals to {@code value}
+   */
+  public Filter le(double value) {
+    return new Compare(name, Op.LE, value);
+  }
+
+  /**
+   * Returns a filter true if the value of the column is equals to {@code value}
+   * @param value a constant
+   * @return a filter true if the value of the column is equals to {@code value}
+   */
+  public Filter eq(long value) {
+    return new Compare(name, Op.EQ, value);
+  }
+
+  /**
+   * Returns a filter true if the value of the column is equals to {@code value}
+   * @param value a constant
+   * @return a filter true if the value of the column is equals to {@code value}
+   */
+  public Filter eq(double value) {
+    return new Compare(name, Op.EQ, value);
+  }
+
+  /**
+   * Returns a filter true if the string value of the column is equals to {@code value}
+   * @param value a constant
+   * @return a filter true if the string value of the column is equals to {@code value}
+   */
+  public Filter eq(String value) {
+    return new TextEquals(name, value);
+  }
+
+  /**
+   * Returns a filter true if the value of the column is not equals to {@code value}
+   * @param value a constant
+   * @return a filter true if the value of the column is not equals to {@code value}
+   */
+  public Filter ne(long value) {
+    return new Compare(name, Op.NE, value);
+  }
+
+  /**
+   * Returns a filter true if the value of the column is not equals to {@code value}
+   * @param value a constant
+   * @return a filter true if the value of the column is not equals to {@code value}
+   */
+  public Filter ne(double value) {
+    return new Compare(name, Op.NE, value);
+  }
+
+  /**
+   * Returns a filter true if the value of the column is greater or equals to {@code value}
+   * @param value a constant
+   * @return a filter true if the value of the column is greater or equals to {@code value}
+   */
+  public Filter ge(long value) {
+    return new Compare(name, Op.GE, value);
+  }
+
+  /**
+   * Returns a filter true if the value of the column is greater or equals to {@code value}
+   * @param value a constant
+   * @return a filter true if the value of the column is greater or equals to {@code value}
+   */
+  public Filter ge(double value) {
+    return new Compare(name, Op.GE, value);
+  }
+
+  /**
+   * Returns a filter true if the value of the column is greater than {@code value}
+   * @param value a constant
+   * @return a filter true if the value of the column is greater than {@code value}
+   */
+  public Filter gt(long value) {
+    return new Compare(name, Op.GT, value);
+  }
+
+  /**
+   * Returns a filter true if the value of the column is greater than {@code value}
+   * @param value a constant
+   * @return a filter true if the value of the column is greater than {@code value}
+   */
+  public Filter gt(double value) {
+    return new Compare(name, Op.GT, value);
+  }
+
+  /**
+   * Returns a filter true if the value of the column is null
+   * @return a filter true if the value of the column is null
+   */
+  public Filter isNull() {
+    return new IsNull(name);
+  }
+
+  /**
+   * Returns a filter true if the value of the column is not null
+   * @return a filter true if the value of the column is not null
+   */
+  public Filter isNotNull() {
+    return new IsNull(name).not();
+  }
+}
@@ -1,11 +1,17 @@
 package com.github.forax.tomahawk.blackpanda;
 
+import com.github.forax.tomahawk.blackpanda.QueryKernels.ColumnResolver;
+import com.github.forax.tomahawk.schema.Arrow;
 import com.github.forax.tomahawk.schema.CSV;
 import com.github.forax.tomahawk.schema.JSON;
 import com.github.forax.tomahawk.schema.Layout;
+import com.github.forax.tomahawk.schema.Layout.Field;
 import com.github.forax.tomahawk.schema.Layout.ListLayout;
 import com.github.forax.tomahawk.schema.Layout.PrimitiveLayout;
 import com.github.forax.tomahawk.schema.Layout.StructLayout;
+import com.github.forax.tomahawk.schema.PartitionedTable;
+import com.github.forax.tomahawk.schema.RowGroupTable;
+import com.github.forax.tomahawk.schema.SealPolicy;
 import com.github.forax.tomahawk.vec.ListVec;
 import com.github.forax.tomahawk.vec.StructVec;
 import com.github.forax.tomahawk.vec.U16Vec;
@@ -18,14 +24,21 @@ import com.github.forax.tomahawk.vec.Vec;
 import com.github.forax.tomahawk.vec.VecOp;
 
 import java.io.IOException;
+import java.io.Reader;
 import java.io.UncheckedIOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.function.IntBinaryOperator;
 import java.util.stream.IntStream;
 
 import static com.github.forax.tomahawk.schema.Layout.int32;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
 import static java.util.Objects.requireNonNull;
+import static java.util.stream.Collectors.toSet;
 
 public record DB(Path directory, String name) {
   public Table table(String name) {
@@ -39,6 +52,27 @@ public record DB(Path directory, String name) {
     return new Table(directory.resolve(name + ".table"), name, structLayout);
   }
 
+  public PartitionedTable partitionedTable(String name, String key, StructLayout structLayout) {
+    requireNonNull(name);
+    requireNonNull(key);
+    requireNonNull(structLayout);
+    try {
+      return PartitionedTable.open(directory.resolve(name + ".table"), name, key, structLayout);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  public RowGroupTable rowGroupTable(String name, StructLayout structLayout) {
+    requireNonNull(name);
+    requireNonNull(structLayout);
+    try {
+      return RowGroupTable.open(directory.resolve(name + ".table"), name, structLayout);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
 
   public static DB of(Path directory, String name) {
     requireNonNull(directory);
@@ -46,13 +80,16 @@ public record DB(Path directory, String name) {
     return new DB(directory, name);
   }
 
-  public class Table {
+  public class Table implements AutoCloseable {
     private final Path directory;
     private final String name;
 
     private StructLayout structLayout;
-    private StructVec structVec;  // may be null
-    private final ArrayList<Col> cols = new ArrayList<>();
+    // may be null, the files of a column are mapped on first access,
+    // the columns are replaced by the thread that seals a chunk during an ingestion
+    private volatile SharedColumns columns;
+    // the number of replaced columns still used by another thread, they are unmapped by their last user
+    private final AtomicInteger retiredCount = new AtomicInteger();
 
     Table(Path directory, String name, StructLayout structLayout) {
       this.directory = directory;
@@ -61,7 +98,9 @@ public record DB(Path directory, String name) {
     }
 
     public long length() {
-      return structVec == null? 0: structVec.length();
+      try(var columns = acquireOrNull()) {
+        return columns == null? 0: columns.lazyStruct().length();
+      }
     }
 
     public Col col(String name) {
@@ -69,32 +108,50 @@ public record DB(Path directory, String name) {
       if (index == -1) {
         throw new IllegalStateException("unknown column " + name);
       }
-      return cols.get(index);
+      return new Col(this, name, structLayout.fields().get(index).layout());
     }
 
     public Col addCol(String name, Layout layout) {
       structLayout = addColumn(structLayout, name, layout);
-      var columnVec = (Vec) null;
-      if (structVec != null) {
-        structVec = addColumnVec(structVec, name, layout);
-        columnVec = structVec.fields().get(this.structLayout.fieldIndex(name));
+      if (columns != null) {
+        remap(Set.of(name));
       }
-      return new Col(this, name, layout, columnVec);
+      return new Col(this, name, layout);
     }
 
-    private StructVec addColumnVec(StructVec structVec, String name, Layout layout) {
-      Vec vec;
-      try {
-        vec = Layout.map(directory, name, layout);
+    public Col addCol(String name) {
+      return addCol(name, Layout.string(true));
+    }
+
+    // the expression is evaluated by batches, only the new column is written
+    public Col addCol(String name, Expr expr) {
+      requireNonNull(expr);
+      Layout layout;
+      StructLayout newStructLayout;
+      try(var columns = acquire("table " + this.name + " is empty")) {
+        var program = ExprProgram.compile(expr, new ColumnResolver() {
+          @Override
+          public Layout layout(String name) {
+            return col(name).layout;
+          }
+
+          @Override
+          public Vec vec(String name) {
+            col(name);  // checks that the column exists
+            return columns.lazyStruct().field(name);
+          }
+        });
+        layout = int32(program.nullable());
+        newStructLayout = addColumn(structLayout, name, layout);
+        try(var builder = (U32Vec.Builder) Layout.builder(directory, this.name + "_struct-" + name, layout)) {
+          program.evaluate(columns.lazyStruct().length(), builder);
+        }
       } catch (IOException e) {
         throw new UncheckedIOException(e);
       }
-      var size = structVec.fields().size();
-      return structVec.splice(size, size, vec);
-    }
-
-    public Col addCol(String name) {
-      return addCol(name, Layout.string(true));
+      structLayout = newStructLayout;
+      remap(Set.of(name));
+      return new Col(this, name, layout);
     }
 
     public void addCols(String... names) {
@@ -105,8 +162,21 @@ public record DB(Path directory, String name) {
 
     public void importCSV(Path path) {
       try {
-        CSV.fetch(path, structLayout, directory, name);
-        structVec = (StructVec) Layout.map(directory, name, structLayout);
+        inferCSVLayout(path);
+        CSV.fetchParallel(path, structLayout, directory, name);
+        remap();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    // only the columns are parsed and stored, the other columns of the table are kept,
+    // a column that is not yet in the table is added with the layout inferred from the file
+    public void importCSV(Path path, String... columns) {
+      try {
+        var projection = importedLayout(columns, () -> CSV.inferLayout(path));
+        CSV.fetchParallel(path, projection, Set.of(columns)::contains, directory, name, Runtime.getRuntime().availableProcessors());
+        remap(Set.of(columns));
       } catch (IOException e) {
         throw new UncheckedIOException(e);
       }
@@ -114,15 +184,264 @@ public record DB(Path directory, String name) {
 
     public void importJSON(Path path) {
       try {
+        inferJSONLayout(path);
         JSON.fetch(path, structLayout, directory, name);
-        structVec = (StructVec) Layout.map(directory, name, structLayout);
+        remap();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    public void importJSONLines(Path path) {
+      try {
+        JSON.fetchLines(path, structLayout, directory, name);
+        remap();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    // only the columns are parsed and stored, the other columns of the table are kept,
+    // a column that is not yet in the table is added with the layout inferred from the file
+    public void importJSONLines(Path path, String... columns) {
+      try {
+        var projection = importedLayout(columns, () -> {
+          if (!(JSON.inferLinesLayout(path) instanceof StructLayout inferredLayout)) {
+            throw new IllegalArgumentException("the values of " + path + " are not objects");
+          }
+          return inferredLayout;
+        });
+        JSON.fetchLines(path, projection, Set.of(columns)::contains, directory, name, Runtime.getRuntime().availableProcessors());
+        remap(Set.of(columns));
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    public void appendCSV(Path path) {
+      try {
+        inferCSVLayout(path);
+        CSV.fetch(path, structLayout, directory, name, CREATE, APPEND);
+        remap();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    public void appendJSON(Path path) {
+      try {
+        inferJSONLayout(path);
+        JSON.fetch(path, structLayout, directory, name, CREATE, APPEND);
+        remap();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    public void ingestCSV(Reader reader, SealPolicy sealPolicy, Consumer<? super Table> sealListener) {
+      requireNonNull(sealListener);
+      checkHasColumns();
+      try {
+        CSV.ingest(reader, structLayout, directory, name, sealPolicy, length -> sealed(length, sealListener));
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    public void ingestJSONLines(Reader reader, SealPolicy sealPolicy, Consumer<? super Table> sealListener) {
+      requireNonNull(sealListener);
+      checkHasColumns();
+      try {
+        JSON.ingestLines(reader, structLayout, directory, name, sealPolicy, length -> sealed(length, sealListener));
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    public void exportCSV(Path path) {
+      try(var columns = acquire("table " + name + " is empty")) {
+        CSV.export(columns.lazyStruct().toStructVec(), structLayout, path);
       } catch (IOException e) {
         throw new UncheckedIOException(e);
       }
     }
 
+    public void exportJSONLines(Path path) {
+      try(var columns = acquire("table " + name + " is empty")) {
+        JSON.exportLines(columns.lazyStruct().toStructVec(), structLayout, path);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    public void exportArrow(Path path) {
+      if (columns == null) {
+        throw new IllegalStateException("table " + name + " is empty");
+      }
+      try {
+        Arrow.export(directory, name, structLayout, path);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    public Query query() {
+      long length;
+      try(var columns = acquire("table " + name + " is empty")) {
+        length = columns.lazyStruct().length();
+      }
+      // each execution acquires the current columns,
+      // only the columns used by the query are mapped, each worker maps its own columns
+      var layout = structLayout;
+      return new Query(layout, () -> queryColumns(layout), () -> Layout.mapLazily(directory, name, layout),
+          length, null, Runtime.getRuntime().availableProcessors());
+    }
+
+    public Query where(Filter filter) {
+      return query().where(filter);
+    }
+
+    public Frame select(String... names) {
+      return query().select(names);
+    }
+
+    public Query.GroupBy groupBy(String... names) {
+      return query().groupBy(names);
+    }
+
+    public Frame aggregate(Aggregate... aggregates) {
+      return query().aggregate(aggregates);
+    }
+
+    // unmaps the columns, they are mapped again on next access,
+    // the columns used by a query are unmapped at the end of the query
+    @Override
+    public void close() {
+      if (columns != null) {
+        remap();
+      }
+    }
+
+    // the number of replaced columns not yet unmapped because another thread still uses them
+    int retiredCount() {
+      return retiredCount.get();
+    }
+
+    // acquires the columns currently published, they are released by close(), or returns null if the table is empty
+    private SharedColumns acquireOrNull() {
+      for(;;) {
+        var columns = this.columns;
+        if (columns == null || columns.acquire()) {
+          return columns;
+        }
+        Thread.onSpinWait();  // the columns are being replaced
+      }
+    }
+
+    private SharedColumns acquire(String emptyMessage) {
+      var columns = acquireOrNull();
+      if (columns == null) {
+        throw new IllegalStateException(emptyMessage);
+      }
+      return columns;
+    }
+
+    // the columns of an execution of a query, the columns are found by name
+    // because columns may have been added to the table since the creation of the query
+    private Query.Columns queryColumns(StructLayout layout) {
+      var columns = acquire("table " + name + " is empty");
+      return new Query.Columns() {
+        @Override
+        public Vec column(int index) {
+          return columns.lazyStruct().field(layout.fields().get(index).name());
+        }
+
+        @Override
+        public void close() {
+          columns.close();
+        }
+      };
+    }
+
+    // the columns of a stream can not be inferred
+    private void checkHasColumns() {
+      if (structLayout.fields().isEmpty()) {
+        throw new IllegalStateException("table " + name + " has no column");
+      }
+    }
+
+    // the sealed chunks are mapped, so they can be queried while the next chunk is appended,
+    // the length is the one of the sealed chunks because the files may already contain rows of the next chunk,
+    // the new columns are published by a volatile write, the previous columns are retired,
+    // they are unmapped by the last thread that uses them
+    private void sealed(long length, Consumer<? super Table> sealListener) {
+      var previous = columns;
+      columns = new SharedColumns(Layout.mapLazily(directory, name, structLayout, length), retiredCount);
+      if (previous != null) {
+        previous.retire();
+      }
+      sealListener.accept(this);
+    }
+
+    // the layout of the imported columns, the columns that are not yet in the table are added to the table,
+    // the file is only analyzed if a column is missing
+    private StructLayout importedLayout(String[] columns, InferredLayout inferredLayout) throws IOException {
+      StructLayout inferred = null;
+      var fields = new ArrayList<Field>();
+      var newFields = new ArrayList<>(structLayout.fields());
+      for(var column: columns) {
+        var index = structLayout.fieldIndex(column);
+        if (index != -1) {
+          fields.add(structLayout.fields().get(index));
+          continue;
+        }
+        if (inferred == null) {
+          inferred = inferredLayout.infer();
+        }
+        var field = inferred.project(column).fields().get(0);  // throws IAE if the file has no such column
+        fields.add(field);
+        newFields.add(field);
+      }
+      var projection = Layout.struct(structLayout.nullable(), fields.toArray(Field[]::new));  // checks the duplicates
+      structLayout = Layout.struct(structLayout.nullable(), newFields.toArray(Field[]::new));
+      return projection;
+    }
+
+    @FunctionalInterface
+    private interface InferredLayout {
+      StructLayout infer() throws IOException;
+    }
+
+    // a table without column uses the layout inferred from the file
+    private void inferCSVLayout(Path path) throws IOException {
+      if (structLayout.fields().isEmpty()) {
+        structLayout = CSV.inferLayout(path);
+      }
+    }
+
+    private void inferJSONLayout(Path path) throws IOException {
+      if (structLayout.fields().isEmpty() && JSON.inferLayout(path) instanceof StructLayout inferredLayout) {
+        structLayout = inferredLayout;
+      }
+    }
+
+    // the files were extended or the layout has changed, the columns are mapped again on first access
+    private void remap() {
+      remap(structLayout.fields().stream().map(Field::name).collect(toSet()));
+    }
+
+    // only the changed columns are mapped again, the other mapped columns are kept if no thread uses them
+    private void remap(Set<String> changedColumns) {
+      var previous = columns;
+      var lazyStruct = previous == null? null: previous.retire(structLayout, changedColumns);
+      if (lazyStruct == null) {
+        lazyStruct = Layout.mapLazily(directory, name, structLayout);
+      }
+      columns = new SharedColumns(lazyStruct, retiredCount);
+    }
+
     private StructLayout addColumn(StructLayout structLayout, String name, Layout layout) {
-      if (layout.fieldIndex(name) != -1) {
+      if (structLayout.fieldIndex(name) != -1) {
         throw new IllegalStateException("there is already a column with the name " + name);
       }
       var fields = new ArrayList<>(structLayout.fields());
@@ -135,50 +454,50 @@ public record DB(Path directory, String name) {
     private final Table table;
     private final String name;
     private final Layout layout;
-    private Vec vec;  // may be null
 
-    private Col(Table table, String name, Layout layout, Vec vec) {
+    private Col(Table table, String name, Layout layout) {
       this.table = table;
       this.name = name;
       this.layout = layout;
     }
 
-    public long length() {
-      return vec == null ? 0 : vec.length();
+    // the columns are released by close(), the files of the column are mapped on first access
+    private SharedColumns acquire() {
+      return table.acquire("column " + name + " is empty");
+    }
 
+    public long length() {
+      try(var columns = table.acquireOrNull()) {
+        return columns == null ? 0 : columns.lazyStruct().field(name).length();
+      }
     }
 
     public void set(long index, Object value) {
-      if (vec == null) {
-        throw new IllegalStateException("column " + name + " is empty");
+      try(var columns = acquire()) {
+        setObject(layout, columns.lazyStruct().field(name), index, value);
       }
-      setObject(layout, vec, index, value);
     }
 
     public Object get(long index) {
-      if (vec == null) {
-        throw new IllegalStateException("column " + name + " is empty");
+      try(var columns = acquire()) {
+        return getObject(layout, columns.lazyStruct().field(name), index);
       }
-      return getObject(layout, vec, index);
     }
 
     public Col applyInt(Col col, String name, IntBinaryOperator op) {
-      if (vec == null) {
-        throw new IllegalStateException("column " + name + " is empty");
-      }
-      if (col.vec == null) {
-        throw new IllegalStateException("column " + col.name + " is empty");
-      }
-      var newCol = table.addCol(name, int32(false));
-      if (newCol.vec == null) {
+      if (table.columns == null) {
         throw new IllegalStateException("table " + table.name + " is empty");
       }
-      VecOp.of(null).applyInt(newCol.vec, vec, col.vec, op::applyAsInt);
+      var newCol = table.addCol(name, int32(false));  // remap the columns
+      try(var columns = acquire()) {
+        var lazyStruct = columns.lazyStruct();
+        VecOp.of(null).applyInt(lazyStruct.field(newCol.name), lazyStruct.field(this.name), lazyStruct.field(col.name), op::applyAsInt);
+      }
       return newCol;
     }
 
 
-    private static Object getObject(Layout layout, Vec vec, long index) {
+    static Object getObject(Layout layout, Vec vec, long index) {
       if (layout instanceof PrimitiveLayout primitiveLayout) {
         return getObjectPrimitive(primitiveLayout, vec, index);
       }
@@ -0,0 +1,123 @@
+package com.github.forax.tomahawk.blackpanda;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * An arithmetic expression on the int columns of a table, created from a {@link Column}.
+ *
+ * An expression is evaluated row by row with the semantics of Java ints (the operations overflow silently),
+ * and the result is {@code null} for a row if one of the columns used by the expression is {@code null}.
+ * An expression is a tree but it is evaluated as a DAG, the sub-expressions that appear several times,
+ * like {@code col("a")} and {@code col("a").plus(col("b"))} below, are only computed once.
+ *
+ * Example
+ * <pre>
+ *   var a = col("a");
+ *   var sum = a.plus(col("b"));
+ *   var expr = sum.times(col("c")).minus(a).plus(sum);
+ * </pre>
+ *
+ * @see DB.Table#addCol(String, Expr)
+ */
+public interface Expr {
+  /**
+   * An arithmetic operator.
+   */
+  enum BinaryOp {
+    /** addition */
+    ADD,
+    /** subtraction */
+    SUB,
+    /** multiplication */
+    MUL
+  }
+
+  /**
+   * A constant.
+   * @param value the value of the constant
+   */
+  record Constant(int value) implements Expr { }
+
+  /**
+   * An arithmetic operation on two expressions.
+   * @param op the arithmetic operator
+   * @param left the first operand
+   * @param right the second operand
+   */
+  record Binary(BinaryOp op, Expr left, Expr right) implements Expr {
+    /**
+     * Creates an arithmetic operation.
+     * @param op the arithmetic operator
+     * @param left the first operand
+     * @param right the second operand
+     */
+    public Binary {
+      requireNonNull(op);
+      requireNonNull(left);
+      requireNonNull(right);
+    }
+  }
+
+  /**
+   * Returns a constant expression
+   * @param value the value of the constant
+   * @return a constant expression
+   */
+  static Expr constant(int value) {
+    return new Constant(value);
+  }
+
+  /**
+   * Returns the sum of the current expression and {@code expr}
+   * @param expr another expression
+   * @return the sum of the current expression and {@code expr}
+   */
+  default Expr plus(Expr expr) {
+    return new Binary(BinaryOp.ADD, this, expr);
+  }
+
+  /**
+   * Returns the sum of the current expression and {@code value}
+   * @param value a constant
+   * @return the sum of the current expression and {@code value}
+   */
+  default Expr plus(int value) {
+    return plus(constant(value));
+  }
+
+  /**
+   * Returns the difference between the current expression and {@code expr}
+   * @param expr another expression
+   * @return the difference between the current expression and {@code expr}
+   */
+  default Expr minus(Expr expr) {
+    return new Binary(BinaryOp.SUB, this, expr);
+  }
+
+  /**
+   * Returns the difference between the current expression and {@code value}
+   * @param value a constant
+   * @return the difference between the current expression and {@code value}
+   */
+  default Expr minus(int value) {
+    return minus(constant(value));
+  }
+
+  /**
+   * Returns the product of the current expression and {@code expr}
+   * @param expr another expression
+   * @return the product of the current expression and {@code expr}
+   */
+  default Expr times(Expr expr) {
+    return new Binary(BinaryOp.MUL, this, expr);
+  }
+
+  /**
+   * Returns the product of the current expression and {@code value}
+   * @param value a constant
+   * @return the product of the current expression and {@code value}
+   */
+  default Expr times(int value) {
+    return times(constant(value));
+  }
+}
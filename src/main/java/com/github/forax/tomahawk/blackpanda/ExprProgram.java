@@ -0,0 +1,329 @@
+package com.github.forax.tomahawk.blackpanda;
+
+import com.github.forax.tomahawk.blackpanda.Expr.Binary;
+import com.github.forax.tomahawk.blackpanda.Expr.Constant;
+import com.github.forax.tomahawk.blackpanda.QueryKernels.ColumnResolver;
+import com.github.forax.tomahawk.schema.Layout.PrimitiveLayout;
+import com.github.forax.tomahawk.vec.U16Vec;
+import com.github.forax.tomahawk.vec.U32Vec;
+import com.github.forax.tomahawk.vec.U8Vec;
+import com.github.forax.tomahawk.vec.Vec;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import static com.github.forax.tomahawk.blackpanda.QueryKernels.checkPrimitive;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * An {@link Expr} compiled to a DAG of nodes, evaluated by batches of {@link #BATCH_SIZE} rows.
+ *
+ * The nodes are hash-consed, so two equal sub-expressions share the same node (common sub-expression elimination),
+ * the operands of a commutative operation are sorted and the operations on constants are folded.
+ * Each node stores its values for the current batch in a scratch array (a register), the registers are
+ * allocated once when the DAG is compiled and reused as soon as the last node that reads a register is computed,
+ * so an expression only uses a few registers and only the values of the root are written in the destination.
+ * The operations are computed lane-wise with the Vector API.
+ *
+ * All operations propagate {@code null}, so the result of a row is null if one of the nullable columns
+ * is null for that row, this is computed once per batch instead of once per node.
+ */
+final class ExprProgram {
+  static final int BATCH_SIZE = 1024;
+
+  private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+  // a node of the DAG, the operands of a binary node are the indexes of nodes defined before
+  private record Node(Expr.BinaryOp op, int left, int right, String column, int value) {
+    static Node column(String column) {
+      return new Node(null, -1, -1, column, 0);
+    }
+    static Node constant(int value) {
+      return new Node(null, -1, -1, null, value);
+    }
+    static Node binary(Expr.BinaryOp op, int left, int right) {
+      return new Node(op, left, right, null, 0);
+    }
+
+    boolean isConstant() {
+      return op == null && column == null;
+    }
+  }
+
+  private final List<Node> nodes;
+  private final Vec[] vecs;                   // the Vec of each column node or null
+  private final PrimitiveLayout[] layouts;    // the layout of each column node or null
+  private final int[] registers;              // the register of each node
+  private final int[][] scratches;            // the values of each register
+  private final boolean[] nulls = new boolean[BATCH_SIZE];
+  private final byte[] bytes = new byte[BATCH_SIZE];      // the values of a byte8 column before being widened
+  private final short[] shorts = new short[BATCH_SIZE];
+  private final char[] chars = new char[BATCH_SIZE];
+  private final boolean nullable;
+
+  private ExprProgram(List<Node> nodes, Vec[] vecs, PrimitiveLayout[] layouts, int[] registers, int registerCount) {
+    this.nodes = nodes;
+    this.vecs = vecs;
+    this.layouts = layouts;
+    this.registers = registers;
+    this.scratches = new int[registerCount][BATCH_SIZE];
+    var nullable = false;
+    for(var i = 0; i < nodes.size(); i++) {
+      var node = nodes.get(i);
+      if (node.isConstant()) {
+        Arrays.fill(scratches[registers[i]], node.value);
+      }
+      if (layouts[i] != null && layouts[i].nullable()) {
+        nullable = true;
+      }
+    }
+    this.nullable = nullable;
+  }
+
+  /**
+   * Compiles an expression, the Vecs of the columns are resolved once.
+   * @throws IllegalArgumentException if a column is not a byte, short, char or int column
+   */
+  static ExprProgram compile(Expr expr, ColumnResolver resolver) {
+    requireNonNull(expr);
+    requireNonNull(resolver);
+    var nodes = new ArrayList<Node>();
+    var root = hashCons(expr, nodes, new HashMap<>());
+    var liveNodes = removeDeadNodes(nodes, root);
+    var size = liveNodes.size();
+
+    var vecs = new Vec[size];
+    var layouts = new PrimitiveLayout[size];
+    for(var i = 0; i < size; i++) {
+      var column = liveNodes.get(i).column;
+      if (column != null) {
+        var layout = checkPrimitive(column, resolver.layout(column));
+        switch(layout.kind()) {
+          case byte8, short16, char16, int32 -> { }
+          default -> throw new IllegalArgumentException("column " + column + " is not an int column, layout " + layout);
+        }
+        layouts[i] = layout;
+        vecs[i] = resolver.vec(column);
+      }
+    }
+
+    // the last node that reads the register of a node
+    var lastUses = new int[size];
+    for(var i = 0; i < size; i++) {
+      var node = liveNodes.get(i);
+      lastUses[i] = i;
+      if (node.op != null) {
+        lastUses[node.left] = i;
+        lastUses[node.right] = i;
+      }
+    }
+    var registers = new int[size];
+    var freeRegisters = new ArrayDeque<Integer>();
+    var registerCount = 0;
+    for(var i = 0; i < size; i++) {
+      var node = liveNodes.get(i);
+      if (node.isConstant()) {
+        // the registers of the constants are initialized once, they are never shared
+        registers[i] = registerCount++;
+        continue;
+      }
+      registers[i] = freeRegisters.isEmpty()? registerCount++: freeRegisters.pop();
+      if (node.op != null) {
+        if (lastUses[node.left] == i && !liveNodes.get(node.left).isConstant()) {
+          freeRegisters.push(registers[node.left]);
+        }
+        if (node.right != node.left && lastUses[node.right] == i && !liveNodes.get(node.right).isConstant()) {
+          freeRegisters.push(registers[node.right]);
+        }
+      }
+    }
+    return new ExprProgram(liveNodes, vecs, layouts, registers, registerCount);
+  }
+
+  // the nodes of the folded constants are not used, the root becomes the last node
+  private static List<Node> removeDeadNodes(List<Node> nodes, int root) {
+    var live = new boolean[root + 1];
+    live[root] = true;
+    for(var i = root; i >= 0; i--) {
+      var node = nodes.get(i);
+      if (live[i] && node.op != null) {
+        live[node.left] = true;
+        live[node.right] = true;
+      }
+    }
+    var indexes = new int[root + 1];
+    var liveNodes = new ArrayList<Node>();
+    for(var i = 0; i <= root; i++) {
+      if (live[i]) {
+        var node = nodes.get(i);
+        if (node.op != null) {
+          node = Node.binary(node.op, indexes[node.left], indexes[node.right]);
+        }
+        indexes[i] = liveNodes.size();
+        liveNodes.add(node);
+      }
+    }
+    return List.copyOf(liveNodes);
+  }
+
+  private static int hashCons(Expr expr, List<Node> nodes, HashMap<Node, Integer> indexes) {
+    Node node;
+    if (expr instanceof Column column) {
+      node = Node.column(column.name());
+    } else if (expr instanceof Constant constant) {
+      node = Node.constant(constant.value());
+    } else if (expr instanceof Binary binary) {
+      var left = hashCons(binary.left(), nodes, indexes);
+      var right = hashCons(binary.right(), nodes, indexes);
+      var leftNode = nodes.get(left);
+      var rightNode = nodes.get(right);
+      if (leftNode.isConstant() && rightNode.isConstant()) {
+        node = Node.constant(apply(binary.op(), leftNode.value, rightNode.value));
+      } else {
+        if (binary.op() != Expr.BinaryOp.SUB && left > right) {  // commutative
+          var tmp = left;
+          left = right;
+          right = tmp;
+        }
+        node = Node.binary(binary.op(), left, right);
+      }
+    } else {
+      throw new IllegalArgumentException("unknown expression " + expr);
+    }
+    return indexes.computeIfAbsent(node, __ -> {
+      nodes.add(node);
+      return nodes.size() - 1;
+    });
+  }
+
+  private static int apply(Expr.BinaryOp op, int left, int right) {
+    return switch(op) {
+      case ADD -> left + right;
+      case SUB -> left - right;
+      case MUL -> left * right;
+    };
+  }
+
+  /**
+   * Returns the number of nodes of the DAG.
+   */
+  int nodeCount() {
+    return nodes.size();
+  }
+
+  /**
+   * Returns the number of registers used to evaluate the DAG.
+   */
+  int registerCount() {
+    return scratches.length;
+  }
+
+  /**
+   * Returns true if the result may be null for a row.
+   */
+  boolean nullable() {
+    return nullable;
+  }
+
+  /**
+   * Evaluates the expression on the rows [0, length[ and appends the results to a builder,
+   * the values of a batch are appended in bulk, by runs of non-null values if the result is nullable.
+   */
+  void evaluate(long length, U32Vec.Builder builder) {
+    var root = nodes.size() - 1;
+    for(var start = 0L; start < length; start += BATCH_SIZE) {
+      var count = (int) Math.min(BATCH_SIZE, length - start);
+      evaluateBatch(start, count);
+      var values = scratches[registers[root]];
+      if (!nullable) {
+        builder.appendInts(values, 0, count);
+        continue;
+      }
+      for(var i = 0; i < count;) {
+        if (nulls[i]) {
+          builder.appendNull();
+          i++;
+          continue;
+        }
+        var end = i + 1;
+        while(end < count && !nulls[end]) {
+          end++;
+        }
+        builder.appendInts(values, i, end - i);
+        i = end;
+      }
+    }
+  }
+
+  private void evaluateBatch(long start, int count) {
+    if (nullable) {
+      Arrays.fill(nulls, 0, count, false);
+    }
+    for(var i = 0; i < nodes.size(); i++) {
+      var node = nodes.get(i);
+      var scratch = scratches[registers[i]];
+      if (node.column != null) {
+        load(layouts[i], vecs[i], start, count, scratch);
+      } else if (node.op != null) {
+        compute(node.op, scratches[registers[node.left]], scratches[registers[node.right]], scratch, count);
+      }
+    }
+  }
+
+  // the values are copied in bulk, then widened to ints, the nulls are marked after the copy
+  private void load(PrimitiveLayout layout, Vec vec, long start, int count, int[] scratch) {
+    switch(layout.kind()) {
+      case byte8 -> {
+        ((U8Vec) vec).getBytes(start, bytes, 0, count);
+        for(var i = 0; i < count; i++) {
+          scratch[i] = bytes[i];
+        }
+      }
+      case short16 -> {
+        ((U16Vec) vec).getShorts(start, shorts, 0, count);
+        for(var i = 0; i < count; i++) {
+          scratch[i] = shorts[i];
+        }
+      }
+      case char16 -> {
+        ((U16Vec) vec).getChars(start, chars, 0, count);
+        for(var i = 0; i < count; i++) {
+          scratch[i] = chars[i];
+        }
+      }
+      case int32 -> ((U32Vec) vec).getInts(start, scratch, 0, count);
+      default -> throw new AssertionError();
+    }
+    if (layout.nullable()) {
+      for(var i = 0; i < count; i++) {
+        if (vec.isNull(start + i)) {
+          nulls[i] = true;
+        }
+      }
+    }
+  }
+
+  private static void compute(Expr.BinaryOp op, int[] left, int[] right, int[] result, int count) {
+    var operator = switch(op) {
+      case ADD -> VectorOperators.ADD;
+      case SUB -> VectorOperators.SUB;
+      case MUL -> VectorOperators.MUL;
+    };
+    var i = 0;
+    var loopBound = SPECIES.loopBound(count);
+    for(; i < loopBound; i += SPECIES.length()) {
+      var leftVector = IntVector.fromArray(SPECIES, left, i);
+      var rightVector = IntVector.fromArray(SPECIES, right, i);
+      leftVector.lanewise(operator, rightVector).intoArray(result, i);
+    }
+    for(; i < count; i++) {
+      result[i] = apply(op, left[i], right[i]);
+    }
+  }
+}
@@ -0,0 +1,169 @@
+package com.github.forax.tomahawk.blackpanda;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A predicate on the rows of a table, created from a {@link Column}.
+ *
+ * A filter uses the three-valued logic of SQL, a comparison with a {@code null} value is unknown,
+ * so a row is selected by a filter only if the filter is true for that row,
+ * by example {@code col("age").gt(30).not()} does not select the rows where "age" is {@code null}.
+ *
+ * Example
+ * <pre>
+ *   var filter = col("age").gt(30).and(col("name").eq("Bob").not());
+ * </pre>
+ *
+ * @see Query#where(Filter)
+ */
+public interface Filter {
+  /**
+   * A comparison operator, encoded as the set of the results of {@link Long#compare(long, long)} + 1
+   * for which the comparison is true.
+   */
+  enum Op {
+    /** lower than */
+    LT(0b001),
+    /** lower or equals to */
+    LE(0b011),
+    /** equals to */
+    EQ(0b010),
+    /** not equals to */
+    NE(0b101),
+    /** greater or equals to */
+    GE(0b110),
+    /** greater than */
+    GT(0b100);
+
+    final int mask;
+
+    Op(int mask) {
+      this.mask = mask;
+    }
+  }
+
+  /**
+   * Compares the values of a primitive column to a constant.
+   * @param column the name of the column
+   * @param op the comparison operator
+   * @param value the constant
+   */
+  record Compare(String column, Op op, Number value) implements Filter {
+    /**
+     * Creates a comparison.
+     * @param column the name of the column
+     * @param op the comparison operator
+     * @param value the constant
+     */
+    public Compare {
+      requireNonNull(column);
+      requireNonNull(op);
+      requireNonNull(value);
+    }
+  }
+
+  /**
+   * Tests if the values of a string column are equals to a constant.
+   * @param column the name of the column
+   * @param value the constant
+   */
+  record TextEquals(String column, String value) implements Filter {
+    /**
+     * Creates a string equality.
+     * @param column the name of the column
+     * @param value the constant
+     */
+    public TextEquals {
+      requireNonNull(column);
+      requireNonNull(value);
+    }
+  }
+
+  /**
+   * Tests if the values of a column are null, never unknown.
+   * @param column the name of the column
+   */
+  record IsNull(String column) implements Filter {
+    /**
+     * Creates a null test.
+     * @param column the name of the column
+     */
+    public IsNull {
+      requireNonNull(column);
+    }
+  }
+
+  /**
+   * The conjunction of two filters.
+   * @param left the first filter
+   * @param right the second filter
+   */
+  record And(Filter left, Filter right) implements Filter {
+    /**
+     * Creates a conjunction.
+     * @param left the first filter
+     * @param right the second filter
+     */
+    public And {
+      requireNonNull(left);
+      requireNonNull(right);
+    }
+  }
+
+  /**
+   * The disjunction of two filters.
+   * @param left the first filter
+   * @param right the second filter
+   */
+  record Or(Filter left, Filter right) implements Filter {
+    /**
+     * Creates a disjunction.
+     * @param left the first filter
+     * @param right the second filter
+     */
+    public Or {
+      requireNonNull(left);
+      requireNonNull(right);
+    }
+  }
+
+  /**
+   * The negation of a filter.
+   * @param filter the negated filter
+   */
+  record Not(Filter filter) implements Filter {
+    /**
+     * Creates a negation.
+     * @param filter the negated filter
+     */
+    public Not {
+      requireNonNull(filter);
+    }
+  }
+
+  /**
+   * Returns a filter true if both the current filter and {@code filter} are true
+   * @param filter another filter
+   * @return a filter true if both the current filter and {@code filter} are true
+   */
+  default Filter and(Filter filter) {
+    return new And(this, filter);
+  }
+
+  /**
+   * Returns a filter true if either the current filter or {@code filter} is true
+   * @param filter another filter
+   * @return a filter true if either the current filter or {@code filter} is true
+   */
+  default Filter or(Filter filter) {
+    return new Or(this, filter);
+  }
+
+  /**
+   * Returns a filter true if the current filter is false
+   * @return a filter true if the current filter is false
+   */
+  default Filter not() {
+    return new Not(this);
+  }
+}
@@ -0,0 +1,65 @@
+package com.github.forax.tomahawk.blackpanda;
+
+import com.github.forax.tomahawk.schema.Layout.StructLayout;
+import com.github.forax.tomahawk.vec.StructVec;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.LongStream;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * The result of a query, the columns are stored in memory.
+ *
+ * @param layout the layout of the columns
+ * @param vec the columns
+ * @param length the number of rows
+ *
+ * @see Query
+ */
+public record Frame(StructLayout layout, StructVec vec, long length) implements AutoCloseable {
+  /**
+   * Creates a frame.
+   * @param layout the layout of the columns
+   * @param vec the columns
+   * @param length the number of rows
+   */
+  public Frame {
+    requireNonNull(layout);
+    requireNonNull(vec);
+    if (length < 0) {
+      throw new IllegalArgumentException("length < 0");
+    }
+  }
+
+  /**
+   * Returns the value of a column at an index, boxed
+   * @param column the name of the column
+   * @param index the index of the row
+   * @return the value of the column at the index, boxed
+   * @throws IllegalStateException if there is no column named {@code column}
+   */
+  public Object get(String column, long index) {
+    var fieldIndex = layout.fieldIndex(column);
+    if (fieldIndex == -1) {
+      throw new IllegalStateException("unknown column " + column);
+    }
+    return DB.Col.getObject(layout.fields().get(fieldIndex).layout(), vec.fields().get(fieldIndex), index);
+  }
+
+  /**
+   * Returns all the rows, each row is a map from the name of the column to the boxed value.
+   * @return all the rows
+   */
+  public List<Map<String, Object>> rows() {
+    return LongStream.range(0, length)
+        .mapToObj(index -> (Map<String, Object>) DB.Col.getObject(layout, vec, index))
+        .toList();
+  }
+
+  @Override
+  public void close() {
+    vec.close();
+  }
+}
@@ -0,0 +1,49 @@
+package com.github.forax.tomahawk.blackpanda;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.util.List;
+
+import static java.lang.constant.ConstantDescs.DEFAULT_NAME;
+
+/**
+ * The template of a fused pipeline, this class is never loaded as is,
+ * its bytecode is used by {@link PipelineCompiler} to define a hidden class per pipeline
+ * with the method handles of the pipeline as class data.
+ *
+ * The method handles are stored in static final fields of the hidden class, so they are constants for the JIT,
+ * which inlines the filter, the getters of the Vecs (also constants) and the aggregates in one loop.
+ */
+final class FusedLoop {
+  private FusedLoop() {
+    throw new AssertionError();
+  }
+
+  private static final MethodHandle FILTER;  // (long)int, see PipelineCompiler.TRUE
+  private static final MethodHandle SINK;    // (long)void
+
+  static {
+    try {
+      var handles = MethodHandles.classData(MethodHandles.lookup(), DEFAULT_NAME, List.class);
+      FILTER = (MethodHandle) handles.get(0);
+      SINK = (MethodHandle) handles.get(1);
+    } catch (IllegalAccessException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  /**
+   * Calls the sink on the rows of [start, end[ for which the filter is true
+   * @return the number of rows for which the filter is true
+   */
+  static long run(long start, long end) throws Throwable {
+    var count = 0L;
+    for(var row = start; row < end; row++) {
+      if ((int) FILTER.invokeExact(row) == PipelineCompiler.TRUE) {
+        SINK.invokeExact(row);
+        count++;
+      }
+    }
+    return count;
+  }
+}
@@ -0,0 +1,102 @@
+package com.github.forax.tomahawk.blackpanda;
+
+import com.github.forax.tomahawk.schema.LazyStruct;
+import com.github.forax.tomahawk.vec.Vec;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+/**
+ * Executes a query by morsels, ranges of {@link #MORSEL_SIZE} rows, on a work-stealing pool shared by all queries.
+ *
+ * Each worker has its own state (compiled filter, scratch arrays, partial aggregates) and pulls the next morsel
+ * from a shared counter until there is no morsel left, so a worker that is fast (or that starts first) processes
+ * more morsels and concurrent queries share the threads of the pool.
+ * The segments of a Vec are confined to the thread that has mapped them, so a worker maps the columns it uses itself.
+ */
+final class MorselScheduler {
+  private MorselScheduler() {
+    throw new AssertionError();
+  }
+
+  static final int MORSEL_SIZE = 1 << 16;
+
+  // the threads are daemon threads, the pool does not need to be shutdown
+  private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+  /**
+   * The pipeline of a worker, only called by the thread of the worker.
+   */
+  interface Worker {
+    void process(int morsel, long start, long end);
+  }
+
+  static int morselCount(long length) {
+    return Math.toIntExact((length + MORSEL_SIZE - 1) / MORSEL_SIZE);
+  }
+
+  /**
+   * Processes all the morsels of [0, length[ and returns the workers, so their partial results can be merged.
+   * If there is only one morsel, or if the columns can not be mapped by another thread ({@code workerColumns == null}),
+   * the morsels are processed in order by the current thread with {@code columns}.
+   *
+   * @param length the number of rows
+   * @param parallelism the maximum number of workers
+   * @param columns the columns of the current thread
+   * @param workerColumns maps the columns for a worker or null
+   * @param workerFactory creates a worker from its columns, the columns are unmapped once all morsels are processed
+   * @return the workers
+   */
+  static <W extends Worker> List<W> run(long length, int parallelism,
+                                        IntFunction<? extends Vec> columns, Supplier<LazyStruct> workerColumns,
+                                        Function<? super IntFunction<? extends Vec>, ? extends W> workerFactory) {
+    var morselCount = morselCount(length);
+    var workerCount = Math.min(parallelism, morselCount);
+    if (workerCount <= 1 || workerColumns == null) {
+      W worker = workerFactory.apply(columns);
+      for(var morsel = 0; morsel < morselCount; morsel++) {
+        process(worker, morsel, length);
+      }
+      return List.of(worker);
+    }
+    var nextMorsel = new AtomicInteger();
+    var tasks = new ArrayList<ForkJoinTask<W>>();
+    try {
+      for(var i = 0; i < workerCount; i++) {
+        tasks.add(POOL.submit(() -> {
+          try(var lazyStruct = workerColumns.get()) {
+            IntFunction<Vec> lazyColumns = lazyStruct::field;
+            W worker = workerFactory.apply(lazyColumns);
+            int morsel;
+            while((morsel = nextMorsel.getAndIncrement()) < morselCount) {
+              process(worker, morsel, length);
+            }
+            return worker;
+          }
+        }));
+      }
+      var workers = new ArrayList<W>();
+      for(var task: tasks) {
+        workers.add(task.join());
+      }
+      return workers;
+    } finally {
+      // if a worker has failed, the other ones stop at the next morsel
+      nextMorsel.set(morselCount);
+      for(var task: tasks) {
+        task.quietlyJoin();
+      }
+    }
+  }
+
+  private static void process(Worker worker, int morsel, long length) {
+    var start = (long) morsel * MORSEL_SIZE;
+    worker.process(morsel, start, Math.min(start + MORSEL_SIZE, length));
+  }
+}
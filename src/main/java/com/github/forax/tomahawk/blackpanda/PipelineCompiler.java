@@ -0,0 +1,329 @@
+package com.github.forax.tomahawk.blackpanda;
+
+import com.github.forax.tomahawk.blackpanda.Aggregate.Kind;
+import com.github.forax.tomahawk.blackpanda.Filter.And;
+import com.github.forax.tomahawk.blackpanda.Filter.Compare;
+import com.github.forax.tomahawk.blackpanda.Filter.IsNull;
+import com.github.forax.tomahawk.blackpanda.Filter.Not;
+import com.github.forax.tomahawk.blackpanda.Filter.Op;
+import com.github.forax.tomahawk.blackpanda.Filter.Or;
+import com.github.forax.tomahawk.blackpanda.QueryKernels.ColumnResolver;
+import com.github.forax.tomahawk.schema.Layout;
+import com.github.forax.tomahawk.schema.Layout.PrimitiveLayout;
+import com.github.forax.tomahawk.vec.U16Vec;
+import com.github.forax.tomahawk.vec.U1Vec;
+import com.github.forax.tomahawk.vec.U32Vec;
+import com.github.forax.tomahawk.vec.U64Vec;
+import com.github.forax.tomahawk.vec.U8Vec;
+import com.github.forax.tomahawk.vec.Vec;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.List;
+
+import static java.lang.invoke.MethodHandles.constant;
+import static java.lang.invoke.MethodHandles.dropArguments;
+import static java.lang.invoke.MethodHandles.filterArguments;
+import static java.lang.invoke.MethodHandles.filterReturnValue;
+import static java.lang.invoke.MethodHandles.foldArguments;
+import static java.lang.invoke.MethodHandles.guardWithTest;
+import static java.lang.invoke.MethodHandles.insertArguments;
+import static java.lang.invoke.MethodHandles.permuteArguments;
+import static java.lang.invoke.MethodType.methodType;
+
+/**
+ * Compiles a filter and some aggregates to one loop, a hidden class defined from the template {@link FusedLoop}.
+ *
+ * The filter is compiled to a tree of method handles that returns {@link #FALSE}, {@link #UNKNOWN} or {@link #TRUE}
+ * (Kleene logic, {@code and} is the minimum, {@code or} the maximum and {@code not} is {@code TRUE - value}),
+ * the Vecs are bound as constants, so the JIT can see the memory segments and their bounds as constants.
+ * Only the filters on primitive columns ({@link Compare}, {@link IsNull} and the combinations) can be fused,
+ * see {@link #canFuse(Filter)}.
+ *
+ * A pipeline is compiled by each worker with its own columns and its own {@link Partial}s,
+ * so the generated code does not need any synchronization.
+ */
+final class PipelineCompiler {
+  private PipelineCompiler() {
+    throw new AssertionError();
+  }
+
+  static final int FALSE = 0;
+  static final int UNKNOWN = 1;
+  static final int TRUE = 2;
+
+  private static final MethodHandle COMPARE_LONG, COMPARE_DOUBLE, AND, OR, NOT, BOOLEAN_TO_LONG,
+      IS_NULL, COUNT, SUM_LONG, MIN_LONG, MAX_LONG, SUM_DOUBLE, MIN_DOUBLE, MAX_DOUBLE;
+  static {
+    var lookup = MethodHandles.lookup();
+    try {
+      COMPARE_LONG = lookup.findStatic(PipelineCompiler.class, "compareLong", methodType(int.class, int.class, long.class, long.class));
+      COMPARE_DOUBLE = lookup.findStatic(PipelineCompiler.class, "compareDouble", methodType(int.class, int.class, int.class, double.class, double.class));
+      AND = lookup.findStatic(Math.class, "min", methodType(int.class, int.class, int.class));
+      OR = lookup.findStatic(Math.class, "max", methodType(int.class, int.class, int.class));
+      NOT = lookup.findStatic(PipelineCompiler.class, "not", methodType(int.class, int.class));
+      BOOLEAN_TO_LONG = lookup.findStatic(PipelineCompiler.class, "booleanToLong", methodType(long.class, boolean.class));
+      IS_NULL = lookup.findVirtual(Vec.class, "isNull", methodType(boolean.class, long.class));
+      COUNT = lookup.findStatic(Partial.class, "count", methodType(void.class, Partial.class, long.class));
+      SUM_LONG = lookup.findStatic(Partial.class, "sum", methodType(void.class, Partial.class, long.class));
+      MIN_LONG = lookup.findStatic(Partial.class, "min", methodType(void.class, Partial.class, long.class));
+      MAX_LONG = lookup.findStatic(Partial.class, "max", methodType(void.class, Partial.class, long.class));
+      SUM_DOUBLE = lookup.findStatic(Partial.class, "sum", methodType(void.class, Partial.class, double.class));
+      MIN_DOUBLE = lookup.findStatic(Partial.class, "min", methodType(void.class, Partial.class, double.class));
+      MAX_DOUBLE = lookup.findStatic(Partial.class, "max", methodType(void.class, Partial.class, double.class));
+    } catch (NoSuchMethodException | IllegalAccessException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private static final class TemplateHolder {
+    private static final byte[] TEMPLATE;
+    static {
+      try(var input = PipelineCompiler.class.getResourceAsStream("FusedLoop.class")) {
+        if (input == null) {
+          throw new IllegalStateException("template FusedLoop.class not found");
+        }
+        TEMPLATE = input.readAllBytes();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  @SuppressWarnings("unused")
+  private static int compareLong(int mask, long constant, long value) {
+    return ((mask >>> (Long.compare(value, constant) + 1)) & 1) << 1;
+  }
+
+  @SuppressWarnings("unused")
+  private static int compareDouble(int mask, int unordered, double constant, double value) {
+    var bit = value < constant? mask & 1:
+              value > constant? (mask >>> 2) & 1:
+              value == constant? (mask >>> 1) & 1:
+              unordered;
+    return bit << 1;
+  }
+
+  @SuppressWarnings("unused")
+  private static int not(int value) {
+    return TRUE - value;
+  }
+
+  @SuppressWarnings("unused")
+  private static long booleanToLong(boolean value) {
+    return value? 1: 0;
+  }
+
+  /**
+   * The partial result of an aggregate, only accessed by the thread of a worker.
+   */
+  static final class Partial {
+    private final Kind kind;
+    long count;
+    long longValue;
+    double doubleValue;
+
+    Partial(Kind kind) {
+      this.kind = kind;
+      reset();
+    }
+
+    void reset() {
+      count = 0;
+      longValue = kind == Kind.MIN? Long.MAX_VALUE: kind == Kind.MAX? Long.MIN_VALUE: 0L;
+      doubleValue = kind == Kind.MIN? Double.POSITIVE_INFINITY: kind == Kind.MAX? Double.NEGATIVE_INFINITY: 0.0;
+    }
+
+    @SuppressWarnings("unused")
+    private static void count(Partial partial, long row) {
+      partial.count++;
+    }
+
+    @SuppressWarnings("unused")
+    private static void sum(Partial partial, long value) {
+      partial.count++;
+      partial.longValue += value;
+    }
+
+    @SuppressWarnings("unused")
+    private static void min(Partial partial, long value) {
+      partial.count++;
+      partial.longValue = Math.min(partial.longValue, value);
+    }
+
+    @SuppressWarnings("unused")
+    private static void max(Partial partial, long value) {
+      partial.count++;
+      partial.longValue = Math.max(partial.longValue, value);
+    }
+
+    @SuppressWarnings("unused")
+    private static void sum(Partial partial, double value) {
+      partial.count++;
+      partial.doubleValue += value;
+    }
+
+    @SuppressWarnings("unused")
+    private static void min(Partial partial, double value) {
+      partial.count++;
+      partial.doubleValue = Math.min(partial.doubleValue, value);
+    }
+
+    @SuppressWarnings("unused")
+    private static void max(Partial partial, double value) {
+      partial.count++;
+      partial.doubleValue = Math.max(partial.doubleValue, value);
+    }
+  }
+
+  /**
+   * Returns true if the filter can be compiled to a fused pipeline
+   */
+  static boolean canFuse(Filter filter) {
+    if (filter == null || filter instanceof Compare || filter instanceof IsNull) {
+      return true;
+    }
+    if (filter instanceof And and) {
+      return canFuse(and.left()) && canFuse(and.right());
+    }
+    if (filter instanceof Or or) {
+      return canFuse(or.left()) && canFuse(or.right());
+    }
+    if (filter instanceof Not not) {
+      return canFuse(not.filter());
+    }
+    return false;
+  }
+
+  /**
+   * Compiles the filter and the aggregates to a method handle {@code (long start, long end)long}
+   * that returns the number of rows selected in [start, end[ and accumulates the aggregates in {@code partials}
+   * @param filter a filter or null
+   * @param aggregates the aggregates
+   * @param partials the partial result of each aggregate
+   * @param resolver resolves the columns of the worker
+   * @return a method handle {@code (long start, long end)long}
+   */
+  static MethodHandle compile(Filter filter, List<Aggregate> aggregates, List<Partial> partials, ColumnResolver resolver) {
+    var filterHandle = filter == null? dropArguments(constant(int.class, TRUE), 0, long.class): compileFilter(filter, resolver);
+    var sink = MethodHandles.empty(methodType(void.class, long.class));
+    for(var i = aggregates.size(); --i >= 0;) {
+      sink = foldArguments(sink, compileAggregate(aggregates.get(i), partials.get(i), resolver));
+    }
+    try {
+      var lookup = MethodHandles.lookup().defineHiddenClassWithClassData(TemplateHolder.TEMPLATE, List.of(filterHandle, sink), true);
+      return lookup.findStatic(lookup.lookupClass(), "run", methodType(long.class, long.class, long.class));
+    } catch (IllegalAccessException | NoSuchMethodException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  /**
+   * Runs a pipeline returned by {@link #compile(Filter, List, List, ColumnResolver)}
+   */
+  static long run(MethodHandle pipeline, long start, long end) {
+    try {
+      return (long) pipeline.invokeExact(start, end);
+    } catch (RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable t) {
+      throw new UndeclaredThrowableException(t);
+    }
+  }
+
+  private static MethodHandle compileFilter(Filter filter, ColumnResolver resolver) {
+    if (filter instanceof Compare compare) {
+      return compileCompare(compare, resolver);
+    }
+    if (filter instanceof IsNull isNull) {
+      resolver.layout(isNull.column());
+      var isNullHandle = IS_NULL.bindTo(resolver.vec(isNull.column()));
+      return guardWithTest(isNullHandle, constantFilter(TRUE), constantFilter(FALSE));
+    }
+    if (filter instanceof And and) {
+      return combine(AND, compileFilter(and.left(), resolver), compileFilter(and.right(), resolver));
+    }
+    if (filter instanceof Or or) {
+      return combine(OR, compileFilter(or.left(), resolver), compileFilter(or.right(), resolver));
+    }
+    if (filter instanceof Not not) {
+      return filterReturnValue(compileFilter(not.filter(), resolver), NOT);
+    }
+    throw new IllegalArgumentException("filter " + filter + " can not be fused");
+  }
+
+  private static MethodHandle constantFilter(int value) {
+    return dropArguments(constant(int.class, value), 0, long.class);
+  }
+
+  // (long)int x (long)int -> (long)int
+  private static MethodHandle combine(MethodHandle operator, MethodHandle left, MethodHandle right) {
+    return permuteArguments(filterArguments(operator, 0, left, right), methodType(int.class, long.class), 0, 0);
+  }
+
+  // if the column is nullable, a null value returns UNKNOWN or does nothing
+  private static MethodHandle nullCheck(PrimitiveLayout layout, Vec vec, MethodHandle target, MethodHandle ifNull) {
+    if (!layout.nullable()) {
+      return target;
+    }
+    return guardWithTest(IS_NULL.bindTo(vec), ifNull, target);
+  }
+
+  private static MethodHandle compileCompare(Compare compare, ColumnResolver resolver) {
+    var layout = QueryKernels.checkPrimitive(compare.column(), resolver.layout(compare.column()));
+    var vec = resolver.vec(compare.column());
+    var op = compare.op();
+    MethodHandle handle;
+    if (!QueryKernels.isFloatingPoint(layout) && !(compare.value() instanceof Double || compare.value() instanceof Float)) {
+      handle = filterArguments(insertArguments(COMPARE_LONG, 0, op.mask, compare.value().longValue()), 0, getter(layout, vec, long.class));
+    } else {
+      handle = filterArguments(insertArguments(COMPARE_DOUBLE, 0, op.mask, op == Op.NE? 1: 0, compare.value().doubleValue()), 0, getter(layout, vec, double.class));
+    }
+    return nullCheck(layout, vec, handle, constantFilter(UNKNOWN));
+  }
+
+  private static MethodHandle compileAggregate(Aggregate aggregate, Partial partial, ColumnResolver resolver) {
+    var column = aggregate.column();
+    if (column == null) {
+      return COUNT.bindTo(partial);
+    }
+    var layout = QueryKernels.checkPrimitive(column, resolver.layout(column));
+    var vec = resolver.vec(column);
+    var floating = aggregate.kind() == Kind.AVG || QueryKernels.isFloatingPoint(layout);
+    var accumulate = switch (aggregate.kind()) {
+      case COUNT -> COUNT;
+      case SUM, AVG -> floating? SUM_DOUBLE: SUM_LONG;
+      case MIN -> floating? MIN_DOUBLE: MIN_LONG;
+      case MAX -> floating? MAX_DOUBLE: MAX_LONG;
+    };
+    var handle = accumulate.bindTo(partial);
+    if (aggregate.kind() != Kind.COUNT) {
+      handle = filterArguments(handle, 0, getter(layout, vec, floating? double.class: long.class));
+    }
+    return nullCheck(layout, vec, handle, MethodHandles.empty(methodType(void.class, long.class)));
+  }
+
+  // (long)type with the vec as a constant
+  private static MethodHandle getter(PrimitiveLayout layout, Vec vec, Class<?> type) {
+    var lookup = MethodHandles.lookup();
+    MethodHandle getter;
+    try {
+      getter = switch (layout.kind()) {
+        case u1 -> filterReturnValue(lookup.findVirtual(U1Vec.class, "getBoolean", methodType(boolean.class, long.class)), BOOLEAN_TO_LONG);
+        case byte8 -> lookup.findVirtual(U8Vec.class, "getByte", methodType(byte.class, long.class));
+        case short16 -> lookup.findVirtual(U16Vec.class, "getShort", methodType(short.class, long.class));
+        case char16 -> lookup.findVirtual(U16Vec.class, "getChar", methodType(char.class, long.class));
+        case int32 -> lookup.findVirtual(U32Vec.class, "getInt", methodType(int.class, long.class));
+        case float32 -> lookup.findVirtual(U32Vec.class, "getFloat", methodType(float.class, long.class));
+        case long64 -> lookup.findVirtual(U64Vec.class, "getLong", methodType(long.class, long.class));
+        case double64 -> lookup.findVirtual(U64Vec.class, "getDouble", methodType(double.class, long.class));
+      };
+    } catch (NoSuchMethodException | IllegalAccessException e) {
+      throw new AssertionError(e);
+    }
+    return getter.bindTo(vec).asType(methodType(type, long.class));
+  }
+}
@@ -0,0 +1,473 @@
+package com.github.forax.tomahawk.blackpanda;
+
+import com.github.forax.tomahawk.blackpanda.PipelineCompiler.Partial;
+import com.github.forax.tomahawk.blackpanda.QueryKernels.Accumulator;
+import com.github.forax.tomahawk.blackpanda.QueryKernels.ColumnResolver;
+import com.github.forax.tomahawk.blackpanda.QueryKernels.GroupTable;
+import com.github.forax.tomahawk.blackpanda.QueryKernels.Scan;
+import com.github.forax.tomahawk.blackpanda.QueryKernels.Selection;
+import com.github.forax.tomahawk.schema.Layout;
+import com.github.forax.tomahawk.schema.Layout.StructLayout;
+import com.github.forax.tomahawk.schema.LazyStruct;
+import com.github.forax.tomahawk.vec.StructVec;
+import com.github.forax.tomahawk.vec.U1Vec;
+import com.github.forax.tomahawk.vec.Vec;
+
+import java.lang.invoke.MethodHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+import java.util.stream.LongStream;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A query on the columns of a table, a query is immutable and is executed by
+ * {@link #count()}, {@link #mask()}, {@link #select(String...)} or {@link #aggregate(Aggregate...)}.
+ *
+ * The filter is evaluated by batch of rows into bit sets and the selected rows are copied
+ * column by column, so the values are never boxed. Only the columns used by the query are accessed,
+ * the other columns of a {@link DB.Table} are not even mapped.
+ *
+ * The rows are processed by morsels of 64K rows, a query on a {@link DB.Table} is executed by several workers
+ * of a thread pool shared by all queries, each worker maps the columns it uses, evaluates the filter and computes
+ * partial aggregates on the morsels it picks, the partial results are then merged (see {@link #parallel(int)}).
+ * The rows of a frame are always in the order of the table.
+ * Each execution acquires the current columns of the table and releases them once done,
+ * a query created before a chunk of an ingestion is sealed only sees the rows of the table at its creation.
+ * On a large table, {@link #count()} and {@link #aggregate(Aggregate...)} with a filter on primitive columns
+ * are compiled to one loop by worker, so the filter and the aggregates are inlined together by the JIT.
+ *
+ * Example
+ * <pre>
+ *   try(var frame = table.where(col("age").gt(30)).select("name")) {
+ *     ...
+ *   }
+ *   try(var frame = table.groupBy("city").aggregate(count(), avg("age"))) {
+ *     ...
+ *   }
+ * </pre>
+ */
+public final class Query {
+  private final StructLayout layout;
+  private final Supplier<? extends Columns> columns;  // acquired by each execution
+  private final Supplier<LazyStruct> workerColumns;  // or null if only the current thread can access the columns
+  private final long length;
+  private final Filter filter;  // or null
+  private final int parallelism;
+
+  private static final long FUSION_THRESHOLD = MorselScheduler.MORSEL_SIZE;
+
+  /**
+   * The columns used by an execution of a query, released at the end of the execution.
+   */
+  interface Columns extends AutoCloseable {
+    /**
+     * Returns the Vec of a column
+     * @param index the index of the column in the layout of the query
+     * @return the Vec of the column
+     */
+    Vec column(int index);
+
+    /**
+     * Releases the columns, the Vecs of the columns should not be used after.
+     */
+    @Override
+    default void close() {
+      // do nothing by default
+    }
+  }
+
+  Query(StructLayout layout, Supplier<? extends Columns> columns, Supplier<LazyStruct> workerColumns,
+        long length, Filter filter, int parallelism) {
+    this.layout = layout;
+    this.columns = columns;
+    this.workerColumns = workerColumns;
+    this.length = length;
+    this.filter = filter;
+    this.parallelism = parallelism;
+  }
+
+  /**
+   * Creates a query on the fields of a StructVec,
+   * the query is executed by the current thread because the Vecs are confined to the thread that has created them.
+   * @param vec the StructVec
+   * @param layout the layout of the StructVec
+   * @return a new query that selects all the rows
+   */
+  public static Query of(StructVec vec, StructLayout layout) {
+    requireNonNull(vec);
+    requireNonNull(layout);
+    if (vec.fields().size() != layout.fields().size()) {
+      throw new IllegalArgumentException("the layout " + layout + " does not match the vec");
+    }
+    Columns columns = vec.fields()::get;
+    return new Query(layout, () -> columns, null, vec.length(), null, 1);
+  }
+
+  /**
+   * Returns a reference to a column, used to create a filter
+   * @param name the name of the column
+   * @return a reference to a column
+   */
+  public static Column col(String name) {
+    return new Column(name);
+  }
+
+  /**
+   * Returns a new query that only selects the rows for which {@code filter} is true,
+   * if the query has already a filter, the filters are combined with {@link Filter#and(Filter)}.
+   * @param filter the filter
+   * @return a new query that only selects the rows for which {@code filter} is true
+   */
+  public Query where(Filter filter) {
+    requireNonNull(filter);
+    return new Query(layout, columns, workerColumns, length, this.filter == null? filter: this.filter.and(filter), parallelism);
+  }
+
+  /**
+   * Returns a new query executed by at most {@code parallelism} workers,
+   * a query on a StructVec (see {@link #of(StructVec, StructLayout)}) is always executed by the current thread.
+   * @param parallelism the maximum number of workers
+   * @return a new query executed by at most {@code parallelism} workers
+   * @throws IllegalArgumentException if {@code parallelism} is not positive
+   */
+  public Query parallel(int parallelism) {
+    if (parallelism <= 0) {
+      throw new IllegalArgumentException("parallelism <= 0");
+    }
+    return new Query(layout, columns, workerColumns, length, filter, parallelism);
+  }
+
+  /**
+   * Returns a bit set of the rows selected by the query, the caller has to close it.
+   * @return a bit set of the rows selected by the query
+   */
+  public U1Vec mask() {
+    var mask = new long[(int) QueryKernels.checkArraySize((length + 63) >>> 6)];
+    try(var acquired = columns.get()) {
+      run(acquired, columns -> {  // the morsels are multiples of 64 rows, so the workers write distinct words
+        var scan = scan(columns);
+        return (morsel, start, end) -> scan.mask(start, end, mask);
+      });
+    }
+    return U1Vec.wrap(mask);
+  }
+
+  /**
+   * Returns the number of rows selected by the query
+   * @return the number of rows selected by the query
+   */
+  public long count() {
+    if (filter == null) {
+      return length;
+    }
+    var counts = new long[MorselScheduler.morselCount(length)];
+    try(var acquired = columns.get()) {
+      if (fused()) {
+        run(acquired, columns -> {
+          var pipeline = PipelineCompiler.compile(filter, List.of(), List.of(), resolver(columns));
+          return (morsel, start, end) -> counts[morsel] = PipelineCompiler.run(pipeline, start, end);
+        });
+      } else {
+        run(acquired, columns -> {
+          var scan = scan(columns);
+          return (morsel, start, end) -> counts[morsel] = scan.count(start, end);
+        });
+      }
+    }
+    return LongStream.of(counts).sum();
+  }
+
+  /**
+   * Copies the columns {@code names} of the selected rows, only primitive and string columns are supported.
+   * @param names the names of the columns
+   * @return a frame containing the copied columns, the caller has to close it
+   * @throws IllegalStateException if a column does not exist
+   * @throws IllegalArgumentException if a column is not a primitive or a string column
+   */
+  public Frame select(String... names) {
+    var fields = fields(names);
+    checkNoDuplicate(fields);
+    for(var field: fields) {
+      QueryKernels.checkGatherable(field.name(), field.layout());
+    }
+    var vecs = new ArrayList<Vec>();
+    Selection selection;
+    try(var acquired = columns.get()) {
+      selection = select(acquired);
+      for(var field: fields) {
+        vecs.add(QueryKernels.gather(field.layout(), vec(acquired, field.name()), selection));
+      }
+    }
+    return frame(fields, vecs, selection.size());
+  }
+
+  /**
+   * Groups the selected rows by the values of the columns {@code names},
+   * only primitive and string columns are supported.
+   * @param names the names of the columns
+   * @return an object able to compute aggregates for each group
+   * @throws IllegalStateException if a column does not exist
+   * @throws IllegalArgumentException if a column is not a primitive or a string column
+   */
+  public GroupBy groupBy(String... names) {
+    var keys = fields(names);
+    if (keys.isEmpty()) {
+      throw new IllegalArgumentException("no column to group by");
+    }
+    for(var key: keys) {
+      QueryKernels.checkGatherable(key.name(), key.layout());
+    }
+    return new GroupBy(keys);
+  }
+
+  /**
+   * Computes the aggregates on all the selected rows
+   * @param aggregates the aggregates
+   * @return a frame with one row, the caller has to close it
+   * @throws IllegalStateException if a column does not exist
+   * @throws IllegalArgumentException if an aggregate is not supported on a column
+   */
+  public Frame aggregate(Aggregate... aggregates) {
+    return aggregate(List.of(), aggregates);
+  }
+
+  /**
+   * The rows of a query grouped by the values of some columns.
+   *
+   * @see Query#groupBy(String...)
+   */
+  public final class GroupBy {
+    private final List<Layout.Field> keys;
+
+    private GroupBy(List<Layout.Field> keys) {
+      this.keys = keys;
+    }
+
+    /**
+     * Computes the aggregates for each group,
+     * the resulting frame contains the key columns followed by the aggregate columns.
+     * @param aggregates the aggregates
+     * @return a frame with one row per group, in the order of the first row of each group,
+     *         the caller has to close it
+     * @throws IllegalStateException if a column does not exist
+     * @throws IllegalArgumentException if an aggregate is not supported on a column
+     */
+    public Frame aggregate(Aggregate... aggregates) {
+      return Query.this.aggregate(keys, aggregates);
+    }
+  }
+
+  private Selection select(Columns acquired) {
+    if (filter == null) {
+      return new Selection(null, (int) QueryKernels.checkArraySize(length));
+    }
+    // the rows selected in each morsel, concatenated in the order of the morsels
+    var morselRows = new long[MorselScheduler.morselCount(length)][];
+    run(acquired, columns -> {
+      var scan = scan(columns);
+      var buffer = new long[bufferSize()];
+      return (morsel, start, end) -> morselRows[morsel] = Arrays.copyOf(buffer, scan.select(start, end, buffer));
+    });
+    var size = QueryKernels.checkArraySize(Arrays.stream(morselRows).mapToLong(rows -> rows.length).sum());
+    var rows = new long[(int) size];
+    var offset = 0;
+    for(var morsel: morselRows) {
+      System.arraycopy(morsel, 0, rows, offset, morsel.length);
+      offset += morsel.length;
+    }
+    return new Selection(rows, rows.length);
+  }
+
+  private Frame aggregate(List<Layout.Field> keys, Aggregate... aggregates) {
+    if (aggregates.length == 0) {
+      throw new IllegalArgumentException("no aggregate");
+    }
+    var fields = new ArrayList<>(keys);
+    for(var aggregate: aggregates) {
+      var column = aggregate.column();
+      var columnLayout = column == null? null: field(column).layout();
+      fields.add(Layout.field(aggregate.name(), QueryKernels.aggregateLayout(aggregate, columnLayout)));
+    }
+    checkNoDuplicate(fields);
+    List<AggregateWorker> workers;
+    var groupCount = 1;
+    int[][] mappings;
+    var vecs = new ArrayList<Vec>();
+    try(var acquired = columns.get()) {
+      workers = keys.isEmpty() && fused()?
+          run(acquired, columns -> new FusedAggregateWorker(columns, aggregates)):
+          run(acquired, columns -> new ScanAggregateWorker(columns, keys, aggregates));
+      mappings = new int[workers.size()][];
+      if (!keys.isEmpty()) {
+        var groups = QueryKernels.merge(workers.stream().map(worker -> worker.groupTable).toList());
+        groupCount = groups.size();
+        mappings = groups.mappings();
+        var firstRows = new Selection(groups.firstRows(), groupCount);
+        for(var key: keys) {
+          vecs.add(QueryKernels.gather(key.layout(), vec(acquired, key.name()), firstRows));
+        }
+      } else {
+        Arrays.fill(mappings, new int[] { 0 });
+      }
+    }
+    for(var i = 0; i < aggregates.length; i++) {
+      var column = aggregates[i].column();
+      var accumulator = new Accumulator(aggregates[i], column == null? null: field(column).layout());
+      for(var w = 0; w < mappings.length; w++) {
+        workers.get(w).accumulators[i].mergeInto(accumulator, mappings[w]);
+      }
+      vecs.add(accumulator.toVec(groupCount));
+    }
+    return frame(fields, vecs, groupCount);
+  }
+
+  // the partial aggregates of a worker
+  private abstract class AggregateWorker implements MorselScheduler.Worker {
+    final GroupTable groupTable;  // or null
+    final Accumulator[] accumulators;
+
+    private AggregateWorker(GroupTable groupTable, Aggregate[] aggregates) {
+      this.groupTable = groupTable;
+      accumulators = new Accumulator[aggregates.length];
+      for(var i = 0; i < aggregates.length; i++) {
+        var column = aggregates[i].column();
+        accumulators[i] = new Accumulator(aggregates[i], column == null? null: field(column).layout());
+      }
+    }
+  }
+
+  // the pipeline of a worker: filter, then group, then accumulate, on the rows of a morsel
+  private final class ScanAggregateWorker extends AggregateWorker {
+    private final Scan scan;
+    private final Vec[] vecs;
+    private final long[] rows;
+    private final int[] groupIds;
+
+    private ScanAggregateWorker(IntFunction<? extends Vec> columns, List<Layout.Field> keys, Aggregate[] aggregates) {
+      super(keys.isEmpty()? null: QueryKernels.groupTable(
+              keys.stream().map(Layout.Field::layout).toList(),
+              keys.stream().<Vec>map(key -> columns.apply(layout.fieldIndex(key.name()))).toList()),
+          aggregates);
+      scan = scan(columns);
+      vecs = new Vec[aggregates.length];
+      for(var i = 0; i < aggregates.length; i++) {
+        var column = aggregates[i].column();
+        vecs[i] = column == null? null: columns.apply(layout.fieldIndex(column));
+      }
+      rows = new long[bufferSize()];
+      groupIds = groupTable == null? null: new int[rows.length];
+    }
+
+    @Override
+    public void process(int morsel, long start, long end) {
+      var size = scan.select(start, end, rows);
+      var groupCount = 1;
+      if (groupTable != null) {
+        groupTable.assign(rows, size, groupIds);
+        groupCount = groupTable.size();
+      }
+      for(var i = 0; i < accumulators.length; i++) {
+        accumulators[i].accumulate(vecs[i], rows, size, groupIds, groupCount);
+      }
+    }
+  }
+
+  // the filter and the aggregates fused in one loop, see PipelineCompiler
+  private final class FusedAggregateWorker extends AggregateWorker {
+    private final List<Partial> partials;
+    private final MethodHandle pipeline;
+
+    private FusedAggregateWorker(IntFunction<? extends Vec> columns, Aggregate[] aggregates) {
+      super(null, aggregates);
+      partials = Arrays.stream(aggregates).map(aggregate -> new Partial(aggregate.kind())).toList();
+      pipeline = PipelineCompiler.compile(filter, List.of(aggregates), partials, resolver(columns));
+    }
+
+    @Override
+    public void process(int morsel, long start, long end) {
+      PipelineCompiler.run(pipeline, start, end);
+      for(var i = 0; i < accumulators.length; i++) {
+        var partial = partials.get(i);
+        accumulators[i].add(0, partial.count, partial.longValue, partial.doubleValue);
+        partial.reset();
+      }
+    }
+  }
+
+  // compiling a pipeline defines a hidden class by worker, so it is only done if there are enough rows
+  private boolean fused() {
+    return length >= FUSION_THRESHOLD && PipelineCompiler.canFuse(filter);
+  }
+
+  private <W extends MorselScheduler.Worker> List<W> run(Columns acquired,
+                                                         Function<? super IntFunction<? extends Vec>, ? extends W> workerFactory) {
+    return MorselScheduler.run(length, parallelism, acquired::column, workerColumns, workerFactory);
+  }
+
+  private int bufferSize() {
+    return (int) Math.min(MorselScheduler.MORSEL_SIZE, length);
+  }
+
+  private static void checkNoDuplicate(List<Layout.Field> fields) {
+    var names = new HashSet<String>();
+    for(var field: fields) {
+      if (!names.add(field.name())) {
+        throw new IllegalArgumentException("duplicate column " + field.name());
+      }
+    }
+  }
+
+  private static Frame frame(List<Layout.Field> fields, List<Vec> vecs, long length) {
+    var frameLayout = Layout.struct(false, fields.toArray(Layout.Field[]::new));
+    return new Frame(frameLayout, StructVec.from(null, vecs), length);
+  }
+
+  // the filter is compiled by each worker, with the columns of the worker
+  private Scan scan(IntFunction<? extends Vec> columns) {
+    if (filter == null) {
+      return new Scan(null);
+    }
+    return new Scan(QueryKernels.compile(filter, resolver(columns)));
+  }
+
+  private ColumnResolver resolver(IntFunction<? extends Vec> columns) {
+    return new ColumnResolver() {
+      @Override
+      public Layout layout(String name) {
+        return field(name).layout();
+      }
+
+      @Override
+      public Vec vec(String name) {
+        field(name);
+        return columns.apply(layout.fieldIndex(name));
+      }
+    };
+  }
+
+  private Layout.Field field(String name) {
+    var index = layout.fieldIndex(name);
+    if (index == -1) {
+      throw new IllegalStateException("unknown column " + name);
+    }
+    return layout.fields().get(index);
+  }
+
+  private Vec vec(Columns acquired, String name) {
+    return acquired.column(layout.fieldIndex(name));
+  }
+
+  private List<Layout.Field> fields(String... names) {
+    var fields = new ArrayList<Layout.Field>();
+    for(var name: names) {
+      fields.add(field(name));
+    }
+    return fields;
+  }
+}
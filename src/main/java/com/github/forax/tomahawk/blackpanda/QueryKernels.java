@@ -0,0 +1,1192 @@
+package com.github.forax.tomahawk.blackpanda;
+
+import com.github.forax.tomahawk.blackpanda.Aggregate.Kind;
+import com.github.forax.tomahawk.blackpanda.Filter.And;
+import com.github.forax.tomahawk.blackpanda.Filter.Compare;
+import com.github.forax.tomahawk.blackpanda.Filter.IsNull;
+import com.github.forax.tomahawk.blackpanda.Filter.Not;
+import com.github.forax.tomahawk.blackpanda.Filter.Op;
+import com.github.forax.tomahawk.blackpanda.Filter.Or;
+import com.github.forax.tomahawk.blackpanda.Filter.TextEquals;
+import com.github.forax.tomahawk.schema.Layout;
+import com.github.forax.tomahawk.schema.Layout.ListLayout;
+import com.github.forax.tomahawk.schema.Layout.PrimitiveLayout;
+import com.github.forax.tomahawk.vec.ListVec;
+import com.github.forax.tomahawk.vec.U16Vec;
+import com.github.forax.tomahawk.vec.U1Vec;
+import com.github.forax.tomahawk.vec.U32Vec;
+import com.github.forax.tomahawk.vec.U64Vec;
+import com.github.forax.tomahawk.vec.U8Vec;
+import com.github.forax.tomahawk.vec.ValuesBox;
+import com.github.forax.tomahawk.vec.Vec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.LongToDoubleFunction;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * The batch operators used to execute a {@link Query}.
+ *
+ * A filter is compiled to a tree of kernels that evaluate the filter on a batch of {@link #BATCH_SIZE} rows,
+ * the result of a kernel is two bit sets, the rows for which the filter is true and the rows for which
+ * the filter is false, a row which is in neither set is unknown (null).
+ * The selected rows are then gathered column by column into Java arrays wrapped as Vecs.
+ *
+ * The filters, the group tables and the accumulators work on a range of rows, a morsel, so a query can be executed
+ * by several workers, see {@link MorselScheduler}, the partial results of the workers are then merged.
+ */
+final class QueryKernels {
+  private QueryKernels() {
+    throw new AssertionError();
+  }
+
+  static final int BATCH_SIZE = 1024;
+  private static final int BATCH_WORDS = BATCH_SIZE >>> 6;
+
+  // the indexes of the selected rows, rows == null means all rows
+  record Selection(long[] rows, int size) {
+    long row(int i) {
+      return rows == null? i: rows[i];
+    }
+  }
+
+  interface ColumnResolver {
+    Layout layout(String name);
+    Vec vec(String name);
+  }
+
+  // --- filter
+
+  static abstract class FilterKernel {
+    /**
+     * Evaluates the filter on the rows [start, start + count[,
+     * the bit {@code i} of {@code trues} (resp. {@code falses}) is set if the filter is true (resp. false) for
+     * the row {@code start + i}. Only the first {@code (count + 63) / 64} words are written.
+     */
+    abstract void eval(long start, int count, long[] trues, long[] falses);
+  }
+
+  static FilterKernel compile(Filter filter, ColumnResolver resolver) {
+    if (filter instanceof Compare compare) {
+      return compileCompare(compare, resolver);
+    }
+    if (filter instanceof TextEquals textEquals) {
+      return compileTextEquals(textEquals, resolver);
+    }
+    if (filter instanceof IsNull isNull) {
+      return new IsNullKernel(resolver.vec(isNull.column()));
+    }
+    if (filter instanceof And and) {
+      return new AndKernel(compile(and.left(), resolver), compile(and.right(), resolver));
+    }
+    if (filter instanceof Or or) {
+      return new OrKernel(compile(or.left(), resolver), compile(or.right(), resolver));
+    }
+    if (filter instanceof Not not) {
+      var kernel = compile(not.filter(), resolver);
+      return new FilterKernel() {
+        @Override
+        void eval(long start, int count, long[] trues, long[] falses) {
+          kernel.eval(start, count, falses, trues);
+        }
+      };
+    }
+    throw new IllegalArgumentException("unknown filter " + filter);
+  }
+
+  static PrimitiveLayout checkPrimitive(String column, Layout layout) {
+    if (!(layout instanceof PrimitiveLayout primitiveLayout)) {
+      throw new IllegalArgumentException("column " + column + " is not a primitive column, layout " + layout);
+    }
+    return primitiveLayout;
+  }
+
+  static boolean isFloatingPoint(PrimitiveLayout layout) {
+    return layout.kind() == PrimitiveLayout.Kind.float32 || layout.kind() == PrimitiveLayout.Kind.double64;
+  }
+
+  private static LongUnaryOperator longGetter(PrimitiveLayout layout, Vec vec) {
+    return switch (layout.kind()) {
+      case u1 -> index -> ((U1Vec) vec).getBoolean(index)? 1: 0;
+      case byte8 -> index -> ((U8Vec) vec).getByte(index);
+      case short16 -> index -> ((U16Vec) vec).getShort(index);
+      case char16 -> index -> ((U16Vec) vec).getChar(index);
+      case int32 -> index -> ((U32Vec) vec).getInt(index);
+      case long64 -> index -> ((U64Vec) vec).getLong(index);
+      case float32, double64 -> throw new AssertionError();
+    };
+  }
+
+  private static LongToDoubleFunction doubleGetter(PrimitiveLayout layout, Vec vec) {
+    return switch (layout.kind()) {
+      case float32 -> index -> ((U32Vec) vec).getFloat(index);
+      case double64 -> index -> ((U64Vec) vec).getDouble(index);
+      default -> {
+        var getter = longGetter(layout, vec);
+        yield index -> getter.applyAsLong(index);
+      }
+    };
+  }
+
+  private static FilterKernel compileCompare(Compare compare, ColumnResolver resolver) {
+    var layout = checkPrimitive(compare.column(), resolver.layout(compare.column()));
+    var vec = resolver.vec(compare.column());
+    var nullable = layout.nullable();
+    var op = compare.op();
+    if (!isFloatingPoint(layout) && !(compare.value() instanceof Double || compare.value() instanceof Float)) {
+      return new CompareLongKernel(vec, nullable, longGetter(layout, vec), op.mask, compare.value().longValue());
+    }
+    return new CompareDoubleKernel(vec, nullable, doubleGetter(layout, vec), op, compare.value().doubleValue());
+  }
+
+  private static final class CompareLongKernel extends FilterKernel {
+    private final Vec vec;
+    private final boolean nullable;
+    private final LongUnaryOperator getter;
+    private final int mask;
+    private final long constant;
+
+    private CompareLongKernel(Vec vec, boolean nullable, LongUnaryOperator getter, int mask, long constant) {
+      this.vec = vec;
+      this.nullable = nullable;
+      this.getter = getter;
+      this.mask = mask;
+      this.constant = constant;
+    }
+
+    @Override
+    void eval(long start, int count, long[] trues, long[] falses) {
+      for(var w = 0; w < (count + 63) >>> 6; w++) {
+        var base = start + (w << 6);
+        var end = Math.min(64, count - (w << 6));
+        long t = 0, f = 0;
+        for(var j = 0; j < end; j++) {
+          var index = base + j;
+          if (nullable && vec.isNull(index)) {
+            continue;
+          }
+          var bit = (long) (mask >>> (Long.compare(getter.applyAsLong(index), constant) + 1)) & 1;
+          t |= bit << j;
+          f |= (bit ^ 1) << j;
+        }
+        trues[w] = t;
+        falses[w] = f;
+      }
+    }
+  }
+
+  private static final class CompareDoubleKernel extends FilterKernel {
+    private final Vec vec;
+    private final boolean nullable;
+    private final LongToDoubleFunction getter;
+    private final int mask;
+    private final long unordered;  // result of a comparison with NaN
+    private final double constant;
+
+    private CompareDoubleKernel(Vec vec, boolean nullable, LongToDoubleFunction getter, Op op, double constant) {
+      this.vec = vec;
+      this.nullable = nullable;
+      this.getter = getter;
+      this.mask = op.mask;
+      this.unordered = op == Op.NE? 1: 0;
+      this.constant = constant;
+    }
+
+    @Override
+    void eval(long start, int count, long[] trues, long[] falses) {
+      for(var w = 0; w < (count + 63) >>> 6; w++) {
+        var base = start + (w << 6);
+        var end = Math.min(64, count - (w << 6));
+        long t = 0, f = 0;
+        for(var j = 0; j < end; j++) {
+          var index = base + j;
+          if (nullable && vec.isNull(index)) {
+            continue;
+          }
+          var value = getter.applyAsDouble(index);
+          var bit = value < constant? mask & 1:
+                    value > constant? (mask >>> 2) & 1:
+                    value == constant? (mask >>> 1) & 1:
+                    unordered;
+          t |= (long) bit << j;
+          f |= (long) (bit ^ 1) << j;
+        }
+        trues[w] = t;
+        falses[w] = f;
+      }
+    }
+  }
+
+  private static FilterKernel compileTextEquals(TextEquals textEquals, ColumnResolver resolver) {
+    var layout = resolver.layout(textEquals.column());
+    if (!(layout instanceof ListLayout listLayout) || listLayout.dataType() != String.class) {
+      throw new IllegalArgumentException("column " + textEquals.column() + " is not a string column, layout " + layout);
+    }
+    var vec = (ListVec<?>) resolver.vec(textEquals.column());
+    var data = (U16Vec) vec.element();
+    var constant = textEquals.value();
+    var box = new ValuesBox();
+    return new FilterKernel() {
+      @Override
+      void eval(long start, int count, long[] trues, long[] falses) {
+        for(var w = 0; w < (count + 63) >>> 6; w++) {
+          var base = start + (w << 6);
+          var end = Math.min(64, count - (w << 6));
+          long t = 0, f = 0;
+          for(var j = 0; j < end; j++) {
+            vec.getValues(base + j, box);
+            if (!box.validity) {
+              continue;
+            }
+            var bit = textEquals(data, box.startOffset, box.endOffset, constant)? 1L: 0L;
+            t |= bit << j;
+            f |= (bit ^ 1) << j;
+          }
+          trues[w] = t;
+          falses[w] = f;
+        }
+      }
+    };
+  }
+
+  private static boolean textEquals(U16Vec data, long start, long end, String constant) {
+    if (end - start != constant.length()) {
+      return false;
+    }
+    for(var i = 0; i < constant.length(); i++) {
+      if (data.getChar(start + i) != constant.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static final class IsNullKernel extends FilterKernel {
+    private final Vec vec;
+
+    private IsNullKernel(Vec vec) {
+      this.vec = vec;
+    }
+
+    @Override
+    void eval(long start, int count, long[] trues, long[] falses) {
+      for(var w = 0; w < (count + 63) >>> 6; w++) {
+        var base = start + (w << 6);
+        var end = Math.min(64, count - (w << 6));
+        long t = 0;
+        for(var j = 0; j < end; j++) {
+          if (vec.isNull(base + j)) {
+            t |= 1L << j;
+          }
+        }
+        trues[w] = t;
+        falses[w] = ~t & (end == 64? -1L: (1L << end) - 1);
+      }
+    }
+  }
+
+  private static final class AndKernel extends FilterKernel {
+    private final FilterKernel left;
+    private final FilterKernel right;
+    private final long[] rightTrues = new long[BATCH_WORDS];
+    private final long[] rightFalses = new long[BATCH_WORDS];
+
+    private AndKernel(FilterKernel left, FilterKernel right) {
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    void eval(long start, int count, long[] trues, long[] falses) {
+      left.eval(start, count, trues, falses);
+      right.eval(start, count, rightTrues, rightFalses);
+      for(var w = 0; w < (count + 63) >>> 6; w++) {
+        trues[w] &= rightTrues[w];
+        falses[w] |= rightFalses[w];
+      }
+    }
+  }
+
+  private static final class OrKernel extends FilterKernel {
+    private final FilterKernel left;
+    private final FilterKernel right;
+    private final long[] rightTrues = new long[BATCH_WORDS];
+    private final long[] rightFalses = new long[BATCH_WORDS];
+
+    private OrKernel(FilterKernel left, FilterKernel right) {
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    void eval(long start, int count, long[] trues, long[] falses) {
+      left.eval(start, count, trues, falses);
+      right.eval(start, count, rightTrues, rightFalses);
+      for(var w = 0; w < (count + 63) >>> 6; w++) {
+        trues[w] |= rightTrues[w];
+        falses[w] &= rightFalses[w];
+      }
+    }
+  }
+
+  /**
+   * Evaluates a filter by batch on a range of rows,
+   * a scan owns its scratch bit sets (and its kernel owns its own ones), so it can only be used by one thread.
+   */
+  static final class Scan {
+    private final FilterKernel kernel;  // or null
+    private final long[] trues = new long[BATCH_WORDS];
+    private final long[] falses = new long[BATCH_WORDS];
+
+    Scan(FilterKernel kernel) {
+      this.kernel = kernel;
+    }
+
+    /**
+     * Sets the bits of {@code mask} of the rows of [start, end[ for which the filter is true,
+     * {@code start} should be a multiple of 64.
+     */
+    void mask(long start, long end, long[] mask) {
+      for(var batch = start; batch < end; batch += BATCH_SIZE) {
+        var count = (int) Math.min(BATCH_SIZE, end - batch);
+        var words = (count + 63) >>> 6;
+        if (kernel == null) {
+          Arrays.fill(mask, (int) (batch >>> 6), (int) (batch >>> 6) + words, -1L);
+          if ((count & 63) != 0) {
+            mask[(int) (batch >>> 6) + words - 1] = (1L << count) - 1;
+          }
+          continue;
+        }
+        kernel.eval(batch, count, trues, falses);
+        System.arraycopy(trues, 0, mask, (int) (batch >>> 6), words);
+      }
+    }
+
+    long count(long start, long end) {
+      if (kernel == null) {
+        return end - start;
+      }
+      var total = 0L;
+      for(var batch = start; batch < end; batch += BATCH_SIZE) {
+        var count = (int) Math.min(BATCH_SIZE, end - batch);
+        kernel.eval(batch, count, trues, falses);
+        for(var w = 0; w < (count + 63) >>> 6; w++) {
+          total += Long.bitCount(trues[w]);
+        }
+      }
+      return total;
+    }
+
+    /**
+     * Stores the rows of [start, end[ for which the filter is true into {@code rows},
+     * the length of {@code rows} should be at least {@code end - start}.
+     * @return the number of selected rows
+     */
+    int select(long start, long end, long[] rows) {
+      if (kernel == null) {
+        for(var row = start; row < end; row++) {
+          rows[(int) (row - start)] = row;
+        }
+        return (int) (end - start);
+      }
+      var size = 0;
+      for(var batch = start; batch < end; batch += BATCH_SIZE) {
+        var count = (int) Math.min(BATCH_SIZE, end - batch);
+        kernel.eval(batch, count, trues, falses);
+        for(var w = 0; w < (count + 63) >>> 6; w++) {
+          var base = batch + (w << 6);
+          for(var bits = trues[w]; bits != 0; bits &= bits - 1) {
+            rows[size++] = base + Long.numberOfTrailingZeros(bits);
+          }
+        }
+      }
+      return size;
+    }
+  }
+
+  static long checkArraySize(long size) {
+    if (size > Integer.MAX_VALUE - 8) {
+      throw new IllegalStateException("too many rows " + size);
+    }
+    return size;
+  }
+
+  // --- gather
+
+  static void checkGatherable(String column, Layout layout) {
+    if (layout instanceof PrimitiveLayout) {
+      return;
+    }
+    if (layout instanceof ListLayout listLayout && listLayout.dataType() == String.class) {
+      return;
+    }
+    throw new IllegalArgumentException("only primitive and string columns are supported, column " + column + " layout " + layout);
+  }
+
+  // the validity bit set of the selected rows or null if the column is not nullable
+  private static long[] gatherValidity(Layout layout, Vec vec, Selection selection) {
+    if (!layout.nullable()) {
+      return null;
+    }
+    var validity = new long[(selection.size + 63) >>> 6];
+    for(var i = 0; i < selection.size; i++) {
+      if (!vec.isNull(selection.row(i))) {
+        validity[i >>> 6] |= 1L << i;
+      }
+    }
+    return validity;
+  }
+
+  private static boolean isValid(long[] validity, int i) {
+    return validity == null || (validity[i >>> 6] & (1L << i)) != 0;
+  }
+
+  /**
+   * Copies the selected rows of a primitive or a string column into a new Vec backed by Java arrays
+   */
+  static Vec gather(Layout layout, Vec vec, Selection selection) {
+    var validity = gatherValidity(layout, vec, selection);
+    if (layout instanceof ListLayout) {
+      return gatherString((ListVec<?>) vec, validity, selection);
+    }
+    var primitiveLayout = (PrimitiveLayout) layout;
+    var size = selection.size;
+    Vec result = switch (primitiveLayout.kind()) {
+      case u1 -> {
+        var data = new long[(size + 63) >>> 6];
+        var u1Vec = (U1Vec) vec;
+        for(var i = 0; i < size; i++) {
+          if (isValid(validity, i) && u1Vec.getBoolean(selection.row(i))) {
+            data[i >>> 6] |= 1L << i;
+          }
+        }
+        yield U1Vec.wrap(data);
+      }
+      case byte8 -> {
+        var data = new byte[size];
+        var u8Vec = (U8Vec) vec;
+        for(var i = 0; i < size; i++) {
+          if (isValid(validity, i)) {
+            data[i] = u8Vec.getByte(selection.row(i));
+          }
+        }
+        yield U8Vec.wrap(data);
+      }
+      case short16 -> {
+        var data = new short[size];
+        var u16Vec = (U16Vec) vec;
+        for(var i = 0; i < size; i++) {
+          if (isValid(validity, i)) {
+            data[i] = u16Vec.getShort(selection.row(i));
+          }
+        }
+        yield U16Vec.wrap(data);
+      }
+      case char16 -> {
+        var data = new char[size];
+        var u16Vec = (U16Vec) vec;
+        for(var i = 0; i < size; i++) {
+          if (isValid(validity, i)) {
+            data[i] = u16Vec.getChar(selection.row(i));
+          }
+        }
+        yield U16Vec.wrap(data);
+      }
+      case int32 -> {
+        var data = new int[size];
+        var u32Vec = (U32Vec) vec;
+        for(var i = 0; i < size; i++) {
+          if (isValid(validity, i)) {
+            data[i] = u32Vec.getInt(selection.row(i));
+          }
+        }
+        yield U32Vec.wrap(data);
+      }
+      case float32 -> {
+        var data = new float[size];
+        var u32Vec = (U32Vec) vec;
+        for(var i = 0; i < size; i++) {
+          if (isValid(validity, i)) {
+            data[i] = u32Vec.getFloat(selection.row(i));
+          }
+        }
+        yield U32Vec.wrap(data);
+      }
+      case long64 -> {
+        var data = new long[size];
+        var u64Vec = (U64Vec) vec;
+        for(var i = 0; i < size; i++) {
+          if (isValid(validity, i)) {
+            data[i] = u64Vec.getLong(selection.row(i));
+          }
+        }
+        yield U64Vec.wrap(data);
+      }
+      case double64 -> {
+        var data = new double[size];
+        var u64Vec = (U64Vec) vec;
+        for(var i = 0; i < size; i++) {
+          if (isValid(validity, i)) {
+            data[i] = u64Vec.getDouble(selection.row(i));
+          }
+        }
+        yield U64Vec.wrap(data);
+      }
+    };
+    if (validity == null) {
+      return result;
+    }
+    return result.withValidity(U1Vec.wrap(validity));
+  }
+
+  private static ListVec<U16Vec> gatherString(ListVec<?> vec, long[] validity, Selection selection) {
+    var size = selection.size;
+    var data = (U16Vec) vec.element();
+    var offsets = new int[size + 1];
+    var chars = new char[16];
+    var box = new ValuesBox();
+    var offset = 0;
+    for(var i = 0; i < size; i++) {
+      vec.getValues(selection.row(i), box);
+      if (box.validity) {
+        var length = (int) (box.endOffset - box.startOffset);
+        if (offset + length > chars.length) {
+          chars = Arrays.copyOf(chars, (int) checkArraySize(Math.max(offset + (long) length, chars.length * 2L)));
+        }
+        for(var j = 0; j < length; j++) {
+          chars[offset + j] = data.getChar(box.startOffset + j);
+        }
+        offset += length;
+      }
+      offsets[i + 1] = offset;
+    }
+    return ListVec.from(validity == null? null: U1Vec.wrap(validity), U32Vec.wrap(offsets), U16Vec.wrap(Arrays.copyOf(chars, offset)));
+  }
+
+  // --- group by
+
+  /**
+   * Assigns a group to the selected rows, the groups are numbered in the order of their first row.
+   * A group table is owned by a worker, the values of the rows are hashed without being boxed,
+   * only the key of each group is boxed so the tables of several workers can be merged with {@link #merge(List)}.
+   */
+  static abstract class GroupTable {
+    private long[] firstRows = new long[16];
+    private int size;
+
+    int size() {
+      return size;
+    }
+
+    /**
+     * Stores the group of {@code rows[i]} into {@code groupIds[i]}, creating new groups if necessary
+     */
+    abstract void assign(long[] rows, int count, int[] groupIds);
+
+    /**
+     * Returns the key of a group, boxed, the key does not depend on the mapped columns
+     */
+    abstract Object key(int groupId);
+
+    final int newGroup(long row) {
+      if (size == firstRows.length) {
+        firstRows = Arrays.copyOf(firstRows, size << 1);
+      }
+      firstRows[size] = row;
+      return size++;
+    }
+  }
+
+  static GroupTable groupTable(List<Layout> layouts, List<Vec> vecs) {
+    if (layouts.size() == 1 && layouts.get(0) instanceof PrimitiveLayout primitiveLayout && !isFloatingPoint(primitiveLayout)) {
+      return new LongGroupTable(primitiveLayout, vecs.get(0));
+    }
+    var keyColumns = new KeyColumn[layouts.size()];
+    for(var k = 0; k < keyColumns.length; k++) {
+      keyColumns[k] = keyColumn(layouts.get(k), vecs.get(k));
+    }
+    return new CompositeGroupTable(keyColumns);
+  }
+
+  /**
+   * A column of a group key, the value of a row is encoded as a long, two rows have the same code
+   * if and only if they have the same value, so the rows can be grouped without boxing the values.
+   * The nulls are not encoded, they are tracked separately.
+   */
+  private interface KeyColumn {
+    boolean isNull(long row);
+    long code(long row);
+    Object key(long code);
+  }
+
+  private static KeyColumn keyColumn(Layout layout, Vec vec) {
+    if (layout instanceof PrimitiveLayout primitiveLayout) {
+      var nullable = primitiveLayout.nullable();
+      if (isFloatingPoint(primitiveLayout)) {
+        // a float is exactly represented as a double, doubleToLongBits() has the semantics of Double.equals()
+        var getter = doubleGetter(primitiveLayout, vec);
+        return new KeyColumn() {
+          @Override
+          public boolean isNull(long row) {
+            return nullable && vec.isNull(row);
+          }
+          @Override
+          public long code(long row) {
+            return Double.doubleToLongBits(getter.applyAsDouble(row));
+          }
+          @Override
+          public Object key(long code) {
+            return Double.longBitsToDouble(code);
+          }
+        };
+      }
+      var getter = longGetter(primitiveLayout, vec);
+      return new KeyColumn() {
+        @Override
+        public boolean isNull(long row) {
+          return nullable && vec.isNull(row);
+        }
+        @Override
+        public long code(long row) {
+          return getter.applyAsLong(row);
+        }
+        @Override
+        public Object key(long code) {
+          return code;
+        }
+      };
+    }
+    if (layout instanceof ListLayout listLayout && listLayout.dataType() == String.class) {
+      return new StringKeyColumn((ListVec<?>) vec, listLayout.nullable());
+    }
+    return new ObjectKeyColumn(layout, vec);
+  }
+
+  // the strings are encoded by a dictionary, the characters of a row are hashed and compared in place,
+  // a String is only created for a new value
+  private static final class StringKeyColumn implements KeyColumn {
+    private final ListVec<?> vec;
+    private final U16Vec data;
+    private final boolean nullable;
+    private final ValuesBox box = new ValuesBox();
+    private final ArrayList<String> strings = new ArrayList<>();
+    private int[] ids = new int[16];  // string id + 1, 0 means empty
+    private int[] hashes = new int[16];
+
+    private StringKeyColumn(ListVec<?> vec, boolean nullable) {
+      this.vec = vec;
+      this.data = (U16Vec) vec.element();
+      this.nullable = nullable;
+    }
+
+    @Override
+    public boolean isNull(long row) {
+      return nullable && vec.isNull(row);
+    }
+
+    @Override
+    public long code(long row) {
+      vec.getValues(row, box);
+      var start = box.startOffset;
+      var end = box.endOffset;
+      var hash = 0;
+      for(var i = start; i < end; i++) {
+        hash = hash * 31 + data.getChar(i);  // same as String.hashCode()
+      }
+      var mask = ids.length - 1;
+      var slot = mix(hash) & mask;
+      for(; ids[slot] != 0; slot = (slot + 1) & mask) {
+        if (hashes[slot] == hash && textEquals(data, start, end, strings.get(ids[slot] - 1))) {
+          return ids[slot] - 1;
+        }
+      }
+      var chars = new char[(int) (end - start)];
+      for(var i = 0; i < chars.length; i++) {
+        chars[i] = data.getChar(start + i);
+      }
+      var id = strings.size();
+      strings.add(new String(chars));
+      ids[slot] = id + 1;
+      hashes[slot] = hash;
+      if (strings.size() << 1 > ids.length) {
+        rehash();
+      }
+      return id;
+    }
+
+    private void rehash() {
+      var newIds = new int[ids.length << 1];
+      var newHashes = new int[ids.length << 1];
+      var mask = newIds.length - 1;
+      for(var s = 0; s < ids.length; s++) {
+        if (ids[s] != 0) {
+          var slot = mix(hashes[s]) & mask;
+          while(newIds[slot] != 0) {
+            slot = (slot + 1) & mask;
+          }
+          newIds[slot] = ids[s];
+          newHashes[slot] = hashes[s];
+        }
+      }
+      ids = newIds;
+      hashes = newHashes;
+    }
+
+    @Override
+    public Object key(long code) {
+      return strings.get((int) code);
+    }
+  }
+
+  // the other layouts (lists, structs) are rare as a group key, the values are boxed and encoded by a dictionary
+  private static final class ObjectKeyColumn implements KeyColumn {
+    private final Layout layout;
+    private final Vec vec;
+    private final HashMap<Object, Integer> map = new HashMap<>();
+    private final ArrayList<Object> values = new ArrayList<>();
+
+    private ObjectKeyColumn(Layout layout, Vec vec) {
+      this.layout = layout;
+      this.vec = vec;
+    }
+
+    @Override
+    public boolean isNull(long row) {
+      return layout.nullable() && vec.isNull(row);
+    }
+
+    @Override
+    public long code(long row) {
+      var value = DB.Col.getObject(layout, vec, row);
+      return map.computeIfAbsent(value, __ -> {
+        values.add(value);
+        return values.size() - 1;
+      });
+    }
+
+    @Override
+    public Object key(long code) {
+      return values.get((int) code);
+    }
+  }
+
+  // open addressing hash map from the codes of the key columns to a group id,
+  // the codes of a group are stored followed by a bit set of the null columns
+  private static final class CompositeGroupTable extends GroupTable {
+    private final KeyColumn[] keyColumns;
+    private final int width;
+    private final long[] key;  // the codes of the current row
+    private int[] ids = new int[16];  // group id + 1, 0 means empty
+    private int[] hashes = new int[16];
+    private long[] groupKeys;
+
+    private CompositeGroupTable(KeyColumn[] keyColumns) {
+      this.keyColumns = keyColumns;
+      this.width = keyColumns.length + ((keyColumns.length + 63) >>> 6);
+      this.key = new long[width];
+      this.groupKeys = new long[width << 4];
+    }
+
+    @Override
+    void assign(long[] rows, int count, int[] groupIds) {
+      var columnCount = keyColumns.length;
+      for(var i = 0; i < count; i++) {
+        var row = rows[i];
+        Arrays.fill(key, columnCount, width, 0);
+        for(var k = 0; k < columnCount; k++) {
+          var keyColumn = keyColumns[k];
+          if (keyColumn.isNull(row)) {
+            key[k] = 0;
+            key[columnCount + (k >>> 6)] |= 1L << k;
+          } else {
+            key[k] = keyColumn.code(row);
+          }
+        }
+        var hash = hash(key);
+        var mask = ids.length - 1;
+        var slot = mix(hash) & mask;
+        while(ids[slot] != 0 && (hashes[slot] != hash || !sameKey(ids[slot] - 1))) {
+          slot = (slot + 1) & mask;
+        }
+        if (ids[slot] == 0) {
+          var groupId = newGroup(row);
+          ids[slot] = groupId + 1;
+          hashes[slot] = hash;
+          if ((groupId + 1) * width > groupKeys.length) {
+            groupKeys = Arrays.copyOf(groupKeys, groupKeys.length << 1);
+          }
+          System.arraycopy(key, 0, groupKeys, groupId * width, width);
+          if (size() << 1 > ids.length) {
+            rehash();
+          }
+          groupIds[i] = groupId;
+        } else {
+          groupIds[i] = ids[slot] - 1;
+        }
+      }
+    }
+
+    private static int hash(long[] key) {
+      var hash = 0L;
+      for(var code: key) {
+        hash = (hash ^ code) * 0x9E3779B97F4A7C15L;
+      }
+      return (int) (hash ^ (hash >>> 32));
+    }
+
+    private boolean sameKey(int groupId) {
+      var offset = groupId * width;
+      return Arrays.equals(key, 0, width, groupKeys, offset, offset + width);
+    }
+
+    private void rehash() {
+      var newIds = new int[ids.length << 1];
+      var newHashes = new int[ids.length << 1];
+      var mask = newIds.length - 1;
+      for(var s = 0; s < ids.length; s++) {
+        if (ids[s] != 0) {
+          var slot = mix(hashes[s]) & mask;
+          while(newIds[slot] != 0) {
+            slot = (slot + 1) & mask;
+          }
+          newIds[slot] = ids[s];
+          newHashes[slot] = hashes[s];
+        }
+      }
+      ids = newIds;
+      hashes = newHashes;
+    }
+
+    @Override
+    Object key(int groupId) {
+      var columnCount = keyColumns.length;
+      var offset = groupId * width;
+      var values = new Object[columnCount];
+      for(var k = 0; k < columnCount; k++) {
+        var isNull = (groupKeys[offset + columnCount + (k >>> 6)] & (1L << k)) != 0;
+        values[k] = isNull? null: keyColumns[k].key(groupKeys[offset + k]);
+      }
+      return Arrays.asList(values);
+    }
+  }
+
+  private static int mix(int hash) {
+    hash *= 0x9E3779B9;
+    return hash ^ (hash >>> 16);
+  }
+
+  // open addressing hash map from a long key to a group id, the null key has its own group
+  private static final class LongGroupTable extends GroupTable {
+    private static final Object NULL_KEY = new Object();
+
+    private final Vec vec;
+    private final boolean nullable;
+    private final LongUnaryOperator getter;
+    private long[] keys = new long[16];
+    private int[] ids = new int[16];  // group id + 1, 0 means empty
+    private long[] groupKeys = new long[16];
+    private int nullGroupId = -1;
+
+    private LongGroupTable(PrimitiveLayout layout, Vec vec) {
+      this.vec = vec;
+      this.nullable = layout.nullable();
+      this.getter = longGetter(layout, vec);
+    }
+
+    @Override
+    void assign(long[] rows, int count, int[] groupIds) {
+      for(var i = 0; i < count; i++) {
+        var row = rows[i];
+        if (nullable && vec.isNull(row)) {
+          if (nullGroupId == -1) {
+            nullGroupId = newGroup(row);
+          }
+          groupIds[i] = nullGroupId;
+          continue;
+        }
+        var key = getter.applyAsLong(row);
+        var slot = slot(keys, ids, key);
+        if (ids[slot] == 0) {
+          var groupId = newGroup(row);
+          ids[slot] = groupId + 1;
+          keys[slot] = key;
+          if (groupId == groupKeys.length) {
+            groupKeys = Arrays.copyOf(groupKeys, groupId << 1);
+          }
+          groupKeys[groupId] = key;
+          if (size() << 1 > ids.length) {
+            rehash();
+          }
+          groupIds[i] = groupId;
+        } else {
+          groupIds[i] = ids[slot] - 1;
+        }
+      }
+    }
+
+    private void rehash() {
+      var newKeys = new long[ids.length << 1];
+      var newIds = new int[ids.length << 1];
+      for(var s = 0; s < ids.length; s++) {
+        if (ids[s] != 0) {
+          var newSlot = slot(newKeys, newIds, keys[s]);
+          newKeys[newSlot] = keys[s];
+          newIds[newSlot] = ids[s];
+        }
+      }
+      keys = newKeys;
+      ids = newIds;
+    }
+
+    @Override
+    Object key(int groupId) {
+      return groupId == nullGroupId? NULL_KEY: (Object) groupKeys[groupId];
+    }
+  }
+
+  private static int slot(long[] keys, int[] ids, long key) {
+    var mask = ids.length - 1;
+    var hash = (int) (key ^ (key >>> 32)) * 0x9E3779B9;
+    var slot = (hash ^ (hash >>> 16)) & mask;
+    while(ids[slot] != 0 && keys[slot] != key) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  /**
+   * The groups of all the workers
+   * @param firstRows the first row of each group, in ascending order
+   * @param mappings for each worker, the index of the group of each group of the worker
+   */
+  record MergedGroups(long[] firstRows, int[][] mappings) {
+    int size() {
+      return firstRows.length;
+    }
+  }
+
+  /**
+   * Merges the group tables of the workers, the groups are numbered in the order of their first row,
+   * like if there was only one worker.
+   */
+  static MergedGroups merge(List<GroupTable> tables) {
+    if (tables.size() == 1) {  // the groups of a worker are already in order
+      var table = tables.get(0);
+      var mapping = new int[table.size];
+      Arrays.setAll(mapping, g -> g);
+      return new MergedGroups(Arrays.copyOf(table.firstRows, table.size), new int[][] { mapping });
+    }
+    var firstRowMap = new HashMap<Object, Long>();
+    for(var table: tables) {
+      for(var g = 0; g < table.size; g++) {
+        firstRowMap.merge(table.key(g), table.firstRows[g], Math::min);
+      }
+    }
+    var keys = new ArrayList<>(firstRowMap.keySet());
+    keys.sort(Comparator.comparingLong(firstRowMap::get));
+    var groupIdMap = new HashMap<Object, Integer>();
+    var firstRows = new long[keys.size()];
+    for(var i = 0; i < firstRows.length; i++) {
+      var key = keys.get(i);
+      groupIdMap.put(key, i);
+      firstRows[i] = firstRowMap.get(key);
+    }
+    var mappings = new int[tables.size()][];
+    for(var t = 0; t < mappings.length; t++) {
+      var table = tables.get(t);
+      var mapping = new int[table.size];
+      for(var g = 0; g < mapping.length; g++) {
+        mapping[g] = groupIdMap.get(table.key(g));
+      }
+      mappings[t] = mapping;
+    }
+    return new MergedGroups(firstRows, mappings);
+  }
+
+  // --- aggregate
+
+  static Layout aggregateLayout(Aggregate aggregate, Layout layout) {
+    if (aggregate.kind() == Kind.COUNT) {
+      return Layout.long64(false);
+    }
+    var primitiveLayout = checkPrimitive(aggregate.column(), layout);
+    if (aggregate.kind() == Kind.AVG || isFloatingPoint(primitiveLayout)) {
+      return Layout.double64(true);
+    }
+    return Layout.long64(true);
+  }
+
+  /**
+   * The partial result of an aggregate for each group, an accumulator is owned by a worker,
+   * the accumulators of the workers are merged with {@link #mergeInto(Accumulator, int[])}.
+   */
+  static final class Accumulator {
+    private final Kind kind;
+    private final PrimitiveLayout layout;  // null for count()
+    private final boolean floating;
+    private long[] counts = new long[0];
+    private long[] longs = new long[0];
+    private double[] doubles = new double[0];
+
+    Accumulator(Aggregate aggregate, Layout layout) {
+      this.kind = aggregate.kind();
+      this.layout = (PrimitiveLayout) layout;
+      this.floating = kind == Kind.AVG || (layout != null && isFloatingPoint(this.layout));
+      ensureCapacity(1);  // a worker may process no morsel
+    }
+
+    private void ensureCapacity(int groupCount) {
+      var capacity = counts.length;
+      if (groupCount <= capacity) {
+        return;
+      }
+      var newCapacity = Math.max(groupCount, capacity << 1);
+      counts = Arrays.copyOf(counts, newCapacity);
+      if (kind == Kind.COUNT) {
+        return;
+      }
+      if (floating) {
+        doubles = Arrays.copyOf(doubles, newCapacity);
+        Arrays.fill(doubles, capacity, newCapacity,
+            kind == Kind.MIN? Double.POSITIVE_INFINITY: kind == Kind.MAX? Double.NEGATIVE_INFINITY: 0.0);
+      } else {
+        longs = Arrays.copyOf(longs, newCapacity);
+        Arrays.fill(longs, capacity, newCapacity,
+            kind == Kind.MIN? Long.MAX_VALUE: kind == Kind.MAX? Long.MIN_VALUE: 0L);
+      }
+    }
+
+    /**
+     * Accumulates the values of {@code vec} at the selected rows,
+     * {@code groupIds == null} means that all the selected rows are in one group.
+     */
+    void accumulate(Vec vec, long[] rows, int count, int[] groupIds, int groupCount) {
+      ensureCapacity(groupCount);
+      var nullable = layout != null && layout.nullable();
+      for(var i = 0; i < count; i++) {
+        if (nullable && vec.isNull(rows[i])) {
+          continue;
+        }
+        counts[groupIds == null? 0: groupIds[i]]++;
+      }
+      if (kind == Kind.COUNT) {
+        return;
+      }
+      if (floating) {
+        var getter = doubleGetter(layout, vec);
+        for(var i = 0; i < count; i++) {
+          var row = rows[i];
+          if (nullable && vec.isNull(row)) {
+            continue;
+          }
+          var group = groupIds == null? 0: groupIds[i];
+          doubles[group] = combine(doubles[group], getter.applyAsDouble(row));
+        }
+      } else {
+        var getter = longGetter(layout, vec);
+        for(var i = 0; i < count; i++) {
+          var row = rows[i];
+          if (nullable && vec.isNull(row)) {
+            continue;
+          }
+          var group = groupIds == null? 0: groupIds[i];
+          longs[group] = combine(longs[group], getter.applyAsLong(row));
+        }
+      }
+    }
+
+    private double combine(double accumulated, double value) {
+      return switch (kind) {
+        case SUM, AVG -> accumulated + value;
+        case MIN -> Math.min(accumulated, value);
+        case MAX -> Math.max(accumulated, value);
+        case COUNT -> throw new AssertionError();
+      };
+    }
+
+    private long combine(long accumulated, long value) {
+      return switch (kind) {
+        case SUM -> accumulated + value;
+        case MIN -> Math.min(accumulated, value);
+        case MAX -> Math.max(accumulated, value);
+        case COUNT, AVG -> throw new AssertionError();
+      };
+    }
+
+    /**
+     * Accumulates a partial result computed by a fused pipeline, {@code count} non-null values
+     * with a sum, a minimum or a maximum {@code longValue} or {@code doubleValue}
+     */
+    void add(int group, long count, long longValue, double doubleValue) {
+      ensureCapacity(group + 1);
+      counts[group] += count;
+      if (kind == Kind.COUNT || count == 0) {
+        return;
+      }
+      if (floating) {
+        doubles[group] = combine(doubles[group], doubleValue);
+      } else {
+        longs[group] = combine(longs[group], longValue);
+      }
+    }
+
+    /**
+     * Merges the partial results into {@code target}, the group {@code g} is merged into
+     * the group {@code mapping[g]} of the target
+     */
+    void mergeInto(Accumulator target, int[] mapping) {
+      var groupCount = mapping.length;
+      var targetCount = 0;
+      for(var g = 0; g < groupCount; g++) {
+        targetCount = Math.max(targetCount, mapping[g] + 1);
+      }
+      target.ensureCapacity(targetCount);
+      for(var g = 0; g < groupCount; g++) {
+        var group = mapping[g];
+        target.counts[group] += counts[g];
+        if (kind == Kind.COUNT || counts[g] == 0) {
+          continue;
+        }
+        if (floating) {
+          target.doubles[group] = target.combine(target.doubles[group], doubles[g]);
+        } else {
+          target.longs[group] = target.combine(target.longs[group], longs[g]);
+        }
+      }
+    }
+
+    /**
+     * Returns the aggregate of each group, a group without non-null value has a null aggregate
+     */
+    Vec toVec(int groupCount) {
+      ensureCapacity(groupCount);
+      var counts = Arrays.copyOf(this.counts, groupCount);
+      if (kind == Kind.COUNT) {
+        return U64Vec.wrap(counts);
+      }
+      Vec result;
+      if (floating) {
+        var values = Arrays.copyOf(doubles, groupCount);
+        if (kind == Kind.AVG) {
+          for(var g = 0; g < groupCount; g++) {
+            values[g] /= counts[g];
+          }
+        }
+        result = U64Vec.wrap(values);
+      } else {
+        result = U64Vec.wrap(Arrays.copyOf(longs, groupCount));
+      }
+      var validity = new long[(groupCount + 63) >>> 6];
+      for(var g = 0; g < groupCount; g++) {
+        if (counts[g] != 0) {
+          validity[g >>> 6] |= 1L << g;
+        }
+      }
+      return result.withValidity(U1Vec.wrap(validity));
+    }
+  }
+}
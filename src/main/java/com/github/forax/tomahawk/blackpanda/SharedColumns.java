@@ -0,0 +1,97 @@
+package com.github.forax.tomahawk.blackpanda;
+
+import com.github.forax.tomahawk.schema.Layout.StructLayout;
+import com.github.forax.tomahawk.schema.LazyStruct;
+
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The columns of a {@link DB.Table} shared by the threads that use the table, counted by reference.
+ *
+ * A user (a query, an export) {@link #acquire() acquires} the columns for the time it uses them
+ * and releases them with {@link #close()}. When a chunk of an ingestion is sealed, the table publishes
+ * new columns and {@link #retire() retires} the previous ones, the retired columns are unmapped by their
+ * last user, or immediately if nobody uses them, so the mappings do not pile up during a long ingestion.
+ */
+final class SharedColumns implements AutoCloseable {
+  private final LazyStruct lazyStruct;
+  private final AtomicInteger retiredCount;  // the number of retired columns of the table not yet unmapped
+  private int users;
+  private boolean retired;
+
+  SharedColumns(LazyStruct lazyStruct, AtomicInteger retiredCount) {
+    this.lazyStruct = lazyStruct;
+    this.retiredCount = retiredCount;
+  }
+
+  /**
+   * Returns the columns, only valid between {@link #acquire()} and {@link #close()}.
+   * @return the columns
+   */
+  LazyStruct lazyStruct() {
+    return lazyStruct;
+  }
+
+  /**
+   * Acquires the columns.
+   * @return false if the columns are retired, the caller should acquire the columns currently published
+   */
+  synchronized boolean acquire() {
+    if (retired) {
+      return false;
+    }
+    users++;
+    return true;
+  }
+
+  /**
+   * Releases the columns, unmaps them if they are retired and this was the last user.
+   */
+  @Override
+  public synchronized void close() {
+    if (users == 0) {
+      throw new IllegalStateException("columns not acquired");
+    }
+    if (--users == 0 && retired) {
+      unmap();
+    }
+  }
+
+  /**
+   * Retires the columns, they are unmapped now if nobody uses them or by their last user.
+   */
+  synchronized void retire() {
+    if (retired) {
+      return;
+    }
+    retired = true;
+    if (users == 0) {
+      lazyStruct.close();
+      return;
+    }
+    retiredCount.incrementAndGet();
+  }
+
+  /**
+   * Retires the columns because the layout or the files of the table have changed,
+   * if nobody uses the columns, the mapped columns that have not changed are transferred
+   * to the returned columns (see {@link LazyStruct#remap(StructLayout, Set)}).
+   * @param layout the new layout of the table
+   * @param changedFields the names of the columns whose files have changed
+   * @return the columns with the new layout or null if the columns are used
+   */
+  synchronized LazyStruct retire(StructLayout layout, Set<String> changedFields) {
+    if (users == 0 && !retired) {
+      retired = true;
+      return lazyStruct.remap(layout, changedFields);  // unmaps the other columns
+    }
+    retire();
+    return null;
+  }
+
+  private void unmap() {
+    lazyStruct.close();
+    retiredCount.decrementAndGet();
+  }
+}
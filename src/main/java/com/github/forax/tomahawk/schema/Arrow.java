@@ -0,0 +1,905 @@
+package com.github.forax.tomahawk.schema;
+
+import com.github.forax.tomahawk.schema.FlatBuffers.StructVector;
+import com.github.forax.tomahawk.schema.FlatBuffers.Table;
+import com.github.forax.tomahawk.schema.FlatBuffers.TableReader;
+import com.github.forax.tomahawk.schema.FlatBuffers.TableVector;
+import com.github.forax.tomahawk.schema.FlatBuffers.Text;
+import com.github.forax.tomahawk.schema.Layout.ListLayout;
+import com.github.forax.tomahawk.schema.Layout.PrimitiveLayout;
+import com.github.forax.tomahawk.schema.Layout.StructLayout;
+import com.github.forax.tomahawk.vec.ListVec;
+import com.github.forax.tomahawk.vec.StructVec;
+import com.github.forax.tomahawk.vec.U16Vec;
+import com.github.forax.tomahawk.vec.U1Vec;
+import com.github.forax.tomahawk.vec.U32Vec;
+import com.github.forax.tomahawk.vec.U64Vec;
+import com.github.forax.tomahawk.vec.U8Vec;
+import com.github.forax.tomahawk.vec.Vec;
+import jdk.incubator.foreign.MemoryAccess;
+import jdk.incubator.foreign.MemorySegment;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.github.forax.tomahawk.schema.FlatBuffers.bool;
+import static com.github.forax.tomahawk.schema.FlatBuffers.byte8;
+import static com.github.forax.tomahawk.schema.FlatBuffers.int32;
+import static com.github.forax.tomahawk.schema.FlatBuffers.long64;
+import static com.github.forax.tomahawk.schema.FlatBuffers.short16;
+import static com.github.forax.tomahawk.schema.FlatBuffers.table;
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.Objects.checkFromIndexSize;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Reads and writes the Apache Arrow IPC formats, the file format and the streaming format.
+ *
+ * The storage of the Vecs is already the one of Arrow, a validity bit set, offsets and values,
+ * so when reading, the buffers of a record batch are used directly as the memory of the Vecs without
+ * being copied if they are aligned, and when writing, the buffers are copied from the files of a "table".
+ *
+ * The correspondence between the layouts and the Arrow types is
+ * <ul>
+ *   <li>{@code u1} is a {@code Bool}
+ *   <li>{@code byte8}, {@code short16}, {@code int32} and {@code long64} are signed {@code Int}s
+ *   <li>{@code char16} is an unsigned 16 bits {@code Int}
+ *   <li>{@code float32} and {@code double64} are single and double precision {@code FloatingPoint}s
+ *   <li>{@code string} is an {@code Utf8}, the texts are transcoded from/to UTF-16 so they are copied
+ *   <li>the other {@code list}s are {@code List}s and {@code struct}s are {@code Struct}s
+ * </ul>
+ * The other Arrow types, the dictionaries and the compressed record batches are not supported.
+ *
+ * Example
+ * <pre>
+ *   Arrow.export(directory, "table", layout, path);
+ *   try(var recordBatches = Arrow.map(path)) {
+ *     var batch = recordBatches.batches().get(0);
+ *     ...
+ *   }
+ * </pre>
+ */
+public final class Arrow {
+  private Arrow() {
+    throw new AssertionError();
+  }
+
+  /**
+   * The record batches of an Arrow file or stream.
+   *
+   * Each batch has its own memory (the mapping of its body or a copy), so closing a batch
+   * does not close the other batches, it's usually simpler to close all the batches using {@link #close()}.
+   *
+   * @param layout the layout of the batches
+   * @param batches the record batches
+   */
+  public record RecordBatches(StructLayout layout, List<StructVec> batches) implements AutoCloseable {
+    /**
+     * Creates the record batches of an Arrow file or stream.
+     * @param layout the layout of the batches
+     * @param batches the record batches
+     */
+    public RecordBatches {
+      requireNonNull(layout);
+      batches = List.copyOf(batches);
+    }
+
+    /**
+     * Closes all the batches.
+     */
+    @Override
+    public void close() {
+      for(var batch: batches) {
+        batch.close();  // closing a batch is idempotent
+      }
+    }
+  }
+
+  private static final byte[] MAGIC = "ARROW1".getBytes(StandardCharsets.US_ASCII);
+  private static final int CONTINUATION = 0xFFFFFFFF;
+  private static final int ALIGNMENT = 64;
+
+  // MetadataVersion
+  private static final int V5 = 4;
+
+  // MessageHeader
+  private static final int SCHEMA = 1, DICTIONARY_BATCH = 2, RECORD_BATCH = 3;
+
+  // Type
+  private static final int INT = 2, FLOATING_POINT = 3, UTF8 = 5, BOOL = 6, LIST = 12, STRUCT = 13;
+
+  // Precision
+  private static final int SINGLE = 1, DOUBLE = 2;
+
+  // -- layout
+
+  private static Layout layout(TableReader field) {
+    var name = field.getString(0);
+    var nullable = field.getBoolean(1, false);
+    var typeType = field.getByte(2, 0);
+    var type = field.getTable(3);
+    if (field.has(4)) {
+      throw new IllegalArgumentException("field " + name + " uses a dictionary");
+    }
+    var children = field.getTables(5);
+    return switch(typeType) {
+      case INT -> {
+        var bitWidth = type.getInt(0, 0);
+        var signed = type.getBoolean(1, false);
+        yield switch(bitWidth) {
+          case 8 -> Layout.byte8(nullable);
+          case 16 -> signed? Layout.short16(nullable): Layout.char16(nullable);
+          case 32 -> Layout.int32(nullable);
+          case 64 -> Layout.long64(nullable);
+          default -> throw new IllegalArgumentException("field " + name + " has an invalid bit width " + bitWidth);
+        };
+      }
+      case FLOATING_POINT -> switch(type.getShort(0, 0)) {
+        case SINGLE -> Layout.float32(nullable);
+        case DOUBLE -> Layout.double64(nullable);
+        default -> throw new IllegalArgumentException("field " + name + " has an unsupported floating point precision");
+      };
+      case UTF8 -> Layout.string(nullable);
+      case BOOL -> Layout.u1(nullable);
+      case LIST -> {
+        if (children.size() != 1) {
+          throw new IllegalArgumentException("field " + name + " is a list without one child");
+        }
+        yield Layout.list(nullable, layout(children.get(0)));
+      }
+      case STRUCT -> Layout.struct(nullable, fields(children));
+      default -> throw new IllegalArgumentException("field " + name + " has an unsupported type " + typeType);
+    };
+  }
+
+  private static Layout.Field[] fields(List<TableReader> fields) {
+    return fields.stream()
+        .map(field -> Layout.field(field.getString(0), layout(field)))
+        .toArray(Layout.Field[]::new);
+  }
+
+  private static StructLayout schemaLayout(TableReader schema) {
+    if (schema.getShort(0, 0) != 0) {
+      throw new IllegalArgumentException("only little endian data are supported");
+    }
+    return Layout.struct(false, fields(schema.getTables(1)));
+  }
+
+  private static Table field(String name, Layout layout) {
+    int typeType;
+    Table type;
+    var children = new ArrayList<Table>();
+    if (layout instanceof PrimitiveLayout primitiveLayout) {
+      var kind = primitiveLayout.kind();
+      typeType = switch(kind) {
+        case u1 -> BOOL;
+        case float32, double64 -> FLOATING_POINT;
+        default -> INT;
+      };
+      type = switch(kind) {
+        case u1 -> table();
+        case byte8 -> table(int32(8), bool(true));
+        case short16 -> table(int32(16), bool(true));
+        case char16 -> table(int32(16), bool(false));
+        case int32 -> table(int32(32), bool(true));
+        case long64 -> table(int32(64), bool(true));
+        case float32 -> table(short16(SINGLE));
+        case double64 -> table(short16(DOUBLE));
+      };
+    } else if (layout instanceof ListLayout listLayout) {
+      if (listLayout.dataType() == String.class) {
+        typeType = UTF8;
+      } else {
+        typeType = LIST;
+        children.add(field("item", listLayout.element()));
+      }
+      type = table();
+    } else if (layout instanceof StructLayout structLayout) {
+      typeType = STRUCT;
+      type = table();
+      for(var field: structLayout.fields()) {
+        children.add(field(field.name(), field.layout()));
+      }
+    } else {
+      throw new AssertionError("unknown layout");
+    }
+    return table(new Text(name), bool(layout.nullable()), byte8(typeType), type, null, new TableVector(children));
+  }
+
+  private static Table schema(StructLayout layout) {
+    var fields = layout.fields().stream().map(field -> field(field.name(), field.layout())).toList();
+    return table(short16(0), new TableVector(fields));
+  }
+
+  private static Table message(int headerType, Table header, long bodyLength) {
+    return table(short16(V5), byte8(headerType), header, long64(bodyLength));
+  }
+
+  // -- read
+
+  /**
+   * Reads the record batches of a record batch message from the buffers of its body.
+   */
+  private static final class BatchReader {
+    private final MemorySegment body;
+    private final long[] nodes;
+    private final long[] buffers;
+    private int nodeIndex;
+    private int bufferIndex;
+    private boolean bodyUsed;  // true if a Vec uses the memory of the body
+
+    private BatchReader(MemorySegment body, long[] nodes, long[] buffers) {
+      this.body = body;
+      this.nodes = nodes;
+      this.buffers = buffers;
+    }
+
+    private MemorySegment nextBuffer() {
+      if (bufferIndex << 1 >= buffers.length) {
+        throw new IllegalArgumentException("not enough buffers in the record batch");
+      }
+      var offset = buffers[bufferIndex << 1];
+      var length = buffers[(bufferIndex << 1) + 1];
+      bufferIndex++;
+      return body.asSlice(offset, length);
+    }
+
+    private StructVec readBatch(StructLayout layout) {
+      var fields = new ArrayList<Vec>();
+      for(var field: layout.fields()) {
+        fields.add(read(field.layout()));
+      }
+      return StructVec.from(null, fields);
+    }
+
+    // records if a segment used by a Vec is a part of the body and not a copy
+    private MemorySegment use(MemorySegment segment) {
+      var address = segment.address().toRawLongValue();
+      var bodyAddress = body.address().toRawLongValue();
+      if (address >= bodyAddress && address < bodyAddress + body.byteSize()) {
+        bodyUsed = true;
+      }
+      return segment;
+    }
+
+    private Vec read(Layout layout) {
+      if (nodeIndex << 1 >= nodes.length) {
+        throw new IllegalArgumentException("not enough nodes in the record batch");
+      }
+      var length = nodes[nodeIndex << 1];
+      nodeIndex++;
+      var validityBuffer = nextBuffer();
+      var validity = layout.nullable() && validityBuffer.byteSize() != 0?
+          U1Vec.from(null, use(bits(validityBuffer, length))): null;
+      if (layout instanceof PrimitiveLayout primitiveLayout) {
+        var data = nextBuffer();
+        return switch(primitiveLayout.kind()) {
+          case u1 -> U1Vec.from(validity, use(bits(data, length)));
+          case byte8 -> U8Vec.from(validity, use(values(data, length, 1)));
+          case short16, char16 -> U16Vec.from(validity, use(values(data, length, 2)));
+          case int32, float32 -> U32Vec.from(validity, use(values(data, length, 4)));
+          case long64, double64 -> U64Vec.from(validity, use(values(data, length, 8)));
+        };
+      }
+      if (layout instanceof ListLayout listLayout) {
+        var offsets = values(nextBuffer(), length + 1, 4);
+        if (listLayout.dataType() == String.class) {  // the strings are decoded into a copy
+          return decodeUTF8(validity, offsets, nextBuffer(), length);
+        }
+        var element = read(listLayout.element());
+        return ListVec.from(validity, U32Vec.from(null, use(offsets)), element);
+      }
+      if (layout instanceof StructLayout structLayout) {
+        var fields = new ArrayList<Vec>();
+        for(var field: structLayout.fields()) {
+          fields.add(read(field.layout()));
+        }
+        return StructVec.from(validity, fields);
+      }
+      throw new AssertionError("unknown layout");
+    }
+  }
+
+  private static boolean isAligned(MemorySegment segment, long alignment) {
+    return segment.address().toRawLongValue() % alignment == 0;
+  }
+
+  private static MemorySegment copy(MemorySegment segment, long byteSize, long alignment) {
+    var copy = MemorySegment.allocateNative(byteSize, alignment);
+    copy.copyFrom(segment.asSlice(0, Math.min(byteSize, segment.byteSize())));
+    return copy;
+  }
+
+  // the values are used directly if they are aligned
+  private static MemorySegment values(MemorySegment buffer, long length, int size) {
+    var byteSize = length * size;
+    if (buffer.byteSize() < byteSize) {
+      if (length == 1 && buffer.byteSize() == 0) {  // the offsets of an empty list may be omitted
+        return copy(buffer, 4, 4);
+      }
+      throw new IllegalArgumentException("buffer too small " + buffer.byteSize() + " < " + byteSize);
+    }
+    if (!isAligned(buffer, size)) {
+      return copy(buffer, byteSize, size);
+    }
+    return buffer.asSlice(0, byteSize);
+  }
+
+  // a bit set is stored as longs, the bits are used directly if the buffer is padded to 8 bytes
+  private static MemorySegment bits(MemorySegment buffer, long length) {
+    var byteSize = ((length + 63) >>> 6) << 3;
+    if (buffer.byteSize() < (length + 7) >>> 3) {
+      throw new IllegalArgumentException("bit buffer too small " + buffer.byteSize() + " < " + ((length + 7) >>> 3));
+    }
+    if (buffer.byteSize() < byteSize || !isAligned(buffer, 8)) {
+      return copy(buffer, byteSize, 8);
+    }
+    return buffer.asSlice(0, byteSize);
+  }
+
+  private static ListVec<U16Vec> decodeUTF8(U1Vec validity, MemorySegment offsets, MemorySegment data, long length) {
+    var decoder = StandardCharsets.UTF_8.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    var charOffsets = MemorySegment.allocateNative((length + 1) << 2, 4);
+    var charCapacity = Math.max(1, data.byteSize());  // at most a char per byte
+    var chars = MemorySegment.allocateNative(charCapacity << 1, 2);
+    var charBuffer = chars.asByteBuffer().order(ByteOrder.LITTLE_ENDIAN).asCharBuffer();
+    var byteBuffer = data.asByteBuffer();
+    for(var i = 0L; i < length; i++) {
+      MemoryAccess.setIntAtIndex(charOffsets, i, charBuffer.position());
+      var start = MemoryAccess.getIntAtIndex(offsets, i);
+      var end = MemoryAccess.getIntAtIndex(offsets, i + 1);
+      decoder.reset();
+      decoder.decode(byteBuffer.limit(end).position(start), charBuffer, true);
+      decoder.flush(charBuffer);
+    }
+    MemoryAccess.setIntAtIndex(charOffsets, length, charBuffer.position());
+    return ListVec.from(validity, U32Vec.from(null, charOffsets),
+        U16Vec.from(null, chars.asSlice(0, (long) charBuffer.position() << 1)));
+  }
+
+  private static ByteBuffer metadata(MemorySegment segment, long offset) {
+    var prefix = MemoryAccess.getIntAtOffset(segment, offset);
+    if (prefix == CONTINUATION) {
+      var size = MemoryAccess.getIntAtOffset(segment, offset + 4);
+      return segment.asSlice(offset + 8, size).asByteBuffer();
+    }
+    return segment.asSlice(offset + 4, prefix).asByteBuffer();  // format before 0.15
+  }
+
+  // the body is owned by the returned batch, it is closed if no Vec of the batch uses it
+  private static StructVec recordBatch(TableReader message, MemorySegment bodySegment, StructLayout layout) {
+    StructVec batch;
+    boolean bodyUsed;
+    try {
+      if (message.getByte(1, 0) != RECORD_BATCH) {
+        throw new IllegalArgumentException("message is not a record batch");
+      }
+      var recordBatch = message.getTable(2);
+      if (recordBatch.has(3)) {
+        throw new IllegalArgumentException("compressed record batches are not supported");
+      }
+      var reader = new BatchReader(bodySegment, recordBatch.getStructs(1, 2), recordBatch.getStructs(2, 2));
+      batch = reader.readBatch(layout);
+      bodyUsed = reader.bodyUsed;
+    } catch(RuntimeException | Error e) {
+      bodySegment.close();
+      throw e;
+    }
+    if (!bodyUsed) {  // by example, a batch without field or with only strings
+      bodySegment.close();
+    }
+    return batch;
+  }
+
+  private static void checkMagic(MemorySegment segment, long offset) {
+    for(var i = 0; i < MAGIC.length; i++) {
+      if (MemoryAccess.getByteAtOffset(segment, offset + i) != MAGIC[i]) {
+        throw new IllegalArgumentException("not an Arrow file");
+      }
+    }
+  }
+
+  /**
+   * Returns the layout of the record batches of an Arrow file.
+   *
+   * @param path the path of the Arrow file
+   * @return the layout of the record batches
+   * @throws IOException if an io error occurs
+   * @throws IllegalArgumentException if the file is not an Arrow file or if a type is not supported
+   */
+  public static StructLayout layout(Path path) throws IOException {
+    try(var recordBatches = map(path)) {
+      return recordBatches.layout();
+    }
+  }
+
+  /**
+   * Maps an Arrow file in memory, the buffers of the record batches are used directly
+   * as the memory of the Vecs if they are aligned.
+   *
+   * @param path the path of the Arrow file
+   * @return the record batches of the file
+   * @throws IOException if an io error occurs
+   * @throws IllegalArgumentException if the file is not an Arrow file or if a type is not supported
+   */
+  public static RecordBatches map(Path path) throws IOException {
+    requireNonNull(path);
+    // the whole file is mapped to read the metadata, the body of each batch has its own mapping
+    var segment = MemorySegment.mapFile(path, 0, Files.size(path), READ_ONLY);
+    var batches = new ArrayList<StructVec>();
+    try {
+      var size = segment.byteSize();
+      if (size < 2 * MAGIC.length + 6) {
+        throw new IllegalArgumentException("not an Arrow file");
+      }
+      checkMagic(segment, 0);
+      checkMagic(segment, size - MAGIC.length);
+      var footerLength = MemoryAccess.getIntAtOffset(segment, size - MAGIC.length - 4);
+      var footer = TableReader.root(segment.asSlice(size - MAGIC.length - 4 - footerLength, footerLength).asByteBuffer());
+      var layout = schemaLayout(footer.getTable(1));
+      var blocks = footer.getStructs(3, 3);
+      for(var i = 0; i < blocks.length; i += 3) {
+        var offset = blocks[i];
+        var metadataLength = (int) blocks[i + 1];
+        var bodyLength = blocks[i + 2];
+        var message = TableReader.root(metadata(segment, offset));
+        checkFromIndexSize(offset + metadataLength, bodyLength, size);
+        var bodySegment = MemorySegment.mapFile(path, offset + metadataLength, bodyLength, READ_ONLY);
+        batches.add(recordBatch(message, bodySegment, layout));
+      }
+      return new RecordBatches(layout, batches);
+    } catch(IOException | RuntimeException | Error e) {
+      for(var batch: batches) {
+        batch.close();
+      }
+      throw e;
+    } finally {
+      segment.close();
+    }
+  }
+
+  private static int readInt(InputStream input) throws IOException {
+    var bytes = input.readNBytes(4);
+    if (bytes.length == 0) {
+      return -1;
+    }
+    if (bytes.length != 4) {
+      throw new EOFException();
+    }
+    return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).getInt();
+  }
+
+  private static void readFully(InputStream input, MemorySegment segment) throws IOException {
+    var buffer = new byte[8192];
+    for(var offset = 0L; offset < segment.byteSize();) {
+      var size = (int) Math.min(buffer.length, segment.byteSize() - offset);
+      if (input.readNBytes(buffer, 0, size) != size) {
+        throw new EOFException();
+      }
+      segment.asSlice(offset, size).copyFrom(MemorySegment.ofArray(buffer).asSlice(0, size));
+      offset += size;
+    }
+  }
+
+  /**
+   * Reads the record batches of an Arrow stream, the body of each record batch is read
+   * into native memory which is used directly as the memory of the Vecs.
+   *
+   * @param input the Arrow stream, not closed by this method
+   * @return the record batches of the stream
+   * @throws IOException if an io error occurs
+   * @throws IllegalArgumentException if the stream is not an Arrow stream or if a type is not supported
+   */
+  public static RecordBatches readStream(InputStream input) throws IOException {
+    requireNonNull(input);
+    var layout = (StructLayout) null;
+    var batches = new ArrayList<StructVec>();
+    try {
+      for(;;) {
+        var metadataLength = readInt(input);
+        if (metadataLength == CONTINUATION) {
+          metadataLength = readInt(input);
+        }
+        if (metadataLength <= 0) {  // end of stream
+          break;
+        }
+        var metadata = input.readNBytes(metadataLength);
+        if (metadata.length != metadataLength) {
+          throw new EOFException();
+        }
+        var message = TableReader.root(ByteBuffer.wrap(metadata));
+        var headerType = message.getByte(1, 0);
+        var bodyLength = message.getLong(3, 0);
+        if (headerType == SCHEMA) {
+          layout = schemaLayout(message.getTable(2));
+          input.skipNBytes(bodyLength);
+          continue;
+        }
+        if (headerType == DICTIONARY_BATCH) {
+          throw new IllegalArgumentException("dictionaries are not supported");
+        }
+        if (layout == null) {
+          throw new IllegalArgumentException("a record batch is not preceded by a schema");
+        }
+        var bodySegment = MemorySegment.allocateNative(bodyLength, ALIGNMENT);
+        try {
+          readFully(input, bodySegment);
+        } catch(IOException | RuntimeException | Error e) {
+          bodySegment.close();
+          throw e;
+        }
+        batches.add(recordBatch(message, bodySegment, layout));
+      }
+    } catch(IOException | RuntimeException | Error e) {
+      for(var batch: batches) {
+        batch.close();
+      }
+      throw e;
+    }
+    if (layout == null) {
+      throw new IllegalArgumentException("no schema in the Arrow stream");
+    }
+    return new RecordBatches(layout, batches);
+  }
+
+  // -- write
+
+  /**
+   * A buffer of the body of a record batch, either a part of a file or some bytes.
+   */
+  private record Buffer(Path path, List<ByteBuffer> chunks, long size) {
+    static Buffer file(Path path, long size) {
+      return new Buffer(path, null, size);
+    }
+
+    static Buffer bytes(ByteBuffer bytes) {
+      return new Buffer(null, List.of(bytes), bytes.remaining());
+    }
+
+    // the chunks are flipped
+    static Buffer chunks(List<ByteBuffer> chunks) {
+      return new Buffer(null, chunks, chunks.stream().mapToLong(ByteBuffer::remaining).sum());
+    }
+  }
+
+  /**
+   * The nodes and the buffers of a record batch.
+   */
+  private static final class BatchPlan {
+    private final ArrayList<Long> nodes = new ArrayList<>();
+    private final ArrayList<Buffer> buffers = new ArrayList<>();
+    private long length;
+
+    private void node(long length, long nullCount) {
+      nodes.add(length);
+      nodes.add(nullCount);
+    }
+
+    private long[] bufferLongs() {
+      var longs = new long[buffers.size() << 1];
+      var offset = 0L;
+      for(var i = 0; i < buffers.size(); i++) {
+        var size = buffers.get(i).size;
+        longs[i << 1] = offset;
+        longs[(i << 1) + 1] = size;
+        offset += padded(size);
+      }
+      return longs;
+    }
+
+    private long bodyLength() {
+      return buffers.stream().mapToLong(buffer -> padded(buffer.size)).sum();
+    }
+  }
+
+  private static long padded(long size) {
+    return (size + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+  }
+
+  private static long byteSize(PrimitiveLayout primitiveLayout, long length) {
+    return switch(primitiveLayout.kind()) {
+      case u1 -> (length + 7) >>> 3;
+      case byte8 -> length;
+      case short16, char16 -> length << 1;
+      case int32, float32 -> length << 2;
+      case long64, double64 -> length << 3;
+    };
+  }
+
+  private static long nullCount(Path validityPath, long length) throws IOException {
+    var segment = MemorySegment.mapFile(validityPath, 0, Files.size(validityPath), READ_ONLY);
+    try {
+      var count = 0L;
+      for(var i = 0L; i < length >>> 6; i++) {
+        count += Long.bitCount(MemoryAccess.getLongAtIndex(segment, i));
+      }
+      var remaining = (int) (length & 63);
+      if (remaining != 0) {
+        count += Long.bitCount(MemoryAccess.getLongAtIndex(segment, length >>> 6) & ((1L << remaining) - 1));
+      }
+      return length - count;
+    } finally {
+      segment.close();
+    }
+  }
+
+  private static void planValidity(BatchPlan plan, Path directory, String name, boolean nullable, long length) throws IOException {
+    if (!nullable) {
+      plan.node(length, 0);
+      plan.buffers.add(Buffer.bytes(ByteBuffer.allocate(0)));
+      return;
+    }
+    var validityPath = directory.resolve(name + "_validity.tmhk");
+    plan.node(length, nullCount(validityPath, length));
+    plan.buffers.add(Buffer.file(validityPath, (length + 7) >>> 3));
+  }
+
+  private static int readInt(Path path, long index) throws IOException {
+    try(var channel = FileChannel.open(path, READ)) {
+      var buffer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+      channel.read(buffer, index << 2);
+      return buffer.getInt(0);
+    }
+  }
+
+  private static void plan(BatchPlan plan, Path directory, String name, Layout layout, long length) throws IOException {
+    if (layout instanceof PrimitiveLayout primitiveLayout) {
+      planValidity(plan, directory, name, primitiveLayout.nullable(), length);
+      plan.buffers.add(Buffer.file(directory.resolve(name + "_" + primitiveLayout + ".tmhk"), byteSize(primitiveLayout, length)));
+      return;
+    }
+    if (layout instanceof ListLayout listLayout) {
+      var listName = name + "_list";
+      planValidity(plan, directory, listName, listLayout.nullable(), length);
+      var offsetPath = directory.resolve(listName + "_offset.tmhk");
+      if (listLayout.dataType() == String.class) {
+        var charPath = directory.resolve(listName + "_" + listLayout.element() + ".tmhk");
+        encodeUTF8(plan, offsetPath, charPath, length);
+        return;
+      }
+      plan.buffers.add(Buffer.file(offsetPath, (length + 1) << 2));
+      plan(plan, directory, listName, listLayout.element(), readInt(offsetPath, length));
+      return;
+    }
+    if (layout instanceof StructLayout structLayout) {
+      var structName = name + "_struct";
+      planValidity(plan, directory, structName, structLayout.nullable(), length);
+      for(var field: structLayout.fields()) {
+        plan(plan, directory, structName + "-" + field.name(), field.layout(), length);
+      }
+      return;
+    }
+    throw new AssertionError("unknown layout");
+  }
+
+  // the size of the chunks of the encoded strings, a multiple of 4 so an offset is never split
+  private static final int CHUNK_SIZE = 1 << 16;
+
+  private static ByteBuffer newChunk(List<ByteBuffer> chunks) {
+    var chunk = ByteBuffer.allocate(CHUNK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    chunks.add(chunk);
+    return chunk;
+  }
+
+  // returns the current chunk, allocates a new one if the current one is full
+  private static ByteBuffer chunk(List<ByteBuffer> chunks) {
+    var chunk = chunks.isEmpty()? null: chunks.get(chunks.size() - 1);
+    return chunk == null || !chunk.hasRemaining()? newChunk(chunks): chunk;
+  }
+
+  // the strings are encoded into chunks, so the size is not limited by the size of an array
+  private static void encodeUTF8(BatchPlan plan, Path offsetPath, Path charPath, long length) throws IOException {
+    var encoder = StandardCharsets.UTF_8.newEncoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    var offsetSegment = MemorySegment.mapFile(offsetPath, 0, Files.size(offsetPath), READ_ONLY);
+    var charSegment = MemorySegment.mapFile(charPath, 0, Files.size(charPath), READ_ONLY);
+    try {
+      var offsetChunks = new ArrayList<ByteBuffer>();
+      var byteChunks = new ArrayList<ByteBuffer>();
+      var bytes = newChunk(byteChunks);
+      var fullChunkSize = 0L;  // the number of bytes of the full chunks
+      for(var i = 0L; i <= length; i++) {
+        var offset = fullChunkSize + bytes.position();
+        if (offset > Integer.MAX_VALUE) {
+          throw new IllegalArgumentException("the strings are too big for an Arrow Utf8 column");
+        }
+        chunk(offsetChunks).putInt((int) offset);
+        if (i == length) {
+          break;
+        }
+        var start = MemoryAccess.getIntAtIndex(offsetSegment, i);
+        var end = MemoryAccess.getIntAtIndex(offsetSegment, i + 1);
+        var chars = charSegment.asSlice((long) start << 1, (long) (end - start) << 1)
+            .asByteBuffer().order(ByteOrder.LITTLE_ENDIAN).asCharBuffer();
+        encoder.reset();
+        while(encoder.encode(chars, bytes, true).isOverflow()) {
+          fullChunkSize += bytes.position();  // the end of the chunk may be unused
+          bytes = newChunk(byteChunks);
+        }
+        while(encoder.flush(bytes).isOverflow()) {
+          fullChunkSize += bytes.position();  // the end of the chunk may be unused
+          bytes = newChunk(byteChunks);
+        }
+      }
+      offsetChunks.forEach(ByteBuffer::flip);
+      byteChunks.forEach(ByteBuffer::flip);
+      plan.buffers.add(Buffer.chunks(offsetChunks));
+      plan.buffers.add(Buffer.chunks(byteChunks));
+    } finally {
+      offsetSegment.close();
+      charSegment.close();
+    }
+  }
+
+  /**
+   * Writes the encapsulated messages and keeps track of the position.
+   */
+  private static final class MessageWriter {
+    private final WritableByteChannel channel;
+    private long position;
+
+    private MessageWriter(WritableByteChannel channel) {
+      this.channel = channel;
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+      while(buffer.hasRemaining()) {
+        position += channel.write(buffer);
+      }
+    }
+
+    private void writeFile(Path path, long size) throws IOException {
+      try(var file = FileChannel.open(path, READ)) {
+        if (file.size() < size) {
+          throw new IOException("file " + path + " is too small");
+        }
+        for(var offset = 0L; offset < size;) {
+          var transferred = file.transferTo(offset, size - offset, channel);
+          offset += transferred;
+          position += transferred;
+        }
+      }
+    }
+
+    private void pad(long size) throws IOException {
+      write(ByteBuffer.allocate((int) (padded(size) - size)));
+    }
+
+    private void writeInt(int value) throws IOException {
+      write(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(0, value));
+    }
+
+    /**
+     * Writes a message, returns its metadata length.
+     */
+    private int writeMessage(Table message) throws IOException {
+      var metadata = FlatBuffers.encode(message);  // the size is a multiple of 8
+      writeInt(CONTINUATION);
+      writeInt(metadata.length);
+      write(ByteBuffer.wrap(metadata));
+      return 8 + metadata.length;
+    }
+
+    private void writeBody(BatchPlan plan) throws IOException {
+      for(var buffer: plan.buffers) {
+        if (buffer.path != null) {
+          writeFile(buffer.path, buffer.size);
+        } else {
+          for(var chunk: buffer.chunks) {
+            write(chunk.duplicate());
+          }
+        }
+        pad(buffer.size);
+      }
+    }
+
+    private void writeEndOfStream() throws IOException {
+      writeInt(CONTINUATION);
+      writeInt(0);
+    }
+  }
+
+  private static BatchPlan plan(Path directory, String name, StructLayout layout) throws IOException {
+    long length;
+    try(var vec = LayoutHelper.map(directory, name, layout)) {
+      length = vec.length();
+    }
+    var plan = new BatchPlan();
+    var structName = name + "_struct";
+    for(var field: layout.fields()) {
+      plan(plan, directory, structName + "-" + field.name(), field.layout(), length);
+    }
+    plan.length = length;
+    return plan;
+  }
+
+  private static Table recordBatch(BatchPlan plan) {
+    var nodes = plan.nodes.stream().mapToLong(Long::longValue).toArray();
+    return table(long64(plan.length), new StructVector(2, nodes), new StructVector(2, plan.bufferLongs()));
+  }
+
+  /**
+   * Exports the columns of a "table" as an Arrow file containing one record batch.
+   *
+   * The buffers are copied from the files of the columns, the strings are transcoded to UTF-8.
+   * A null row of the "table" is not exported because a record batch has no validity.
+   *
+   * @param directory the directory of the "table"
+   * @param name the name of the "table"
+   * @param layout the layout of the "table"
+   * @param path the path of the Arrow file
+   * @throws IOException if an io error occurs
+   */
+  public static void export(Path directory, String name, StructLayout layout, Path path) throws IOException {
+    requireNonNull(directory);
+    requireNonNull(name);
+    requireNonNull(layout);
+    requireNonNull(path);
+    var plan = plan(directory, name, layout);
+    try(var channel = FileChannel.open(path, CREATE, WRITE, TRUNCATE_EXISTING)) {
+      var writer = new MessageWriter(channel);
+      writer.write(ByteBuffer.wrap(Arrays.copyOf(MAGIC, 8)));  // padded to 8
+      var schema = schema(layout);
+      writer.writeMessage(message(SCHEMA, schema, 0));
+      var blockOffset = writer.position;
+      var bodyLength = plan.bodyLength();
+      var metadataLength = writer.writeMessage(message(RECORD_BATCH, recordBatch(plan), bodyLength));
+      writer.writeBody(plan);
+      writer.writeEndOfStream();
+      var footer = FlatBuffers.encode(table(
+          short16(V5),
+          schema,
+          new StructVector(3, new long[0]),
+          new StructVector(3, new long[] { blockOffset, metadataLength, bodyLength })));
+      writer.write(ByteBuffer.wrap(footer));
+      writer.writeInt(footer.length);
+      writer.write(ByteBuffer.wrap(MAGIC));
+    }
+  }
+
+  /**
+   * Exports the columns of a "table" as an Arrow stream containing one record batch.
+   *
+   * @param directory the directory of the "table"
+   * @param name the name of the "table"
+   * @param layout the layout of the "table"
+   * @param output the output stream, not closed by this method
+   * @throws IOException if an io error occurs
+   *
+   * @see #export(Path, String, StructLayout, Path)
+   */
+  public static void exportStream(Path directory, String name, StructLayout layout, OutputStream output) throws IOException {
+    requireNonNull(directory);
+    requireNonNull(name);
+    requireNonNull(layout);
+    requireNonNull(output);
+    var plan = plan(directory, name, layout);
+    var writer = new MessageWriter(Channels.newChannel(output));
+    writer.writeMessage(message(SCHEMA, schema(layout), 0));
+    writer.writeMessage(message(RECORD_BATCH, recordBatch(plan), plan.bodyLength()));
+    writer.writeBody(plan);
+    writer.writeEndOfStream();
+    output.flush();
+  }
+}
@@ -18,100 +18,464 @@ import com.github.forax.tomahawk.vec.U64Vec;
 import com.github.forax.tomahawk.vec.U8Vec;
 import com.github.forax.tomahawk.vec.Vec;
 import com.github.forax.tomahawk.vec.Vec.BaseBuilder;
+import jdk.incubator.foreign.MemorySegment;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.io.StringReader;
 import java.io.UncheckedIOException;
 import java.nio.file.Files;
+import java.nio.file.OpenOption;
 import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.function.LongConsumer;
+import java.util.function.Predicate;
 
 import static com.fasterxml.jackson.core.JsonToken.END_ARRAY;
 import static com.fasterxml.jackson.core.JsonToken.START_ARRAY;
 import static com.fasterxml.jackson.core.JsonToken.VALUE_STRING;
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.util.Objects.requireNonNull;
 
 public final class CSV {
   private CSV() {
     throw new AssertionError();
   }
 
-  public static void fetch(String text, StructLayout layout, Path directory, String name) throws IOException {
-    fetch(new StringReader(text), layout, directory, name);
+  public static void fetch(String text, StructLayout layout, Path directory, String name, OpenOption... openOptions) throws IOException {
+    fetch(new StringReader(text), layout, directory, name, openOptions);
   }
 
-  public static void fetch(Path path, StructLayout layout, Path directory, String name) throws IOException {
-    try (var reader = Files.newBufferedReader(path)) {
-      fetch(reader, layout, directory, name);
+  public static void fetch(Path path, StructLayout layout, Path directory, String name, OpenOption... openOptions) throws IOException {
+    fetch(path, layout, __ -> true, directory, name, openOptions);
+  }
+
+  /**
+   * Imports only some columns of a CSV file, the cells of the other columns are skipped without being decoded.
+   *
+   * @param path the path of the CSV file
+   * @param layout the layout of the imported columns
+   * @param columnFilter a predicate on the header of a column, the columns for which the predicate is false are skipped
+   * @param directory the directory of the "table"
+   * @param name the name of the "table"
+   * @param openOptions the options used to create the files of the columns,
+   *                    by example {@link com.github.forax.tomahawk.vec.AsyncWriteOption} to write them asynchronously
+   * @throws IOException if an io error occurs or if an imported column has no layout
+   */
+  public static void fetch(Path path, StructLayout layout, Predicate<? super String> columnFilter, Path directory, String name, OpenOption... openOptions) throws IOException {
+    requireNonNull(columnFilter);
+    var segment = MemorySegment.mapFile(path, 0, Files.size(path), READ_ONLY);
+    try {
+      var end = segment.byteSize();
+      var headerEnd = TextChunks.lineEnd(segment, 0, end, '"', false);
+      var headers = parseHeaders(segment, headerEnd, layout, columnFilter);
+      long length;
+      try(var structBuilder = (StructVec.Builder) LayoutHelper.builder(directory, name, layout, openOptions)) {
+        var columns = columns(headers, layout, columnFilter, structBuilder);
+        for(var range: TextChunks.split(segment, headerEnd, end, rangeCount(end - headerEnd, 1), '"', Runnable::run)) {
+          tokenizer(segment, range, columns).parse(structBuilder);
+        }
+        length = structBuilder.length();
+      }
+      LayoutHelper.saveLength(directory, name, length);
+    } finally {
+      segment.close();
     }
   }
 
+  // builder and layout are null if the column is skipped
   private record Column(BaseBuilder<?> builder, Layout layout) {}
 
-  public static void fetch(Reader reader, StructLayout layout, Path directory, String name) throws IOException {
-    try(var structBuilder = (StructVec.Builder) LayoutHelper.builder(directory, name, layout)) {
-      var fieldBuilders = structBuilder.fieldBuilders();
-      var columnMap = new HashMap<String, Column>();
-      var index = 0;
-      for (var field : layout.fields()) {
-        var fieldName = field.name();
-        var fieldLayout = field.layout();
-        columnMap.put(fieldName, new Column(fieldBuilders.get(index++), fieldLayout));
+  /**
+   * Number of rows used by default to infer a layout.
+   */
+  private static final int DEFAULT_SAMPLE_SIZE = 10_000;
+
+  /**
+   * Infers the layout of a CSV file from the values of its first 10 000 rows.
+   *
+   * @param path the path of the CSV file
+   * @return a struct layout with a field for each column of the CSV file
+   * @throws IOException if an io error occurs
+   *
+   * @see #inferLayout(Reader, int)
+   */
+  public static StructLayout inferLayout(Path path) throws IOException {
+    return inferLayout(path, DEFAULT_SAMPLE_SIZE);
+  }
+
+  /**
+   * Infers the layout of a CSV file from the values of its first rows.
+   *
+   * @param path the path of the CSV file
+   * @param sampleSize the number of rows used to infer the layout
+   * @return a struct layout with a field for each column of the CSV file
+   * @throws IOException if an io error occurs
+   *
+   * @see #inferLayout(Reader, int)
+   */
+  public static StructLayout inferLayout(Path path, int sampleSize) throws IOException {
+    try (var reader = Files.newBufferedReader(path)) {
+      return inferLayout(reader, sampleSize);
+    }
+  }
+
+  /**
+   * Infers the layout of a CSV text from the values of its first rows.
+   *
+   * For each column, the layout is the narrowest layout able to store all the values of the sample,
+   * {@code true} and {@code false} are stored as {@code u1}, integers as {@code byte8}, {@code short16},
+   * {@code int32} or {@code long64} depending on their range, decimal numbers as {@code float32} if
+   * they have at most 6 significant digits or as {@code double64} otherwise and all other values
+   * are stored as strings. A column is nullable if it contains an empty value.
+   *
+   * Because only a sample is used, a value after the sample may not fit in the inferred layout.
+   *
+   * @param reader the CSV text
+   * @param sampleSize the number of rows used to infer the layout
+   * @return a struct layout with a field for each column of the CSV text
+   * @throws IOException if an io error occurs
+   * @throws IllegalArgumentException if {@code sampleSize} is not positive
+   */
+  public static StructLayout inferLayout(Reader reader, int sampleSize) throws IOException {
+    requireNonNull(reader);
+    if (sampleSize <= 0) {
+      throw new IllegalArgumentException("sampleSize <= 0");
+    }
+    var factory = CsvFactory.builder().build();
+    try (var parser = factory.createParser(reader)) {
+      parser.setSchema(CsvSchema.emptySchema());
+      var headers = parseHeaders(parser);
+      var inferences = headers.stream().map(__ -> new LayoutInference(false)).toList();
+      for(var row = 0; row < sampleSize && parser.nextToken() == START_ARRAY; row++) {
+        for(var inference: inferences) {
+          var token = parser.nextToken();
+          if (token != VALUE_STRING) {
+            throw new JsonParseException(parser, "not enough element, the headers defines " + headers.size() + " columns");
+          }
+          inference.acceptCell(parser.getText());
+        }
+        expect(parser, END_ARRAY);
       }
+      var fields = new Layout.Field[headers.size()];
+      for(var i = 0; i < fields.length; i++) {
+        fields[i] = Layout.field(headers.get(i), inferences.get(i).layout());
+      }
+      return Layout.struct(false, fields);
+    }
+  }
+
+  /**
+   * Maximum size of a range of lines parsed by a tokenizer.
+   */
+  private static final long MAX_RANGE_SIZE = 1L << 30;
+
+  private static int rangeCount(long size, int parallelism) {
+    return (int) Math.max(parallelism, (size + MAX_RANGE_SIZE - 1) / MAX_RANGE_SIZE);
+  }
+
+  private static CsvTokenizer tokenizer(MemorySegment segment, TextChunks.Range range, List<Column> columns) {
+    return new CsvTokenizer(segment, range.start(), range.end(),
+        columns.stream().map(Column::builder).toList(),
+        columns.stream().map(Column::layout).toList());
+  }
+
+  private static List<String> parseHeaders(MemorySegment segment, long headerEnd, StructLayout layout, Predicate<? super String> columnFilter) throws IOException {
+    var factory = CsvFactory.builder().build();
+    try(var parser = factory.createParser(TextChunks.inputStream(segment, 0, headerEnd))) {
+      parser.setSchema(CsvSchema.emptySchema());
+      var headers = parseHeaders(parser);
+      checkHeaders(parser, headers, layout, columnFilter);
+      return headers;
+    }
+  }
 
+  public static void fetch(Reader reader, StructLayout layout, Path directory, String name, OpenOption... openOptions) throws IOException {
+    long length;
+    try(var structBuilder = (StructVec.Builder) LayoutHelper.builder(directory, name, layout, openOptions)) {
       var factory = CsvFactory.builder().build();
       try (var parser = factory.createParser(reader)) {
         parser.setSchema(CsvSchema.emptySchema());
 
         var headers = parseHeaders(parser);
-        var columns = new ArrayList<Column>();
-        for (var header : headers) {
-          var column = columnMap.get(header);
-          if (column == null) {
-            throw new JsonParseException(parser, "header " + header + " has no layout among " + layout.fields());
-          }
-          columns.add(column);
-        }
-
+        checkHeaders(parser, headers, layout, __ -> true);
+        var columns = columns(headers, layout, __ -> true, structBuilder);
         parseRows(parser, structBuilder, columns);
       }
+      length = structBuilder.length();
     }
+    LayoutHelper.saveLength(directory, name, length);
   }
 
-  private static void parseRows(CsvParser parser, StructVec.Builder structBuilder, ArrayList<Column> columns) throws IOException {
-    expect(parser, START_ARRAY);
-    for(;;) {
-      try {
-        structBuilder.appendRow(rowBuilder -> {
-          try {
-            for(var column: columns) {
-              var token = parser.nextToken();
-              if (token == END_ARRAY) {
-                throw new UncheckedIOException(
-                    new JsonParseException(parser, "not enough element, the headers defines " + columns.size() + " columns"));
-              }
-              if (token != VALUE_STRING) {
-                throw new UncheckedIOException(new JsonParseException(parser, "unknown element " + token));
-              }
-              var text = parser.getText();
-              //System.out.println("parse element " + token + " " + text);
-              insertData(rowBuilder, column.builder, column.layout, text);
+  /**
+   * Imports the rows of a CSV stream by chunks, appending them to the columns of the "table".
+   *
+   * A chunk is sealed when the {@code sealPolicy} says so or at the end of the stream,
+   * then {@code sealListener} is called with the length of the "table", the rows of the sealed chunks
+   * can be mapped while the next chunk is appended.
+   * If the columns already exist, the rows are appended after the existing ones.
+   *
+   * @param reader the stream of CSV text, the first line being the headers
+   * @param layout the layout of the "table"
+   * @param directory the directory of the "table"
+   * @param name the name of the "table"
+   * @param sealPolicy the policy that says when a chunk is sealed
+   * @param sealListener a listener called with the length of the "table" each time a chunk is sealed
+   * @throws IOException if an io error occurs
+   *
+   * @see SealPolicy
+   */
+  public static void ingest(Reader reader, StructLayout layout, Path directory, String name, SealPolicy sealPolicy, LongConsumer sealListener) throws IOException {
+    requireNonNull(reader);
+    requireNonNull(layout);
+    requireNonNull(directory);
+    requireNonNull(name);
+    requireNonNull(sealPolicy);
+    requireNonNull(sealListener);
+    var factory = CsvFactory.builder().build();
+    try(var parser = factory.createParser(reader)) {
+      parser.setSchema(CsvSchema.emptySchema());
+      var headers = parseHeaders(parser);
+      checkHeaders(parser, headers, layout, __ -> true);
+      ingestRows(parser, headers, layout, directory, name, sealPolicy, sealListener);
+    }
+  }
+
+  // the columns of a chunk
+  private record Chunk(StructVec.Builder structBuilder, List<Column> columns) {}
+
+  private static void ingestRows(CsvParser parser, List<String> headers, StructLayout layout, Path directory, String name, SealPolicy sealPolicy, LongConsumer sealListener) throws IOException {
+    try(var sealer = new ChunkSealer<>(directory, name, layout, sealPolicy, sealListener, builder -> {
+          var structBuilder = (StructVec.Builder) builder;
+          return new Chunk(structBuilder, columns(headers, layout, __ -> true, structBuilder));
+        })) {
+      var cells = new String[headers.size()];
+      var token = parser.nextToken();
+      while(token == START_ARRAY) {
+        // the cells are read before appending the row, so the stream does not block while the sealer is locked
+        readCells(parser, cells);
+        sealer.appendRow(chunk -> appendCells(chunk.structBuilder(), chunk.columns(), cells));
+        token = parser.nextToken();
+      }
+      if (token != null) {
+        throw new JsonParseException(parser, "expected token " + START_ARRAY + " but found " + token);
+      }
+      sealer.seal();
+    }
+  }
+
+  /**
+   * Imports a CSV file using several threads.
+   *
+   * The file is mapped in memory and split into ranges of lines (a newline inside a quoted value
+   * does not end a line), each range is parsed in parallel into its own chunk of columns,
+   * then the chunks are concatenated in order into the columns of the "table".
+   *
+   * @param path the path of the CSV file
+   * @param layout the layout of the "table"
+   * @param directory the directory of the "table"
+   * @param name the name of the "table"
+   * @param parallelism the number of ranges parsed in parallel
+   * @throws IOException if an io error occurs
+   * @throws IllegalArgumentException if {@code parallelism} is not positive
+   */
+  public static void fetchParallel(Path path, StructLayout layout, Path directory, String name, int parallelism) throws IOException {
+    fetchParallel(path, layout, __ -> true, directory, name, parallelism);
+  }
+
+  /**
+   * Imports only some columns of a CSV file using several threads,
+   * the cells of the other columns are skipped without being decoded.
+   *
+   * @param path the path of the CSV file
+   * @param layout the layout of the imported columns
+   * @param columnFilter a predicate on the header of a column, the columns for which the predicate is false are skipped
+   * @param directory the directory of the "table"
+   * @param name the name of the "table"
+   * @param parallelism the number of ranges parsed in parallel
+   * @throws IOException if an io error occurs or if an imported column has no layout
+   * @throws IllegalArgumentException if {@code parallelism} is not positive
+   *
+   * @see #fetchParallel(Path, StructLayout, Path, String, int)
+   */
+  public static void fetchParallel(Path path, StructLayout layout, Predicate<? super String> columnFilter, Path directory, String name, int parallelism) throws IOException {
+    requireNonNull(path);
+    requireNonNull(layout);
+    requireNonNull(columnFilter);
+    requireNonNull(directory);
+    requireNonNull(name);
+    if (parallelism <= 0) {
+      throw new IllegalArgumentException("parallelism <= 0");
+    }
+    var executor = Executors.newFixedThreadPool(parallelism);
+    var segment = MemorySegment.mapFile(path, 0, Files.size(path), READ_ONLY).share();  // read by all threads
+    try {
+      var end = segment.byteSize();
+      var headerEnd = TextChunks.lineEnd(segment, 0, end, '"', false);
+      var headers = parseHeaders(segment, headerEnd, layout, columnFilter);
+      var ranges = TextChunks.split(segment, headerEnd, end, rangeCount(end - headerEnd, parallelism), '"', executor);
+      TextChunks.fetchChunks(ranges, layout, directory, name, executor, (range, builder) -> {
+        var structBuilder = (StructVec.Builder) builder;
+        tokenizer(segment, range, columns(headers, layout, columnFilter, structBuilder)).parse(structBuilder);
+        return structBuilder.length();
+      });
+    } finally {
+      segment.close();
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Imports a CSV file using as many threads as available processors.
+   *
+   * @param path the path of the CSV file
+   * @param layout the layout of the "table"
+   * @param directory the directory of the "table"
+   * @param name the name of the "table"
+   * @throws IOException if an io error occurs
+   *
+   * @see #fetchParallel(Path, StructLayout, Path, String, int)
+   */
+  public static void fetchParallel(Path path, StructLayout layout, Path directory, String name) throws IOException {
+    fetchParallel(path, layout, directory, name, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Exports the rows of a struct as CSV, the first line being the names of the fields.
+   *
+   * The rows are exported by batches, column by column, the values are formatted directly
+   * into a byte buffer which is written when full, so no String is created per value.
+   * A null value is exported as an empty cell.
+   *
+   * @param vec the struct to export
+   * @param layout the layout of the struct
+   * @param output the output stream, not closed by this method
+   * @throws IOException if an io error occurs
+   * @throws IllegalArgumentException if a field is neither a primitive nor a string
+   */
+  public static void export(StructVec vec, StructLayout layout, OutputStream output) throws IOException {
+    requireNonNull(vec);
+    requireNonNull(layout);
+    requireNonNull(output);
+    TextExporter.exportCSV(vec, layout, output);
+  }
+
+  /**
+   * Exports the rows of a struct into a CSV file, the first line being the names of the fields.
+   *
+   * @param vec the struct to export
+   * @param layout the layout of the struct
+   * @param path the path of the CSV file
+   * @throws IOException if an io error occurs
+   * @throws IllegalArgumentException if a field is neither a primitive nor a string
+   *
+   * @see #export(StructVec, StructLayout, OutputStream)
+   */
+  public static void export(StructVec vec, StructLayout layout, Path path) throws IOException {
+    requireNonNull(path);
+    try(var output = Files.newOutputStream(path)) {  // the exporter already writes big chunks
+      export(vec, layout, output);
+    }
+  }
+
+  private static void checkHeaders(CsvParser parser, List<String> headers, StructLayout layout, Predicate<? super String> columnFilter) throws JsonParseException {
+    for (var header : headers) {
+      if (columnFilter.test(header) && layout.fieldIndex(header) == -1) {
+        throw new JsonParseException(parser, "header " + header + " has no layout among " + layout.fields());
+      }
+    }
+  }
+
+  private static List<Column> columns(List<String> headers, StructLayout layout, Predicate<? super String> columnFilter, StructVec.Builder structBuilder) {
+    var fieldBuilders = structBuilder.fieldBuilders();
+    var fields = layout.fields();
+    var columns = new ArrayList<Column>();
+    for (var header : headers) {
+      if (!columnFilter.test(header)) {
+        columns.add(new Column(null, null));
+        continue;
+      }
+      var index = layout.fieldIndex(header);
+      columns.add(new Column(fieldBuilders.get(index), fields.get(index).layout()));
+    }
+    return columns;
+  }
+
+  private static void parseRows(CsvParser parser, StructVec.Builder structBuilder, List<Column> columns) throws IOException {
+    var firstToken = parser.nextToken();
+    if (firstToken == null) {  // no row
+      return;
+    }
+    if (firstToken != START_ARRAY) {
+      throw new JsonParseException(parser, "expected token " + START_ARRAY + " but found " + firstToken);
+    }
+    do {
+      parseRow(parser, structBuilder, columns);
+    } while(parser.nextToken() == START_ARRAY);
+  }
+
+  private static void parseRow(CsvParser parser, StructVec.Builder structBuilder, List<Column> columns) throws IOException {
+    try {
+      structBuilder.appendRow(rowBuilder -> {
+        try {
+          for(var column: columns) {
+            var token = parser.nextToken();
+            if (token == END_ARRAY) {
+              throw new UncheckedIOException(
+                  new JsonParseException(parser, "not enough element, the headers defines " + columns.size() + " columns"));
+            }
+            if (token != VALUE_STRING) {
+              throw new UncheckedIOException(new JsonParseException(parser, "unknown element " + token));
             }
-          } catch(IOException e) {
-            throw new UncheckedIOException(e);
+            var text = cellText(parser);
+            //System.out.println("parse element " + token + " " + text);
+            insertData(rowBuilder, column.builder, column.layout, text);
           }
-        });
-      } catch(UncheckedIOException e) {  // unpack UncheckedIOException
-        throw e.getCause();
-      }
-      expect(parser, END_ARRAY);
+        } catch(IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+    } catch(UncheckedIOException e) {  // unpack UncheckedIOException
+      throw e.getCause();
+    }
+    expect(parser, END_ARRAY);
+  }
+
+  private static void readCells(CsvParser parser, String[] cells) throws IOException {
+    for(var i = 0; i < cells.length; i++) {
       var token = parser.nextToken();
-      if (token != START_ARRAY) {
-        return;
+      if (token == END_ARRAY) {
+        throw new JsonParseException(parser, "not enough element, the headers defines " + cells.length + " columns");
       }
+      if (token != VALUE_STRING) {
+        throw new JsonParseException(parser, "unknown element " + token);
+      }
+      cells[i] = cellText(parser);
+    }
+    expect(parser, END_ARRAY);
+  }
+
+  // returns the text of the current cell or null if the cell is empty, a quoted empty cell is an empty text
+  private static String cellText(CsvParser parser) throws IOException {
+    var text = parser.getText();
+    if (!text.isEmpty()) {
+      return text;
     }
+    // the parser returns the same text for both empty cells, but only the quotes of a quoted cell
+    // are consumed after the start of the cell
+    return parser.getCurrentLocation().getCharOffset() > parser.getTokenLocation().getCharOffset()? "": null;
+  }
+
+  private static void appendCells(StructVec.Builder structBuilder, List<Column> columns, String[] cells) {
+    structBuilder.appendRow(rowBuilder -> {
+      for(var i = 0; i < cells.length; i++) {
+        var column = columns.get(i);
+        insertData(rowBuilder, column.builder, column.layout, cells[i]);
+      }
+    });
   }
 
   private static char parseChar(String text) {
@@ -122,7 +486,7 @@ public final class CSV {
   }
 
   private static void insertData(RowBuilder rowBuilder, Vec.BaseBuilder<?> builder, Layout layout, String text) {
-    if (text.isEmpty()) {
+    if (text == null || text.isEmpty() && !(layout instanceof ListLayout)) {  // only a text can be empty
       rowBuilder.appendNull(builder);
       return;
     }
@@ -0,0 +1,162 @@
+package com.github.forax.tomahawk.schema;
+
+import com.github.forax.tomahawk.vec.Vec;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
+
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+
+/**
+ * Appends the rows of a streaming import by chunks.
+ *
+ * Each chunk is appended by its own builder opened in append mode, sealing a chunk closes its builder,
+ * so the files of the "table" contain all the rows of the sealed chunks, then calls the seal listener
+ * with the length of the "table".
+ *
+ * A chunk is sealed when it contains enough rows or, by a timer thread, when it has been opened
+ * for too long, so a stream that blocks does not delay the sealing of the rows already read.
+ * A row is appended while holding the lock of the sealer, so the timer never seals a chunk
+ * in the middle of a row, and the seal listener is called while holding that lock
+ * either by the thread that appends the rows or by the timer thread.
+ *
+ * The rows are counted by the sealer because a struct builder does not count the rows
+ * appended directly to its fields.
+ *
+ * @param <C> the type of the state of a chunk, computed from the builder when the chunk is opened
+ */
+final class ChunkSealer<C> implements Closeable {
+  private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+    var thread = new Thread(runnable, "tomahawk-sealer");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  /**
+   * Appends a row to the chunk being appended.
+   * @param <C> the type of the state of a chunk
+   */
+  @FunctionalInterface
+  interface RowAppender<C> {
+    /**
+     * Appends a row.
+     * @param chunk the state of the chunk being appended
+     * @throws IOException if an io error occurs or the row is not valid
+     */
+    void append(C chunk) throws IOException;
+  }
+
+  private final Path directory;
+  private final String name;
+  private final Layout layout;
+  private final SealPolicy sealPolicy;
+  private final LongConsumer sealListener;
+  private final Function<? super Vec.BaseBuilder<?>, ? extends C> chunkFactory;
+
+  private Vec.BaseBuilder<?> builder;  // null if no chunk is open
+  private C chunk;
+  private ScheduledFuture<?> timeout;
+  private long openLength;
+  private long rowCount;
+  private IOException failure;  // the failure of a seal done by the timer
+
+  ChunkSealer(Path directory, String name, Layout layout, SealPolicy sealPolicy, LongConsumer sealListener,
+              Function<? super Vec.BaseBuilder<?>, ? extends C> chunkFactory) {
+    this.directory = directory;
+    this.name = name;
+    this.layout = layout;
+    this.sealPolicy = sealPolicy;
+    this.sealListener = sealListener;
+    this.chunkFactory = chunkFactory;
+  }
+
+  private void checkFailure() throws IOException {
+    if (failure != null) {
+      throw new IOException("the sealing of a chunk by the timer has failed", failure);
+    }
+  }
+
+  // opens a new chunk if necessary
+  private C chunk() throws IOException {
+    if (builder == null) {
+      var builder = LayoutHelper.builder(directory, name, layout, CREATE, APPEND);
+      openLength = builder.length();  // the length of the table if the files already exist
+      rowCount = 0;
+      chunk = chunkFactory.apply(builder);
+      this.builder = builder;
+      timeout = TIMER.schedule(() -> sealOnTimeout(builder), sealPolicy.delayMillis(), TimeUnit.MILLISECONDS);
+    }
+    return chunk;
+  }
+
+  // called by the timer thread
+  private synchronized void sealOnTimeout(Vec.BaseBuilder<?> chunkBuilder) {
+    if (builder != chunkBuilder) {  // already sealed
+      return;
+    }
+    try {
+      seal();
+    } catch (IOException e) {
+      failure = e;
+    } catch (RuntimeException e) {
+      failure = new IOException(e);
+    }
+  }
+
+  /**
+   * Appends a row to the chunk being appended, opens a new chunk if necessary,
+   * then seals the chunk if it contains enough rows.
+   *
+   * @param rowAppender the code that appends the row
+   * @throws IOException if an io error occurs or if the timer has failed to seal a chunk
+   */
+  synchronized void appendRow(RowAppender<? super C> rowAppender) throws IOException {
+    checkFailure();
+    rowAppender.append(chunk());
+    rowCount++;
+    if (rowCount >= sealPolicy.rowCount()) {
+      seal();
+    }
+  }
+
+  /**
+   * Seals the chunk being appended if there is one.
+   *
+   * @throws IOException if an io error occurs or if the timer has failed to seal a chunk
+   */
+  synchronized void seal() throws IOException {
+    checkFailure();
+    if (builder == null) {
+      return;
+    }
+    close();
+    LayoutHelper.saveLength(directory, name, openLength + rowCount);
+    sealListener.accept(openLength + rowCount);
+  }
+
+  /**
+   * Closes the builder of the chunk being appended without calling the seal listener,
+   * so a chunk is not reported if the import fails.
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (builder == null) {
+      return;
+    }
+    timeout.cancel(false);
+    try {
+      builder.close();
+    } finally {
+      builder = null;
+      chunk = null;
+    }
+  }
+}
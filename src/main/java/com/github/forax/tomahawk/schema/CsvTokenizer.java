@@ -0,0 +1,437 @@
+package com.github.forax.tomahawk.schema;
+
+import com.github.forax.tomahawk.schema.Layout.ListLayout;
+import com.github.forax.tomahawk.schema.Layout.PrimitiveLayout;
+import com.github.forax.tomahawk.schema.Layout.PrimitiveLayout.Kind;
+import com.github.forax.tomahawk.vec.ListVec;
+import com.github.forax.tomahawk.vec.StructVec;
+import com.github.forax.tomahawk.vec.StructVec.RowBuilder;
+import com.github.forax.tomahawk.vec.U16Vec;
+import com.github.forax.tomahawk.vec.U1Vec;
+import com.github.forax.tomahawk.vec.U32Vec;
+import com.github.forax.tomahawk.vec.U64Vec;
+import com.github.forax.tomahawk.vec.U8Vec;
+import com.github.forax.tomahawk.vec.Vec.BaseBuilder;
+import jdk.incubator.foreign.MemorySegment;
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+
+/**
+ * A CSV tokenizer that works directly on the bytes (UTF-8) of a range of lines of a mapped file.
+ *
+ * Unlike a parser that creates a String for each cell, the numbers are decoded from the bytes
+ * and the characters of a text are decoded into the element builder of the list,
+ * so parsing a row does not allocate.
+ * The delimiters and the quotes are found using vectorized comparisons.
+ *
+ * A tokenizer is not thread safe, but several tokenizers can parse different ranges of the same segment.
+ */
+final class CsvTokenizer implements Consumer<RowBuilder> {
+  private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+
+  private static final byte COMMA = ',', NEWLINE = '\n', RETURN = '\r', QUOTE = '"';
+  private static final int END = -1;  // the last cell is not followed by a delimiter
+
+  private static final double[] DOUBLE_POWERS_OF_TEN = {
+      1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+      1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+  };
+  private static final float[] FLOAT_POWERS_OF_TEN = {
+      1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f
+  };
+
+  private final ByteBuffer buffer;
+  private final long base;
+  private final int limit;
+  private final BaseBuilder<?>[] builders;
+  private final Layout[] layouts;
+  private final Consumer<U16Vec.Builder> textAppender = this::appendText;
+
+  private int position;
+
+  // the current cell
+  private int cellStart;
+  private int cellEnd;
+  private boolean quoted;
+  private int delimiter;
+
+  // the current decimal number
+  private boolean decimalNegative;
+  private long decimalMantissa;
+  private int decimalExponent;
+
+  /**
+   * Creates a tokenizer on the bytes of a segment in between {@code start} and {@code end}
+   *
+   * @param segment a segment
+   * @param start the start of the first line
+   * @param end the end of the last line
+   * @param builders the builder of each column of a line, {@code null} if the column is skipped
+   * @param layouts the layout of each column of a line, {@code null} if the column is skipped
+   * @throws IllegalArgumentException if the range is bigger than 2G
+   * @throws IllegalStateException if a layout is not supported
+   */
+  CsvTokenizer(MemorySegment segment, long start, long end, List<? extends BaseBuilder<?>> builders, List<? extends Layout> layouts) {
+    if (end - start > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("range too big " + (end - start));
+    }
+    for(var layout: layouts) {
+      if (layout instanceof ListLayout listLayout
+          && !(listLayout.element() instanceof PrimitiveLayout element && element.kind() == Kind.char16)) {
+        throw new IllegalStateException("invalid layout " + layout);
+      }
+    }
+    this.buffer = segment.asSlice(start, end - start).asByteBuffer().order(LITTLE_ENDIAN);
+    this.base = start;
+    this.limit = buffer.limit();
+    this.builders = builders.toArray(BaseBuilder<?>[]::new);
+    this.layouts = layouts.toArray(Layout[]::new);
+  }
+
+  /**
+   * Appends all the lines of the range to the struct builder.
+   * @param structBuilder a struct builder
+   * @throws IOException if a line is not a valid CSV line
+   * @throws NumberFormatException if a value is not a valid number
+   */
+  void parse(StructVec.Builder structBuilder) throws IOException {
+    try {
+      while (position < limit) {
+        structBuilder.appendRow(this);
+      }
+    } catch(UncheckedIOException e) {  // unpack UncheckedIOException
+      throw e.getCause();
+    }
+  }
+
+  private UncheckedIOException error(String message) {
+    return new UncheckedIOException(new IOException(message + " at offset " + (base + position)));
+  }
+
+  @Override
+  public void accept(RowBuilder rowBuilder) {
+    for(var i = 0; i < builders.length; i++) {
+      if (i != 0 && delimiter != COMMA) {
+        throw error("not enough element, the headers defines " + builders.length + " columns");
+      }
+      nextCell();
+      if (builders[i] == null) {  // skipped column, the cell is not decoded
+        continue;
+      }
+      insertData(rowBuilder, builders[i], layouts[i]);
+    }
+    if (delimiter == COMMA) {
+      throw error("too many elements, the headers defines " + builders.length + " columns");
+    }
+  }
+
+  private int indexOfDelimiter(int from) {
+    var index = from;
+    for(var loopBound = limit - SPECIES.length(); index <= loopBound; index += SPECIES.length()) {
+      var vector = ByteVector.fromByteBuffer(SPECIES, buffer, index, LITTLE_ENDIAN);
+      var mask = vector.eq(COMMA).or(vector.eq(NEWLINE));
+      if (mask.anyTrue()) {
+        return index + mask.firstTrue();
+      }
+    }
+    for(; index < limit; index++) {  // post loop
+      var value = buffer.get(index);
+      if (value == COMMA || value == NEWLINE) {
+        return index;
+      }
+    }
+    return limit;
+  }
+
+  private int indexOfQuote(int from) {
+    var index = from;
+    for(var loopBound = limit - SPECIES.length(); index <= loopBound; index += SPECIES.length()) {
+      var mask = ByteVector.fromByteBuffer(SPECIES, buffer, index, LITTLE_ENDIAN).eq(QUOTE);
+      if (mask.anyTrue()) {
+        return index + mask.firstTrue();
+      }
+    }
+    for(; index < limit; index++) {  // post loop
+      if (buffer.get(index) == QUOTE) {
+        return index;
+      }
+    }
+    return limit;
+  }
+
+  private void nextCell() {
+    var start = position;
+    if (start < limit && buffer.get(start) == QUOTE) {
+      var index = start + 1;
+      for(;;) {
+        index = indexOfQuote(index);
+        if (index == limit) {
+          throw error("unclosed quote");
+        }
+        if (index + 1 < limit && buffer.get(index + 1) == QUOTE) {  // escaped quote
+          index += 2;
+          continue;
+        }
+        break;
+      }
+      cellStart = start + 1;
+      cellEnd = index;
+      quoted = true;
+      var next = index + 1;
+      if (next < limit && buffer.get(next) == RETURN && next + 1 < limit && buffer.get(next + 1) == NEWLINE) {
+        next++;
+      }
+      if (next == limit) {
+        delimiter = END;
+        position = limit;
+        return;
+      }
+      var value = buffer.get(next);
+      if (value != COMMA && value != NEWLINE) {
+        position = next;
+        throw error("unexpected character after a quoted value");
+      }
+      delimiter = value;
+      position = next + 1;
+      return;
+    }
+    var index = indexOfDelimiter(start);
+    cellStart = start;
+    quoted = false;
+    if (index == limit) {
+      delimiter = END;
+      position = limit;
+    } else {
+      delimiter = buffer.get(index);
+      position = index + 1;
+    }
+    cellEnd = (delimiter != COMMA && index > start && buffer.get(index - 1) == RETURN)? index - 1: index;
+  }
+
+  private void insertData(RowBuilder rowBuilder, BaseBuilder<?> builder, Layout layout) {
+    if (cellStart == cellEnd && !(quoted && layout instanceof ListLayout)) {  // a quoted empty cell is an empty text
+      rowBuilder.appendNull(builder);
+      return;
+    }
+    if (layout instanceof PrimitiveLayout primitiveLayout) {
+      switch(primitiveLayout.kind()) {
+        case u1 -> rowBuilder.appendBoolean((U1Vec.Builder) builder, parseBoolean());
+        case byte8 -> rowBuilder.appendByte((U8Vec.Builder) builder, (byte) parseLong(Byte.MIN_VALUE, Byte.MAX_VALUE));
+        case short16 -> rowBuilder.appendShort((U16Vec.Builder) builder, (short) parseLong(Short.MIN_VALUE, Short.MAX_VALUE));
+        case char16 -> rowBuilder.appendChar((U16Vec.Builder) builder, parseChar());
+        case int32 -> rowBuilder.appendInt((U32Vec.Builder) builder, (int) parseLong(Integer.MIN_VALUE, Integer.MAX_VALUE));
+        case float32 -> rowBuilder.appendFloat((U32Vec.Builder) builder, parseFloat());
+        case long64 -> rowBuilder.appendLong((U64Vec.Builder) builder, parseLong(Long.MIN_VALUE, Long.MAX_VALUE));
+        case double64 -> rowBuilder.appendDouble((U64Vec.Builder) builder, parseDouble());
+        default -> throw new AssertionError();
+      }
+      return;
+    }
+    if (layout instanceof ListLayout) {
+      @SuppressWarnings("unchecked")
+      var listBuilder = (ListVec.Builder<U16Vec, U16Vec.Builder>) builder;
+      rowBuilder.appendValues(listBuilder, textAppender);
+      return;
+    }
+    throw new IllegalStateException("invalid layout " + layout);
+  }
+
+  private String cellText() {  // only used to report an error or by the slow paths
+    var bytes = new byte[cellEnd - cellStart];
+    buffer.get(cellStart, bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private boolean parseBoolean() {  // same semantics as Boolean.parseBoolean()
+    if (cellEnd - cellStart != 4) {
+      return false;
+    }
+    return (buffer.get(cellStart) | 0x20) == 't'
+        && (buffer.get(cellStart + 1) | 0x20) == 'r'
+        && (buffer.get(cellStart + 2) | 0x20) == 'u'
+        && (buffer.get(cellStart + 3) | 0x20) == 'e';
+  }
+
+  private long parseLong(long min, long max) {
+    var index = cellStart;
+    var first = buffer.get(index);
+    var negative = first == '-';
+    if (negative || first == '+') {
+      index++;
+    }
+    if (index == cellEnd) {
+      throw new NumberFormatException("For input string: \"" + cellText() + "\"");
+    }
+    var value = 0L;  // accumulated negatively to be able to represent Long.MIN_VALUE
+    for(; index < cellEnd; index++) {
+      var digit = buffer.get(index) - '0';
+      if (digit < 0 || digit > 9 || value < Long.MIN_VALUE / 10 || value * 10 < Long.MIN_VALUE + digit) {
+        throw new NumberFormatException("For input string: \"" + cellText() + "\"");
+      }
+      value = value * 10 - digit;
+    }
+    if (!negative) {
+      if (value == Long.MIN_VALUE) {
+        throw new NumberFormatException("For input string: \"" + cellText() + "\"");
+      }
+      value = -value;
+    }
+    if (value < min || value > max) {
+      throw new NumberFormatException("Value out of range. Value:\"" + cellText() + "\"");
+    }
+    return value;
+  }
+
+  /**
+   * Decodes a decimal number as a sign, a mantissa and a power of ten.
+   * Returns false if the number has too many digits or is not a simple decimal number,
+   * in that case, the slow path should be used.
+   */
+  private boolean decodeDecimal() {
+    var index = cellStart;
+    var first = buffer.get(index);
+    var negative = first == '-';
+    if (negative || first == '+') {
+      index++;
+    }
+    var mantissa = 0L;
+    var digits = 0;
+    var exponent = 0;
+    var dot = false;
+    for(; index < cellEnd; index++) {
+      var value = buffer.get(index);
+      if (value == '.' && !dot) {
+        dot = true;
+        continue;
+      }
+      var digit = value - '0';
+      if (digit < 0 || digit > 9) {
+        break;
+      }
+      if (++digits > 18) {
+        return false;
+      }
+      mantissa = mantissa * 10 + digit;
+      if (dot) {
+        exponent--;
+      }
+    }
+    if (digits == 0) {
+      return false;
+    }
+    if (index < cellEnd) {  // exponent part
+      var value = buffer.get(index++);
+      if ((value | 0x20) != 'e' || index == cellEnd) {
+        return false;
+      }
+      var sign = buffer.get(index);
+      var negativeExponent = sign == '-';
+      if (negativeExponent || sign == '+') {
+        index++;
+      }
+      if (index == cellEnd || cellEnd - index > 3) {
+        return false;
+      }
+      var exp = 0;
+      for(; index < cellEnd; index++) {
+        var digit = buffer.get(index) - '0';
+        if (digit < 0 || digit > 9) {
+          return false;
+        }
+        exp = exp * 10 + digit;
+      }
+      exponent += negativeExponent? -exp: exp;
+    }
+    decimalNegative = negative;
+    decimalMantissa = mantissa;
+    decimalExponent = exponent;
+    return true;
+  }
+
+  private double parseDouble() {
+    // if the mantissa and the power of ten are exactly representable as double,
+    // one multiplication or division is correctly rounded
+    if (decodeDecimal()) {
+      var mantissa = decimalMantissa;
+      var exponent = decimalExponent;
+      if (mantissa <= 1L << 53 && Math.abs(exponent) < DOUBLE_POWERS_OF_TEN.length) {
+        var value = exponent < 0? mantissa / DOUBLE_POWERS_OF_TEN[-exponent]: mantissa * DOUBLE_POWERS_OF_TEN[exponent];
+        return decimalNegative? -value: value;
+      }
+    }
+    return Double.parseDouble(cellText());
+  }
+
+  private float parseFloat() {
+    if (decodeDecimal()) {
+      var mantissa = decimalMantissa;
+      var exponent = decimalExponent;
+      if (mantissa <= 1L << 24 && Math.abs(exponent) < FLOAT_POWERS_OF_TEN.length) {
+        var value = exponent < 0? mantissa / FLOAT_POWERS_OF_TEN[-exponent]: mantissa * FLOAT_POWERS_OF_TEN[exponent];
+        return decimalNegative? -value: value;
+      }
+    }
+    return Float.parseFloat(cellText());
+  }
+
+  private char parseChar() {
+    var value = buffer.get(cellStart);
+    if (value >= 0 && cellEnd - cellStart == 1) {  // ASCII
+      return (char) value;
+    }
+    var length = (value & 0xE0) == 0xC0? 2: (value & 0xF0) == 0xE0? 3: -1;
+    if (length != cellEnd - cellStart) {
+      throw new NumberFormatException(cellText() + " is not a valid character");
+    }
+    return (char) codePoint(cellStart, length);
+  }
+
+  private int codePoint(int index, int length) {
+    var value = buffer.get(index);
+    var codePoint = switch(length) {
+      case 2 -> value & 0x1F;
+      case 3 -> value & 0x0F;
+      default -> value & 0x07;
+    };
+    for(var i = 1; i < length; i++) {
+      codePoint = codePoint << 6 | (buffer.get(index + i) & 0x3F);
+    }
+    return codePoint;
+  }
+
+  private void appendText(U16Vec.Builder builder) {
+    var end = cellEnd;
+    for(var index = cellStart; index < end; index++) {
+      var value = buffer.get(index);
+      if (value >= 0) {  // ASCII
+        if (value == QUOTE && quoted) {  // skip the second quote of an escaped quote
+          index++;
+        }
+        builder.appendChar((char) value);
+        continue;
+      }
+      var length = (value & 0xE0) == 0xC0? 2: (value & 0xF0) == 0xE0? 3: (value & 0xF8) == 0xF0? 4: -1;
+      if (length == -1 || index + length > end) {  // malformed
+        builder.appendChar('\uFFFD');
+        continue;
+      }
+      var codePoint = codePoint(index, length);
+      if (Character.isBmpCodePoint(codePoint)) {
+        builder.appendChar((char) codePoint);
+      } else {
+        builder.appendChar(Character.highSurrogate(codePoint));
+        builder.appendChar(Character.lowSurrogate(codePoint));
+      }
+      index += length - 1;
+    }
+  }
+}
@@ -0,0 +1,327 @@
+package com.github.forax.tomahawk.schema;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A minimal implementation of the FlatBuffers binary format, enough to read and write
+ * the metadata of the Arrow IPC format.
+ *
+ * A flat buffer is written front to back, a table is written as its vtable followed by its inline
+ * fields, then the objects referenced by the table (strings, vectors and tables) are written after it,
+ * so all the offsets point forward as required by the format.
+ */
+final class FlatBuffers {
+  private FlatBuffers() {
+    throw new AssertionError();
+  }
+
+  /**
+   * A value of a field of a table.
+   */
+  interface Value {}
+
+  /**
+   * A scalar value stored inline, {@code size} is 1, 2, 4 or 8 bytes.
+   */
+  record Scalar(int size, long bits) implements Value {}
+
+  /**
+   * A table, a {@code null} field is absent.
+   */
+  record Table(List<Value> fields) implements Value {}
+
+  /**
+   * A UTF-8 string.
+   */
+  record Text(String text) implements Value {}
+
+  /**
+   * A vector of tables.
+   */
+  record TableVector(List<Table> tables) implements Value {}
+
+  /**
+   * A vector of structs composed of longs, each struct is {@code longCount} longs.
+   */
+  record StructVector(int longCount, long[] longs) implements Value {}
+
+  static Scalar bool(boolean value) {
+    return new Scalar(1, value? 1: 0);
+  }
+
+  static Scalar byte8(int value) {
+    return new Scalar(1, value);
+  }
+
+  static Scalar short16(int value) {
+    return new Scalar(2, value);
+  }
+
+  static Scalar int32(int value) {
+    return new Scalar(4, value);
+  }
+
+  static Scalar long64(long value) {
+    return new Scalar(8, value);
+  }
+
+  static Table table(Value... fields) {
+    return new Table(Arrays.asList(fields));
+  }
+
+  /**
+   * Encodes a root table, the size of the result is a multiple of 8.
+   */
+  static byte[] encode(Table root) {
+    var writer = new Writer();
+    writer.putInt(0);  // offset of the root table
+    writer.write(root, 0);
+    writer.align(8);
+    return Arrays.copyOf(writer.bytes, writer.length);
+  }
+
+  private static final class Writer {
+    private byte[] bytes = new byte[256];
+    private int length;
+
+    private void ensureCapacity(int extra) {
+      if (length + extra > bytes.length) {
+        bytes = Arrays.copyOf(bytes, Math.max(bytes.length << 1, length + extra));
+      }
+    }
+
+    private void align(int alignment) {
+      var padding = (alignment - (length % alignment)) % alignment;
+      ensureCapacity(padding);
+      length += padding;  // the bytes are already zeroes
+    }
+
+    private void put(int size, long bits) {
+      ensureCapacity(size);
+      for(var i = 0; i < size; i++) {
+        bytes[length++] = (byte) (bits >>> (i << 3));
+      }
+    }
+
+    private void putInt(int value) {
+      put(4, value);
+    }
+
+    private void patch(int position, int value) {
+      for(var i = 0; i < 4; i++) {
+        bytes[position + i] = (byte) (value >>> (i << 3));
+      }
+    }
+
+    // writes an object and patches the offset at {@code offsetPosition}
+    private void write(Value value, int offsetPosition) {
+      int position;
+      if (value instanceof Table table) {
+        position = writeTable(table);
+      } else if (value instanceof Text text) {
+        var utf8 = text.text.getBytes(StandardCharsets.UTF_8);
+        align(4);
+        position = length;
+        putInt(utf8.length);
+        ensureCapacity(utf8.length + 1);
+        System.arraycopy(utf8, 0, bytes, length, utf8.length);
+        length += utf8.length + 1;  // zero terminated
+      } else if (value instanceof TableVector tableVector) {
+        var tables = tableVector.tables;
+        align(4);
+        position = length;
+        putInt(tables.size());
+        var elementPosition = length;
+        ensureCapacity(tables.size() << 2);
+        length += tables.size() << 2;
+        for(var i = 0; i < tables.size(); i++) {
+          write(tables.get(i), elementPosition + (i << 2));
+        }
+      } else if (value instanceof StructVector structVector) {
+        while((length + 4) % 8 != 0) {  // the structs are aligned on 8
+          put(1, 0);
+        }
+        position = length;
+        var longs = structVector.longs;
+        putInt(longs.length / structVector.longCount);
+        for(var bits: longs) {
+          put(8, bits);
+        }
+      } else {
+        throw new AssertionError("not a reference " + value);
+      }
+      patch(offsetPosition, position - offsetPosition);
+    }
+
+    private int writeTable(Table table) {
+      var fields = table.fields;
+
+      // compute the layout of the inline fields, the first 4 bytes are the offset of the vtable
+      var fieldOffsets = new int[fields.size()];
+      var inlineSize = 4;
+      for(var i = 0; i < fields.size(); i++) {
+        var field = fields.get(i);
+        if (field == null) {
+          continue;
+        }
+        var size = field instanceof Scalar scalar? scalar.size: 4;
+        inlineSize = (inlineSize + size - 1) / size * size;
+        fieldOffsets[i] = inlineSize;
+        inlineSize += size;
+      }
+
+      // vtable
+      align(2);
+      var vtablePosition = length;
+      put(2, 4 + (fields.size() << 1));
+      put(2, inlineSize);
+      for(var fieldOffset: fieldOffsets) {
+        put(2, fieldOffset);
+      }
+
+      // table, aligned on 8 so the inline longs are aligned
+      align(8);
+      var tablePosition = length;
+      putInt(tablePosition - vtablePosition);
+      ensureCapacity(inlineSize - 4);
+      length = tablePosition + inlineSize;
+      for(var i = 0; i < fields.size(); i++) {
+        if (fields.get(i) instanceof Scalar scalar) {
+          var bits = scalar.bits;
+          for(var j = 0; j < scalar.size; j++) {
+            bytes[tablePosition + fieldOffsets[i] + j] = (byte) (bits >>> (j << 3));
+          }
+        }
+      }
+
+      // referenced objects
+      for(var i = 0; i < fields.size(); i++) {
+        var field = fields.get(i);
+        if (field != null && !(field instanceof Scalar)) {
+          write(field, tablePosition + fieldOffsets[i]);
+        }
+      }
+      return tablePosition;
+    }
+  }
+
+  /**
+   * A table of a flat buffer being read.
+   */
+  record TableReader(ByteBuffer buffer, int position) {
+    /**
+     * Returns the root table of a flat buffer.
+     */
+    static TableReader root(ByteBuffer buffer) {
+      var littleEndian = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+      return new TableReader(littleEndian, littleEndian.getInt(0));
+    }
+
+    private int fieldPosition(int index) {
+      var vtable = position - buffer.getInt(position);
+      var vtableSize = buffer.getShort(vtable) & 0xFFFF;
+      var entry = 4 + (index << 1);
+      if (entry >= vtableSize) {
+        return -1;
+      }
+      var offset = buffer.getShort(vtable + entry) & 0xFFFF;
+      return offset == 0? -1: position + offset;
+    }
+
+    boolean has(int index) {
+      return fieldPosition(index) != -1;
+    }
+
+    boolean getBoolean(int index, boolean defaultValue) {
+      var fieldPosition = fieldPosition(index);
+      return fieldPosition == -1? defaultValue: buffer.get(fieldPosition) != 0;
+    }
+
+    int getByte(int index, int defaultValue) {
+      var fieldPosition = fieldPosition(index);
+      return fieldPosition == -1? defaultValue: buffer.get(fieldPosition) & 0xFF;
+    }
+
+    int getShort(int index, int defaultValue) {
+      var fieldPosition = fieldPosition(index);
+      return fieldPosition == -1? defaultValue: buffer.getShort(fieldPosition);
+    }
+
+    int getInt(int index, int defaultValue) {
+      var fieldPosition = fieldPosition(index);
+      return fieldPosition == -1? defaultValue: buffer.getInt(fieldPosition);
+    }
+
+    long getLong(int index, long defaultValue) {
+      var fieldPosition = fieldPosition(index);
+      return fieldPosition == -1? defaultValue: buffer.getLong(fieldPosition);
+    }
+
+    private int reference(int index) {
+      var fieldPosition = fieldPosition(index);
+      if (fieldPosition == -1) {
+        return -1;
+      }
+      return fieldPosition + buffer.getInt(fieldPosition);
+    }
+
+    /**
+     * Returns the table referenced by the field or {@code null} if the field is absent.
+     */
+    TableReader getTable(int index) {
+      var reference = reference(index);
+      return reference == -1? null: new TableReader(buffer, reference);
+    }
+
+    /**
+     * Returns the string referenced by the field or {@code null} if the field is absent.
+     */
+    String getString(int index) {
+      var reference = reference(index);
+      if (reference == -1) {
+        return null;
+      }
+      var utf8 = new byte[buffer.getInt(reference)];
+      buffer.get(reference + 4, utf8);
+      return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the tables of a vector of tables, an absent vector is empty.
+     */
+    List<TableReader> getTables(int index) {
+      var reference = reference(index);
+      if (reference == -1) {
+        return List.of();
+      }
+      var size = buffer.getInt(reference);
+      var tables = new ArrayList<TableReader>(size);
+      for(var i = 0; i < size; i++) {
+        var elementPosition = reference + 4 + (i << 2);
+        tables.add(new TableReader(buffer, elementPosition + buffer.getInt(elementPosition)));
+      }
+      return tables;
+    }
+
+    /**
+     * Returns the longs of a vector of structs composed of {@code longCount} longs,
+     * an absent vector is empty.
+     */
+    long[] getStructs(int index, int longCount) {
+      var reference = reference(index);
+      if (reference == -1) {
+        return new long[0];
+      }
+      var longs = new long[buffer.getInt(reference) * longCount];
+      for(var i = 0; i < longs.length; i++) {
+        longs[i] = buffer.getLong(reference + 4 + (i << 3));
+      }
+      return longs;
+    }
+  }
+}
@@ -15,49 +15,385 @@ import com.github.forax.tomahawk.vec.U32Vec;
 import com.github.forax.tomahawk.vec.U64Vec;
 import com.github.forax.tomahawk.vec.U8Vec;
 import com.github.forax.tomahawk.vec.Vec;
+import jdk.incubator.foreign.MemorySegment;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.io.StringReader;
 import java.io.UncheckedIOException;
 import java.nio.file.Files;
+import java.nio.file.OpenOption;
 import java.nio.file.Path;
+import java.util.BitSet;
+import java.util.concurrent.Executors;
+import java.util.function.LongConsumer;
+import java.util.function.Predicate;
 
 import static com.fasterxml.jackson.core.JsonToken.END_ARRAY;
 import static com.github.forax.tomahawk.schema.Layout.PrimitiveLayout.Kind.char16;
 import static com.github.forax.tomahawk.schema.Layout.PrimitiveLayout.Kind.u1;
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.util.Objects.requireNonNull;
 
 public class JSON {
   private JSON() {
     throw new AssertionError();
   }
 
-  public static void fetch(String text, Layout layout, Path directory, String name) throws IOException {
-    fetch(new StringReader(text), layout, directory, name);
+  public static void fetch(String text, Layout layout, Path directory, String name, OpenOption... openOptions) throws IOException {
+    fetch(new StringReader(text), layout, directory, name, openOptions);
   }
 
-  public static void fetch(Path path, Layout layout, Path directory, String name) throws IOException {
+  public static void fetch(Path path, Layout layout, Path directory, String name, OpenOption... openOptions) throws IOException {
     try (var reader = Files.newBufferedReader(path)) {
-      fetch(reader, layout, directory, name);
+      fetch(reader, layout, directory, name, openOptions);
     }
   }
 
-  public static void fetch(Reader reader, Layout layout, Path directory, String name) throws IOException {
-    try(var vecBuilder = LayoutHelper.builder(directory, name, layout)) {
+  /**
+   * Imports only some fields of the objects of a JSON file, the values of the other fields are skipped
+   * without being stored or converted.
+   *
+   * @param path the path of the JSON file, an object or an array of objects
+   * @param layout the layout of the imported fields
+   * @param fieldFilter a predicate on the name of a field, the fields for which the predicate is false are skipped
+   * @param directory the directory of the "table"
+   * @param name the name of the "table"
+   * @param openOptions the options used to create the files of the columns,
+   *                    by example {@link com.github.forax.tomahawk.vec.AsyncWriteOption} to write them asynchronously
+   * @throws IOException if an io error occurs or if an imported field has no layout
+   */
+  public static void fetch(Path path, StructLayout layout, Predicate<? super String> fieldFilter, Path directory, String name, OpenOption... openOptions) throws IOException {
+    requireNonNull(fieldFilter);
+    long length;
+    try (var reader = Files.newBufferedReader(path);
+         var vecBuilder = LayoutHelper.builder(directory, name, layout, openOptions)) {
+      var factory = JsonFactory.builder().build();
+      try (var parser = factory.createParser(reader)) {
+        var token = parser.nextToken();
+        if (token == JsonToken.START_ARRAY) {
+          while((token = parser.nextToken()) != END_ARRAY) {
+            parseValue(parser, vecBuilder, layout, fieldFilter, token);
+          }
+        } else if (token == JsonToken.START_OBJECT) {
+          parseValue(parser, vecBuilder, layout, fieldFilter, token);
+        }
+      }
+      length = vecBuilder.length();
+    }
+    LayoutHelper.saveLength(directory, name, length);
+  }
+
+  /**
+   * Infers the layout of a JSON file from its first 10 000 values.
+   *
+   * @param path the path of the JSON file
+   * @return the inferred layout
+   * @throws IOException if an io error occurs
+   *
+   * @see #inferLayout(Reader, int)
+   */
+  public static Layout inferLayout(Path path) throws IOException {
+    return inferLayout(path, 10_000);
+  }
+
+  /**
+   * Infers the layout of a JSON file from its first values.
+   *
+   * @param path the path of the JSON file
+   * @param sampleSize the number of values of the top-level array used to infer the layout
+   * @return the inferred layout
+   * @throws IOException if an io error occurs
+   *
+   * @see #inferLayout(Reader, int)
+   */
+  public static Layout inferLayout(Path path, int sampleSize) throws IOException {
+    try (var reader = Files.newBufferedReader(path)) {
+      return inferLayout(reader, sampleSize);
+    }
+  }
+
+  /**
+   * Infers the layout of a JSON text from its first values.
+   *
+   * If the JSON text is an array, the layout is inferred from the first {@code sampleSize} values of the array,
+   * if the JSON text is an object, the layout is inferred from that object.
+   * Booleans are stored as {@code u1}, integers as {@code byte8}, {@code short16}, {@code int32} or
+   * {@code long64} depending on their range, decimal numbers as {@code float32} if they have at most
+   * 6 significant digits or as {@code double64} otherwise, objects as struct and arrays as list.
+   * A field is nullable if it is null or missing in one of the objects.
+   *
+   * Because only a sample is used, a value after the sample may not fit in the inferred layout.
+   *
+   * @param reader the JSON text
+   * @param sampleSize the number of values of the top-level array used to infer the layout
+   * @return the inferred layout
+   * @throws IOException if an io error occurs or if the values of a field have different kinds
+   * @throws IllegalArgumentException if {@code sampleSize} is not positive
+   */
+  public static Layout inferLayout(Reader reader, int sampleSize) throws IOException {
+    requireNonNull(reader);
+    if (sampleSize <= 0) {
+      throw new IllegalArgumentException("sampleSize <= 0");
+    }
+    var factory = JsonFactory.builder().build();
+    try (var parser = factory.createParser(reader)) {
+      var inference = new LayoutInference(true);
+      var token = parser.nextToken();
+      if (token == JsonToken.START_ARRAY) {
+        for(var i = 0; i < sampleSize && (token = parser.nextToken()) != END_ARRAY; i++) {
+          inferValue(parser, inference, token);
+        }
+      } else {
+        inferValue(parser, inference, token);
+      }
+      try {
+        return inference.layout();
+      } catch(IllegalStateException e) {
+        throw new JsonParseException(parser, e.getMessage(), e);
+      }
+    }
+  }
+
+  /**
+   * Infers the layout of the values of a JSON Lines file (a JSON value per line) from its first 10 000 values.
+   *
+   * @param path the path of the JSON Lines file
+   * @return the inferred layout
+   * @throws IOException if an io error occurs or if the values of a field have different kinds
+   *
+   * @see #inferLayout(Reader, int)
+   * @see #fetchLines(Path, Layout, Path, String)
+   */
+  public static Layout inferLinesLayout(Path path) throws IOException {
+    requireNonNull(path);
+    var factory = JsonFactory.builder().build();
+    try (var reader = Files.newBufferedReader(path);
+         var parser = factory.createParser(reader)) {
+      var inference = new LayoutInference(true);
+      var token = parser.nextToken();
+      for(var i = 0; i < 10_000 && token != null; i++) {
+        inferValue(parser, inference, token);
+        token = parser.nextToken();
+      }
+      try {
+        return inference.layout();
+      } catch(IllegalStateException e) {
+        throw new JsonParseException(parser, e.getMessage(), e);
+      }
+    }
+  }
+
+  private static void inferValue(JsonParser parser, LayoutInference inference, JsonToken token) throws IOException {
+    switch(token) {
+      case VALUE_NULL -> inference.acceptNull();
+      case VALUE_TRUE, VALUE_FALSE -> inference.acceptBoolean();
+      case VALUE_NUMBER_INT -> {
+        if (parser.getNumberType() == JsonParser.NumberType.BIG_INTEGER) {
+          inference.acceptDecimal(parser.getText());
+        } else {
+          inference.acceptInteger(parser.getLongValue());
+        }
+      }
+      case VALUE_NUMBER_FLOAT -> inference.acceptDecimal(parser.getText());
+      case VALUE_STRING -> inference.acceptText();
+      case START_OBJECT -> {
+        inference.acceptObject();
+        while((token = parser.nextToken()) != JsonToken.END_OBJECT) {
+          var fieldInference = inference.field(parser.getCurrentName());
+          inferValue(parser, fieldInference, parser.nextToken());
+        }
+      }
+      case START_ARRAY -> {
+        inference.acceptArray();
+        while((token = parser.nextToken()) != END_ARRAY) {
+          inferValue(parser, inference.element(), token);
+        }
+      }
+      default -> throw new JsonParseException(parser, "invalid token " + token);
+    }
+  }
+
+  public static void fetch(Reader reader, Layout layout, Path directory, String name, OpenOption... openOptions) throws IOException {
+    long length;
+    try(var vecBuilder = LayoutHelper.builder(directory, name, layout, openOptions)) {
       var factory = JsonFactory.builder().build();
       try (var parser = factory.createParser(reader)) {
         var token = parser.nextToken();
         if (token == JsonToken.START_ARRAY) {
           parseArray(parser, vecBuilder, layout);
-          return;
+        } else if (token == JsonToken.START_OBJECT) {
+          parseValue(parser, vecBuilder, layout, token);
         }
-        if (token == JsonToken.START_OBJECT) {
-          if (!(layout instanceof StructLayout structLayout)) {
-            throw new JsonParseException(parser, "found an object but layout is not a StructLayout " + layout);
+      }
+      length = vecBuilder.length();
+    }
+    if (layout instanceof StructLayout) {
+      LayoutHelper.saveLength(directory, name, length);
+    }
+  }
+
+  /**
+   * Imports a JSON Lines file (a JSON value per line) using several threads.
+   *
+   * The file is mapped in memory and split into ranges of lines, each range is parsed in parallel
+   * into its own chunk of columns, then the chunks are concatenated in order into the columns of the "table".
+   *
+   * @param path the path of the JSON Lines file
+   * @param layout the layout of each value
+   * @param directory the directory of the "table"
+   * @param name the name of the "table"
+   * @param parallelism the number of ranges parsed in parallel
+   * @throws IOException if an io error occurs
+   * @throws IllegalArgumentException if {@code parallelism} is not positive
+   */
+  public static void fetchLines(Path path, Layout layout, Path directory, String name, int parallelism) throws IOException {
+    fetchLines(path, layout, __ -> true, directory, name, parallelism);
+  }
+
+  /**
+   * Imports only some fields of the objects of a JSON Lines file using several threads,
+   * the values of the other fields are skipped without being stored or converted.
+   *
+   * @param path the path of the JSON Lines file
+   * @param layout the layout of the imported fields
+   * @param fieldFilter a predicate on the name of a field, the fields for which the predicate is false are skipped
+   * @param directory the directory of the "table"
+   * @param name the name of the "table"
+   * @param parallelism the number of ranges parsed in parallel
+   * @throws IOException if an io error occurs or if an imported field has no layout
+   * @throws IllegalArgumentException if {@code parallelism} is not positive
+   *
+   * @see #fetchLines(Path, Layout, Path, String, int)
+   */
+  public static void fetchLines(Path path, StructLayout layout, Predicate<? super String> fieldFilter, Path directory, String name, int parallelism) throws IOException {
+    fetchLines(path, (Layout) layout, fieldFilter, directory, name, parallelism);
+  }
+
+  private static void fetchLines(Path path, Layout layout, Predicate<? super String> fieldFilter, Path directory, String name, int parallelism) throws IOException {
+    requireNonNull(path);
+    requireNonNull(layout);
+    requireNonNull(fieldFilter);
+    requireNonNull(directory);
+    requireNonNull(name);
+    if (parallelism <= 0) {
+      throw new IllegalArgumentException("parallelism <= 0");
+    }
+    var executor = Executors.newFixedThreadPool(parallelism);
+    var segment = MemorySegment.mapFile(path, 0, Files.size(path), READ_ONLY).share();  // read by all threads
+    try {
+      // a JSON string can not contain a newline, so there is no quote to take care of
+      var ranges = TextChunks.split(segment, 0, segment.byteSize(), parallelism, -1, executor);
+      var factory = JsonFactory.builder().build();
+      TextChunks.fetchChunks(ranges, layout, directory, name, executor, (range, builder) -> {
+        try(var parser = factory.createParser(TextChunks.inputStream(segment, range.start(), range.end()))) {
+          var length = 0L;
+          for(var token = parser.nextToken(); token != null; token = parser.nextToken()) {
+            parseValue(parser, builder, layout, fieldFilter, token);
+            length++;
+          }
+          return length;
+        }
+      });
+    } finally {
+      segment.close();
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Imports a JSON Lines file (a JSON value per line) using as many threads as available processors.
+   *
+   * @param path the path of the JSON Lines file
+   * @param layout the layout of each value
+   * @param directory the directory of the "table"
+   * @param name the name of the "table"
+   * @throws IOException if an io error occurs
+   *
+   * @see #fetchLines(Path, Layout, Path, String, int)
+   */
+  public static void fetchLines(Path path, Layout layout, Path directory, String name) throws IOException {
+    fetchLines(path, layout, directory, name, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Imports the values of a JSON Lines stream (a JSON value per line) by chunks,
+   * appending them to the columns of the "table".
+   *
+   * A chunk is sealed when the {@code sealPolicy} says so or at the end of the stream,
+   * then {@code sealListener} is called with the length of the "table", the values of the sealed chunks
+   * can be mapped while the next chunk is appended.
+   * If the columns already exist, the values are appended after the existing ones.
+   *
+   * @param reader the stream of JSON values
+   * @param layout the layout of each value
+   * @param directory the directory of the "table"
+   * @param name the name of the "table"
+   * @param sealPolicy the policy that says when a chunk is sealed
+   * @param sealListener a listener called with the length of the "table" each time a chunk is sealed
+   * @throws IOException if an io error occurs
+   *
+   * @see SealPolicy
+   */
+  public static void ingestLines(Reader reader, Layout layout, Path directory, String name, SealPolicy sealPolicy, LongConsumer sealListener) throws IOException {
+    requireNonNull(reader);
+    requireNonNull(layout);
+    requireNonNull(directory);
+    requireNonNull(name);
+    requireNonNull(sealPolicy);
+    requireNonNull(sealListener);
+    var factory = JsonFactory.builder().build();
+    var lineReader = reader instanceof BufferedReader bufferedReader? bufferedReader: new BufferedReader(reader);
+    try(var sealer = new ChunkSealer<Vec.BaseBuilder<?>>(directory, name, layout, sealPolicy, sealListener, builder -> builder)) {
+      String line;
+      while((line = lineReader.readLine()) != null) {
+        // the line is read before appending the value, so the stream does not block while the sealer is locked
+        try(var parser = factory.createParser(line)) {
+          for(var token = parser.nextToken(); token != null; token = parser.nextToken()) {
+            var firstToken = token;
+            sealer.appendRow(builder -> parseValue(parser, builder, layout, firstToken));
           }
-          parseObject(parser, vecBuilder, structLayout);
         }
       }
+      sealer.seal();
+    }
+  }
+
+  /**
+   * Exports the values of a Vec as JSON Lines, one JSON value per line.
+   *
+   * The values are exported by batches, a struct column by column, the values are formatted directly
+   * into a byte buffer which is written when full, so no String is created per value.
+   * A null value, a NaN or an infinity is exported as {@code null}.
+   *
+   * @param vec the values to export
+   * @param layout the layout of the values
+   * @param output the output stream, not closed by this method
+   * @throws IOException if an io error occurs
+   */
+  public static void exportLines(Vec vec, Layout layout, OutputStream output) throws IOException {
+    requireNonNull(vec);
+    requireNonNull(layout);
+    requireNonNull(output);
+    TextExporter.exportJSONLines(vec, layout, output);
+  }
+
+  /**
+   * Exports the values of a Vec into a JSON Lines file, one JSON value per line.
+   *
+   * @param vec the values to export
+   * @param layout the layout of the values
+   * @param path the path of the JSON Lines file
+   * @throws IOException if an io error occurs
+   *
+   * @see #exportLines(Vec, Layout, OutputStream)
+   */
+  public static void exportLines(Vec vec, Layout layout, Path path) throws IOException {
+    requireNonNull(path);
+    try(var output = Files.newOutputStream(path)) {  // the exporter already writes big chunks
+      exportLines(vec, layout, output);
     }
   }
 
@@ -72,6 +408,11 @@ public class JSON {
   }
 
   private static void parseValue(JsonParser parser, Vec.BaseBuilder<?> builder, Layout layout, JsonToken token) throws IOException {
+    parseValue(parser, builder, layout, __ -> true, token);
+  }
+
+  // fieldFilter is only used for the fields of a top level object
+  private static void parseValue(JsonParser parser, Vec.BaseBuilder<?> builder, Layout layout, Predicate<? super String> fieldFilter, JsonToken token) throws IOException {
     switch(token) {
       case VALUE_NULL -> {
         if (!layout.nullable()) {
@@ -95,7 +436,9 @@ public class JSON {
           case byte8 -> ((U8Vec.Builder) builder).appendByte((byte) parser.getIntValue());
           case short16 -> ((U16Vec.Builder) builder).appendShort((short) parser.getIntValue());
           case int32 -> ((U32Vec.Builder) builder).appendInt(parser.getIntValue());
-          case long64 -> ((U64Vec.Builder) builder).appendLong(parser.getIntValue());
+          case long64 -> ((U64Vec.Builder) builder).appendLong(parser.getLongValue());
+          case float32 -> ((U32Vec.Builder) builder).appendFloat(parser.getFloatValue());
+          case double64 -> ((U64Vec.Builder) builder).appendDouble(parser.getDoubleValue());
           default -> throw new JsonParseException(parser, "found an int but layout is a " + kind);
         }
       }
@@ -124,7 +467,18 @@ public class JSON {
         if (!(layout instanceof StructLayout structLayout)) {
           throw new JsonParseException(parser, "found an object but layout is not a StructLayout " + layout);
         }
-        parseObject(parser, builder, structLayout);
+        var structBuilder = (StructVec.Builder) builder;
+        try {
+          structBuilder.appendRow(__ -> {  // the fields are appended directly, the missing ones are null
+            try {
+              parseObject(parser, structBuilder, structLayout, fieldFilter);
+            } catch (IOException e) {
+              throw new UncheckedIOException(e);  // tunnel exception
+            }
+          });
+        } catch(UncheckedIOException e) {
+          throw e.getCause();
+        }
       }
       case START_ARRAY -> {
         if (!(layout instanceof ListLayout listLayout)) {
@@ -147,24 +501,47 @@ public class JSON {
     }
   }
 
-  private static void parseObject(JsonParser parser, Vec.BaseBuilder<?> builder, StructLayout structLayout) throws IOException {
+  private static void parseObject(JsonParser parser, Vec.BaseBuilder<?> builder, StructLayout structLayout, Predicate<? super String> fieldFilter) throws IOException {
+    var fieldSet = new BitSet();
     for(;;) {
       var token = parser.nextToken();
       switch(token) {
         case FIELD_NAME -> {
           var fieldName = parser.getCurrentName();
+          if (!fieldFilter.test(fieldName)) {  // skipped field, the value is not converted
+            parser.nextToken();
+            parser.skipChildren();
+            continue;
+          }
           var fieldIndex = structLayout.fieldIndex(fieldName);
           if (fieldIndex == -1) {
             throw new JsonParseException(parser, "found field " + fieldName + " but struct layout has no field with that name");
           }
+          if (fieldSet.get(fieldIndex)) {
+            throw new JsonParseException(parser, "found field " + fieldName + " twice");
+          }
+          fieldSet.set(fieldIndex);
           var fieldLayout = structLayout.fields().get(fieldIndex).layout();
           var fieldBuilder = ((StructVec.Builder) builder).fieldBuilders().get(fieldIndex);
           var valueToken = parser.nextToken();
           parseValue(parser, fieldBuilder, fieldLayout, valueToken);
         }
-        case END_OBJECT -> { return; }
+        case END_OBJECT -> {
+          checkMissingFields(parser, structLayout, fieldSet);
+          return;
+        }
         default -> throw new JsonParseException(parser, "invalid token " + token);
       }
     }
   }
+
+  private static void checkMissingFields(JsonParser parser, StructLayout structLayout, BitSet fieldSet) throws IOException {
+    var fields = structLayout.fields();
+    for(var i = fieldSet.nextClearBit(0); i < fields.size(); i = fieldSet.nextClearBit(i + 1)) {
+      var field = fields.get(i);
+      if (!field.layout().nullable()) {
+        throw new JsonParseException(parser, "field " + field.name() + " is missing but its layout is not nullable");
+      }
+    }
+  }
 }
@@ -1,10 +1,14 @@
 package com.github.forax.tomahawk.schema;
 
+import com.github.forax.tomahawk.vec.StructVec;
 import com.github.forax.tomahawk.vec.Vec;
 
 import java.io.IOException;
+import java.lang.reflect.RecordComponent;
 import java.nio.file.Files;
+import java.nio.file.OpenOption;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -262,7 +266,7 @@ public interface Layout /*permits Layout.PrimitiveLayout, Layout.ListLayout, Lay
       if (listLayout.dataType == String.class) {
         return "string(" + listLayout.nullable + ")";
       }
-      return "list(" + listLayout.nullable + ", " + toString(space, listLayout.element);
+      return "list(" + listLayout.nullable + ", " + toString(space, listLayout.element) + ")";
     }
     if (layout instanceof StructLayout structLayout) {
       if (structLayout.fieldMap.fields.isEmpty()) {
@@ -290,6 +294,58 @@ public interface Layout /*permits Layout.PrimitiveLayout, Layout.ListLayout, Lay
     return LayoutHelper.map(directory, name, layout);
   }
 
+  /**
+   * Maps only some columns of a "table", the files of the other columns are not accessed.
+   *
+   * @param directory the directory containing the table
+   * @param name the name of the table
+   * @param layout the layout of the table
+   * @param columns the names of the columns to map
+   * @return a StructVec with a field for each column of {@code columns}, in that order
+   * @throws IOException if an io error occurs
+   * @throws IllegalArgumentException if a column does not exist
+   *
+   * @see StructLayout#project(String...)
+   */
+  static StructVec map(Path directory, String name, StructLayout layout, String... columns) throws IOException {
+    return (StructVec) LayoutHelper.map(directory, name, layout.project(columns));
+  }
+
+  /**
+   * Maps lazily the columns of a "table", the files of a column are only mapped
+   * when the column is accessed for the first time, so this method does not access the filesystem.
+   *
+   * @param directory the directory containing the table
+   * @param name the name of the table
+   * @param layout the layout of the table
+   * @return an object able to map each column on demand
+   *
+   * @see #map(Path, String, Layout)
+   */
+  static LazyStruct mapLazily(Path directory, String name, StructLayout layout) {
+    return new LazyStruct(directory, name, layout, -1);
+  }
+
+  /**
+   * Maps lazily the columns of a "table" whose number of rows is already known, by example the rows
+   * of the chunks sealed by a streaming import, the files may already contain the rows of the next chunk.
+   *
+   * @param directory the directory containing the table
+   * @param name the name of the table
+   * @param layout the layout of the table
+   * @param length the number of rows of the table
+   * @return an object able to map each column on demand
+   * @throws IllegalArgumentException if {@code length} is negative
+   *
+   * @see #mapLazily(Path, String, StructLayout)
+   */
+  static LazyStruct mapLazily(Path directory, String name, StructLayout layout, long length) {
+    if (length < 0) {
+      throw new IllegalArgumentException("length < 0");
+    }
+    return new LazyStruct(directory, name, layout, length);
+  }
+
   /**
    * Maps several columns from the name of the "table", a directory containing the different columns
    * The layout is loaded from filesystem too.
@@ -306,6 +362,23 @@ public interface Layout /*permits Layout.PrimitiveLayout, Layout.ListLayout, Lay
     return LayoutHelper.builder(directory, name, layout);
   }
 
+  /**
+   * Creates the builders of several columns from the name of the "table", a directory containing
+   * the different columns and a Layout, all the builders are created with the same options.
+   *
+   * @param directory the directory containing all the file
+   * @param name the name of the table
+   * @param layout the layout of the "table"
+   * @param openOptions the options used to create the files, by example
+   *                    {@link com.github.forax.tomahawk.vec.AsyncWriteOption} or
+   *                    {@link java.nio.file.StandardOpenOption#APPEND} to append rows to an existing "table"
+   * @return a builder able to append values to the files of that table
+   * @throws IOException if an io error occurs
+   */
+  static Vec.BaseBuilder<?> builder(Path directory, String name, Layout layout, OpenOption... openOptions) throws IOException {
+    return LayoutHelper.builder(directory, name, layout, openOptions);
+  }
+
   static Vec.BaseBuilder<?> builder(Path directory, String name) throws IOException {
     var layout = loadFrom(directory.resolve(name + "_metadata.txt"));
     return LayoutHelper.builder(directory, name, layout);
@@ -425,6 +498,44 @@ public interface Layout /*permits Layout.PrimitiveLayout, Layout.ListLayout, Lay
       return fieldMap.fieldIndex(name);
     }
 
+    /**
+     * Returns a struct layout with only the fields {@code names}, in that order.
+     *
+     * The files of a field do not depend on the other fields, so the projected layout can be used
+     * to map or to import only some columns of a "table".
+     *
+     * @param names the names of the fields
+     * @return a struct layout with only the fields {@code names}
+     * @throws IllegalArgumentException if a field does not exist or is specified twice
+     *
+     * @see Layout#map(Path, String, StructLayout, String...)
+     */
+    public StructLayout project(String... names) {
+      var fields = new Field[names.length];
+      for(var i = 0; i < names.length; i++) {
+        var index = fieldIndex(names[i]);
+        if (index == -1) {
+          throw new IllegalArgumentException("unknown field " + names[i] + " among " + fields());
+        }
+        fields[i] = fields().get(index);
+      }
+      return new StructLayout(nullable, fields);  // FieldMap checks the duplicates
+    }
+
+    /**
+     * Returns a struct layout with only the fields named like the components of a record, in the same order,
+     * so the StructVec mapped with that layout can be seen as records, the components being bound by name.
+     *
+     * @param recordType the class of a record
+     * @return a struct layout with only the fields named like the components of {@code recordType}
+     * @throws IllegalArgumentException if a component has no corresponding field
+     *
+     * @see StructVec#asRecords(Class, java.lang.invoke.MethodHandles.Lookup)
+     */
+    public StructLayout project(Class<? extends Record> recordType) {
+      return project(Arrays.stream(recordType.getRecordComponents()).map(RecordComponent::getName).toArray(String[]::new));
+    }
+
     @Override
     public String toString() {
       return Layout.toString("", this);
@@ -2,6 +2,7 @@ package com.github.forax.tomahawk.schema;
 
 import com.github.forax.tomahawk.schema.Layout.ListLayout;
 import com.github.forax.tomahawk.schema.Layout.PrimitiveLayout;
+import com.github.forax.tomahawk.schema.Layout.PrimitiveLayout.Kind;
 import com.github.forax.tomahawk.schema.Layout.StructLayout;
 import com.github.forax.tomahawk.vec.ListVec;
 import com.github.forax.tomahawk.vec.StructVec;
@@ -12,9 +13,29 @@ import com.github.forax.tomahawk.vec.U64Vec;
 import com.github.forax.tomahawk.vec.U8Vec;
 import com.github.forax.tomahawk.vec.Vec;
 
+import jdk.incubator.foreign.MemoryAccess;
+import jdk.incubator.foreign.MemorySegment;
+
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.channels.FileChannel.MapMode.READ_WRITE;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
 
 final class LayoutHelper {
   private LayoutHelper() {
@@ -22,110 +43,424 @@ final class LayoutHelper {
   }
 
   public static Vec map(Path directory, String name, Layout layout) throws IOException {
+    return map(directory, name, layout, false);
+  }
+
+  /**
+   * Maps the files of a "table" like {@link #map(Path, String, Layout)} but the segments are shared,
+   * so the Vec can be accessed and closed by any thread.
+   *
+   * @param directory the directory of the "table"
+   * @param name the name of the "table"
+   * @param layout the layout of the "table"
+   * @return a Vec that can be used by any thread
+   * @throws IOException if an io error occurs
+   */
+  static Vec mapShared(Path directory, String name, Layout layout) throws IOException {
+    return map(directory, name, layout, true);
+  }
+
+  private static Vec map(Path directory, String name, Layout layout, boolean shared) throws IOException {
     if (layout instanceof PrimitiveLayout primitiveLayout) {
-      return mapPrimitive(directory, name, primitiveLayout);
+      return mapPrimitive(directory, name, primitiveLayout, shared);
     }
     if (layout instanceof ListLayout listLayout) {
-      return mapList(directory, name, listLayout);
+      return mapList(directory, name, listLayout, shared);
     }
     if (layout instanceof StructLayout structLayout) {
-      return mapStruct(directory, name, structLayout);
+      return mapStruct(directory, name, structLayout, shared);
     }
     throw new AssertionError("unknown layout");
   }
 
-  private static Vec mapPrimitive(Path directory, String name, PrimitiveLayout primitiveLayout) throws IOException {
-    var validity = primitiveLayout.nullable()? mapValidityVec(directory, name): null;
+  private static Vec mapPrimitive(Path directory, String name, PrimitiveLayout primitiveLayout, boolean shared) throws IOException {
+    var validity = primitiveLayout.nullable()? mapValidityVec(directory, name, shared): null;
     var suffix = primitiveLayout.toString();
-    var dataPath = directory.resolve(name + "_" + suffix + ".tmhk");
+    var data = mapFile(directory.resolve(name + "_" + suffix + ".tmhk"), shared);
     return switch(primitiveLayout.kind()) {
-      case u1 -> U1Vec.map(validity, dataPath);
-      case byte8 -> U8Vec.map(validity, dataPath);
-      case short16, char16 -> U16Vec.map(validity, dataPath);
-      case int32, float32 -> U32Vec.map(validity, dataPath);
-      case long64 , double64 -> U64Vec.map(validity, dataPath);
+      case u1 -> U1Vec.from(validity, data);
+      case byte8 -> U8Vec.from(validity, data);
+      case short16, char16 -> U16Vec.from(validity, data);
+      case int32, float32 -> U32Vec.from(validity, data);
+      case long64 , double64 -> U64Vec.from(validity, data);
     };
   }
 
-  private static StructVec mapStruct(Path directory, String name, StructLayout structLayout) throws IOException {
+  private static StructVec mapStruct(Path directory, String name, StructLayout structLayout, boolean shared) throws IOException {
     var structName = name + "_struct";
-    var validity = structLayout.nullable()? mapValidityVec(directory, structName): null;
+    var validity = structLayout.nullable()? mapValidityVec(directory, structName, shared): null;
     var fieldVecs = new ArrayList<Vec>();
     for (var field : structLayout.fields()) {
       var fieldName = field.name();
       var fieldLayout = field.layout();
-      fieldVecs.add(map(directory, structName + "-" + fieldName, fieldLayout));
+      fieldVecs.add(map(directory, structName + "-" + fieldName, fieldLayout, shared));
     }
     return StructVec.from(validity, fieldVecs);
   }
 
-  private static ListVec<?> mapList(Path directory, String name, ListLayout listLayout) throws IOException {
+  private static ListVec<?> mapList(Path directory, String name, ListLayout listLayout, boolean shared) throws IOException {
     var listName = name + "_list";
-    var validity = listLayout.nullable()? mapValidityVec(directory, listName): null;
-    var offset = mapOffsetVec(directory, listName);
-    var data = map(directory, listName, listLayout.element());
+    var validity = listLayout.nullable()? mapValidityVec(directory, listName, shared): null;
+    var offset = U32Vec.from(null, mapFile(directory.resolve(listName + "_offset.tmhk"), shared));
+    var data = map(directory, listName, listLayout.element(), shared);
     return ListVec.from(validity, offset, data);
   }
 
-  private static U1Vec mapValidityVec(Path directory, String name) throws IOException {
-    return U1Vec.map(null, directory.resolve(name + "_validity.tmhk"));
+  static U1Vec mapValidityVec(Path directory, String name, boolean shared) throws IOException {
+    return U1Vec.from(null, mapFile(directory.resolve(name + "_validity.tmhk"), shared));
   }
 
-  private static U32Vec mapOffsetVec(Path directory, String name) throws IOException {
-    return U32Vec.map(null, directory.resolve(name + "_offset.tmhk"));
+  private static MemorySegment mapFile(Path path, boolean shared) throws IOException {
+    var segment = MemorySegment.mapFile(path, 0, Files.size(path), READ_WRITE);
+    return shared? segment.share(): segment;
   }
 
-  public static Vec.BaseBuilder<?> builder(Path directory, String name, Layout layout) throws IOException {
+  /**
+   * Returns the paths of the files of a "table", in the order they are mapped by
+   * {@link #map(Path, String, Layout)}, for each layout the validity first then the offsets then the data.
+   *
+   * @param directory the directory of the "table"
+   * @param name the name of the "table"
+   * @param layout the layout of the "table"
+   * @return the paths of the files of the "table"
+   */
+  static List<Path> files(Path directory, String name, Layout layout) {
+    var files = new ArrayList<Path>();
+    files(files, directory, name, layout);
+    return files;
+  }
+
+  private static void files(List<Path> files, Path directory, String name, Layout layout) {
     if (layout instanceof PrimitiveLayout primitiveLayout) {
-      return builderPrimitive(directory, name, primitiveLayout);
+      if (primitiveLayout.nullable()) {
+        files.add(directory.resolve(name + "_validity.tmhk"));
+      }
+      files.add(directory.resolve(name + "_" + primitiveLayout + ".tmhk"));
+      return;
     }
     if (layout instanceof ListLayout listLayout) {
-      return builderList(directory, name, listLayout);
+      var listName = name + "_list";
+      if (listLayout.nullable()) {
+        files.add(directory.resolve(listName + "_validity.tmhk"));
+      }
+      files.add(directory.resolve(listName + "_offset.tmhk"));
+      files(files, directory, listName, listLayout.element());
+      return;
+    }
+    if (layout instanceof StructLayout structLayout) {
+      var structName = name + "_struct";
+      if (structLayout.nullable()) {
+        files.add(directory.resolve(structName + "_validity.tmhk"));
+      }
+      for (var field: structLayout.fields()) {
+        files(files, directory, structName + "-" + field.name(), field.layout());
+      }
+      return;
+    }
+    throw new AssertionError("unknown layout");
+  }
+
+  /**
+   * Returns the length of the Vec that {@link #map(Path, String, Layout)} would return,
+   * computed from the size of the files without mapping them.
+   * The number of rows of a struct is the one saved by {@link #saveLength(Path, String, long)} if it exists,
+   * otherwise the smallest length of its fields.
+   *
+   * @param directory the directory of the "table"
+   * @param name the name of the "table"
+   * @param layout the layout of the "table"
+   * @return the length of the Vec
+   * @throws IOException if an io error occurs
+   */
+  static long length(Path directory, String name, Layout layout) throws IOException {
+    if (layout instanceof StructLayout) {
+      var length = readLength(directory, name);
+      if (length != -1) {
+        return length;
+      }
+    }
+    return computedLength(directory, name, layout);
+  }
+
+  // the length of a column of booleans is rounded to a multiple of 64
+  private static long computedLength(Path directory, String name, Layout layout) throws IOException {
+    if (layout instanceof PrimitiveLayout primitiveLayout) {
+      var size = Files.size(directory.resolve(name + "_" + primitiveLayout + ".tmhk"));
+      return switch(primitiveLayout.kind()) {
+        case u1 -> size << 3;
+        case byte8 -> size;
+        case short16, char16 -> size >> 1;
+        case int32, float32 -> size >> 2;
+        case long64 , double64 -> size >> 3;
+      };
+    }
+    if (layout instanceof ListLayout) {
+      return Math.max(0, (Files.size(directory.resolve(name + "_list_offset.tmhk")) >> 2) - 1);
     }
     if (layout instanceof StructLayout structLayout) {
-      return builderStruct(directory, name, structLayout);
+      var length = Long.MAX_VALUE;
+      for (var field: structLayout.fields()) {
+        length = Math.min(length, computedLength(directory, name + "_struct-" + field.name(), field.layout()));
+      }
+      return structLayout.fields().isEmpty()? 0: length;
     }
     throw new AssertionError("unknown layout");
   }
 
-  private static Vec.BaseBuilder<?> builderPrimitive(Path directory, String name, PrimitiveLayout primitiveLayout) throws IOException {
-    var validity = primitiveLayout.nullable()? createValidityBuilder(directory, name): null;
+  private static Path lengthPath(Path directory, String name) {
+    return directory.resolve(name + "_length.txt");
+  }
+
+  /**
+   * Saves the number of rows of a "table" written by a struct builder, the number of rows can not always
+   * be computed from the size of the files because the length of a column of booleans is rounded
+   * to a multiple of 64. A struct builder created by {@link #builder(Path, String, Layout, OpenOption...)}
+   * deletes the saved number of rows, so this method should be called once the builder is closed.
+   *
+   * @param directory the directory of the "table"
+   * @param name the name of the "table"
+   * @param length the number of rows of the "table"
+   * @throws IOException if an io error occurs
+   */
+  static void saveLength(Path directory, String name, long length) throws IOException {
+    // written then renamed, so a reader never sees a partially written file
+    var path = directory.resolve(name + "_length.tmp");
+    Files.writeString(path, length + "\n");
+    Files.move(path, lengthPath(directory, name), REPLACE_EXISTING, ATOMIC_MOVE);
+  }
+
+  static void deleteLength(Path directory, String name) throws IOException {
+    Files.deleteIfExists(lengthPath(directory, name));
+  }
+
+  // returns -1 if the number of rows was not saved
+  private static long readLength(Path directory, String name) throws IOException {
+    var path = lengthPath(directory, name);
+    if (!Files.exists(path)) {
+      return -1;
+    }
+    try {
+      return Long.parseLong(Files.readString(path).strip());
+    } catch (NumberFormatException e) {
+      throw new IOException("invalid length file " + path, e);
+    }
+  }
+
+  public static Vec.BaseBuilder<?> builder(Path directory, String name, Layout layout, OpenOption... openOptions) throws IOException {
+    if (layout instanceof PrimitiveLayout primitiveLayout) {
+      return builderPrimitive(directory, name, primitiveLayout, openOptions);
+    }
+    if (layout instanceof ListLayout listLayout) {
+      return builderList(directory, name, listLayout, openOptions);
+    }
+    if (layout instanceof StructLayout structLayout) {
+      return builderStruct(directory, name, structLayout, openOptions);
+    }
+    throw new AssertionError("unknown layout");
+  }
+
+  private static Vec.BaseBuilder<?> builderPrimitive(Path directory, String name, PrimitiveLayout primitiveLayout, OpenOption... openOptions) throws IOException {
+    var validity = primitiveLayout.nullable()? createValidityBuilder(directory, name, openOptions): null;
     var suffix = primitiveLayout.toString();
     var dataPath = directory.resolve(name + "_" + suffix + ".tmhk");
     return switch(primitiveLayout.kind()) {
-      case u1 -> U1Vec.builder(validity, dataPath);
-      case byte8 -> U8Vec.builder(validity, dataPath);
-      case short16, char16 -> U16Vec.builder(validity, dataPath);
-      case int32, float32 -> U32Vec.builder(validity, dataPath);
-      case long64 , double64 -> U64Vec.builder(validity, dataPath);
+      case u1 -> U1Vec.builder(validity, dataPath, openOptions);
+      case byte8 -> U8Vec.builder(validity, dataPath, openOptions);
+      case short16, char16 -> U16Vec.builder(validity, dataPath, openOptions);
+      case int32, float32 -> U32Vec.builder(validity, dataPath, openOptions);
+      case long64 , double64 -> U64Vec.builder(validity, dataPath, openOptions);
     };
   }
 
-  private static ListVec.Builder<?, ? extends Vec.BaseBuilder<?>> builderList(Path directory, String name, ListLayout listLayout) throws IOException {
+  private static ListVec.Builder<?, ? extends Vec.BaseBuilder<?>> builderList(Path directory, String name, ListLayout listLayout, OpenOption... openOptions) throws IOException {
     var listName = name + "_list";
-    var validity = listLayout.nullable()? createValidityBuilder(directory, listName): null;
-    var offset = createOffsetBuilder(directory, listName);
-    var data = builder(directory, listName, listLayout.element());
+    var validity = listLayout.nullable()? createValidityBuilder(directory, listName, openOptions): null;
+    var offset = createOffsetBuilder(directory, listName, openOptions);
+    var data = builder(directory, listName, listLayout.element(), openOptions);
     return ListVec.builder(validity, offset, data);
   }
 
-  private static StructVec.Builder builderStruct(Path directory, String name, StructLayout structLayout) throws IOException {
+  // in append mode, the rows are appended after the number of rows saved if it exists
+  private static StructVec.Builder builderStruct(Path directory, String name, StructLayout structLayout, OpenOption... openOptions) throws IOException {
+    var length = Arrays.asList(openOptions).contains(APPEND)? readLength(directory, name): -1;
+    deleteLength(directory, name);  // the files are about to change
     var structName = name + "_struct";
-    var validity = structLayout.nullable()? createValidityBuilder(directory, structName): null;
+    var validity = structLayout.nullable()? createValidityBuilder(directory, structName, openOptions): null;
     var fieldBuilders = new ArrayList<Vec.BaseBuilder<?>>();
     for (var field: structLayout.fields()) {
       var fieldName = field.name();
       var fieldLayout = field.layout();
-      fieldBuilders.add(builder(directory, structName + "-" + fieldName, fieldLayout));
+      fieldBuilders.add(builder(directory, structName + "-" + fieldName, fieldLayout, openOptions));
+    }
+    if (length != -1) {
+      return StructVec.builder(validity, length, fieldBuilders);
     }
     return StructVec.builder(validity, fieldBuilders);
   }
 
-  private static U1Vec.Builder createValidityBuilder(Path directory, String name) throws IOException {
-    return U1Vec.builder(null, directory.resolve(name + "_validity.tmhk"));
+  /**
+   * Concatenates the files of several chunks of a "table" into the files of the "table".
+   * Each chunk is stored in its own directory using the same name and the same layout.
+   *
+   * The data files are concatenated without being decoded, the bit sets are shifted
+   * and the offsets of the lists are rebased.
+   *
+   * @param directory the directory of the "table"
+   * @param name the name of the "table"
+   * @param layout the layout of the "table"
+   * @param chunkDirectories the directories of the chunks, in order
+   * @param lengths the length of each chunk
+   * @throws IOException if an io error occurs
+   */
+  static void concat(Path directory, String name, Layout layout, List<Path> chunkDirectories, long[] lengths) throws IOException {
+    if (layout instanceof PrimitiveLayout primitiveLayout) {
+      concatPrimitive(directory, name, primitiveLayout, chunkDirectories, lengths);
+      return;
+    }
+    if (layout instanceof ListLayout listLayout) {
+      concatList(directory, name, listLayout, chunkDirectories, lengths);
+      return;
+    }
+    if (layout instanceof StructLayout structLayout) {
+      concatStruct(directory, name, structLayout, chunkDirectories, lengths);
+      return;
+    }
+    throw new AssertionError("unknown layout");
+  }
+
+  private static void concatPrimitive(Path directory, String name, PrimitiveLayout primitiveLayout, List<Path> chunkDirectories, long[] lengths) throws IOException {
+    if (primitiveLayout.nullable()) {
+      concatBits(directory, name + "_validity.tmhk", chunkDirectories, lengths);
+    }
+    var fileName = name + "_" + primitiveLayout + ".tmhk";
+    if (primitiveLayout.kind() == Kind.u1) {
+      concatBits(directory, fileName, chunkDirectories, lengths);
+      return;
+    }
+    concatBytes(directory, fileName, chunkDirectories);
+  }
+
+  private static void concatList(Path directory, String name, ListLayout listLayout, List<Path> chunkDirectories, long[] lengths) throws IOException {
+    var listName = name + "_list";
+    if (listLayout.nullable()) {
+      concatBits(directory, listName + "_validity.tmhk", chunkDirectories, lengths);
+    }
+    var elementLengths = concatOffsets(directory, listName + "_offset.tmhk", chunkDirectories, lengths);
+    concat(directory, listName, listLayout.element(), chunkDirectories, elementLengths);
+  }
+
+  private static void concatStruct(Path directory, String name, StructLayout structLayout, List<Path> chunkDirectories, long[] lengths) throws IOException {
+    var structName = name + "_struct";
+    if (structLayout.nullable()) {
+      concatBits(directory, structName + "_validity.tmhk", chunkDirectories, lengths);
+    }
+    for (var field: structLayout.fields()) {
+      concat(directory, structName + "-" + field.name(), field.layout(), chunkDirectories, lengths);
+    }
+  }
+
+  private static void concatBytes(Path directory, String fileName, List<Path> chunkDirectories) throws IOException {
+    try(var output = FileChannel.open(directory.resolve(fileName), CREATE, WRITE, TRUNCATE_EXISTING)) {
+      for(var chunkDirectory: chunkDirectories) {
+        try(var input = FileChannel.open(chunkDirectory.resolve(fileName), READ)) {
+          var size = input.size();
+          for(var position = 0L; position < size;) {
+            position += input.transferTo(position, size - position, output);
+          }
+        }
+      }
+    }
+  }
+
+  // the bits of a chunk are appended after the bits of the previous chunks, if the number of bits
+  // before the chunk is a multiple of 64, the whole words are copied as is, otherwise each word is shifted
+  private static void concatBits(Path directory, String fileName, List<Path> chunkDirectories, long[] lengths) throws IOException {
+    try(var output = FileChannel.open(directory.resolve(fileName), CREATE, WRITE, TRUNCATE_EXISTING)) {
+      var buffer = ByteBuffer.allocate(8192).order(LITTLE_ENDIAN);
+      var current = 0L;   // the pending bits
+      var position = 0;   // the number of pending bits
+      for(var i = 0; i < lengths.length; i++) {
+        var length = lengths[i];
+        if (length == 0) {
+          continue;
+        }
+        var path = chunkDirectories.get(i).resolve(fileName);
+        var segment = MemorySegment.mapFile(path, 0, Files.size(path), READ_ONLY);
+        try {
+          var index = 0L;
+          if (position == 0) {  // same alignment, copy the whole words
+            var byteSize = (length >>> 6) << 3;
+            writeFully(output, buffer.flip());
+            buffer.clear();
+            writeFully(output, segment.asSlice(0, byteSize).asByteBuffer());
+            index = byteSize >>> 3;
+          }
+          for(var wordCount = (length + 63) >>> 6; index < wordCount; index++) {
+            var word = MemoryAccess.getLongAtIndex(segment, index, LITTLE_ENDIAN);
+            var bitCount = (int) Math.min(64, length - (index << 6));
+            if (bitCount != 64) {
+              word &= (1L << bitCount) - 1;  // the bits after the end of the chunk
+            }
+            current |= word << position;
+            position += bitCount;
+            if (position >= 64) {
+              if (!buffer.hasRemaining()) {
+                writeFully(output, buffer.flip());
+                buffer.clear();
+              }
+              buffer.putLong(current);
+              position -= 64;
+              current = position == 0? 0: word >>> (bitCount - position);
+            }
+          }
+        } finally {
+          segment.close();
+        }
+      }
+      if (position != 0) {
+        if (!buffer.hasRemaining()) {
+          writeFully(output, buffer.flip());
+          buffer.clear();
+        }
+        buffer.putLong(current);
+      }
+      writeFully(output, buffer.flip());
+    }
+  }
+
+  private static void writeFully(FileChannel output, ByteBuffer buffer) throws IOException {
+    while(buffer.hasRemaining()) {
+      output.write(buffer);
+    }
+  }
+
+  private static long[] concatOffsets(Path directory, String fileName, List<Path> chunkDirectories, long[] lengths) throws IOException {
+    var elementLengths = new long[lengths.length];
+    try(var builder = U32Vec.builder(null, directory.resolve(fileName))) {
+      var base = 0L;
+      for(var i = 0; i < lengths.length; i++) {
+        var length = lengths[i];
+        if (length == 0) {
+          continue;
+        }
+        try(var offsets = U32Vec.map(null, chunkDirectories.get(i).resolve(fileName))) {
+          for(var index = 0L; index < length; index++) {
+            builder.appendInt(Math.toIntExact(base + offsets.getInt(index)));
+          }
+          elementLengths[i] = offsets.getInt(length);
+        }
+        base += elementLengths[i];
+      }
+      builder.appendInt(Math.toIntExact(base));  // last offset
+    }
+    return elementLengths;
+  }
+
+  private static U1Vec.Builder createValidityBuilder(Path directory, String name, OpenOption... openOptions) throws IOException {
+    return U1Vec.builder(null, directory.resolve(name + "_validity.tmhk"), openOptions);
   }
 
-  private static U32Vec.Builder createOffsetBuilder(Path directory, String name) throws IOException {
-    return U32Vec.builder(null, directory.resolve(name + "_offset.tmhk"));
+  private static U32Vec.Builder createOffsetBuilder(Path directory, String name, OpenOption... openOptions) throws IOException {
+    return U32Vec.builder(null, directory.resolve(name + "_offset.tmhk"), openOptions);
   }
 }
@@ -0,0 +1,219 @@
+package com.github.forax.tomahawk.schema;
+
+import java.util.LinkedHashMap;
+import java.util.regex.Pattern;
+
+import static com.github.forax.tomahawk.schema.Layout.byte8;
+import static com.github.forax.tomahawk.schema.Layout.double64;
+import static com.github.forax.tomahawk.schema.Layout.float32;
+import static com.github.forax.tomahawk.schema.Layout.int32;
+import static com.github.forax.tomahawk.schema.Layout.list;
+import static com.github.forax.tomahawk.schema.Layout.long64;
+import static com.github.forax.tomahawk.schema.Layout.short16;
+import static com.github.forax.tomahawk.schema.Layout.string;
+import static com.github.forax.tomahawk.schema.Layout.u1;
+
+/**
+ * Infers the narrowest layout able to store a sample of values.
+ *
+ * An inference is fed with the values of a column (or of a JSON value) and
+ * {@link #layout()} returns the narrowest layout compatible with all the values:
+ * booleans are stored as {@code u1}, integers as {@code byte8}, {@code short16}, {@code int32} or
+ * {@code long64} depending on their range, decimal numbers as {@code float32} if all values
+ * can be parsed back from a float or {@code double64} otherwise, and all the other values as string.
+ * A column is nullable if a value is missing or null.
+ *
+ * The layout is inferred from a sample, so a value that is not in the sample may not fit.
+ */
+final class LayoutInference {
+  private static final int BOOLEAN = 1, INTEGER = 2, DECIMAL = 4, TEXT = 8, OBJECT = 16, ARRAY = 32;
+
+  private static final Pattern INTEGER_PATTERN = Pattern.compile("[+-]?\\d+");
+  private static final Pattern DECIMAL_PATTERN = Pattern.compile("[+-]?(\\d+\\.?\\d*|\\.\\d+)([eE][+-]?\\d+)?");
+
+  private final boolean typed;
+  private int kinds;
+  private boolean nullable;
+  private long count;
+  private long min = Long.MAX_VALUE;
+  private long max = Long.MIN_VALUE;
+  private boolean doublePrecision;
+  private long objectCount;
+  private LinkedHashMap<String, LayoutInference> fields;  // lazily allocated
+  private LayoutInference element;  // lazily allocated
+
+  /**
+   * Creates an inference.
+   * @param typed true if the values are typed (JSON) so values of different kinds are an error,
+   *              false if the values are texts (CSV) so values of different kinds are stored as text.
+   */
+  LayoutInference(boolean typed) {
+    this.typed = typed;
+  }
+
+  void acceptNull() {
+    nullable = true;
+    count++;
+  }
+
+  void acceptBoolean() {
+    kinds |= BOOLEAN;
+    count++;
+  }
+
+  void acceptInteger(long value) {
+    kinds |= INTEGER;
+    min = Math.min(min, value);
+    max = Math.max(max, value);
+    if (value > 1 << 24 || value < -(1 << 24)) {  // not exact as a float
+      doublePrecision = true;
+    }
+    count++;
+  }
+
+  void acceptDecimal(String text) {
+    kinds |= DECIMAL;
+    if (!isFloat(text)) {
+      doublePrecision = true;
+    }
+    count++;
+  }
+
+  void acceptText() {
+    kinds |= TEXT;
+    count++;
+  }
+
+  /**
+   * Accepts the text of a CSV cell, the kind of the value is guessed from the text,
+   * an empty text is null.
+   */
+  void acceptCell(String text) {
+    if (text.isEmpty()) {
+      acceptNull();
+      return;
+    }
+    if (text.equalsIgnoreCase("true") || text.equalsIgnoreCase("false")) {
+      acceptBoolean();
+      return;
+    }
+    if (INTEGER_PATTERN.matcher(text).matches()) {
+      long value;
+      try {
+        value = Long.parseLong(text);
+      } catch (NumberFormatException e) {  // does not fit in a long
+        acceptDecimal(text);
+        return;
+      }
+      acceptInteger(value);
+      return;
+    }
+    if (DECIMAL_PATTERN.matcher(text).matches()) {
+      acceptDecimal(text);
+      return;
+    }
+    acceptText();
+  }
+
+  /**
+   * Starts a JSON object, the values of the fields are accepted by the inference returned by
+   * {@link #field(String)}.
+   */
+  void acceptObject() {
+    kinds |= OBJECT;
+    objectCount++;
+    count++;
+  }
+
+  LayoutInference field(String name) {
+    if (fields == null) {
+      fields = new LinkedHashMap<>();
+    }
+    return fields.computeIfAbsent(name, __ -> new LayoutInference(typed));
+  }
+
+  /**
+   * Starts a JSON array, the values of the array are accepted by the inference returned by
+   * {@link #element()}.
+   */
+  void acceptArray() {
+    kinds |= ARRAY;
+    count++;
+  }
+
+  LayoutInference element() {
+    if (element == null) {
+      element = new LayoutInference(typed);
+    }
+    return element;
+  }
+
+  /**
+   * Returns true if the decimal number has at most 6 significant digits (the number of digits
+   * a float can always round trip) and is in the range of the normalized floats.
+   */
+  private static boolean isFloat(String text) {
+    var digits = 0;
+    var leadingZero = true;
+    for(var i = 0; i < text.length(); i++) {
+      var c = text.charAt(i);
+      if (c == 'e' || c == 'E') {
+        break;
+      }
+      if (c < '0' || c > '9') {
+        continue;
+      }
+      if (c == '0' && leadingZero) {
+        continue;
+      }
+      leadingZero = false;
+      digits++;
+    }
+    var value = Math.abs(Double.parseDouble(text));
+    return digits <= 6 && (value == 0 || (value >= Float.MIN_NORMAL && value <= Float.MAX_VALUE));
+  }
+
+  /**
+   * Returns the narrowest layout able to store the values accepted by this inference.
+   * @return the narrowest layout able to store the values accepted by this inference.
+   * @throws IllegalStateException if the values are typed and not compatible
+   */
+  Layout layout() {
+    return layout(false);
+  }
+
+  private Layout layout(boolean missing) {
+    var nullable = this.nullable || missing;
+    return switch(kinds) {
+      case 0 -> string(true);  // only nulls
+      case BOOLEAN -> u1(nullable);
+      case INTEGER -> {
+        if (min >= Byte.MIN_VALUE && max <= Byte.MAX_VALUE) {
+          yield byte8(nullable);
+        }
+        if (min >= Short.MIN_VALUE && max <= Short.MAX_VALUE) {
+          yield short16(nullable);
+        }
+        if (min >= Integer.MIN_VALUE && max <= Integer.MAX_VALUE) {
+          yield int32(nullable);
+        }
+        yield long64(nullable);
+      }
+      case DECIMAL, INTEGER | DECIMAL -> doublePrecision? double64(nullable): float32(nullable);
+      case TEXT -> string(nullable);
+      case OBJECT -> {
+        var fieldArray = fields == null? new Layout.Field[0]: fields.entrySet().stream()
+            .map(entry -> Layout.field(entry.getKey(), entry.getValue().layout(entry.getValue().count < objectCount)))
+            .toArray(Layout.Field[]::new);
+        yield Layout.struct(nullable, fieldArray);
+      }
+      case ARRAY -> list(nullable, element == null? string(true): element.layout());
+      default -> {
+        if (typed) {
+          throw new IllegalStateException("values of different kinds can not be stored in the same column");
+        }
+        yield string(nullable);
+      }
+    };
+  }
+}
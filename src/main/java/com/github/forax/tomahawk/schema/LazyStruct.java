@@ -0,0 +1,229 @@
+package com.github.forax.tomahawk.schema;
+
+import com.github.forax.tomahawk.schema.Layout.StructLayout;
+import com.github.forax.tomahawk.vec.StructVec;
+import com.github.forax.tomahawk.vec.U1Vec;
+import com.github.forax.tomahawk.vec.Vec;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Set;
+
+import static java.util.Objects.checkIndex;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * The columns of a "table" mapped lazily, the files of a column are only mapped the first time
+ * the column is accessed, so opening a wide "table" does not map anything.
+ *
+ * A column can be unmapped with {@link #unmap(int)}, by example when the memory is scarce,
+ * it will be mapped again by the next access. A Vec returned by {@link #field(int)} or
+ * {@link #toStructVec()} is valid until its column is unmapped or this object is closed,
+ * those Vecs should not be closed directly.
+ *
+ * This class is thread safe, the files are mapped as shared segments so a column mapped by a thread
+ * can be used by the other threads. Unmapping a column or closing this object while another thread
+ * is still using a Vec of a column is an error, that thread may see an {@link IllegalStateException}.
+ *
+ * Example
+ * <pre>
+ *   try(var table = Layout.mapLazily(directory, "table", layout)) {
+ *     var price = (U64Vec) table.field("price");   // only the files of "price" are mapped
+ *     ...
+ *   }
+ * </pre>
+ *
+ * @see Layout#mapLazily(Path, String, StructLayout)
+ */
+public final class LazyStruct implements AutoCloseable {
+  private final Path directory;
+  private final String name;
+  private final StructLayout layout;
+  private final Vec[] fieldVecs;
+  private U1Vec validity;       // null if not mapped yet
+  private long length = -1;     // -1 if not computed yet
+  private boolean closed;
+
+  LazyStruct(Path directory, String name, StructLayout layout, long length) {
+    this.directory = requireNonNull(directory);
+    this.name = requireNonNull(name);
+    this.layout = requireNonNull(layout);
+    this.fieldVecs = new Vec[layout.fields().size()];
+    this.length = length;
+  }
+
+  /**
+   * Returns the layout of the "table"
+   * @return the layout of the "table"
+   */
+  public StructLayout layout() {
+    return layout;
+  }
+
+  private void checkOpen() {
+    if (closed) {
+      throw new IllegalStateException("lazy struct " + name + " is closed");
+    }
+  }
+
+  /**
+   * Returns the length of the "table", computed from the size of the files without mapping them.
+   * @return the length of the "table"
+   * @throws UncheckedIOException if an io error occurs
+   */
+  public synchronized long length() {
+    checkOpen();
+    if (length == -1) {
+      try {
+        length = LayoutHelper.length(directory, name, layout);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    return length;
+  }
+
+  /**
+   * Returns the Vec of a column, mapping its files if necessary.
+   * @param index the index of the column
+   * @return the Vec of the column
+   * @throws UncheckedIOException if an io error occurs
+   */
+  public synchronized Vec field(int index) {
+    checkIndex(index, fieldVecs.length);
+    checkOpen();
+    var vec = fieldVecs[index];
+    if (vec == null) {
+      var field = layout.fields().get(index);
+      try {
+        vec = LayoutHelper.mapShared(directory, name + "_struct-" + field.name(), field.layout());
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      fieldVecs[index] = vec;
+    }
+    return vec;
+  }
+
+  /**
+   * Returns the Vec of a column, mapping its files if necessary.
+   * @param name the name of the column
+   * @return the Vec of the column
+   * @throws IllegalStateException if there is no column named {@code name}
+   * @throws UncheckedIOException if an io error occurs
+   */
+  public Vec field(String name) {
+    var index = layout.fieldIndex(name);
+    if (index == -1) {
+      throw new IllegalStateException("no field " + name);
+    }
+    return field(index);
+  }
+
+  /**
+   * Returns true if the files of a column are currently mapped.
+   * @param index the index of the column
+   * @return true if the files of the column are currently mapped
+   */
+  public synchronized boolean isMapped(int index) {
+    checkIndex(index, fieldVecs.length);
+    return fieldVecs[index] != null;
+  }
+
+  /**
+   * Unmaps the files of a column, the Vecs of the column previously returned can not be used anymore.
+   * Does nothing if the column is not mapped.
+   * @param index the index of the column
+   */
+  public synchronized void unmap(int index) {
+    checkIndex(index, fieldVecs.length);
+    var vec = fieldVecs[index];
+    if (vec != null) {
+      fieldVecs[index] = null;
+      vec.close();
+    }
+  }
+
+  /**
+   * Returns a StructVec composed of all the columns, mapping the files of the columns if necessary.
+   * @return a StructVec composed of all the columns
+   * @throws UncheckedIOException if an io error occurs
+   */
+  public synchronized StructVec toStructVec() {
+    checkOpen();
+    if (layout.nullable() && validity == null) {
+      try {
+        validity = LayoutHelper.mapValidityVec(directory, name + "_struct", true);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    var fields = new ArrayList<Vec>();
+    for(var i = 0; i < fieldVecs.length; i++) {
+      fields.add(field(i));
+    }
+    return StructVec.from(validity, fields);
+  }
+
+  /**
+   * Returns the columns of the same "table" with a new layout, by example after a column was added
+   * or some columns were rewritten. The columns already mapped that are not in {@code changedFields}
+   * and have the same layout are transferred to the returned object, so they are not mapped again,
+   * the other columns are unmapped. This object is closed.
+   *
+   * @param layout the new layout of the "table"
+   * @param changedFields the names of the columns whose files have changed
+   * @return the columns of the "table" with the new layout
+   * @throws IllegalStateException if this object is closed
+   */
+  public synchronized LazyStruct remap(StructLayout layout, Set<String> changedFields) {
+    requireNonNull(layout);
+    requireNonNull(changedFields);
+    checkOpen();
+    var lazyStruct = new LazyStruct(directory, name, layout, -1);
+    var fields = this.layout.fields();
+    var unchanged = true;  // true if the files of the existing columns have not changed
+    for(var i = 0; i < fields.size(); i++) {
+      var field = fields.get(i);
+      if (changedFields.contains(field.name())) {
+        unchanged = false;
+        continue;
+      }
+      var index = layout.fieldIndex(field.name());
+      if (index != -1 && layout.fields().get(index).layout().equals(field.layout())) {
+        lazyStruct.fieldVecs[index] = fieldVecs[i];
+        fieldVecs[i] = null;
+      }
+    }
+    if (unchanged) {
+      lazyStruct.length = length;
+      if (layout.nullable() == this.layout.nullable()) {
+        lazyStruct.validity = validity;
+        validity = null;
+      }
+    }
+    close();
+    return lazyStruct;
+  }
+
+  /**
+   * Unmaps all the files.
+   * This method is idempotent.
+   */
+  @Override
+  public synchronized void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    for(var i = 0; i < fieldVecs.length; i++) {
+      unmap(i);
+    }
+    if (validity != null) {
+      validity.close();
+      validity = null;
+    }
+  }
+}
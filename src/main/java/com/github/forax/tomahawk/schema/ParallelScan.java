@@ -0,0 +1,64 @@
+package com.github.forax.tomahawk.schema;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Applies a function to several items (row groups, partitions) in parallel.
+ */
+final class ParallelScan {
+  private ParallelScan() {
+    throw new AssertionError();
+  }
+
+  /**
+   * Applies {@code function} to each item using at most {@code parallelism} tasks of {@code executor},
+   * each task takes the next item not yet processed, so no thread is created.
+   * The function should map the columns it uses itself, so only the columns used are mapped.
+   *
+   * @param items the items
+   * @param function the function called for each item
+   * @param parallelism the maximum number of items processed at the same time
+   * @param executor the executor that runs the tasks, by example the common fork join pool
+   * @param <T> the type of the items
+   * @param <R> the type of the results
+   * @return the results in the order of the items
+   * @throws IOException if an io error occurs
+   * @throws IllegalArgumentException if {@code parallelism} is not positive
+   */
+  static <T, R> List<R> map(List<? extends T> items, Function<? super T, ? extends R> function, int parallelism, Executor executor) throws IOException {
+    if (parallelism <= 0) {
+      throw new IllegalArgumentException("parallelism <= 0");
+    }
+    var results = new Object[items.size()];
+    var nextIndex = new AtomicInteger();
+    var futures = new ArrayList<CompletableFuture<Void>>();
+    try {
+      for(var i = 0; i < Math.min(parallelism, items.size()); i++) {
+        futures.add(CompletableFuture.runAsync(() -> {
+          int index;
+          while((index = nextIndex.getAndIncrement()) < results.length) {
+            results[index] = function.apply(items.get(index));
+          }
+        }, executor));
+      }
+      for(var future: futures) {
+        TextChunks.join(future);
+      }
+    } finally {
+      nextIndex.set(results.length);  // if a task has failed, the other ones stop
+      for(var future: futures) {  // and wait for them
+        future.handle((__, ___) -> null).join();
+      }
+    }
+    @SuppressWarnings("unchecked")
+    var list = (List<R>) Arrays.asList(results);
+    return list;
+  }
+}
@@ -0,0 +1,228 @@
+package com.github.forax.tomahawk.schema;
+
+import com.github.forax.tomahawk.schema.Layout.StructLayout;
+import com.github.forax.tomahawk.vec.StructVec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A "table" partitioned by the value of a key column, each partition is a directory named
+ * {@code key=value} (like Hive) containing the files of the other columns
+ * (see {@link Layout#map(Path, String, Layout)}).
+ *
+ * The value of the key is only stored in the name of the directory, so the partitions can be
+ * pruned by testing their key before any file is mapped, by example, a query on one day of
+ * a table partitioned by day only maps the files of that day.
+ *
+ * In the name of a directory, the characters of a key value that are not a letter, a digit,
+ * {@code '-'}, {@code '_'} or {@code '.'} (not in first position) are escaped as {@code %XX},
+ * the hexadecimal value of each byte of their UTF-8 encoding.
+ *
+ * A table can be scanned while rows are appended, the appends are serialized and a scan only sees
+ * the partitions that existed when it started, a new partition is visible once its first rows are written.
+ *
+ * Example
+ * <pre>
+ *   var table = PartitionedTable.open(directory, "events", "day", layout);
+ *   table.appendRows("2026-10-16", builder -> ...);
+ *   var counts = table.scan(day -> day.startsWith("2026-10"), (day, columns) -> columns.length(), 4);
+ * </pre>
+ */
+public final class PartitionedTable {
+  private final Path directory;
+  private final String name;
+  private final String key;
+  private final StructLayout layout;
+  private volatile NavigableMap<String, Path> partitions;  // sorted by key value, immutable, replaced when a partition is created
+
+  private PartitionedTable(Path directory, String name, String key, StructLayout layout, TreeMap<String, Path> partitions) {
+    this.directory = directory;
+    this.name = name;
+    this.key = key;
+    this.layout = layout;
+    this.partitions = Collections.unmodifiableNavigableMap(partitions);
+  }
+
+  /**
+   * Opens a "table" partitioned by the value of a key column, the directory is created if it does not exist.
+   *
+   * @param directory the directory of the "table"
+   * @param name the name of the "table"
+   * @param key the name of the key column
+   * @param layout the layout of the columns stored in each partition, the key column excluded
+   * @return a "table" partitioned by the value of a key column
+   * @throws IOException if an io error occurs
+   * @throws IllegalArgumentException if the layout has a column named {@code key}
+   */
+  public static PartitionedTable open(Path directory, String name, String key, StructLayout layout) throws IOException {
+    requireNonNull(directory);
+    requireNonNull(name);
+    requireNonNull(key);
+    requireNonNull(layout);
+    if (layout.fieldIndex(key) != -1) {
+      throw new IllegalArgumentException("the key " + key + " is stored in the name of the partitions, not as a column");
+    }
+    Files.createDirectories(directory);
+    var prefix = escape(key) + "=";
+    var partitions = new TreeMap<String, Path>();
+    try(var files = Files.list(directory)) {
+      for(var path: files.toList()) {
+        var fileName = path.getFileName().toString();
+        if (fileName.startsWith(prefix) && Files.isDirectory(path)) {
+          partitions.put(unescape(fileName.substring(prefix.length())), path);
+        }
+      }
+    }
+    return new PartitionedTable(directory, name, key, layout, partitions);
+  }
+
+  /**
+   * Returns the name of the key column
+   * @return the name of the key column
+   */
+  public String key() {
+    return key;
+  }
+
+  /**
+   * Returns the layout of the columns stored in each partition
+   * @return the layout of the columns stored in each partition
+   */
+  public StructLayout layout() {
+    return layout;
+  }
+
+  /**
+   * Returns the key values of the partitions, sorted
+   * @return the key values of the partitions
+   */
+  public List<String> partitions() {
+    return List.copyOf(partitions.keySet());
+  }
+
+  /**
+   * Appends rows to the partition of a key value, the partition is created if it does not exist.
+   * The appends are serialized, a scan running at the same time does not see a partition created by the append.
+   *
+   * @param value the key value of the partition
+   * @param consumer a consumer that appends the rows
+   * @throws IOException if an io error occurs
+   */
+  public synchronized void appendRows(String value, Consumer<? super StructVec.Builder> consumer) throws IOException {
+    requireNonNull(value);
+    requireNonNull(consumer);
+    var partitionDirectory = partitions.get(value);
+    var created = partitionDirectory == null;
+    if (created) {
+      partitionDirectory = directory.resolve(escape(key) + "=" + escape(value));
+      Files.createDirectories(partitionDirectory);
+    }
+    long length;
+    try(var builder = (StructVec.Builder) LayoutHelper.builder(partitionDirectory, name, layout, CREATE, APPEND)) {
+      consumer.accept(builder);
+      length = builder.length();
+    }
+    LayoutHelper.saveLength(partitionDirectory, name, length);
+    if (created) {  // published once its rows can be mapped
+      var newPartitions = new TreeMap<>(partitions);
+      newPartitions.put(value, partitionDirectory);
+      partitions = Collections.unmodifiableNavigableMap(newPartitions);
+    }
+  }
+
+  /**
+   * Maps lazily the columns of a partition.
+   *
+   * @param value the key value of the partition
+   * @return the columns of the partition
+   * @throws IllegalStateException if there is no partition for that key value
+   */
+  public LazyStruct partition(String value) {
+    requireNonNull(value);
+    var partitionDirectory = partitions.get(value);
+    if (partitionDirectory == null) {
+      throw new IllegalStateException("no partition " + key + "=" + value);
+    }
+    return Layout.mapLazily(partitionDirectory, name, layout);
+  }
+
+  /**
+   * Scans in parallel the partitions whose key value match a filter, the other partitions are pruned
+   * without being mapped. Each partition is mapped lazily and processed by {@code task} on a thread of
+   * the common fork join pool, at most {@code parallelism} partitions at the same time,
+   * the columns are unmapped when the task returns.
+   *
+   * @param filter a predicate on the key value that selects the partitions to scan
+   * @param task the task called with the key value and the columns of each selected partition
+   * @param parallelism the maximum number of partitions scanned at the same time
+   * @param <R> the type of the result of a task
+   * @return the results of the tasks, in the order of the key values
+   * @throws IOException if an io error occurs
+   * @throws IllegalArgumentException if {@code parallelism} is not positive
+   */
+  public <R> List<R> scan(Predicate<? super String> filter, BiFunction<? super String, ? super LazyStruct, ? extends R> task, int parallelism) throws IOException {
+    requireNonNull(filter);
+    requireNonNull(task);
+    var selected = partitions.entrySet().stream().filter(entry -> filter.test(entry.getKey())).toList();
+    // the columns are mapped by the thread that uses them
+    return ParallelScan.map(selected, entry -> {
+      try(var columns = Layout.mapLazily(entry.getValue(), name, layout)) {
+        return task.apply(entry.getKey(), columns);
+      }
+    }, parallelism, ForkJoinPool.commonPool());
+  }
+
+  private static boolean isSafe(char c, int index) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') ||
+        c == '-' || c == '_' || (c == '.' && index != 0);
+  }
+
+  static String escape(String value) {
+    var builder = new StringBuilder();
+    for(var i = 0; i < value.length(); i++) {
+      var c = value.charAt(i);
+      if (isSafe(c, i)) {
+        builder.append(c);
+        continue;
+      }
+      var end = Character.isHighSurrogate(c) && i + 1 < value.length()? i + 2: i + 1;
+      for(var b: value.substring(i, end).getBytes(StandardCharsets.UTF_8)) {
+        builder.append("%%%02X".formatted(b & 0xFF));
+      }
+      i = end - 1;
+    }
+    return builder.toString();
+  }
+
+  static String unescape(String text) {
+    var builder = new StringBuilder();
+    var bytes = new ByteArrayOutputStream();  // the UTF-8 bytes of the escaped characters
+    for(var i = 0; i < text.length(); i++) {
+      var c = text.charAt(i);
+      if (c == '%' && i + 2 < text.length()) {
+        bytes.write(Integer.parseInt(text, i + 1, i + 3, 16));
+        i += 2;
+        continue;
+      }
+      builder.append(bytes.toString(StandardCharsets.UTF_8)).append(c);
+      bytes.reset();
+    }
+    return builder.append(bytes.toString(StandardCharsets.UTF_8)).toString();
+  }
+}
@@ -0,0 +1,383 @@
+package com.github.forax.tomahawk.schema;
+
+import com.github.forax.tomahawk.schema.Layout.PrimitiveLayout;
+import com.github.forax.tomahawk.schema.Layout.StructLayout;
+import com.github.forax.tomahawk.vec.StructVec;
+import com.github.forax.tomahawk.vec.U16Vec;
+import com.github.forax.tomahawk.vec.U1Vec;
+import com.github.forax.tomahawk.vec.U32Vec;
+import com.github.forax.tomahawk.vec.U64Vec;
+import com.github.forax.tomahawk.vec.U8Vec;
+import com.github.forax.tomahawk.vec.Vec;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A "table" partitioned into row groups, each row group is a directory containing its own files
+ * of columns (see {@link Layout#map(Path, String, Layout)}) and a zone map, the statistics
+ * (number of nulls, minimum and maximum) of each primitive column of the row group.
+ *
+ * A scan maps and processes each row group on its own thread, the row groups that can not
+ * contain a value can be skipped by testing their zone map before being mapped.
+ *
+ * The row groups are stored in the directory of the "table" in sub-directories named
+ * {@code rowgroup-000000}, {@code rowgroup-000001}, etc, the zone map is written last,
+ * so a row group without zone map (by example, if the process has crashed) is ignored.
+ *
+ * Example
+ * <pre>
+ *   var table = RowGroupTable.open(directory, "table", layout);
+ *   table.appendRowGroup(builder -> ...);
+ *   var counts = table.scan(rowGroup -> rowGroup.mayContain("age", 30, 40),
+ *       columns -> ...,
+ *       4);
+ * </pre>
+ */
+public final class RowGroupTable {
+  /**
+   * The statistics of a column of a row group, the minimum and the maximum of the non-null values
+   * as doubles, {@code u1} values are 0 or 1 and {@code char16} values are unsigned,
+   * if the column has no non-null value, the minimum is {@code +Infinity} and the maximum is
+   * {@code -Infinity}.
+   *
+   * @param nullCount the number of nulls
+   * @param min a value lower or equals to the minimum of the non-null values
+   * @param max a value greater or equals to the maximum of the non-null values
+   */
+  public record ColumnStats(long nullCount, double min, double max) {
+    /**
+     * Returns true if a non-null value of the column may be in between {@code from} and {@code to} (inclusive).
+     * @param from the lower bound
+     * @param to the upper bound
+     * @return true if a non-null value of the column may be in between {@code from} and {@code to}
+     */
+    public boolean mayContain(double from, double to) {
+      return from <= max && to >= min;
+    }
+  }
+
+  /**
+   * A row group.
+   *
+   * @param directory the directory of the row group
+   * @param length the number of rows
+   * @param stats the statistics of the primitive columns indexed by column name
+   */
+  public record RowGroup(Path directory, long length, Map<String, ColumnStats> stats) {
+    /**
+     * Creates a row group.
+     * @param directory the directory of the row group
+     * @param length the number of rows
+     * @param stats the statistics of the primitive columns indexed by column name
+     */
+    public RowGroup {
+      requireNonNull(directory);
+      if (length < 0) {
+        throw new IllegalArgumentException("length < 0");
+      }
+      stats = Map.copyOf(stats);
+    }
+
+    /**
+     * Returns true if a non-null value of the column may be in between {@code from} and {@code to} (inclusive),
+     * a column without statistics may contain any value.
+     * @param name the name of the column
+     * @param from the lower bound
+     * @param to the upper bound
+     * @return true if a non-null value of the column may be in between {@code from} and {@code to}
+     */
+    public boolean mayContain(String name, double from, double to) {
+      var columnStats = stats.get(name);
+      return columnStats == null || columnStats.mayContain(from, to);
+    }
+  }
+
+  private static final String ROW_GROUP_PREFIX = "rowgroup-";
+
+  private final Path directory;
+  private final String name;
+  private final StructLayout layout;
+  private volatile List<RowGroup> rowGroups;  // immutable, replaced when a row group is appended
+  private int nextIndex;  // guarded by this
+
+  private RowGroupTable(Path directory, String name, StructLayout layout, List<RowGroup> rowGroups, int nextIndex) {
+    this.directory = directory;
+    this.name = name;
+    this.layout = layout;
+    this.rowGroups = List.copyOf(rowGroups);
+    this.nextIndex = nextIndex;
+  }
+
+  /**
+   * Opens a "table" partitioned into row groups, the directory is created if it does not exist.
+   *
+   * @param directory the directory of the "table"
+   * @param name the name of the "table"
+   * @param layout the layout of the "table"
+   * @return a "table" partitioned into row groups
+   * @throws IOException if an io error occurs
+   */
+  public static RowGroupTable open(Path directory, String name, StructLayout layout) throws IOException {
+    requireNonNull(directory);
+    requireNonNull(name);
+    requireNonNull(layout);
+    Files.createDirectories(directory);
+    List<Path> groupDirectories;
+    try(var files = Files.list(directory)) {
+      groupDirectories = files
+          .filter(path -> path.getFileName().toString().startsWith(ROW_GROUP_PREFIX) && Files.isDirectory(path))
+          .sorted()
+          .toList();
+    }
+    var rowGroups = new ArrayList<RowGroup>();
+    var nextIndex = 0;
+    for(var groupDirectory: groupDirectories) {
+      var index = Integer.parseInt(groupDirectory.getFileName().toString().substring(ROW_GROUP_PREFIX.length()));
+      nextIndex = Math.max(nextIndex, index + 1);
+      var zoneMapPath = zoneMapPath(groupDirectory, name);
+      if (Files.exists(zoneMapPath)) {
+        rowGroups.add(readZoneMap(groupDirectory, zoneMapPath));
+      }
+    }
+    return new RowGroupTable(directory, name, layout, rowGroups, nextIndex);
+  }
+
+  /**
+   * Returns the layout of the "table"
+   * @return the layout of the "table"
+   */
+  public StructLayout layout() {
+    return layout;
+  }
+
+  /**
+   * Returns the row groups of the "table", in order
+   * @return the row groups of the "table"
+   */
+  public List<RowGroup> rowGroups() {
+    return rowGroups;
+  }
+
+  /**
+   * Returns the number of rows of all the row groups
+   * @return the number of rows of all the row groups
+   */
+  public long length() {
+    return rowGroups.stream().mapToLong(RowGroup::length).sum();
+  }
+
+  /**
+   * Appends a new row group, the rows are appended by {@code consumer} to a builder,
+   * then the zone map is computed.
+   *
+   * @param consumer a consumer that appends the rows of the row group
+   * @return the new row group
+   * @throws IOException if an io error occurs
+   */
+  public RowGroup appendRowGroup(Consumer<? super StructVec.Builder> consumer) throws IOException {
+    requireNonNull(consumer);
+    int index;
+    synchronized(this) {
+      index = nextIndex++;
+    }
+    var groupDirectory = directory.resolve(ROW_GROUP_PREFIX + "%06d".formatted(index));
+    Files.createDirectory(groupDirectory);
+    RowGroup rowGroup;
+    try {
+      long length;
+      try(var builder = (StructVec.Builder) LayoutHelper.builder(groupDirectory, name, layout)) {
+        consumer.accept(builder);
+        length = builder.length();
+      }
+      LayoutHelper.saveLength(groupDirectory, name, length);
+      rowGroup = writeZoneMap(groupDirectory, length);
+    } catch(IOException | RuntimeException | Error e) {
+      TextChunks.deleteDirectory(groupDirectory);
+      throw e;
+    }
+    synchronized(this) {  // the row groups can be appended by several threads
+      var newRowGroups = new ArrayList<>(rowGroups);
+      newRowGroups.add(rowGroup);
+      rowGroups = List.copyOf(newRowGroups);
+    }
+    return rowGroup;
+  }
+
+  /**
+   * Scans the row groups that match a filter in parallel, each row group is mapped lazily
+   * and processed by {@code task}, at most {@code parallelism} row groups at the same time,
+   * on the threads of {@code executor}, so only the columns used by the task are mapped.
+   * The columns are unmapped when the task returns, so the result should not reference them.
+   *
+   * @param filter a predicate that selects the row groups to scan, usually using the zone maps
+   * @param task the task called with the columns of each selected row group
+   * @param parallelism the maximum number of row groups scanned at the same time
+   * @param executor the executor that runs the tasks
+   * @param <R> the type of the result of a task
+   * @return the results of the tasks, in the order of the row groups
+   * @throws IOException if an io error occurs
+   * @throws IllegalArgumentException if {@code parallelism} is not positive
+   */
+  public <R> List<R> scan(Predicate<? super RowGroup> filter, Function<? super LazyStruct, ? extends R> task, int parallelism, Executor executor) throws IOException {
+    requireNonNull(filter);
+    requireNonNull(task);
+    requireNonNull(executor);
+    var selected = rowGroups.stream().filter(filter).toList();
+    // the columns are mapped by the thread that uses them
+    return ParallelScan.map(selected, rowGroup -> {
+      try(var columns = Layout.mapLazily(rowGroup.directory, name, layout)) {
+        return task.apply(columns);
+      }
+    }, parallelism, executor);
+  }
+
+  /**
+   * Scans the row groups that match a filter in parallel using the common fork join pool.
+   *
+   * @param filter a predicate that selects the row groups to scan, usually using the zone maps
+   * @param task the task called with the columns of each selected row group
+   * @param parallelism the maximum number of row groups scanned at the same time
+   * @param <R> the type of the result of a task
+   * @return the results of the tasks, in the order of the row groups
+   * @throws IOException if an io error occurs
+   * @throws IllegalArgumentException if {@code parallelism} is not positive
+   *
+   * @see #scan(Predicate, Function, int, Executor)
+   */
+  public <R> List<R> scan(Predicate<? super RowGroup> filter, Function<? super LazyStruct, ? extends R> task, int parallelism) throws IOException {
+    return scan(filter, task, parallelism, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Scans all the row groups in parallel using the common fork join pool,
+   * as many row groups as available processors at the same time.
+   *
+   * @param task the task called with the columns of each row group
+   * @param <R> the type of the result of a task
+   * @return the results of the tasks, in the order of the row groups
+   * @throws IOException if an io error occurs
+   *
+   * @see #scan(Predicate, Function, int)
+   */
+  public <R> List<R> scan(Function<? super LazyStruct, ? extends R> task) throws IOException {
+    return scan(__ -> true, task, Runtime.getRuntime().availableProcessors());
+  }
+
+  private static Path zoneMapPath(Path groupDirectory, String name) {
+    return groupDirectory.resolve(name + "_zonemap.txt");
+  }
+
+  // the zone map is a text file, the first line is the length, then a line per primitive column
+  // with the number of nulls, the minimum, the maximum and the name of the column
+  private RowGroup writeZoneMap(Path groupDirectory, long length) throws IOException {
+    var stats = new LinkedHashMap<String, ColumnStats>();
+    try(var structVec = (StructVec) LayoutHelper.map(groupDirectory, name, layout)) {
+      var fields = layout.fields();
+      for(var i = 0; i < fields.size(); i++) {
+        var field = fields.get(i);
+        if (field.layout() instanceof PrimitiveLayout primitiveLayout) {
+          stats.put(field.name(), stats(primitiveLayout, structVec.fields().get(i), length));
+        }
+      }
+    }
+    var builder = new StringBuilder().append("length ").append(length).append('\n');
+    stats.forEach((fieldName, columnStats) -> builder
+        .append("stats ")
+        .append(columnStats.nullCount).append(' ')
+        .append(columnStats.min).append(' ')
+        .append(columnStats.max).append(' ')
+        .append(fieldName).append('\n'));
+    Files.writeString(zoneMapPath(groupDirectory, name), builder);
+    return new RowGroup(groupDirectory, length, stats);
+  }
+
+  private static RowGroup readZoneMap(Path groupDirectory, Path zoneMapPath) throws IOException {
+    var lines = Files.readAllLines(zoneMapPath);
+    if (lines.isEmpty() || !lines.get(0).startsWith("length ")) {
+      throw new IOException("invalid zone map " + zoneMapPath);
+    }
+    var length = Long.parseLong(lines.get(0).substring("length ".length()));
+    var stats = new HashMap<String, ColumnStats>();
+    for(var line: lines.subList(1, lines.size())) {
+      var tokens = line.split(" ", 5);
+      if (tokens.length != 5 || !tokens[0].equals("stats")) {
+        throw new IOException("invalid zone map line " + line);
+      }
+      stats.put(tokens[4], new ColumnStats(Long.parseLong(tokens[1]), Double.parseDouble(tokens[2]), Double.parseDouble(tokens[3])));
+    }
+    return new RowGroup(groupDirectory, length, stats);
+  }
+
+  // a long is not always representable as a double, so the bounds are rounded outward
+  private static double lowerBound(long value) {
+    var bound = (double) value;
+    return (long) bound > value? Math.nextDown(bound): bound;
+  }
+
+  private static double upperBound(long value) {
+    var bound = (double) value;
+    return (long) bound < value? Math.nextUp(bound): bound;
+  }
+
+  private static ColumnStats stats(PrimitiveLayout primitiveLayout, Vec vec, long length) {
+    var nullCount = 0L;
+    var min = Double.POSITIVE_INFINITY;
+    var max = Double.NEGATIVE_INFINITY;
+    var kind = primitiveLayout.kind();
+    if (kind == PrimitiveLayout.Kind.long64) {  // compare as longs to avoid a loss of precision
+      var u64Vec = (U64Vec) vec;
+      var longMin = Long.MAX_VALUE;
+      var longMax = Long.MIN_VALUE;
+      for(var i = 0L; i < length; i++) {
+        if (u64Vec.isNull(i)) {
+          nullCount++;
+          continue;
+        }
+        var value = u64Vec.getLong(i);
+        longMin = Math.min(longMin, value);
+        longMax = Math.max(longMax, value);
+      }
+      if (nullCount != length) {
+        min = lowerBound(longMin);
+        max = upperBound(longMax);
+      }
+      return new ColumnStats(nullCount, min, max);
+    }
+    for(var i = 0L; i < length; i++) {
+      if (vec.isNull(i)) {
+        nullCount++;
+        continue;
+      }
+      var value = switch(kind) {
+        case u1 -> ((U1Vec) vec).getBoolean(i)? 1.0: 0.0;
+        case byte8 -> ((U8Vec) vec).getByte(i);
+        case short16 -> ((U16Vec) vec).getShort(i);
+        case char16 -> ((U16Vec) vec).getChar(i);
+        case int32 -> ((U32Vec) vec).getInt(i);
+        case float32 -> ((U32Vec) vec).getFloat(i);
+        case double64 -> ((U64Vec) vec).getDouble(i);
+        case long64 -> throw new AssertionError();
+      };
+      if (value != value) {  // NaN is not ordered
+        continue;
+      }
+      min = Math.min(min, value);
+      max = Math.max(max, value);
+    }
+    return new ColumnStats(nullCount, min, max);
+  }
+}
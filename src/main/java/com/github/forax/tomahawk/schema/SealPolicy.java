@@ -0,0 +1,58 @@
+package com.github.forax.tomahawk.schema;
+
+import java.io.Reader;
+import java.nio.file.Path;
+import java.util.function.LongConsumer;
+
+/**
+ * Says when a streaming import seals the chunk being appended.
+ *
+ * A streaming import appends the rows read from a stream to the files of a "table" by chunks,
+ * the chunk being appended is sealed (written to the files so it can be mapped) when it contains
+ * {@code rowCount} rows or when it has been opened for more than {@code delayMillis} milliseconds.
+ * The delay is checked by a timer thread, so the rows already read are sealed even if the stream blocks,
+ * in that case the seal listener is called by the timer thread.
+ *
+ * Only the buffers of the chunk being appended are in memory, so the memory used by a streaming
+ * import does not depend on the length of the stream.
+ *
+ * Example
+ * <pre>
+ *   CSV.ingest(reader, layout, directory, "table", SealPolicy.of(10_000, 1_000), length -&gt; {
+ *     // the first length rows can be mapped
+ *   });
+ * </pre>
+ *
+ * @param rowCount the maximum number of rows of a chunk
+ * @param delayMillis the maximum delay in milliseconds before a chunk is sealed
+ *
+ * @see CSV#ingest(Reader, Layout.StructLayout, Path, String, SealPolicy, LongConsumer)
+ * @see JSON#ingestLines(Reader, Layout, Path, String, SealPolicy, LongConsumer)
+ */
+public record SealPolicy(long rowCount, long delayMillis) {
+  /**
+   * Creates a seal policy
+   * @param rowCount the maximum number of rows of a chunk
+   * @param delayMillis the maximum delay in milliseconds before a chunk is sealed
+   * @throws IllegalArgumentException if {@code rowCount} or {@code delayMillis} is not positive
+   */
+  public SealPolicy {
+    if (rowCount <= 0) {
+      throw new IllegalArgumentException("rowCount <= 0");
+    }
+    if (delayMillis <= 0) {
+      throw new IllegalArgumentException("delayMillis <= 0");
+    }
+  }
+
+  /**
+   * Returns a seal policy
+   * @param rowCount the maximum number of rows of a chunk
+   * @param delayMillis the maximum delay in milliseconds before a chunk is sealed
+   * @return a new seal policy
+   * @throws IllegalArgumentException if {@code rowCount} or {@code delayMillis} is not positive
+   */
+  public static SealPolicy of(long rowCount, long delayMillis) {
+    return new SealPolicy(rowCount, delayMillis);
+  }
+}
@@ -0,0 +1,310 @@
+package com.github.forax.tomahawk.schema;
+
+import java.math.BigInteger;
+
+import static java.lang.Math.multiplyHigh;
+
+/**
+ * Formats a double or a float into an array of bytes, without creating a String, using the same characters
+ * as {@link Double#toString(double)} and {@link Float#toString(float)}: the shortest decimal that rounds
+ * to the value, in plain notation between 10^-3 and 10^7 and in computerized scientific notation otherwise.
+ *
+ * The decimal is computed with the Schubfach algorithm (R. Giulietti, "The Schubfach way to render doubles"),
+ * the 126 bits approximations of the powers of ten used by the algorithm are computed once.
+ */
+final class ShortestDecimal {
+  private ShortestDecimal() {
+    throw new AssertionError();
+  }
+
+  /**
+   * The maximum number of bytes written by {@link #writeDouble(double, byte[], int)}
+   * or {@link #writeFloat(float, byte[], int)}.
+   */
+  static final int MAX_LENGTH = 24;
+
+  private static final int K_MIN = -324;
+  private static final int K_MAX = 292;
+  private static final long MASK_63 = (1L << 63) - 1;
+  private static final long MASK_32 = (1L << 32) - 1;
+
+  private static final int DOUBLE_Q_MIN = -1074;
+  private static final long DOUBLE_C_MIN = 1L << 52;
+  private static final int FLOAT_Q_MIN = -149;
+  private static final int FLOAT_C_MIN = 1 << 23;
+
+  // for each k, g = floor(10^-k 2^-r) + 1 with r such as 2^125 <= 10^-k 2^-r < 2^126,
+  // stored as g1 = floor(g / 2^63) followed by g0 = g mod 2^63
+  private static final long[] G = powersOfTen();
+
+  private static long[] powersOfTen() {
+    var g = new long[(K_MAX - K_MIN + 1) << 1];
+    for(var k = K_MIN; k <= K_MAX; k++) {
+      BigInteger beta;
+      if (k <= 0) {
+        var pow10 = BigInteger.TEN.pow(-k);
+        var r = pow10.bitLength() - 126;
+        beta = r >= 0? pow10.shiftRight(r): pow10.shiftLeft(-r);
+      } else {
+        var pow10 = BigInteger.TEN.pow(k);
+        beta = BigInteger.ONE.shiftLeft(125 + pow10.bitLength()).divide(pow10);
+      }
+      var value = beta.add(BigInteger.ONE);
+      var index = (k - K_MIN) << 1;
+      g[index] = value.shiftRight(63).longValue();
+      g[index + 1] = value.longValue() & MASK_63;
+    }
+    return g;
+  }
+
+  // floor(log10(2^e))
+  private static int flog10pow2(int e) {
+    return (int) (e * 661_971_961_083L >> 41);
+  }
+
+  // floor(log10(3/4 2^e))
+  private static int flog10threeQuartersPow2(int e) {
+    return (int) (e * 661_971_961_083L + -274_743_187_321L >> 41);
+  }
+
+  // floor(log2(10^e))
+  private static int flog2pow10(int e) {
+    return (int) (e * 913_124_641_741L >> 38);
+  }
+
+  /**
+   * Writes a double with the characters of {@link Double#toString(double)}.
+   * @param value the double
+   * @param bytes the array of bytes, with at least {@link #MAX_LENGTH} bytes available after {@code index}
+   * @param index the index of the first byte
+   * @return the index after the last byte written
+   */
+  static int writeDouble(double value, byte[] bytes, int index) {
+    var bits = Double.doubleToRawLongBits(value);
+    var t = bits & (DOUBLE_C_MIN - 1);
+    var bq = (int) (bits >>> 52) & 0x7FF;
+    if (bq == 0x7FF) {
+      return writeAscii(t != 0? "NaN": bits > 0? "Infinity": "-Infinity", bytes, index);
+    }
+    if (bits < 0) {
+      bytes[index++] = '-';
+    }
+    if (bq != 0) {  // normal value
+      var mq = -DOUBLE_Q_MIN + 1 - bq;
+      var c = DOUBLE_C_MIN | t;
+      if (0 < mq && mq < 53) {  // an integer
+        var f = c >> mq;
+        if (f << mq == c) {
+          return toChars(f, 0, bytes, index);
+        }
+      }
+      return toDecimal(-mq, c, 0, bytes, index);
+    }
+    if (t != 0) {  // subnormal value, a very small significand is scaled to have at least two digits
+      return t < 3?
+          toDecimal(DOUBLE_Q_MIN, 10 * t, -1, bytes, index):
+          toDecimal(DOUBLE_Q_MIN, t, 0, bytes, index);
+    }
+    return writeAscii("0.0", bytes, index);
+  }
+
+  /**
+   * Writes a float with the characters of {@link Float#toString(float)}.
+   * @param value the float
+   * @param bytes the array of bytes, with at least {@link #MAX_LENGTH} bytes available after {@code index}
+   * @param index the index of the first byte
+   * @return the index after the last byte written
+   */
+  static int writeFloat(float value, byte[] bytes, int index) {
+    var bits = Float.floatToRawIntBits(value);
+    var t = bits & (FLOAT_C_MIN - 1);
+    var bq = (bits >>> 23) & 0xFF;
+    if (bq == 0xFF) {
+      return writeAscii(t != 0? "NaN": bits > 0? "Infinity": "-Infinity", bytes, index);
+    }
+    if (bits < 0) {
+      bytes[index++] = '-';
+    }
+    if (bq != 0) {  // normal value
+      var mq = -FLOAT_Q_MIN + 1 - bq;
+      var c = FLOAT_C_MIN | t;
+      if (0 < mq && mq < 24) {  // an integer
+        var f = c >> mq;
+        if (f << mq == c) {
+          return toChars(f, 0, bytes, index);
+        }
+      }
+      return toDecimal(-mq, c, 0, bytes, index);
+    }
+    if (t != 0) {  // subnormal value, a very small significand is scaled to have at least two digits
+      return t < 8?
+          toDecimal(FLOAT_Q_MIN, 10 * t, -1, bytes, index):
+          toDecimal(FLOAT_Q_MIN, t, 0, bytes, index);
+    }
+    return writeAscii("0.0", bytes, index);
+  }
+
+  // finds the shortest decimal in the rounding interval of c 2^q, the closest to c 2^q if there are several
+  private static int toDecimal(int q, long c, int dk, byte[] bytes, int index) {
+    var out = (int) c & 1;
+    var cb = c << 2;
+    var cbr = cb + 2;
+    long cbl;
+    int k;
+    if (c != DOUBLE_C_MIN || q == DOUBLE_Q_MIN) {  // regular spacing
+      cbl = cb - 2;
+      k = flog10pow2(q);
+    } else {  // irregular spacing
+      cbl = cb - 1;
+      k = flog10threeQuartersPow2(q);
+    }
+    var h = q + flog2pow10(-k) + 2;
+    var g1 = G[(k - K_MIN) << 1];
+    var g0 = G[((k - K_MIN) << 1) + 1];
+    var vb = rop(g1, g0, cb << h);
+    var vbl = rop(g1, g0, cbl << h);
+    var vbr = rop(g1, g0, cbr << h);
+
+    var s = vb >> 2;
+    if (s >= 100) {  // try with one digit less
+      var sp10 = 10 * multiplyHigh(s, 115_292_150_460_684_698L << 4);  // 10 floor(s / 10)
+      var tp10 = sp10 + 10;
+      var upin = vbl + out <= sp10 << 2;
+      var wpin = (tp10 << 2) + out <= vbr;
+      if (upin != wpin) {
+        return toChars(upin? sp10: tp10, k, bytes, index);
+      }
+    }
+    var t = s + 1;
+    var uin = vbl + out <= s << 2;
+    var win = (t << 2) + out <= vbr;
+    if (uin != win) {
+      return toChars(uin? s: t, k + dk, bytes, index);
+    }
+    var cmp = vb - (s + t << 1);  // both are in the interval, takes the closest, the even one if tie
+    return toChars(cmp < 0 || cmp == 0 && (s & 1) == 0? s: t, k + dk, bytes, index);
+  }
+
+  private static int toDecimal(int q, int c, int dk, byte[] bytes, int index) {
+    var out = c & 1;
+    var cb = (long) c << 2;
+    var cbr = cb + 2;
+    long cbl;
+    int k;
+    if (c != FLOAT_C_MIN || q == FLOAT_Q_MIN) {  // regular spacing
+      cbl = cb - 2;
+      k = flog10pow2(q);
+    } else {  // irregular spacing
+      cbl = cb - 1;
+      k = flog10threeQuartersPow2(q);
+    }
+    var h = q + flog2pow10(-k) + 33;
+    var g = G[(k - K_MIN) << 1] + 1;
+    var vb = rop(g, cb << h);
+    var vbl = rop(g, cbl << h);
+    var vbr = rop(g, cbr << h);
+
+    var s = vb >> 2;
+    if (s >= 100) {  // try with one digit less
+      var sp10 = 10 * (int) (s * 1_717_986_919L >>> 34);  // 10 floor(s / 10)
+      var tp10 = sp10 + 10;
+      var upin = vbl + out <= sp10 << 2;
+      var wpin = (tp10 << 2) + out <= vbr;
+      if (upin != wpin) {
+        return toChars(upin? sp10: tp10, k, bytes, index);
+      }
+    }
+    var t = s + 1;
+    var uin = vbl + out <= s << 2;
+    var win = (t << 2) + out <= vbr;
+    if (uin != win) {
+      return toChars(uin? s: t, k + dk, bytes, index);
+    }
+    var cmp = vb - (s + t << 1);  // both are in the interval, takes the closest, the even one if tie
+    return toChars(cmp < 0 || cmp == 0 && (s & 1) == 0? s: t, k + dk, bytes, index);
+  }
+
+  // round to odd of cp g 2^-127 with g = g1 2^63 + g0
+  private static long rop(long g1, long g0, long cp) {
+    var x1 = multiplyHigh(g0, cp);
+    var y0 = g1 * cp;
+    var y1 = multiplyHigh(g1, cp);
+    var z = (y0 >>> 1) + x1;
+    var vbp = y1 + (z >>> 63);
+    return vbp | (z & MASK_63) + MASK_63 >>> 63;
+  }
+
+  // round to odd of cp g 2^-95
+  private static int rop(long g, long cp) {
+    var x1 = multiplyHigh(g, cp);
+    var vbp = x1 >>> 31;
+    return (int) (vbp | (x1 & MASK_32) + MASK_32 >>> 32);
+  }
+
+  // writes f 10^e, f > 0, in plain notation if 10^-3 <= f 10^e < 10^7, in scientific notation otherwise
+  private static int toChars(long f, int e, byte[] bytes, int index) {
+    while(f % 10 == 0) {
+      f /= 10;
+      e++;
+    }
+    var n = digitCount(f);
+    var exponent = n + e - 1;  // the exponent of the first digit
+    if (exponent >= 0 && exponent < 7) {
+      var integerCount = exponent + 1;
+      if (n > integerCount) {
+        return writeDigits(f, n, integerCount, bytes, index);
+      }
+      index = writeDigits(f, n, n, bytes, index) - 1;  // overwrites the '.' written after the digits
+      for(var i = n; i < integerCount; i++) {
+        bytes[index++] = '0';
+      }
+      return writeAscii(".0", bytes, index);
+    }
+    if (exponent < 0 && exponent >= -3) {
+      index = writeAscii("0.", bytes, index);
+      for(var i = -1; i > exponent; i--) {
+        bytes[index++] = '0';
+      }
+      return writeDigits(f, n, n, bytes, index) - 1;
+    }
+    index = n == 1? writeAscii(".0", bytes, writeDigits(f, 1, 1, bytes, index) - 1): writeDigits(f, n, 1, bytes, index);
+    bytes[index++] = 'E';
+    if (exponent < 0) {
+      bytes[index++] = '-';
+      exponent = -exponent;
+    }
+    var exponentCount = digitCount(exponent);
+    return writeDigits(exponent, exponentCount, exponentCount, bytes, index) - 1;
+  }
+
+  // writes the n digits of f with a '.' after the first pointIndex digits, always writes the '.' even after the last digit,
+  // returns the index after the last digit or the '.'
+  private static int writeDigits(long f, int n, int pointIndex, byte[] bytes, int index) {
+    var end = index + n + 1;
+    for(var i = end - 1; i >= index; i--) {
+      if (i == index + pointIndex) {
+        bytes[i] = '.';
+        continue;
+      }
+      bytes[i] = (byte) ('0' + f % 10);
+      f /= 10;
+    }
+    return end;
+  }
+
+  private static int digitCount(long value) {
+    var count = 1;
+    while(value >= 10) {
+      value /= 10;
+      count++;
+    }
+    return count;
+  }
+
+  private static int writeAscii(String text, byte[] bytes, int index) {
+    for(var i = 0; i < text.length(); i++) {
+      bytes[index++] = (byte) text.charAt(i);
+    }
+    return index;
+  }
+}
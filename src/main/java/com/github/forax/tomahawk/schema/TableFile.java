@@ -0,0 +1,267 @@
+package com.github.forax.tomahawk.schema;
+
+import com.github.forax.tomahawk.schema.Layout.ListLayout;
+import com.github.forax.tomahawk.schema.Layout.PrimitiveLayout;
+import com.github.forax.tomahawk.schema.Layout.StructLayout;
+import com.github.forax.tomahawk.vec.ListVec;
+import com.github.forax.tomahawk.vec.StructVec;
+import com.github.forax.tomahawk.vec.U16Vec;
+import com.github.forax.tomahawk.vec.U1Vec;
+import com.github.forax.tomahawk.vec.U32Vec;
+import com.github.forax.tomahawk.vec.U64Vec;
+import com.github.forax.tomahawk.vec.U8Vec;
+import com.github.forax.tomahawk.vec.Vec;
+import jdk.incubator.foreign.MemoryAccess;
+import jdk.incubator.foreign.MemorySegment;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A single file container of all the columns of a "table".
+ *
+ * A "table" is stored as a directory containing one file per validity bit set, per offsets and
+ * per data (see {@link Layout#map(Path, String, Layout)}), a table file packs all those files
+ * into one file, so a "table" is mapped with one system call and the Vecs are slices of the mapping.
+ *
+ * The format of a table file is
+ * <ul>
+ *   <li>a header of 64 bytes starting with the magic {@code TOMAHAWK}
+ *   <li>the regions, one region by file of the "table", each region starts at an offset aligned on 64 bytes
+ *   <li>a footer: the number of regions, the offset and the byte size of each region, the number of rows
+ *       of the "table", the byte size of the textual representation of the layout and the layout encoded
+ *       in UTF-8 padded to 8 bytes
+ *   <li>the offset of the footer and the magic {@code TOMAHAWK}
+ * </ul>
+ * All the numbers are 64 bits little endian longs, the regions are stored in the order of the files
+ * of the layout, for each layout, the validity first then the offsets then the data.
+ * The number of rows is stored because the length of a column of booleans can not be computed
+ * from the size of its region (see {@link StructVec#from(U1Vec, long, List)}).
+ *
+ * A table file is mapped read only, to modify a "table", modify its directory and pack it again.
+ *
+ * Example
+ * <pre>
+ *   TableFile.pack(directory, "table", layout, path);
+ *   try(var vec = TableFile.map(path)) {
+ *     ...
+ *   }
+ * </pre>
+ */
+public final class TableFile {
+  private TableFile() {
+    throw new AssertionError();
+  }
+
+  private static final byte[] MAGIC = "TOMAHAWK".getBytes(StandardCharsets.US_ASCII);
+  private static final int ALIGNMENT = 64;
+  private static final int TRAILER_SIZE = 16;  // offset of the footer + magic
+
+  private static long align(long offset) {
+    return (offset + ALIGNMENT - 1) & -ALIGNMENT;
+  }
+
+  /**
+   * Packs the files of a "table" into a table file.
+   *
+   * @param directory the directory of the "table"
+   * @param name the name of the "table"
+   * @param layout the layout of the "table"
+   * @param path the path of the table file
+   * @throws IOException if an io error occurs
+   */
+  public static void pack(Path directory, String name, Layout layout, Path path) throws IOException {
+    requireNonNull(directory);
+    requireNonNull(name);
+    requireNonNull(layout);
+    requireNonNull(path);
+    var files = LayoutHelper.files(directory, name, layout);
+    var length = LayoutHelper.length(directory, name, layout);
+    var regions = new long[files.size() << 1];
+    try(var output = FileChannel.open(path, CREATE, WRITE, TRUNCATE_EXISTING)) {
+      var header = ByteBuffer.allocate(ALIGNMENT).put(MAGIC).position(ALIGNMENT).flip();
+      writeFully(output, header, 0);
+      var position = (long) ALIGNMENT;
+      for(var i = 0; i < files.size(); i++) {
+        try(var input = FileChannel.open(files.get(i), READ)) {
+          var size = input.size();
+          for(var transferred = 0L; transferred < size;) {
+            transferred += input.transferTo(transferred, size - transferred, output.position(position + transferred));
+          }
+          regions[i << 1] = position;
+          regions[(i << 1) + 1] = size;
+          position = align(position + size);  // the gap is filled with zeroes
+        }
+      }
+
+      var layoutBytes = layout.toString().getBytes(StandardCharsets.UTF_8);
+      var paddedLayoutSize = (layoutBytes.length + 7) & -8;
+      var footer = ByteBuffer.allocate(8 + (regions.length << 3) + 16 + paddedLayoutSize + TRAILER_SIZE)
+          .order(ByteOrder.LITTLE_ENDIAN);
+      footer.putLong(files.size());
+      for(var value: regions) {
+        footer.putLong(value);
+      }
+      footer.putLong(length);
+      footer.putLong(layoutBytes.length);
+      footer.put(layoutBytes).position(footer.position() + paddedLayoutSize - layoutBytes.length);
+      footer.putLong(position);
+      footer.put(MAGIC);
+      writeFully(output, footer.flip(), position);
+      output.truncate(position + footer.limit());
+    }
+  }
+
+  private static void writeFully(FileChannel output, ByteBuffer buffer, long position) throws IOException {
+    while(buffer.hasRemaining()) {
+      position += output.write(buffer, position);
+    }
+  }
+
+  private static void checkMagic(MemorySegment segment, long offset) {
+    for(var i = 0; i < MAGIC.length; i++) {
+      if (MemoryAccess.getByteAtOffset(segment, offset + i) != MAGIC[i]) {
+        throw new IllegalArgumentException("not a table file");
+      }
+    }
+  }
+
+  private record Footer(Layout layout, long length, List<MemorySegment> regions) {}
+
+  private static Footer footer(MemorySegment segment) {
+    var size = segment.byteSize();
+    if (size < ALIGNMENT + TRAILER_SIZE) {
+      throw new IllegalArgumentException("not a table file");
+    }
+    checkMagic(segment, 0);
+    checkMagic(segment, size - MAGIC.length);
+    var footerOffset = MemoryAccess.getLongAtOffset(segment, size - TRAILER_SIZE);
+    if (footerOffset < ALIGNMENT || footerOffset > size - TRAILER_SIZE - 24) {
+      throw new IllegalArgumentException("invalid footer offset " + footerOffset);
+    }
+    var regionCount = MemoryAccess.getLongAtOffset(segment, footerOffset);
+    if (regionCount < 0 || regionCount > (size - TRAILER_SIZE - footerOffset - 24) >>> 4) {
+      throw new IllegalArgumentException("invalid region count " + regionCount);
+    }
+    var regions = new ArrayList<MemorySegment>();
+    for(var i = 0L; i < regionCount; i++) {
+      var offset = MemoryAccess.getLongAtOffset(segment, footerOffset + 8 + (i << 4));
+      var byteSize = MemoryAccess.getLongAtOffset(segment, footerOffset + 16 + (i << 4));
+      if (offset % ALIGNMENT != 0 || offset < ALIGNMENT || byteSize < 0 || byteSize > footerOffset - offset) {
+        throw new IllegalArgumentException("invalid region " + i + " at " + offset + " of size " + byteSize);
+      }
+      regions.add(segment.asSlice(offset, byteSize));
+    }
+    var length = MemoryAccess.getLongAtOffset(segment, footerOffset + 8 + (regionCount << 4));
+    if (length < 0) {
+      throw new IllegalArgumentException("invalid length " + length);
+    }
+    var layoutOffset = footerOffset + 16 + (regionCount << 4);
+    var layoutSize = MemoryAccess.getLongAtOffset(segment, layoutOffset);
+    if (layoutSize < 0 || layoutSize > size - TRAILER_SIZE - layoutOffset - 8) {
+      throw new IllegalArgumentException("invalid layout size " + layoutSize);
+    }
+    var layoutBytes = segment.asSlice(layoutOffset + 8, layoutSize).toByteArray();
+    var layout = Layout.parse(new String(layoutBytes, StandardCharsets.UTF_8));
+    return new Footer(layout, length, regions);
+  }
+
+  /**
+   * Returns the layout of the "table" stored in a table file.
+   *
+   * @param path the path of the table file
+   * @return the layout of the "table"
+   * @throws IOException if an io error occurs
+   * @throws IllegalArgumentException if the file is not a table file
+   */
+  public static Layout layout(Path path) throws IOException {
+    requireNonNull(path);
+    var segment = MemorySegment.mapFile(path, 0, Files.size(path), READ_ONLY);
+    try {
+      return footer(segment).layout;
+    } finally {
+      segment.close();
+    }
+  }
+
+  /**
+   * Maps a table file in memory, the file is mapped once and each Vec uses a slice of the mapping.
+   *
+   * All the Vecs share the same mapping, so closing the returned Vec or any of its sub Vecs
+   * unmaps the whole file. If the layout is a struct, the length of the returned Vec is
+   * the number of rows stored in the footer.
+   *
+   * @param path the path of the table file
+   * @return a Vec able to load element from the "table"
+   * @throws IOException if an io error occurs
+   * @throws IllegalArgumentException if the file is not a table file
+   */
+  public static Vec map(Path path) throws IOException {
+    requireNonNull(path);
+    var segment = MemorySegment.mapFile(path, 0, Files.size(path), READ_ONLY);
+    try {
+      var footer = footer(segment);
+      var regions = footer.regions.iterator();
+      var vec = vec(footer.layout, footer.length, regions);
+      if (regions.hasNext()) {
+        throw new IllegalArgumentException("too many regions");
+      }
+      return vec;
+    } catch(RuntimeException | Error e) {
+      segment.close();
+      throw e;
+    }
+  }
+
+  private static MemorySegment next(Iterator<MemorySegment> regions) {
+    if (!regions.hasNext()) {
+      throw new IllegalArgumentException("not enough regions");
+    }
+    return regions.next();
+  }
+
+  // length is the number of rows of the "table" or -1 for the Vecs inside
+  private static Vec vec(Layout layout, long length, Iterator<MemorySegment> regions) {
+    if (layout instanceof PrimitiveLayout primitiveLayout) {
+      var validity = primitiveLayout.nullable()? U1Vec.from(null, next(regions)): null;
+      var data = next(regions);
+      return switch(primitiveLayout.kind()) {
+        case u1 -> U1Vec.from(validity, data);
+        case byte8 -> U8Vec.from(validity, data);
+        case short16, char16 -> U16Vec.from(validity, data);
+        case int32, float32 -> U32Vec.from(validity, data);
+        case long64 , double64 -> U64Vec.from(validity, data);
+      };
+    }
+    if (layout instanceof ListLayout listLayout) {
+      var validity = listLayout.nullable()? U1Vec.from(null, next(regions)): null;
+      var offset = U32Vec.from(null, next(regions));
+      var data = vec(listLayout.element(), -1, regions);
+      return ListVec.from(validity, offset, data);
+    }
+    if (layout instanceof StructLayout structLayout) {
+      var validity = structLayout.nullable()? U1Vec.from(null, next(regions)): null;
+      var fieldVecs = new ArrayList<Vec>();
+      for(var field: structLayout.fields()) {
+        fieldVecs.add(vec(field.layout(), -1, regions));
+      }
+      return length == -1? StructVec.from(validity, fieldVecs): StructVec.from(validity, length, fieldVecs);
+    }
+    throw new AssertionError("unknown layout");
+  }
+}
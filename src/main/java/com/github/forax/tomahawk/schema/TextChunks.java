@@ -0,0 +1,263 @@
+package com.github.forax.tomahawk.schema;
+
+import com.github.forax.tomahawk.vec.Vec;
+import jdk.incubator.foreign.MemoryAccess;
+import jdk.incubator.foreign.MemorySegment;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.stream.LongStream;
+
+import static java.util.Objects.checkFromToIndex;
+
+/**
+ * Splits a text stored in a mapped segment into ranges of lines that can be parsed in parallel,
+ * each range being parsed into its own chunk of columns.
+ */
+final class TextChunks {
+  private TextChunks() {
+    throw new AssertionError();
+  }
+
+  /**
+   * A range of bytes of a segment
+   */
+  record Range(long start, long end) {}
+
+  private static final byte NEWLINE = '\n';
+
+  /**
+   * Returns the offset after the end of the line starting at {@code start}, a newline in between two
+   * {@code quote} characters is part of the line.
+   *
+   * @param segment the segment containing the text
+   * @param start the offset of the start of the line
+   * @param end the offset of the end of the text
+   * @param quote the quote character or -1 if the text has no quote
+   * @param inQuote true if the line start inside a quoted value
+   * @return the offset after the newline or {@code end} if the line is not ended
+   */
+  static long lineEnd(MemorySegment segment, long start, long end, int quote, boolean inQuote) {
+    for(var offset = start; offset < end; offset++) {
+      var value = MemoryAccess.getByteAtOffset(segment, offset);
+      if (value == quote) {
+        inQuote = !inQuote;  // an escaped quote is two quotes so it does not change the state
+        continue;
+      }
+      if (value == NEWLINE && !inQuote) {
+        return offset + 1;
+      }
+    }
+    return end;
+  }
+
+  private static boolean hasOddQuoteCount(MemorySegment segment, long start, long end, int quote) {
+    var odd = false;
+    for(var offset = start; offset < end; offset++) {
+      if (MemoryAccess.getByteAtOffset(segment, offset) == quote) {
+        odd = !odd;
+      }
+    }
+    return odd;
+  }
+
+  /**
+   * Splits the text in between {@code start} and {@code end} into at most {@code count} ranges
+   * of whole lines of roughly the same size.
+   *
+   * Each range is first defined by a fixed size, in parallel, the quotes of each range are counted,
+   * so the parity of the number of quotes before a range says if the range starts inside a quoted value.
+   * Then, in parallel, each range is moved to start after the first newline that is not quoted.
+   *
+   * @param segment a segment shared by the threads of the executor
+   * @param start the offset of the first line
+   * @param end the offset of the end of the text
+   * @param count the maximum number of ranges
+   * @param quote the quote character or -1 if the text has no quote
+   * @param executor the executor used to scan the text
+   * @return a list of non-empty ranges, in order
+   */
+  static List<Range> split(MemorySegment segment, long start, long end, int count, int quote, Executor executor) {
+    checkFromToIndex(start, end, segment.byteSize());
+    var size = end - start;
+    count = (int) Math.max(1, Math.min(count, size));
+    var starts = new long[count + 1];
+    for(var i = 0; i < count; i++) {
+      starts[i] = start + size * i / count;
+    }
+    starts[count] = end;
+
+    var inQuotes = new boolean[count];
+    if (quote != -1) {
+      var futures = new ArrayList<CompletableFuture<Boolean>>();
+      for(var i = 0; i < count; i++) {
+        var from = starts[i];
+        var to = starts[i + 1];
+        futures.add(CompletableFuture.supplyAsync(() -> hasOddQuoteCount(segment, from, to, quote), executor));
+      }
+      var odd = false;
+      for(var i = 0; i < count; i++) {  // prefix parity
+        inQuotes[i] = odd;
+        odd ^= futures.get(i).join();
+      }
+    }
+
+    var futures = new ArrayList<CompletableFuture<Long>>();
+    futures.add(CompletableFuture.completedFuture(start));
+    for(var i = 1; i < count; i++) {
+      var from = starts[i];
+      var inQuote = inQuotes[i];
+      futures.add(CompletableFuture.supplyAsync(() -> lineEnd(segment, from, end, quote, inQuote), executor));
+    }
+    var ranges = new ArrayList<Range>();
+    var rangeStart = start;
+    for(var i = 1; i <= count; i++) {
+      var rangeEnd = i == count? end: futures.get(i).join();
+      if (rangeEnd > rangeStart) {  // a very long line may span several ranges
+        ranges.add(new Range(rangeStart, rangeEnd));
+        rangeStart = rangeEnd;
+      }
+    }
+    return ranges;
+  }
+
+  /**
+   * Parses a range of lines into the builder of a chunk.
+   */
+  @FunctionalInterface
+  interface ChunkParser {
+    /**
+     * Parses a range of lines.
+     * @param range the range of lines
+     * @param builder the builder of the chunk
+     * @return the number of values appended to the builder
+     * @throws IOException if an io error occurs or the text is not valid
+     */
+    long parse(Range range, Vec.BaseBuilder<?> builder) throws IOException;
+  }
+
+  /**
+   * Parses each range in parallel into its own chunk (a temporary directory in {@code directory})
+   * then concatenates the chunks in order into the files of the "table" and deletes the chunks.
+   *
+   * @param ranges the ranges of lines
+   * @param layout the layout of the "table"
+   * @param directory the directory of the "table"
+   * @param name the name of the "table"
+   * @param executor the executor used to parse the ranges
+   * @param chunkParser the parser of a range
+   * @throws IOException if an io error occurs or the text is not valid
+   */
+  static void fetchChunks(List<Range> ranges, Layout layout, Path directory, String name, Executor executor, ChunkParser chunkParser) throws IOException {
+    var chunkDirectories = new ArrayList<Path>();
+    var futures = new ArrayList<CompletableFuture<Long>>();
+    try {
+      for(var i = 0; i < ranges.size(); i++) {
+        var range = ranges.get(i);
+        var chunkDirectory = Files.createTempDirectory(directory, name + "-chunk" + i + "-");
+        chunkDirectories.add(chunkDirectory);
+        futures.add(CompletableFuture.supplyAsync(() -> {
+          try(var builder = LayoutHelper.builder(chunkDirectory, name, layout)) {
+            return chunkParser.parse(range, builder);
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        }, executor));
+      }
+      var lengths = new long[futures.size()];
+      for(var i = 0; i < lengths.length; i++) {
+        lengths[i] = join(futures.get(i));
+      }
+      var isStruct = layout instanceof Layout.StructLayout;
+      if (isStruct) {
+        LayoutHelper.deleteLength(directory, name);  // the files are about to change
+      }
+      LayoutHelper.concat(directory, name, layout, chunkDirectories, lengths);
+      if (isStruct) {
+        LayoutHelper.saveLength(directory, name, LongStream.of(lengths).sum());
+      }
+    } finally {
+      for(var future: futures) {  // if a parsing has failed, wait for the other ones
+        future.handle((__, ___) -> null).join();
+      }
+      for(var chunkDirectory: chunkDirectories) {
+        deleteDirectory(chunkDirectory);
+      }
+    }
+  }
+
+  // waits for the result, an UncheckedIOException is rethrown as an IOException
+  static <T> T join(CompletableFuture<T> future) throws IOException {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      var cause = e.getCause();
+      if (cause instanceof UncheckedIOException uncheckedIOException) {
+        throw uncheckedIOException.getCause();
+      }
+      if (cause instanceof RuntimeException runtimeException) {
+        throw runtimeException;
+      }
+      if (cause instanceof Error error) {
+        throw error;
+      }
+      throw e;
+    }
+  }
+
+  // deletes a directory and the files it contains
+  static void deleteDirectory(Path directory) throws IOException {
+    try(var files = Files.list(directory)) {
+      for(var file: files.toList()) {
+        Files.delete(file);
+      }
+    }
+    Files.delete(directory);
+  }
+
+  /**
+   * Returns an input stream that reads the bytes of the segment in between {@code start} and {@code end}.
+   */
+  static InputStream inputStream(MemorySegment segment, long start, long end) {
+    checkFromToIndex(start, end, segment.byteSize());
+    return new InputStream() {
+      private long offset = start;
+
+      @Override
+      public int read() {
+        if (offset == end) {
+          return -1;
+        }
+        return MemoryAccess.getByteAtOffset(segment, offset++) & 0xFF;
+      }
+
+      @Override
+      public int read(byte[] bytes, int off, int len) {
+        checkFromToIndex(off, off + len, bytes.length);
+        if (len == 0) {
+          return 0;
+        }
+        if (offset == end) {
+          return -1;
+        }
+        var size = (int) Math.min(len, end - offset);
+        MemorySegment.ofArray(bytes).asSlice(off, size).copyFrom(segment.asSlice(offset, size));
+        offset += size;
+        return size;
+      }
+
+      @Override
+      public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, end - offset);
+      }
+    };
+  }
+}
@@ -0,0 +1,437 @@
+package com.github.forax.tomahawk.schema;
+
+import com.github.forax.tomahawk.schema.Layout.ListLayout;
+import com.github.forax.tomahawk.schema.Layout.PrimitiveLayout;
+import com.github.forax.tomahawk.schema.Layout.StructLayout;
+import com.github.forax.tomahawk.vec.ListVec;
+import com.github.forax.tomahawk.vec.StructVec;
+import com.github.forax.tomahawk.vec.U16Vec;
+import com.github.forax.tomahawk.vec.U1Vec;
+import com.github.forax.tomahawk.vec.U32Vec;
+import com.github.forax.tomahawk.vec.U64Vec;
+import com.github.forax.tomahawk.vec.U8Vec;
+import com.github.forax.tomahawk.vec.ValuesBox;
+import com.github.forax.tomahawk.vec.Vec;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes the values of a Vec as CSV or as JSON Lines.
+ *
+ * The rows are written by batches, for each batch the cells of a column are formatted
+ * one column after the other into the buffer of the column, then the cells of each row are copied
+ * into the output buffer which is written when it is full.
+ * The numbers are formatted and the texts are encoded in UTF-8 directly into the buffers,
+ * so no String or box is created per value.
+ */
+final class TextExporter {
+  private static final int BATCH_SIZE = 1_024;
+  private static final int OUTPUT_SIZE = 1 << 16;
+
+  /**
+   * A growable array of bytes
+   */
+  private static final class Sink {
+    private byte[] bytes = new byte[256];
+    private int length;
+
+    private void ensureCapacity(int extra) {
+      if (length + extra > bytes.length) {
+        bytes = Arrays.copyOf(bytes, Math.max(bytes.length << 1, length + extra));
+      }
+    }
+
+    void write(int value) {
+      ensureCapacity(1);
+      bytes[length++] = (byte) value;
+    }
+
+    void write(byte[] array) {
+      write(array, 0, array.length);
+    }
+
+    void write(byte[] array, int offset, int size) {
+      ensureCapacity(size);
+      System.arraycopy(array, offset, bytes, length, size);
+      length += size;
+    }
+
+    void writeAscii(String text) {
+      ensureCapacity(text.length());
+      for(var i = 0; i < text.length(); i++) {
+        bytes[length++] = (byte) text.charAt(i);
+      }
+    }
+
+    void writeLong(long value) {
+      if (value == Long.MIN_VALUE) {  // can not be negated
+        writeAscii("-9223372036854775808");
+        return;
+      }
+      ensureCapacity(20);
+      if (value < 0) {
+        bytes[length++] = '-';
+        value = -value;
+      }
+      var end = length + digitCount(value);
+      for(var i = end - 1; i >= length; i--) {
+        bytes[i] = (byte) ('0' + value % 10);
+        value /= 10;
+      }
+      length = end;
+    }
+
+    private static int digitCount(long value) {
+      var count = 1;
+      while(value >= 10) {
+        value /= 10;
+        count++;
+      }
+      return count;
+    }
+
+    void writeDouble(double value) {
+      ensureCapacity(ShortestDecimal.MAX_LENGTH);
+      length = ShortestDecimal.writeDouble(value, bytes, length);
+    }
+
+    void writeFloat(float value) {
+      ensureCapacity(ShortestDecimal.MAX_LENGTH);
+      length = ShortestDecimal.writeFloat(value, bytes, length);
+    }
+
+    void writeChar(char c) {
+      if (Character.isSurrogate(c)) {  // not a valid UTF-8 character alone
+        c = '\uFFFD';
+      }
+      ensureCapacity(3);
+      if (c < 0x80) {
+        bytes[length++] = (byte) c;
+        return;
+      }
+      if (c < 0x800) {
+        bytes[length++] = (byte) (0xC0 | c >> 6);
+        bytes[length++] = (byte) (0x80 | c & 0x3F);
+        return;
+      }
+      bytes[length++] = (byte) (0xE0 | c >> 12);
+      bytes[length++] = (byte) (0x80 | c >> 6 & 0x3F);
+      bytes[length++] = (byte) (0x80 | c & 0x3F);
+    }
+
+    void writeCodePoint(int codePoint) {
+      ensureCapacity(4);
+      bytes[length++] = (byte) (0xF0 | codePoint >> 18);
+      bytes[length++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+      bytes[length++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+      bytes[length++] = (byte) (0x80 | codePoint & 0x3F);
+    }
+  }
+
+  /**
+   * A column, the cells of a batch are formatted in {@code sink}, the cell of the row {@code i}
+   * of the batch ends at {@code ends[i]}.
+   */
+  private record Column(Vec vec, Layout layout, byte[] prefix, Sink sink, int[] ends) {
+    Column(Vec vec, Layout layout, byte[] prefix) {
+      this(vec, layout, prefix, new Sink(), new int[BATCH_SIZE]);
+    }
+  }
+
+  private final boolean json;
+  private final OutputStream output;
+  private final Sink buffer = new Sink();
+  private final ValuesBox valuesBox = new ValuesBox();
+
+  private TextExporter(boolean json, OutputStream output) {
+    this.json = json;
+    this.output = output;
+  }
+
+  /**
+   * Writes the rows of a struct as CSV, the first line being the names of the fields.
+   * @throws IllegalArgumentException if a field is neither a primitive nor a string
+   */
+  static void exportCSV(StructVec vec, StructLayout layout, OutputStream output) throws IOException {
+    var fields = layout.fields();
+    checkFieldCount(vec, fields.size());
+    var exporter = new TextExporter(false, output);
+    var columns = new ArrayList<Column>();
+    for(var i = 0; i < fields.size(); i++) {
+      var field = fields.get(i);
+      var fieldLayout = field.layout();
+      if (!(fieldLayout instanceof PrimitiveLayout) &&
+          !(fieldLayout instanceof ListLayout listLayout && listLayout.dataType() == String.class)) {
+        throw new IllegalArgumentException("field " + field.name() + " can not be exported as CSV " + fieldLayout);
+      }
+      if (i != 0) {
+        exporter.buffer.write(',');
+      }
+      writeCSVText(exporter.buffer, field.name());
+      columns.add(new Column(vec.fields().get(i), fieldLayout, i == 0? new byte[0]: new byte[] { ',' }));
+    }
+    exporter.buffer.write('\n');
+    exporter.export(vec, layout.nullable(), columns, new byte[0], new byte[] { '\n' });
+  }
+
+  /**
+   * Writes the values of a Vec as JSON Lines, one JSON value per line.
+   */
+  static void exportJSONLines(Vec vec, Layout layout, OutputStream output) throws IOException {
+    var exporter = new TextExporter(true, output);
+    if (!(layout instanceof StructLayout structLayout)) {
+      exporter.export(vec, false, List.of(new Column(vec, layout, new byte[0])), new byte[0], new byte[] { '\n' });
+      return;
+    }
+    var structVec = (StructVec) vec;
+    var fields = structLayout.fields();
+    checkFieldCount(structVec, fields.size());
+    var columns = new ArrayList<Column>();
+    for(var i = 0; i < fields.size(); i++) {
+      var field = fields.get(i);
+      var prefix = new Sink();
+      prefix.write(i == 0? '{': ',');
+      writeJSONText(prefix, field.name());
+      prefix.write(':');
+      columns.add(new Column(structVec.fields().get(i), field.layout(), Arrays.copyOf(prefix.bytes, prefix.length)));
+    }
+    var suffix = fields.isEmpty()? "{}\n": "}\n";
+    exporter.export(vec, structLayout.nullable(), columns, "null\n".getBytes(StandardCharsets.US_ASCII), suffix.getBytes(StandardCharsets.US_ASCII));
+  }
+
+  private static void checkFieldCount(StructVec vec, int fieldCount) {
+    if (vec.fields().size() != fieldCount) {
+      throw new IllegalArgumentException("the struct has " + vec.fields().size() + " fields but the layout has " + fieldCount + " fields");
+    }
+  }
+
+  private void export(Vec vec, boolean nullable, List<Column> columns, byte[] nullRowBytes, byte[] suffix) throws IOException {
+    var length = vec.length();
+    for(var start = 0L; start < length; start += BATCH_SIZE) {
+      var size = (int) Math.min(BATCH_SIZE, length - start);
+
+      // format the cells column by column
+      for(var column: columns) {
+        var sink = column.sink;
+        var ends = column.ends;
+        sink.length = 0;
+        for(var i = 0; i < size; i++) {
+          writeValue(sink, column.vec, column.layout, start + i);
+          ends[i] = sink.length;
+        }
+      }
+
+      // then assemble the rows
+      for(var i = 0; i < size; i++) {
+        var nullRow = nullable && vec.isNull(start + i);
+        if (nullRow && json) {
+          buffer.write(nullRowBytes);
+        } else {
+          for(var column: columns) {
+            buffer.write(column.prefix);
+            if (!nullRow) {  // in CSV, a null row is a row of empty cells
+              var cellStart = i == 0? 0: column.ends[i - 1];
+              buffer.write(column.sink.bytes, cellStart, column.ends[i] - cellStart);
+            }
+          }
+          buffer.write(suffix);
+        }
+        if (buffer.length >= OUTPUT_SIZE) {
+          flush();
+        }
+      }
+    }
+    flush();
+  }
+
+  private void flush() throws IOException {
+    output.write(buffer.bytes, 0, buffer.length);
+    buffer.length = 0;
+  }
+
+  private void writeValue(Sink sink, Vec vec, Layout layout, long index) {
+    if (layout.nullable() && vec.isNull(index)) {
+      if (json) {
+        sink.writeAscii("null");
+      }
+      return;  // an empty cell in CSV
+    }
+    if (layout instanceof PrimitiveLayout primitiveLayout) {
+      writePrimitive(sink, vec, primitiveLayout, index);
+      return;
+    }
+    if (layout instanceof ListLayout listLayout) {
+      writeList(sink, (ListVec<?>) vec, listLayout, index);
+      return;
+    }
+    if (layout instanceof StructLayout structLayout) {  // only in JSON
+      writeStruct(sink, (StructVec) vec, structLayout, index);
+      return;
+    }
+    throw new AssertionError("unknown layout");
+  }
+
+  private void writePrimitive(Sink sink, Vec vec, PrimitiveLayout primitiveLayout, long index) {
+    switch(primitiveLayout.kind()) {
+      case u1 -> sink.writeAscii(((U1Vec) vec).getBoolean(index)? "true": "false");
+      case byte8 -> sink.writeLong(((U8Vec) vec).getByte(index));
+      case short16 -> sink.writeLong(((U16Vec) vec).getShort(index));
+      case char16 -> {
+        var c = ((U16Vec) vec).getChar(index);
+        if (json) {
+          sink.write('"');
+          writeJSONChar(sink, c);
+          sink.write('"');
+        } else {
+          writeCSVChars(sink, (U16Vec) vec, index, index + 1);
+        }
+      }
+      case int32 -> sink.writeLong(((U32Vec) vec).getInt(index));
+      case float32 -> {
+        var value = ((U32Vec) vec).getFloat(index);
+        if (json && !Float.isFinite(value)) {  // not representable in JSON
+          sink.writeAscii("null");
+        } else {
+          sink.writeFloat(value);
+        }
+      }
+      case long64 -> sink.writeLong(((U64Vec) vec).getLong(index));
+      case double64 -> {
+        var value = ((U64Vec) vec).getDouble(index);
+        if (json && !Double.isFinite(value)) {  // not representable in JSON
+          sink.writeAscii("null");
+        } else {
+          sink.writeDouble(value);
+        }
+      }
+    }
+  }
+
+  private void writeList(Sink sink, ListVec<?> listVec, ListLayout listLayout, long index) {
+    listVec.getValues(index, valuesBox);
+    var startOffset = valuesBox.startOffset;  // the box is reused by the nested lists
+    var endOffset = valuesBox.endOffset;
+    if (listLayout.dataType() == String.class) {
+      var data = (U16Vec) listVec.element();
+      if (json) {
+        sink.write('"');
+        writeJSONChars(sink, data, startOffset, endOffset);
+        sink.write('"');
+      } else {
+        writeCSVChars(sink, data, startOffset, endOffset);
+      }
+      return;
+    }
+    // only in JSON
+    sink.write('[');
+    for(var offset = startOffset; offset < endOffset; offset++) {
+      if (offset != startOffset) {
+        sink.write(',');
+      }
+      writeValue(sink, listVec.element(), listLayout.element(), offset);
+    }
+    sink.write(']');
+  }
+
+  private void writeStruct(Sink sink, StructVec structVec, StructLayout structLayout, long index) {
+    var fields = structLayout.fields();
+    sink.write('{');
+    for(var i = 0; i < fields.size(); i++) {
+      if (i != 0) {
+        sink.write(',');
+      }
+      var field = fields.get(i);
+      writeJSONText(sink, field.name());
+      sink.write(':');
+      writeValue(sink, structVec.fields().get(i), field.layout(), index);
+    }
+    sink.write('}');
+  }
+
+  private static void writeChars(Sink sink, U16Vec data, long startOffset, long endOffset, boolean json) {
+    for(var offset = startOffset; offset < endOffset; offset++) {
+      var c = data.getChar(offset);
+      if (Character.isHighSurrogate(c) && offset + 1 < endOffset && Character.isLowSurrogate(data.getChar(offset + 1))) {
+        sink.writeCodePoint(Character.toCodePoint(c, data.getChar(++offset)));
+        continue;
+      }
+      if (json) {
+        writeJSONChar(sink, c);
+      } else {
+        sink.writeChar(c);
+        if (c == '"') {  // a quote is escaped by doubling it
+          sink.write('"');
+        }
+      }
+    }
+  }
+
+  private static void writeJSONChars(Sink sink, U16Vec data, long startOffset, long endOffset) {
+    writeChars(sink, data, startOffset, endOffset, true);
+  }
+
+  private static void writeCSVChars(Sink sink, U16Vec data, long startOffset, long endOffset) {
+    var quoted = startOffset == endOffset;  // an empty text is quoted to not be read as null
+    for(var offset = startOffset; !quoted && offset < endOffset; offset++) {
+      var c = data.getChar(offset);
+      quoted = c == ',' || c == '"' || c == '\n' || c == '\r';
+    }
+    if (quoted) {
+      sink.write('"');
+    }
+    writeChars(sink, data, startOffset, endOffset, false);
+    if (quoted) {
+      sink.write('"');
+    }
+  }
+
+  private static void writeJSONChar(Sink sink, char c) {
+    switch(c) {
+      case '"' -> sink.writeAscii("\\\"");
+      case '\\' -> sink.writeAscii("\\\\");
+      case '\n' -> sink.writeAscii("\\n");
+      case '\r' -> sink.writeAscii("\\r");
+      case '\t' -> sink.writeAscii("\\t");
+      case '\b' -> sink.writeAscii("\\b");
+      case '\f' -> sink.writeAscii("\\f");
+      default -> {
+        if (c < 0x20) {
+          sink.writeAscii("\\u00");
+          sink.write(Character.forDigit(c >> 4, 16));
+          sink.write(Character.forDigit(c & 0xF, 16));
+        } else {
+          sink.writeChar(c);
+        }
+      }
+    }
+  }
+
+  // the names of the fields are only written once, so they are encoded as Strings
+  private static void writeCSVText(Sink sink, String text) {
+    var quoted = text.isEmpty() || text.chars().anyMatch(c -> c == ',' || c == '"' || c == '\n' || c == '\r');
+    if (quoted) {
+      sink.write('"');
+    }
+    sink.write(text.replace("\"", "\"\"").getBytes(StandardCharsets.UTF_8));
+    if (quoted) {
+      sink.write('"');
+    }
+  }
+
+  private static void writeJSONText(Sink sink, String text) {
+    sink.write('"');
+    text.codePoints().forEach(codePoint -> {
+      if (Character.isBmpCodePoint(codePoint)) {
+        writeJSONChar(sink, (char) codePoint);
+      } else {
+        sink.writeCodePoint(codePoint);
+      }
+    });
+    sink.write('"');
+  }
+}
@@ -0,0 +1,65 @@
+package com.github.forax.tomahawk.vec;
+
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+
+/**
+ * An {@link OpenOption} that asks a Vec builder to write its file asynchronously.
+ *
+ * Instead of blocking the thread that appends values each time the internal buffer of the builder
+ * is full, the content is copied into one of {@code bufferCount} buffers of {@code bufferSize} bytes
+ * and each full buffer is handed to a writer thread while the appending thread fills the next one.
+ * The appending thread only waits if all the buffers are being written.
+ *
+ * The writes of one builder are done in order, the writes of different builders are done in parallel.
+ * An IO error raised by the writer thread is reported by the next append or by {@code close()}.
+ *
+ * The builders write synchronously by default, the imports of {@code CSV} and {@code JSON}
+ * only write asynchronously if an AsyncWriteOption is one of their open options.
+ *
+ * Example
+ * <pre>
+ *   try(var builder = U32Vec.builder(null, path, CREATE, AsyncWriteOption.of(1 &lt;&lt; 20, 2))) {
+ *     ...
+ *   }
+ * </pre>
+ *
+ * @param bufferSize the size in bytes of each buffer
+ * @param bufferCount the number of buffers
+ *
+ * @see U8Vec#builder(U1Vec.Builder, Path, OpenOption...)
+ */
+public record AsyncWriteOption(int bufferSize, int bufferCount) implements OpenOption {
+  /**
+   * A default option using three buffers of 64 KB.
+   * The buffers are allocated per builder, so a table with n columns (and a validity file per nullable column)
+   * uses up to n times 192 KB, writing asynchronously is opt-in for that reason.
+   */
+  public static final AsyncWriteOption DEFAULT = new AsyncWriteOption(1 << 16, 3);
+
+  /**
+   * Creates an option that asks a builder to write asynchronously
+   * @param bufferSize the size in bytes of each buffer
+   * @param bufferCount the number of buffers
+   * @throws IllegalArgumentException if {@code bufferSize} or {@code bufferCount} is not positive
+   */
+  public AsyncWriteOption {
+    if (bufferSize <= 0) {
+      throw new IllegalArgumentException("bufferSize <= 0");
+    }
+    if (bufferCount <= 0) {
+      throw new IllegalArgumentException("bufferCount <= 0");
+    }
+  }
+
+  /**
+   * Returns an option that asks a builder to write asynchronously
+   * @param bufferSize the size in bytes of each buffer
+   * @param bufferCount the number of buffers
+   * @return a new option
+   * @throws IllegalArgumentException if {@code bufferSize} or {@code bufferCount} is not positive
+   */
+  public static AsyncWriteOption of(int bufferSize, int bufferCount) {
+    return new AsyncWriteOption(bufferSize, bufferCount);
+  }
+}
@@ -92,6 +92,8 @@ public interface ListVec<V extends Vec> extends Vec {
   /**
    * Returns a Stream of all the list of U16 values as {@link TextWrap}s.
    * All the invalid values (the one with a {@code validity} equals to false) are encoded as {@code null}.
+   * A parallel stream is only split if the segments of the Vec are shared (by example allocated by a {@link VecPool}),
+   * on a confined segment (by example a mapped Vec), it runs in the thread that calls the terminal operation.
    *
    * @return a Stream of all the strings as {@link TextWrap}
    *
@@ -188,7 +190,7 @@ public interface ListVec<V extends Vec> extends Vec {
   static <V extends Vec> ListVec<V> from(U1Vec validity, U32Vec offset, V element) {
     requireNonNull(offset);
     requireNonNull(element);
-    if (offset.length() <= 1) {
+    if (offset.length() == 0) {  // an empty list has one offset
       throw new IllegalArgumentException("offsetSegment.length is too small");
     }
     if (validity != null && (offset.length() - 1) > validity.length()) {
@@ -207,6 +209,9 @@ public interface ListVec<V extends Vec> extends Vec {
    * Create a Vec builder that will append lists of values to the element builder and the offsets of those lists
    * to the offset builder.
    *
+   * If the offset builder was opened in append mode ({@link java.nio.file.StandardOpenOption#APPEND}),
+   * the new lists are appended after the lists already stored.
+   *
    * @param validityBuilder a builder able to create the validity bit set or {@code null}
    * @param offsetBuilder a builder able to create the offset file
    * @param elementBuilder a builder able to create the element file
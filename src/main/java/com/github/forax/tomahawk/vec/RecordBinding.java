@@ -0,0 +1,378 @@
+package com.github.forax.tomahawk.vec;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.reflect.RecordComponent;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+import static java.lang.invoke.MethodHandles.collectArguments;
+import static java.lang.invoke.MethodHandles.dropArguments;
+import static java.lang.invoke.MethodHandles.filterArguments;
+import static java.lang.invoke.MethodHandles.foldArguments;
+import static java.lang.invoke.MethodHandles.guardWithTest;
+import static java.lang.invoke.MethodHandles.insertArguments;
+import static java.lang.invoke.MethodHandles.permuteArguments;
+import static java.lang.invoke.MethodType.methodType;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Binds the components of a record to the fields of a StructVec (resp. the field builders of a StructVec.Builder)
+ * by name, the name of each field being provided by the caller, by default the field {@code i} is named
+ * like the component {@code i}.
+ *
+ * A reader is a method handle tree {@code (Vec[], long)Object} that calls the getter of each field and
+ * the canonical constructor of the record, the fields being passed in the order of the components,
+ * it is installed in a hidden class (see {@link RecordReader}) once per record class.
+ * A writer is a method handle tree {@code (RowBuilder, List, Object)void} that calls the accessor of each component
+ * and the append method of the row builder, it is cached per record class and field names.
+ * The constructor and the accessors are looked up with the lookup of the first caller,
+ * the access to the record class is checked for each caller.
+ *
+ * A component of a primitive type is non null, a component of a wrapper type is nullable,
+ * a component of type {@link String} or {@link TextWrap} is a nullable list of U16.
+ */
+final class RecordBinding {
+  private RecordBinding() {
+    throw new AssertionError();
+  }
+
+  private static final class TemplateHolder {
+    private static final byte[] TEMPLATE;
+    static {
+      try(var input = RecordBinding.class.getResourceAsStream("RecordReader.class")) {
+        if (input == null) {
+          throw new IllegalStateException("template RecordReader.class not found");
+        }
+        TEMPLATE = input.readAllBytes();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  private static final MethodHandle IS_NULL, OBJECT_IS_NULL, LIST_GET, ARRAY_GET, APPEND_NULL;
+  static {
+    var lookup = MethodHandles.lookup();
+    try {
+      IS_NULL = lookup.findVirtual(Vec.class, "isNull", methodType(boolean.class, long.class));
+      OBJECT_IS_NULL = lookup.findStatic(Objects.class, "isNull", methodType(boolean.class, Object.class));
+      LIST_GET = lookup.findVirtual(List.class, "get", methodType(Object.class, int.class));
+      ARRAY_GET = MethodHandles.arrayElementGetter(Vec[].class);
+      APPEND_NULL = lookup.findVirtual(StructVec.RowBuilder.class, "appendNull", methodType(StructVec.RowBuilder.class, Vec.BaseBuilder.class));
+    } catch (NoSuchMethodException | IllegalAccessException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  /**
+   * Creates a record from the fields of a StructVec, implemented by the hidden classes defined from {@link RecordReader}
+   */
+  interface Reader {
+    /**
+     * Creates a record from a row
+     * @param fields the fields of the StructVec in the order of the components
+     * @param index the index of the row
+     * @return a new record
+     */
+    Object read(Vec[] fields, long index);
+  }
+
+  /**
+   * The kind of Vec, the getter and the append method of a component type
+   */
+  private enum Accessor {
+    BOOLEAN(boolean.class, Boolean.class, U1Vec.class, U1Vec.Builder.class, "getBoolean", "appendBoolean"),
+    BYTE(byte.class, Byte.class, U8Vec.class, U8Vec.Builder.class, "getByte", "appendByte"),
+    SHORT(short.class, Short.class, U16Vec.class, U16Vec.Builder.class, "getShort", "appendShort"),
+    CHAR(char.class, Character.class, U16Vec.class, U16Vec.Builder.class, "getChar", "appendChar"),
+    INT(int.class, Integer.class, U32Vec.class, U32Vec.Builder.class, "getInt", "appendInt"),
+    FLOAT(float.class, Float.class, U32Vec.class, U32Vec.Builder.class, "getFloat", "appendFloat"),
+    LONG(long.class, Long.class, U64Vec.class, U64Vec.Builder.class, "getLong", "appendLong"),
+    DOUBLE(double.class, Double.class, U64Vec.class, U64Vec.Builder.class, "getDouble", "appendDouble"),
+    STRING(String.class, null, ListVec.class, ListVec.Builder.class, "getString", "appendString"),
+    TEXT_WRAP(TextWrap.class, null, ListVec.class, ListVec.Builder.class, "getTextWrap", "appendTextWrap");
+
+    private final Class<?> type;
+    private final Class<?> wrapper;   // null if the type is not a primitive type
+    private final Class<? extends Vec> vecType;
+    private final Class<?> builderType;
+    private final MethodHandle getter;  // (Vec, long)type
+    private final MethodHandle append;  // (RowBuilder, Builder, type)RowBuilder
+
+    Accessor(Class<?> type, Class<?> wrapper, Class<? extends Vec> vecType, Class<?> builderType, String getterName, String appendName) {
+      this.type = type;
+      this.wrapper = wrapper;
+      this.vecType = vecType;
+      this.builderType = builderType;
+      var lookup = MethodHandles.lookup();
+      try {
+        getter = lookup.findVirtual(vecType, getterName, methodType(type, long.class));
+        append = lookup.findVirtual(StructVec.RowBuilder.class, appendName, methodType(StructVec.RowBuilder.class, builderType, type));
+      } catch (NoSuchMethodException | IllegalAccessException e) {
+        throw new AssertionError(e);
+      }
+    }
+
+    static Accessor of(RecordComponent component) {
+      var componentType = component.getType();
+      for(var accessor: values()) {
+        if (accessor.type == componentType || accessor.wrapper == componentType) {
+          return accessor;
+        }
+      }
+      throw new IllegalArgumentException("unsupported type " + componentType.getName() + " for the record component " + component.getName());
+    }
+  }
+
+  /**
+   * The reader and the writers of a record class
+   */
+  private static final class Binding {
+    private final Class<?> recordType;
+    private final RecordComponent[] components;
+    private final List<String> componentNames;
+    private volatile Reader reader;  // initialized by the first call to records()
+    private final ConcurrentHashMap<List<String>, MethodHandle> writers = new ConcurrentHashMap<>();
+
+    private Binding(Class<?> recordType) {
+      if (!recordType.isRecord()) {
+        throw new IllegalArgumentException(recordType.getName() + " is not a record");
+      }
+      this.recordType = recordType;
+      this.components = recordType.getRecordComponents();
+      this.componentNames = Arrays.stream(components).map(RecordComponent::getName).toList();
+    }
+
+    private void checkAccess(Lookup lookup) {
+      try {
+        lookup.accessClass(recordType);
+      } catch (IllegalAccessException e) {
+        throw new IllegalArgumentException("the record " + recordType.getName() + " is not accessible from " + lookup, e);
+      }
+    }
+
+    // the index of the field of each component
+    private int[] fieldIndexes(List<String> fieldNames, int fieldCount) {
+      if (fieldNames.size() != fieldCount) {
+        throw new IllegalArgumentException("there are " + fieldNames.size() + " field names but " + fieldCount + " fields");
+      }
+      var fieldIndexes = new int[components.length];
+      for(var i = 0; i < components.length; i++) {
+        var fieldIndex = fieldNames.indexOf(components[i].getName());
+        if (fieldIndex == -1) {
+          throw new IllegalArgumentException("no field named " + components[i].getName() + " among " + fieldNames + " for the record " + recordType.getName());
+        }
+        fieldIndexes[i] = fieldIndex;
+      }
+      return fieldIndexes;
+    }
+
+    private Reader reader(Lookup lookup) {
+      var reader = this.reader;
+      if (reader == null) {
+        synchronized (this) {
+          reader = this.reader;
+          if (reader == null) {
+            this.reader = reader = defineReader(readerHandle(recordType, components, lookup));
+          }
+        }
+      }
+      return reader;
+    }
+
+    private MethodHandle writer(List<String> fieldNames, int fieldCount, Lookup lookup) {
+      var writer = writers.get(fieldNames);
+      if (writer == null) {
+        var fieldIndexes = fieldIndexes(fieldNames, fieldCount);
+        writer = writers.computeIfAbsent(List.copyOf(fieldNames), __ -> writerHandle(recordType, components, fieldIndexes, lookup));
+      } else if (fieldNames.size() != fieldCount) {
+        throw new IllegalArgumentException("there are " + fieldNames.size() + " field names but " + fieldCount + " fields");
+      }
+      return writer;
+    }
+  }
+
+  private static final ClassValue<Binding> BINDINGS = new ClassValue<>() {
+    @Override
+    protected Binding computeValue(Class<?> recordType) {
+      return new Binding(recordType);
+    }
+  };
+
+  private static List<String> componentNames(Class<?> recordType) {
+    return BINDINGS.get(recordType).componentNames;
+  }
+
+  // --- reader
+
+  static <R extends Record> StructVec.Records<R> records(StructVec vec, Class<R> recordType, Lookup lookup) {
+    requireNonNull(vec);
+    requireNonNull(recordType);
+    requireNonNull(lookup);
+    return records(vec, recordType, componentNames(recordType), lookup);
+  }
+
+  static <R extends Record> StructVec.Records<R> records(StructVec vec, Class<R> recordType, List<String> fieldNames, Lookup lookup) {
+    requireNonNull(vec);
+    requireNonNull(recordType);
+    requireNonNull(fieldNames);
+    requireNonNull(lookup);
+    var binding = BINDINGS.get(recordType);
+    var fields = vec.fields();
+    var fieldIndexes = binding.fieldIndexes(fieldNames, fields.size());
+    var components = binding.components;
+    var componentFields = new Vec[components.length];
+    for(var i = 0; i < components.length; i++) {
+      var field = fields.get(fieldIndexes[i]);
+      checkField(components[i], field);
+      componentFields[i] = field;
+    }
+    binding.checkAccess(lookup);
+    return new RecordsImpl<>(vec, recordType, componentFields, binding.reader(lookup));
+  }
+
+  private static void checkField(RecordComponent component, Vec field) {
+    var accessor = Accessor.of(component);
+    if (!accessor.vecType.isInstance(field)) {
+      throw new IllegalArgumentException("the field of the record component " + component.getName() + " is not a " + accessor.vecType.getSimpleName());
+    }
+    if (accessor.vecType == ListVec.class && !(((ListVec<?>) field).element() instanceof U16Vec)) {
+      throw new IllegalArgumentException("the field of the record component " + component.getName() + " is not a list of U16Vec");
+    }
+  }
+
+  // (Vec[], long)Object
+  private static MethodHandle readerHandle(Class<?> recordType, RecordComponent[] components, Lookup lookup) {
+    MethodHandle constructor;
+    try {
+      constructor = lookup.findConstructor(recordType,
+          methodType(void.class, Arrays.stream(components).map(RecordComponent::getType).toArray(Class<?>[]::new)));
+    } catch (NoSuchMethodException | IllegalAccessException e) {
+      throw new IllegalArgumentException("no accessible canonical constructor for " + recordType.getName(), e);
+    }
+    var reader = constructor;
+    for(var i = components.length; --i >= 0;) {
+      reader = collectArguments(reader, i, getter(components[i], i));
+    }
+    // (Vec[], long, Vec[], long, ...) -> (Vec[], long)
+    var reorder = new int[components.length << 1];
+    for(var i = 0; i < components.length; i++) {
+      reorder[(i << 1) + 1] = 1;
+    }
+    return permuteArguments(reader, methodType(recordType, Vec[].class, long.class), reorder)
+        .asType(methodType(Object.class, Vec[].class, long.class));
+  }
+
+  // (Vec[], long)componentType
+  private static MethodHandle getter(RecordComponent component, int index) {
+    var accessor = Accessor.of(component);
+    var field = insertArguments(ARRAY_GET, 1, index);  // (Vec[])Vec
+    var getter = filterArguments(accessor.getter, 0, field.asType(methodType(accessor.vecType, Vec[].class)));
+    var componentType = component.getType();
+    if (componentType != accessor.wrapper) {
+      return getter;
+    }
+    // the getters of the primitive Vecs do not allow null
+    return guardWithTest(filterArguments(IS_NULL, 0, field),
+        dropArguments(MethodHandles.constant(componentType, null), 0, Vec[].class, long.class),
+        getter.asType(methodType(componentType, Vec[].class, long.class)));
+  }
+
+  private static Reader defineReader(MethodHandle reader) {
+    try {
+      var lookup = MethodHandles.lookup().defineHiddenClassWithClassData(TemplateHolder.TEMPLATE, reader, true);
+      return (Reader) lookup.findConstructor(lookup.lookupClass(), methodType(void.class)).invoke();
+    } catch (RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable t) {
+      throw new UndeclaredThrowableException(t);
+    }
+  }
+
+  private record RecordsImpl<R extends Record>(StructVec vec, Class<R> recordType, Vec[] fields, Reader reader) implements StructVec.Records<R> {
+    @Override
+    public long length() {
+      return vec.length();
+    }
+
+    @Override
+    public R get(long index) {
+      Objects.checkIndex(index, vec.length());
+      if (vec.isNull(index)) {
+        return null;
+      }
+      return recordType.cast(reader.read(fields, index));
+    }
+
+    @Override
+    public Stream<R> stream() {
+      return LongStream.range(0, length()).mapToObj(this::get);
+    }
+  }
+
+  // --- writer
+
+  static StructVec.Builder appendRecord(StructVec.Builder builder, Record record, Lookup lookup) {
+    requireNonNull(record);
+    return appendRecord(builder, record, componentNames(record.getClass()), lookup);
+  }
+
+  static StructVec.Builder appendRecord(StructVec.Builder builder, Record record, List<String> fieldNames, Lookup lookup) {
+    requireNonNull(record);
+    requireNonNull(fieldNames);
+    requireNonNull(lookup);
+    var binding = BINDINGS.get(record.getClass());
+    binding.checkAccess(lookup);
+    var fieldBuilders = builder.fieldBuilders();
+    var writer = binding.writer(fieldNames, fieldBuilders.size(), lookup);
+    return builder.appendRow(rowBuilder -> {
+      try {
+        writer.invokeExact(rowBuilder, fieldBuilders, (Object) record);
+      } catch (RuntimeException | Error e) {
+        throw e;
+      } catch (Throwable t) {
+        throw new UndeclaredThrowableException(t);
+      }
+    });
+  }
+
+  // (RowBuilder, List, Object)void
+  private static MethodHandle writerHandle(Class<?> recordType, RecordComponent[] components, int[] fieldIndexes, Lookup lookup) {
+    var writer = MethodHandles.empty(methodType(void.class, StructVec.RowBuilder.class, List.class, Object.class));
+    for(var i = components.length; --i >= 0;) {
+      writer = foldArguments(writer, append(recordType, components[i], fieldIndexes[i], lookup));
+    }
+    return writer;
+  }
+
+  // (RowBuilder, List, Object)void
+  private static MethodHandle append(Class<?> recordType, RecordComponent component, int fieldIndex, Lookup lookup) {
+    var accessor = Accessor.of(component);
+    var componentType = component.getType();
+    MethodHandle getter;
+    try {
+      getter = lookup.unreflect(component.getAccessor());
+    } catch (IllegalAccessException e) {
+      throw new IllegalArgumentException("the accessor of " + component.getName() + " of the record " + recordType.getName() + " is not accessible", e);
+    }
+    // (RowBuilder, Builder, componentType)RowBuilder
+    var append = accessor.append.asType(methodType(StructVec.RowBuilder.class, StructVec.RowBuilder.class, accessor.builderType, componentType));
+    if (!componentType.isPrimitive()) {
+      var appendNull = dropArguments(APPEND_NULL.asType(methodType(StructVec.RowBuilder.class, StructVec.RowBuilder.class, accessor.builderType)), 2, componentType);
+      var isNull = dropArguments(OBJECT_IS_NULL.asType(methodType(boolean.class, componentType)), 0, StructVec.RowBuilder.class, accessor.builderType);
+      append = guardWithTest(isNull, appendNull, append);
+    }
+    var fieldBuilder = insertArguments(LIST_GET, 1, fieldIndex).asType(methodType(accessor.builderType, List.class));
+    return filterArguments(append, 1, fieldBuilder, getter.asType(methodType(componentType, Object.class)))
+        .asType(methodType(void.class, StructVec.RowBuilder.class, List.class, Object.class));
+  }
+}
@@ -0,0 +1,40 @@
+package com.github.forax.tomahawk.vec;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.UndeclaredThrowableException;
+
+import static java.lang.constant.ConstantDescs.DEFAULT_NAME;
+
+/**
+ * The template of a reader of records, this class is never loaded as is,
+ * its bytecode is used by {@link RecordBinding} to define a hidden class per record class
+ * with the method handle that creates a record from a row as class data.
+ *
+ * The method handle is stored in a static final field of the hidden class, so it's a constant for the JIT,
+ * which inlines the getters of the Vecs and the canonical constructor of the record.
+ */
+final class RecordReader implements RecordBinding.Reader {
+  private static final MethodHandle READER;  // (Vec[], long)Object
+
+  static {
+    try {
+      READER = MethodHandles.classData(MethodHandles.lookup(), DEFAULT_NAME, MethodHandle.class);
+    } catch (IllegalAccessException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private RecordReader() { }
+
+  @Override
+  public Object read(Vec[] fields, long index) {
+    try {
+      return (Object) READER.invokeExact(fields, index);
+    } catch (RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable t) {
+      throw new UndeclaredThrowableException(t);
+    }
+  }
+}
@@ -1,8 +1,11 @@
 package com.github.forax.tomahawk.vec;
 
 import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
 import java.util.List;
+import java.util.concurrent.Executor;
 import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 import static com.github.forax.tomahawk.vec.VecBuilderImpl.builderImpl;
 import static com.github.forax.tomahawk.vec.VecImpl.impl;
@@ -14,6 +17,8 @@ import static com.github.forax.tomahawk.vec.VecImpl.implDataOrNull;
  * It can be created
  * <ul>
  *   <li>Using a builder creates from an array of builders {@link #builder(U1Vec.Builder, BaseBuilder[])}
+ *   <li>Using a builder that appends the values of each column in parallel
+ *       {@link #parallelBuilder(U1Vec.Builder, BaseBuilder[])}
  *   <li>From an array of Vecs {@link #from(U1Vec, Vec...)}
  * </ul>
  *
@@ -77,6 +82,235 @@ public interface StructVec extends Vec {
    */
   StructVec splice(int removeStart, int removeEnd, Vec... vecs);
 
+  /**
+   * Returns a new cursor positioned before the first row.
+   *
+   * Example
+   * <pre>
+   *   var cursor = vec.cursor();
+   *   while(cursor.advance()) {
+   *     if (!cursor.isNull(1)) {
+   *       total += cursor.getInt(1);
+   *     }
+   *   }
+   * </pre>
+   *
+   * @return a new cursor positioned before the first row
+   *
+   * @see Cursor
+   */
+  Cursor cursor();
+
+  /**
+   * Returns a view of the rows as records, the component {@code i} of the record being the field {@code i}.
+   *
+   * @param recordType the class of the record
+   * @param lookup a lookup that can access the record class
+   * @param <R> the type of the record
+   * @return a view of the rows as records
+   * @throws IllegalArgumentException if the number of components is not the number of fields,
+   *   if the type of a component is not compatible with its field or
+   *   if the record class is not accessible
+   *
+   * @see #asRecords(Class, List, MethodHandles.Lookup)
+   */
+  default <R extends Record> Records<R> asRecords(Class<R> recordType, MethodHandles.Lookup lookup) {
+    return RecordBinding.records(this, recordType, lookup);
+  }
+
+  /**
+   * Returns a view of the rows as records, each component of the record being bound to the field with the same name.
+   *
+   * A component of a primitive type requires a non null value, a component of a wrapper type
+   * (by example {@link Integer}) can be null and a component of type {@link String} or {@link TextWrap}
+   * is bound to a {@link ListVec} of {@link U16Vec}. The fields that are not bound to a component are ignored.
+   *
+   * The getters of the fields and the canonical constructor of the record are bound once per record class,
+   * so there is no reflection when a record is created.
+   *
+   * Example
+   * <pre>
+   *   record Person(String name, int age) {}
+   *
+   *   var persons = vec.asRecords(Person.class, List.of("id", "age", "name"), MethodHandles.lookup());
+   *   var person = persons.get(42);
+   * </pre>
+   *
+   * @param recordType the class of the record
+   * @param fieldNames the name of each field
+   * @param lookup a lookup that can access the record class
+   * @param <R> the type of the record
+   * @return a view of the rows as records
+   * @throws IllegalArgumentException if the number of names is not the number of fields,
+   *   if a component has no field with the same name, if the type of a component is not compatible with its field or
+   *   if the record class is not accessible
+   *
+   * @see Builder#appendRecord(Record, List, MethodHandles.Lookup)
+   */
+  default <R extends Record> Records<R> asRecords(Class<R> recordType, List<String> fieldNames, MethodHandles.Lookup lookup) {
+    return RecordBinding.records(this, recordType, fieldNames, lookup);
+  }
+
+  /**
+   * The rows of a StructVec seen as records.
+   *
+   * @param <R> the type of the records
+   *
+   * @see #asRecords(Class, MethodHandles.Lookup)
+   */
+  interface Records<R extends Record> {
+    /**
+     * Returns the number of rows
+     * @return the number of rows
+     */
+    long length();
+
+    /**
+     * Returns a new record with the values of the row {@code index} or {@code null} if the row is null
+     * @param index the index of the row
+     * @return a new record with the values of the row {@code index} or {@code null}
+     * @throws NullPointerException if the value of a component of a primitive type is null
+     */
+    R get(long index);
+
+    /**
+     * Returns a stream of all the records
+     * @return a stream of all the records
+     */
+    Stream<R> stream();
+  }
+
+  /**
+   * A mutable position on the rows of a StructVec that gives access to the values of the fields of the current row
+   * without allocating, unlike a {@link java.util.stream.Stream} of rows, so a cursor can be used to iterate over
+   * millions of rows. The fields are accessed by their index in {@link #fields()}.
+   *
+   * A cursor is not thread safe, and the getters can only be called once {@link #advance()} has returned true.
+   */
+  interface Cursor {
+    /**
+     * Moves the cursor to the next row
+     * @return true if there is a next row, false otherwise
+     */
+    boolean advance();
+
+    /**
+     * Returns the index of the current row
+     * @return the index of the current row, -1 if {@link #advance()} was never called
+     */
+    long index();
+
+    /**
+     * Returns true if the current row is null
+     * @return true if the current row is null
+     */
+    boolean isNull();
+
+    /**
+     * Returns true if the value of the field {@code field} is null for the current row
+     * @param field the index of the field
+     * @return true if the value of the field {@code field} is null for the current row
+     */
+    boolean isNull(int field);
+
+    /**
+     * Returns the value of the field {@code field} for the current row as a boolean
+     * @param field the index of the field
+     * @return the value of the field {@code field} for the current row as a boolean
+     * @throws IllegalStateException if the field is not a {@link U1Vec}
+     * @throws NullPointerException if the value is null
+     */
+    boolean getBoolean(int field);
+
+    /**
+     * Returns the value of the field {@code field} for the current row as a byte
+     * @param field the index of the field
+     * @return the value of the field {@code field} for the current row as a byte
+     * @throws IllegalStateException if the field is not a {@link U8Vec}
+     * @throws NullPointerException if the value is null
+     */
+    byte getByte(int field);
+
+    /**
+     * Returns the value of the field {@code field} for the current row as a short
+     * @param field the index of the field
+     * @return the value of the field {@code field} for the current row as a short
+     * @throws IllegalStateException if the field is not a {@link U16Vec}
+     * @throws NullPointerException if the value is null
+     */
+    short getShort(int field);
+
+    /**
+     * Returns the value of the field {@code field} for the current row as a char
+     * @param field the index of the field
+     * @return the value of the field {@code field} for the current row as a char
+     * @throws IllegalStateException if the field is not a {@link U16Vec}
+     * @throws NullPointerException if the value is null
+     */
+    char getChar(int field);
+
+    /**
+     * Returns the value of the field {@code field} for the current row as an int
+     * @param field the index of the field
+     * @return the value of the field {@code field} for the current row as an int
+     * @throws IllegalStateException if the field is not a {@link U32Vec}
+     * @throws NullPointerException if the value is null
+     */
+    int getInt(int field);
+
+    /**
+     * Returns the value of the field {@code field} for the current row as a float
+     * @param field the index of the field
+     * @return the value of the field {@code field} for the current row as a float
+     * @throws IllegalStateException if the field is not a {@link U32Vec}
+     * @throws NullPointerException if the value is null
+     */
+    float getFloat(int field);
+
+    /**
+     * Returns the value of the field {@code field} for the current row as a long
+     * @param field the index of the field
+     * @return the value of the field {@code field} for the current row as a long
+     * @throws IllegalStateException if the field is not a {@link U64Vec}
+     * @throws NullPointerException if the value is null
+     */
+    long getLong(int field);
+
+    /**
+     * Returns the value of the field {@code field} for the current row as a double
+     * @param field the index of the field
+     * @return the value of the field {@code field} for the current row as a double
+     * @throws IllegalStateException if the field is not a {@link U64Vec}
+     * @throws NullPointerException if the value is null
+     */
+    double getDouble(int field);
+
+    /**
+     * Returns the value of the field {@code field} for the current row as a {@link TextWrap}
+     * or {@code null} if the value is null.
+     * A TextWrap is a small object that does not copy the characters, so it is usually not allocated
+     * if it does not escape, use {@link #getValues(int, ValuesBox)} to be sure that nothing is allocated.
+     *
+     * @param field the index of the field
+     * @return the value of the field {@code field} for the current row as a TextWrap or {@code null}
+     * @throws IllegalStateException if the field is not a {@link ListVec} of {@link U16Vec}
+     *
+     * @see ListVec#getTextWrap(long)
+     */
+    TextWrap getTextWrap(int field);
+
+    /**
+     * Fills the box with the validity and the offsets of the list of the field {@code field} for the current row
+     * @param field the index of the field
+     * @param box the box that will be filled
+     * @return the box taken as parameter
+     * @throws IllegalStateException if the field is not a {@link ListVec}
+     *
+     * @see ListVec#getValues(long, ValuesBox)
+     */
+    ValuesBox getValues(int field, ValuesBox box);
+  }
+
   interface Builder extends BaseBuilder<StructVec> {
     /**
      * Returns the list of all builders, one per field of the structure
@@ -104,6 +338,43 @@ public interface StructVec extends Vec {
      */
     StructVec.Builder appendRow(Consumer<? super StructVec.RowBuilder> consumer) throws UncheckedIOException;
 
+    /**
+     * Append a row with the values of the components of a record, the component {@code i} of the record being
+     * appended to the field builder {@code i}.
+     *
+     * @param record a record
+     * @param lookup a lookup that can access the record class
+     * @return this builder
+     * @throws UncheckedIOException if an IO error occurs
+     * @throws IllegalArgumentException if the number of components is not the number of field builders or
+     *   if the record class is not accessible
+     *
+     * @see #appendRecord(Record, List, MethodHandles.Lookup)
+     */
+    default StructVec.Builder appendRecord(Record record, MethodHandles.Lookup lookup) throws UncheckedIOException {
+      return RecordBinding.appendRecord(this, record, lookup);
+    }
+
+    /**
+     * Append a row with the values of the components of a record, each component being appended
+     * to the field builder with the same name, the other field builders are filled with null.
+     * The accessors of the components are bound once per record class and field names,
+     * so there is no reflection when a record is appended.
+     *
+     * @param record a record
+     * @param fieldNames the name of each field builder
+     * @param lookup a lookup that can access the record class
+     * @return this builder
+     * @throws UncheckedIOException if an IO error occurs
+     * @throws IllegalArgumentException if the number of names is not the number of field builders,
+     *   if a component has no field with the same name or if the record class is not accessible
+     *
+     * @see StructVec#asRecords(Class, List, MethodHandles.Lookup)
+     */
+    default StructVec.Builder appendRecord(Record record, List<String> fieldNames, MethodHandles.Lookup lookup) throws UncheckedIOException {
+      return RecordBinding.appendRecord(this, record, fieldNames, lookup);
+    }
+
     @Override
     StructVec.Builder appendNull() throws UncheckedIOException;
 
@@ -281,7 +552,35 @@ public interface StructVec extends Vec {
     if (validity != null  && impl(validity).validitySegment() != null) {
       throw new IllegalArgumentException("validity can not have itself a validity vec");
     }
-    return new VecImpl.StructImpl(implDataOrNull(validity), List.copyOf(fields));
+    return new VecImpl.StructImpl(implDataOrNull(validity), List.copyOf(fields), -1);
+  }
+
+  /**
+   * Creates a StructVec with an explicit number of rows from an optional {@code validity} Vec and several sub-Vecs.
+   *
+   * Unlike {@link #from(U1Vec, List)} where the length is the smallest length of the sub-Vecs,
+   * the length is explicit, the length of a Vec of bits can not be computed from the size of its file
+   * because it is rounded to a multiple of 64.
+   *
+   * @param validity a validity bitset or {@code null}
+   * @param length the number of rows
+   * @param fields a list of sub-Vecs that compose the structure
+   * @return a new StructVec
+   * @throws IllegalArgumentException if the length is negative or if a sub-Vec is shorter than the length
+   */
+  static StructVec from(U1Vec validity, long length, List<? extends Vec> fields) {
+    if (length < 0) {
+      throw new IllegalArgumentException("length < 0");
+    }
+    for(var field: fields) {
+      if (field.length() < length) {
+        throw new IllegalArgumentException("field.length < length");
+      }
+    }
+    if (validity != null  && impl(validity).validitySegment() != null) {
+      throw new IllegalArgumentException("validity can not have itself a validity vec");
+    }
+    return new VecImpl.StructImpl(implDataOrNull(validity), List.copyOf(fields), length);
   }
 
   /**
@@ -300,15 +599,108 @@ public interface StructVec extends Vec {
    * Create a Vec builder that will append rows of values to create a StructVec
    * to the offset builder.
    *
+   * If the field builders were opened in append mode ({@link java.nio.file.StandardOpenOption#APPEND}),
+   * the new rows are appended after the rows already stored.
+   *
    * @param validityBuilder a builder able to create the validity bit set or {@code null}
    * @param fieldBuilders a list of sub-builders to create each column Vec
    * @return a Vec builder that will append rows of values to create a StructVec
    */
   static StructVec.Builder builder(U1Vec.Builder validityBuilder, List<? extends BaseBuilder<?>> fieldBuilders) {
-    var builder = new VecBuilderImpl.StructBuilder(builderImpl(validityBuilder));
+    var validityBuilderImpl = builderImpl(validityBuilder);
+    var length = VecBuilderImpl.resume(validityBuilderImpl, fieldBuilders);
+    var builder = new VecBuilderImpl.StructBuilder(validityBuilderImpl, length);
+    for(var fieldBuilder: fieldBuilders) {
+      builder.addFieldBuilder(fieldBuilder);
+    }
+    return builder;
+  }
+
+  /**
+   * Create a Vec builder that will append rows of values to create a StructVec
+   * after the first {@code length} rows already stored.
+   *
+   * Unlike {@link #builder(U1Vec.Builder, List)} that resumes after the smallest number of values stored
+   * by the field builders, the number of rows is explicit, the length of a Vec of bits can not be
+   * computed from the size of its file because it is rounded to a multiple of 64.
+   *
+   * @param validityBuilder a builder able to create the validity bit set or {@code null}
+   * @param length the number of rows already stored
+   * @param fieldBuilders a list of sub-builders, opened in append mode, to create each column Vec
+   * @return a Vec builder that will append rows of values to create a StructVec
+   * @throws IllegalArgumentException if the length is negative
+   * @throws IllegalStateException if a file is too short to contain {@code length} values
+   */
+  static StructVec.Builder builder(U1Vec.Builder validityBuilder, long length, List<? extends BaseBuilder<?>> fieldBuilders) {
+    if (length < 0) {
+      throw new IllegalArgumentException("length < 0");
+    }
+    var validityBuilderImpl = builderImpl(validityBuilder);
+    VecBuilderImpl.resumeAt(validityBuilderImpl, fieldBuilders, length);
+    var builder = new VecBuilderImpl.StructBuilder(validityBuilderImpl, length);
     for(var fieldBuilder: fieldBuilders) {
       builder.addFieldBuilder(fieldBuilder);
     }
     return builder;
   }
-}
\ No newline at end of file
+
+  /**
+   * Create a Vec builder that will append rows of values to create a StructVec,
+   * the values of each column being appended to its field builder in parallel.
+   *
+   * The values of the rows are staged into batches of {@code batchSize} rows, when a batch is full,
+   * the values of each column are appended to the corresponding field builder by a worker thread
+   * while the current thread stages the rows of the next batch.
+   * There are at most {@code batchCount} batches, the current thread waits if all the other batches
+   * are being appended, so more batches allow the workers to lag behind when there are a lot of columns.
+   * The values of a column are always appended in the order of the rows.
+   *
+   * If the consumer of {@link StructVec.Builder#appendRow(Consumer)} fails, the values of the row
+   * already staged are discarded. An exception raised by a worker is reported with the index of the row
+   * that has failed by the next call to {@code appendRow}, {@code appendNull} or {@code close()}.
+   *
+   * Unlike {@link #builder(U1Vec.Builder, List)}, the consumers taken as parameter by
+   * {@link RowBuilder#appendValues(ListVec.Builder, Consumer)} and
+   * {@link RowBuilder#appendRow(StructVec.Builder, Consumer)} are called later by a worker thread,
+   * so they should not depend on a mutable state.
+   * The field builders should not be used directly until this builder is closed.
+   *
+   * @param validityBuilder a builder able to create the validity bit set or {@code null}
+   * @param executor the executor used to append the values or {@code null} to use a default executor
+   * @param batchSize the number of rows of a batch
+   * @param batchCount the maximum number of batches, at least 2
+   * @param fieldBuilders a list of sub-builders to create each column Vec
+   * @return a Vec builder that will append rows of values to create a StructVec
+   * @throws IllegalArgumentException if the batch size is not positive or the batch count is less than 2
+   */
+  static StructVec.Builder parallelBuilder(U1Vec.Builder validityBuilder, Executor executor, int batchSize, int batchCount, List<? extends BaseBuilder<?>> fieldBuilders) {
+    if (batchSize <= 0) {
+      throw new IllegalArgumentException("batchSize <= 0");
+    }
+    if (batchCount < 2) {
+      throw new IllegalArgumentException("batchCount < 2");
+    }
+    var validityBuilderImpl = builderImpl(validityBuilder);
+    var length = VecBuilderImpl.resume(validityBuilderImpl, fieldBuilders);
+    var builder = new VecBuilderImpl.ParallelStructBuilder(validityBuilderImpl, length, executor, batchSize, batchCount);
+    for(var fieldBuilder: fieldBuilders) {
+      builder.addFieldBuilder(fieldBuilder);
+    }
+    return builder;
+  }
+
+  /**
+   * Create a Vec builder that will append rows of values to create a StructVec,
+   * the values of each column being appended to its field builder in parallel
+   * using 2 batches of 4096 rows.
+   *
+   * @param validityBuilder a builder able to create the validity bit set or {@code null}
+   * @param fieldBuilders an array of sub-builders to create each column Vec
+   * @return a Vec builder that will append rows of values to create a StructVec
+   *
+   * @see #parallelBuilder(U1Vec.Builder, Executor, int, int, List)
+   */
+  static StructVec.Builder parallelBuilder(U1Vec.Builder validityBuilder, BaseBuilder<?>... fieldBuilders) {
+    return parallelBuilder(validityBuilder, null, 4096, 2, List.of(fieldBuilders));
+  }
+}
@@ -197,14 +197,20 @@ public interface U1Vec extends Vec {
    *
    * @param validityBuilder a builder able to create the validity bit set or {@code null}
    * @param path a path to the file that will be created
-   * @param openOptions the option used to create the file
+   * @param openOptions the option used to create the file, {@link AsyncWriteOption} to write asynchronously,
+   *                    {@link java.nio.file.StandardOpenOption#APPEND} to append the values after the values
+   *                    already stored in the file
    * @return a Vec builder that will append the values to a file before creating a Vec on that file
    * @throws IOException if an IO error occurs
    */
   static U1Vec.Builder builder(U1Vec.Builder validityBuilder, Path path, OpenOption... openOptions) throws IOException {
     requireNonNull(path);
     requireNonNull(openOptions);
-    var output = Files.newOutputStream(path, openOptions);
-    return new VecBuilderImpl.U1Builder(path, output, builderImpl(validityBuilder));
+    var output = VecBuilderImpl.newOutputStream(path, openOptions);
+    var builder = new VecBuilderImpl.U1Builder(path, output, builderImpl(validityBuilder));
+    if (VecBuilderImpl.isAppend(openOptions)) {
+      builder.resumeAt(Files.size(path) << 3);
+    }
+    return builder;
   }
 }
\ No newline at end of file
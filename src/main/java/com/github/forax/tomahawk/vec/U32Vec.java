@@ -69,6 +69,17 @@ public interface U32Vec extends Vec {
    */
   int getInt(long index);
 
+
+  /**
+   * Copies the values at indexes [{@code index}, {@code index + length}[ into an array,
+   * the validity is not checked, the value of a null is copied as is.
+   * @param index the index of the first value
+   * @param array the array that will be filled
+   * @param offset the index in the array of the first value
+   * @param length the number of values to copy
+   * @throws IndexOutOfBoundsException if the values or the array range are out of bounds
+   */
+  void getInts(long index, int[] array, int offset, int length);
   /**
    * Set the value at index {@index} to {@code value}
    * @param index the index of the value
@@ -112,6 +123,8 @@ public interface U32Vec extends Vec {
 
   /**
    * Returns a Stream of all the ints
+   * A parallel stream is only split if the segments of the Vec are shared (by example allocated by a {@link VecPool}),
+   * on a confined segment (by example a mapped Vec), it runs in the thread that calls the terminal operation.
    * @return a Stream of all the ints
    * @throws NullPointerException if one of the value is null
    *
@@ -154,6 +167,17 @@ public interface U32Vec extends Vec {
      */
     U32Vec.Builder appendInt(int value) throws UncheckedIOException;
 
+    /**
+     * Appends the int values of an array to the file that is mapped to a Vec
+     * @param array the array containing the values
+     * @param offset the index in the array of the first value
+     * @param length the number of values to append
+     * @return this builder
+     * @throws UncheckedIOException if an IO error occurs
+     * @throws IndexOutOfBoundsException if the array range is out of bounds
+     */
+    U32Vec.Builder appendInts(int[] array, int offset, int length) throws UncheckedIOException;
+
     /**
      * Appends a float value to the file that is mapped to a Vec
      * @param value the value to append to the file
@@ -249,14 +273,20 @@ public interface U32Vec extends Vec {
    *
    * @param validityBuilder a builder able to create the validity bit set or {@code null}
    * @param path a path to the file that will be created
-   * @param openOptions the option used to create the file
+   * @param openOptions the option used to create the file, {@link AsyncWriteOption} to write asynchronously,
+   *                    {@link java.nio.file.StandardOpenOption#APPEND} to append the values after the values
+   *                    already stored in the file
    * @return a Vec builder that will append the values to a file before creating a Vec on that file
    * @throws IOException if an IO error occurs
    */
   static U32Vec.Builder builder(U1Vec.Builder validityBuilder, Path path, OpenOption... openOptions) throws IOException {
     requireNonNull(path);
     requireNonNull(openOptions);
-    var output = Files.newOutputStream(path, openOptions);
-    return new VecBuilderImpl.U32Builder(path, output, builderImpl(validityBuilder));
+    var output = VecBuilderImpl.newOutputStream(path, openOptions);
+    var builder = new VecBuilderImpl.U32Builder(path, output, builderImpl(validityBuilder));
+    if (VecBuilderImpl.isAppend(openOptions)) {
+      builder.resumeAt(Files.size(path) >> 2);
+    }
+    return builder;
   }
 }
\ No newline at end of file
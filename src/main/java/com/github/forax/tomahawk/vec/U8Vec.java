@@ -68,6 +68,17 @@ public interface U8Vec extends Vec {
    */
   byte getByte(long index);
 
+
+  /**
+   * Copies the values at indexes [{@code index}, {@code index + length}[ into an array,
+   * the validity is not checked, the value of a null is copied as is.
+   * @param index the index of the first value
+   * @param array the array that will be filled
+   * @param offset the index in the array of the first value
+   * @param length the number of values to copy
+   * @throws IndexOutOfBoundsException if the values or the array range are out of bounds
+   */
+  void getBytes(long index, byte[] array, int offset, int length);
   /**
    * Set the value at index {@index} to {@code value}
    * @param index the index of the value
@@ -190,14 +201,20 @@ public interface U8Vec extends Vec {
    *
    * @param validityBuilder a builder able to create the validity bit set or {@code null}
    * @param path a path to the file that will be created
-   * @param openOptions the option used to create the file
+   * @param openOptions the option used to create the file, {@link AsyncWriteOption} to write asynchronously,
+   *                    {@link java.nio.file.StandardOpenOption#APPEND} to append the values after the values
+   *                    already stored in the file
    * @return a Vec builder that will append the values to a file before creating a Vec on that file
    * @throws IOException if an IO error occurs
    */
   static U8Vec.Builder builder(U1Vec.Builder validityBuilder, Path path, OpenOption... openOptions) throws IOException {
     requireNonNull(path);
     requireNonNull(openOptions);
-    var output = Files.newOutputStream(path, openOptions);
-    return new VecBuilderImpl.U8Builder(path, output, builderImpl(validityBuilder));
+    var output = VecBuilderImpl.newOutputStream(path, openOptions);
+    var builder = new VecBuilderImpl.U8Builder(path, output, builderImpl(validityBuilder));
+    if (VecBuilderImpl.isAppend(openOptions)) {
+      builder.resumeAt(Files.size(path));
+    }
+    return builder;
   }
 }
\ No newline at end of file
@@ -4,16 +4,31 @@ import com.github.forax.tomahawk.vec.StructVec.RowBuilder;
 import com.github.forax.tomahawk.vec.Vec.BaseBuilder;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.function.Consumer;
 
 import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
 import static java.util.Collections.unmodifiableList;
 import static java.util.Objects.requireNonNull;
 
@@ -45,6 +60,193 @@ interface VecBuilderImpl {
     return (ListBuilder<D, B>) builder;
   }
 
+  /**
+   * Opens the output stream of a builder, if one of the options is an {@link AsyncWriteOption},
+   * the stream writes asynchronously.
+   */
+  static OutputStream newOutputStream(Path path, OpenOption... openOptions) throws IOException {
+    AsyncWriteOption asyncWriteOption = null;
+    var options = new ArrayList<OpenOption>();
+    for(var openOption: openOptions) {
+      if (openOption instanceof AsyncWriteOption option) {
+        asyncWriteOption = option;
+        continue;
+      }
+      options.add(openOption);
+    }
+    var output = Files.newOutputStream(path, options.toArray(OpenOption[]::new));
+    if (asyncWriteOption == null) {
+      return output;
+    }
+    return new AsyncOutputStream(output, asyncWriteOption.bufferSize(), asyncWriteOption.bufferCount());
+  }
+
+  /**
+   * Returns true if the builder is opened in append mode.
+   */
+  static boolean isAppend(OpenOption... openOptions) {
+    return Arrays.asList(openOptions).contains(APPEND);
+  }
+
+  /**
+   * Returns the number of rows already stored by the field builders of a struct builder
+   * opened in append mode and resumes the field builders and the validity builder at that length.
+   * A field storing booleans only knows its length rounded to 64 bits, so the length of the struct
+   * is the smallest length of the fields.
+   */
+  static long resume(U1Builder validityBuilder, List<? extends BaseBuilder<?>> fieldBuilders) throws UncheckedIOException {
+    var length = fieldBuilders.stream().mapToLong(BaseBuilder::length).min().orElse(0);
+    if (length == 0) {
+      return 0;
+    }
+    resumeAt(validityBuilder, fieldBuilders, length);
+    return length;
+  }
+
+  /**
+   * Resumes the field builders and the validity builder of a struct builder opened in append mode
+   * after the first {@code length} rows.
+   */
+  static void resumeAt(U1Builder validityBuilder, List<? extends BaseBuilder<?>> fieldBuilders, long length) throws UncheckedIOException {
+    for(var fieldBuilder: fieldBuilders) {
+      builderImpl(fieldBuilder).resumeAt(length);
+    }
+    if (validityBuilder != null) {
+      validityBuilder.resumeAt(length);
+    }
+  }
+
+  private static void checkNothingAppended(ByteBuffer buffer) {
+    if (buffer.position() != 0) {
+      throw new IllegalStateException("some values were already appended");
+    }
+  }
+
+  /**
+   * Truncates the file of a builder opened in append mode, the values after {@code byteSize}
+   * are not part of the Vec (by example, if a previous builder did not close properly).
+   */
+  private static void truncate(Path path, long byteSize) throws UncheckedIOException {
+    try(var channel = FileChannel.open(path, WRITE)) {
+      if (channel.size() < byteSize) {
+        throw new IllegalStateException("file " + path + " is too short, expected at least " + byteSize + " bytes");
+      }
+      channel.truncate(byteSize);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * An output stream that copies the bytes into buffers and writes each full buffer
+   * using a writer thread. All the writes of one stream are done in order.
+   */
+  final class AsyncOutputStream extends OutputStream {
+    private static final ExecutorService WRITERS = Executors.newFixedThreadPool(
+        Runtime.getRuntime().availableProcessors(),
+        runnable -> {
+          var thread = new Thread(runnable, "tomahawk-writer");
+          thread.setDaemon(true);
+          return thread;
+        });
+
+    private final OutputStream output;
+    private final ArrayBlockingQueue<byte[]> freeBuffers;
+    private byte[] buffer;
+    private int position;
+    private CompletableFuture<Void> pending = CompletableFuture.completedFuture(null);
+    private boolean closed;
+
+    AsyncOutputStream(OutputStream output, int bufferSize, int bufferCount) {
+      this.output = output;
+      this.freeBuffers = new ArrayBlockingQueue<>(bufferCount);
+      for(var i = 1; i < bufferCount; i++) {
+        freeBuffers.add(new byte[bufferSize]);
+      }
+      this.buffer = new byte[bufferSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      if (position == buffer.length) {
+        handOff();
+      }
+      buffer[position++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+      while (length != 0) {
+        if (position == buffer.length) {
+          handOff();
+        }
+        var chunk = Math.min(length, buffer.length - position);
+        System.arraycopy(bytes, offset, buffer, position, chunk);
+        position += chunk;
+        offset += chunk;
+        length -= chunk;
+      }
+    }
+
+    private void handOff() throws IOException {
+      checkError();
+      var fullBuffer = buffer;
+      var fullLength = position;
+      pending = pending.thenRunAsync(() -> {
+        try {
+          output.write(fullBuffer, 0, fullLength);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        } finally {
+          freeBuffers.add(fullBuffer);
+        }
+      }, WRITERS);
+      try {
+        buffer = freeBuffers.take();  // wait if all the buffers are being written
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException();
+      }
+      position = 0;
+    }
+
+    private void checkError() throws IOException {
+      if (!pending.isCompletedExceptionally()) {
+        return;
+      }
+      await();
+    }
+
+    private void await() throws IOException {
+      try {
+        pending.join();
+      } catch (CompletionException e) {
+        var cause = e.getCause();
+        if (cause instanceof UncheckedIOException unchecked) {
+          throw unchecked.getCause();
+        }
+        throw e;
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      try (output) {
+        if (position != 0) {
+          var lastBuffer = buffer;
+          var lastLength = position;
+          await();
+          output.write(lastBuffer, 0, lastLength);
+        } else {
+          await();
+        }
+      }
+    }
+  }
+
   abstract class BaseImpl {
     private int ordinal = -1;
 
@@ -61,6 +263,17 @@ interface VecBuilderImpl {
       }
       this.ordinal = ordinal;
     }
+
+    /**
+     * Positions a builder opened in append mode after the first {@code length} values already stored
+     * in its files, so the next appended value is stored at the index {@code length}.
+     * This method can be called several times but only before any value is appended.
+     *
+     * @param length the number of values already stored
+     * @throws IllegalStateException if some values were already appended or if the files
+     *         are too short to contain {@code length} values
+     */
+    abstract void resumeAt(long length) throws UncheckedIOException;
   }
 
   final class U1Builder extends BaseImpl implements U1Vec.Builder {
@@ -71,6 +284,7 @@ interface VecBuilderImpl {
     private long length;
     private long current;
     private int position;
+    private long wordOffset = -1;  // offset in the file of the current word if it is already stored, or -1
 
     U1Builder(Path path, OutputStream output, U1Builder validityBuilder, ByteBuffer buffer) {
       this.path = path;
@@ -95,11 +309,7 @@ interface VecBuilderImpl {
     @Override
     public void close() throws UncheckedIOException {
       if (position != 0) {
-        if (!buffer.hasRemaining()) {
-          flush();
-        }
-        buffer.putLong(current);
-        position = 0;
+        putWord();
       }
       flush();
       try {
@@ -118,16 +328,66 @@ interface VecBuilderImpl {
     }
 
     @Override
-    public U1Vec.Builder appendBoolean(boolean value) {
-      if (value) {
-        current |= 1L << position;
+    void resumeAt(long length) throws UncheckedIOException {
+      checkNothingAppended(buffer);
+      var wordBuffer = ByteBuffer.allocate(8).order(LITTLE_ENDIAN);
+      try(var channel = FileChannel.open(path, READ, WRITE)) {
+        var wordCount = length >>> 6;
+        var bitCount = (int) (length & 63);
+        var byteSize = (wordCount + (bitCount == 0? 0: 1)) << 3;
+        var size = channel.size();
+        if (size < byteSize) {
+          throw new IllegalStateException("file " + path + " is too short, expected at least " + byteSize + " bytes");
+        }
+        if (size > byteSize) {  // the values after length are not part of the Vec
+          channel.truncate(byteSize);
+        }
+        current = 0;
+        position = 0;
+        wordOffset = -1;
+        if (bitCount != 0) {
+          // the last word is partially filled, the file is not shortened because it may be mapped by a reader,
+          // the word is written again in place once completed
+          channel.read(wordBuffer, wordCount << 3);
+          current = wordBuffer.getLong(0) & ((1L << bitCount) - 1);
+          position = bitCount;
+          wordOffset = wordCount << 3;
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
       }
-      if (++position == 64) {
+      this.length = length;
+      if (validityBuilder != null) {
+        validityBuilder.resumeAt(length);
+      }
+    }
+
+    // writes the current word, in place if the word is already stored in the file (see resumeAt)
+    private void putWord() throws UncheckedIOException {
+      if (wordOffset != -1) {
+        try(var channel = FileChannel.open(path, WRITE)) {
+          channel.write(ByteBuffer.allocate(8).order(LITTLE_ENDIAN).putLong(0, current), wordOffset);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+        wordOffset = -1;
+      } else {
         if (!buffer.hasRemaining()) {
           flush();
         }
         buffer.putLong(current);
-        position = 0;
+      }
+      current = 0;
+      position = 0;
+    }
+
+    @Override
+    public U1Vec.Builder appendBoolean(boolean value) {
+      if (value) {
+        current |= 1L << position;
+      }
+      if (++position == 64) {
+        putWord();
       }
       if (validityBuilder != null) {
         validityBuilder.appendBoolean(true);
@@ -136,17 +396,32 @@ interface VecBuilderImpl {
       return this;
     }
 
+    /**
+     * Appends {@code count} true values, the bits are set by words.
+     */
+    void appendTrues(long count) throws UncheckedIOException {
+      for(var remaining = count; remaining > 0;) {
+        var bitCount = (int) Math.min(64 - position, remaining);
+        current |= (bitCount == 64? -1L: (1L << bitCount) - 1) << position;
+        position += bitCount;
+        remaining -= bitCount;
+        if (position == 64) {
+          putWord();
+        }
+      }
+      if (validityBuilder != null) {
+        validityBuilder.appendTrues(count);
+      }
+      length += count;
+    }
+
     @Override
     public U1Vec.Builder appendNull() {
       if (validityBuilder == null) {
         throw doNotSupportNull();
       }
       if (++position == 64) {
-        if (!buffer.hasRemaining()) {
-          flush();
-        }
-        buffer.putLong(current);
-        position = 0;
+        putWord();
       }
       validityBuilder.appendBoolean(false);
       length++;
@@ -204,6 +479,16 @@ interface VecBuilderImpl {
       }
     }
 
+    @Override
+    void resumeAt(long length) throws UncheckedIOException {
+      checkNothingAppended(buffer);
+      truncate(path, length);
+      this.length = length;
+      if (validityBuilder != null) {
+        validityBuilder.resumeAt(length);
+      }
+    }
+
     @Override
     public long length() {
       return length;
@@ -287,6 +572,16 @@ interface VecBuilderImpl {
       }
     }
 
+    @Override
+    void resumeAt(long length) throws UncheckedIOException {
+      checkNothingAppended(buffer);
+      truncate(path, length << 1);
+      this.length = length;
+      if (validityBuilder != null) {
+        validityBuilder.resumeAt(length);
+      }
+    }
+
     @Override
     public long length() {
       return length;
@@ -399,6 +694,29 @@ interface VecBuilderImpl {
       }
     }
 
+    /**
+     * Reads a value already stored in the file.
+     */
+    int readInt(long index) throws UncheckedIOException {
+      var intBuffer = ByteBuffer.allocate(4).order(LITTLE_ENDIAN);
+      try(var channel = FileChannel.open(path, READ)) {
+        channel.read(intBuffer, index << 2);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      return intBuffer.getInt(0);
+    }
+
+    @Override
+    void resumeAt(long length) throws UncheckedIOException {
+      checkNothingAppended(buffer);
+      truncate(path, length << 2);
+      this.length = length;
+      if (validityBuilder != null) {
+        validityBuilder.resumeAt(length);
+      }
+    }
+
     @Override
     public long length() {
       return length;
@@ -417,6 +735,25 @@ interface VecBuilderImpl {
       return this;
     }
 
+    @Override
+    public U32Vec.Builder appendInts(int[] array, int offset, int length) {
+      Objects.checkFromIndexSize(offset, length, array.length);
+      for(var index = offset; index < offset + length;) {
+        if (buffer.remaining() < 4) {
+          flush();
+        }
+        var count = Math.min(offset + length - index, buffer.remaining() >> 2);
+        buffer.asIntBuffer().put(array, index, count);  // the view has the byte order of the buffer
+        buffer.position(buffer.position() + (count << 2));
+        index += count;
+      }
+      if (validityBuilder != null) {
+        validityBuilder.appendTrues(length);
+      }
+      this.length += length;
+      return this;
+    }
+
     @Override
     public U32Vec.Builder appendFloat(float value) {
       if (!buffer.hasRemaining()) {
@@ -495,6 +832,16 @@ interface VecBuilderImpl {
       }
     }
 
+    @Override
+    void resumeAt(long length) throws UncheckedIOException {
+      checkNothingAppended(buffer);
+      truncate(path, length << 3);
+      this.length = length;
+      if (validityBuilder != null) {
+        validityBuilder.resumeAt(length);
+      }
+    }
+
     @Override
     public long length() {
       return length;
@@ -562,6 +909,24 @@ interface VecBuilderImpl {
       this.elementBuilder = elementBuilder;
       this.offsetBuilder = offsetBuilder;
       this.validityBuilder = validityBuilder;
+      if (offsetBuilder.length != 0) {  // opened in append mode, the last offset is the end of the last list
+        resumeAt(offsetBuilder.length - 1);
+      }
+    }
+
+    @Override
+    void resumeAt(long length) throws UncheckedIOException {
+      if (closed) {
+        throw new IllegalStateException("builder closed");
+      }
+      // the offset at index length is either already read from the file or still stored in the file
+      var offset = length == offsetBuilder.length? this.offset: offsetBuilder.readInt(length);
+      offsetBuilder.resumeAt(length);
+      builderImpl(elementBuilder).resumeAt(offset);
+      this.offset = offset;
+      if (validityBuilder != null) {
+        validityBuilder.resumeAt(length);
+      }
     }
 
     @Override
@@ -655,8 +1020,20 @@ interface VecBuilderImpl {
     private long length;
     private final RowBuilderImpl rowBuilder = new RowBuilderImpl();
 
-    StructBuilder(U1Builder validityBuilder) {
+    StructBuilder(U1Builder validityBuilder, long length) {
       this.validityBuilder = validityBuilder;
+      this.length = length;
+    }
+
+    @Override
+    void resumeAt(long length) throws UncheckedIOException {
+      for(var fieldBuilder: fieldBuilders) {
+        builderImpl(fieldBuilder).resumeAt(length);
+      }
+      if (validityBuilder != null) {
+        validityBuilder.resumeAt(length);
+      }
+      this.length = length;
     }
 
     @Override
@@ -879,9 +1256,13 @@ interface VecBuilderImpl {
       }
 
       void end() {
-        // add nulls to all column values that were not appended
+        // add nulls to all column values that were not appended,
+        // a value appended directly to the field builder (by a parser) counts as appended
         for(var i = bits.nextClearBit(0); i != -1 && i < fieldBuilders.size(); i = bits.nextClearBit(i + 1)) {
-          fieldBuilders.get(i).appendNull();
+          var fieldBuilder = fieldBuilders.get(i);
+          if (fieldBuilder.length() == length) {
+            fieldBuilder.appendNull();
+          }
         }
         bits.clear();
       }
@@ -894,4 +1275,432 @@ interface VecBuilderImpl {
       return StructVec.from(validityBuilder == null? null: validityBuilder.toVec(), fields);
     }
   }
+
+  /**
+   * A struct builder that stages the values of the rows into batches and
+   * appends the values of each column to its field builder using a worker thread.
+   * The values of a column are appended in order, the columns are appended in parallel.
+   */
+  final class ParallelStructBuilder extends BaseImpl implements StructVec.Builder {
+    private static final ExecutorService ENCODERS = Executors.newFixedThreadPool(
+        Runtime.getRuntime().availableProcessors(),
+        runnable -> {
+          var thread = new Thread(runnable, "tomahawk-encoder");
+          thread.setDaemon(true);
+          return thread;
+        });
+
+    // kind of a staged value, NULL is 0 so a column with no value for a row is null
+    private static final byte NULL = 0, BITS = 1, TEXT = 2, VALUES = 3, ROW = 4;
+
+    private final U1Builder validityBuilder;
+    private final ArrayList<BaseBuilder<?>> fieldBuilders = new ArrayList<>();
+    private final Executor executor;
+    private final int batchSize;
+    private final ArrayBlockingQueue<Batch> freeBatches;
+    private final ArrayList<CompletableFuture<Void>> pendings = new ArrayList<>();
+    private final ParallelRowBuilderImpl rowBuilder = new ParallelRowBuilderImpl();
+    private Batch batch;
+    private long length;
+    private Throwable failure;  // the first failure of a worker, already reported
+    private volatile boolean workerFailed;  // set by a worker, checked for each row
+    private boolean closed;
+
+    ParallelStructBuilder(U1Builder validityBuilder, long length, Executor executor, int batchSize, int batchCount) {
+      this.validityBuilder = validityBuilder;
+      this.length = length;
+      this.executor = executor == null? ENCODERS: executor;
+      this.batchSize = batchSize;
+      this.freeBatches = new ArrayBlockingQueue<>(batchCount);
+      for(var i = 1; i < batchCount; i++) {
+        freeBatches.add(new Batch());
+      }
+      this.batch = new Batch();
+      batch.firstRow = length;
+    }
+
+    /**
+     * The values of the rows of a batch, stored column by column
+     */
+    private final class Batch {
+      private final ArrayList<Column> columns = new ArrayList<>();
+      private long firstRow;  // the index of the first row of the batch
+      private int size;
+
+      private Column column(int ordinal) {
+        for(var i = columns.size(); i <= ordinal; i++) {
+          columns.add(new Column(batchSize));
+        }
+        return columns.get(ordinal);
+      }
+
+      private void clear() {
+        for(var column: columns) {
+          column.clear();
+        }
+        size = 0;
+      }
+
+      private void clearRow(int row) {
+        for(var column: columns) {
+          column.clearRow(row);
+        }
+      }
+    }
+
+    private static final class Column {
+      private final byte[] kinds;
+      private final long[] bits;
+      private Object[] objects;  // lazily allocated
+
+      private Column(int batchSize) {
+        this.kinds = new byte[batchSize];
+        this.bits = new long[batchSize];
+      }
+
+      private void clear() {
+        Arrays.fill(kinds, NULL);
+        if (objects != null) {
+          Arrays.fill(objects, null);
+        }
+      }
+
+      private void clearRow(int row) {
+        kinds[row] = NULL;
+        if (objects != null) {
+          objects[row] = null;
+        }
+      }
+
+      private void set(int row, byte kind, long bits) {
+        if (kinds[row] != NULL) {
+          throw fieldValueAlreadyAppended();
+        }
+        kinds[row] = kind;
+        this.bits[row] = bits;
+      }
+
+      private void set(int row, byte kind, Object object) {
+        if (kinds[row] != NULL) {
+          throw fieldValueAlreadyAppended();
+        }
+        if (objects == null) {
+          objects = new Object[kinds.length];
+        }
+        kinds[row] = kind;
+        objects[row] = object;
+      }
+
+      // the exception is re-thrown with the index of the row (firstRow + row) that has failed
+      private void appendTo(BaseBuilder<?> builder, long firstRow, int size) {
+        var row = 0;
+        try {
+          for(; row < size; row++) {
+            appendTo(builder, row);
+          }
+        } catch (UncheckedIOException e) {
+          throw new UncheckedIOException("error while appending the row " + (firstRow + row), e.getCause());
+        } catch (RuntimeException e) {
+          throw new IllegalStateException("error while appending the row " + (firstRow + row), e);
+        }
+      }
+
+      @SuppressWarnings({"unchecked", "rawtypes"})
+      private void appendTo(BaseBuilder<?> builder, int row) {
+        switch(kinds[row]) {
+          case NULL -> builder.appendNull();
+          case BITS -> appendBits(builder, bits[row]);
+          case TEXT -> ((ListVec.Builder<?, ?>) builder).appendString((String) objects[row]);
+          case VALUES -> ((ListVec.Builder) builder).appendValues((Consumer) objects[row]);
+          case ROW -> ((StructVec.Builder) builder).appendRow((Consumer<? super RowBuilder>) objects[row]);
+          default -> throw new AssertionError();
+        }
+      }
+
+      private static void appendBits(BaseBuilder<?> builder, long bits) {
+        if (builder instanceof U1Builder u1Builder) {
+          u1Builder.appendBoolean(bits != 0);
+          return;
+        }
+        if (builder instanceof U8Builder u8Builder) {
+          u8Builder.appendByte((byte) bits);
+          return;
+        }
+        if (builder instanceof U16Builder u16Builder) {
+          u16Builder.appendShort((short) bits);
+          return;
+        }
+        if (builder instanceof U32Builder u32Builder) {
+          u32Builder.appendInt((int) bits);
+          return;
+        }
+        if (builder instanceof U64Builder u64Builder) {
+          u64Builder.appendLong(bits);
+          return;
+        }
+        throw new AssertionError();
+      }
+    }
+
+    @Override
+    void resumeAt(long length) throws UncheckedIOException {
+      awaitPendings();
+      if (batch.size != 0) {
+        throw new IllegalStateException("some values were already appended");
+      }
+      for(var fieldBuilder: fieldBuilders) {
+        builderImpl(fieldBuilder).resumeAt(length);
+      }
+      if (validityBuilder != null) {
+        validityBuilder.resumeAt(length);
+      }
+      this.length = length;
+      batch.firstRow = length;
+    }
+
+    @Override
+    public List<BaseBuilder<?>> fieldBuilders() {
+      return unmodifiableList(fieldBuilders);
+    }
+
+    @Override
+    public void addFieldBuilder(BaseBuilder<?> fieldBuilder) {
+      awaitPendings();
+      if (fieldBuilder.length() > length) {
+        throw new IllegalStateException("fieldBuilder.length > length");
+      }
+      var impl = builderImpl(fieldBuilder);
+      impl.ordinal(fieldBuilders.size());  // handshake
+      fieldBuilders.add(fieldBuilder);
+      pendings.add(CompletableFuture.completedFuture(null));
+      // add enough null to align with the other fields, the rows of the current batch are staged
+      for (var i = fieldBuilder.length(); i < length - batch.size; i++) {
+        fieldBuilder.appendNull();
+      }
+    }
+
+    private void dispatch() {
+      checkError();
+      var fullBatch = batch;
+      var firstRow = fullBatch.firstRow;
+      var size = fullBatch.size;
+      var futures = new CompletableFuture<?>[fieldBuilders.size()];
+      for(var i = 0; i < futures.length; i++) {
+        var fieldBuilder = fieldBuilders.get(i);
+        var column = fullBatch.column(i);
+        var future = pendings.get(i).thenRunAsync(() -> {
+          try {
+            column.appendTo(fieldBuilder, firstRow, size);
+          } catch (RuntimeException | Error e) {
+            workerFailed = true;
+            throw e;
+          }
+        }, executor);
+        pendings.set(i, future);
+        futures[i] = future;
+      }
+      CompletableFuture.allOf(futures).whenComplete((__, ___) -> {
+        fullBatch.clear();
+        freeBatches.add(fullBatch);
+      });
+      try {
+        batch = freeBatches.take();  // wait if all the batches are being appended
+      } catch (InterruptedException e) {
+        throw new UncheckedIOException(new InterruptedIOException());
+      }
+      batch.firstRow = length;
+    }
+
+    // reports the failure of a worker
+    private void checkError() {
+      if (workerFailed || failure != null) {
+        awaitPendings();
+      }
+    }
+
+    private void awaitPendings() {
+      if (failure != null) {
+        throw new IllegalStateException("a previous append has failed", failure);
+      }
+      try {
+        CompletableFuture.allOf(pendings.toArray(CompletableFuture<?>[]::new)).join();
+      } catch (CompletionException e) {
+        var cause = e.getCause();
+        failure = cause;
+        if (cause instanceof RuntimeException runtimeException) {
+          throw runtimeException;
+        }
+        if (cause instanceof Error error) {
+          throw error;
+        }
+        throw e;
+      }
+    }
+
+    @Override
+    public void close() throws UncheckedIOException {
+      if (closed) {  // implements idempotence
+        return;
+      }
+      closed = true;
+      try {
+        if (failure == null) {  // otherwise, the failure was already reported
+          if (batch.size != 0) {
+            dispatch();
+          }
+          awaitPendings();
+        }
+      } finally {
+        for(var fieldBuilder: fieldBuilders) {
+          fieldBuilder.close();
+        }
+        if (validityBuilder != null) {
+          validityBuilder.close();
+        }
+      }
+    }
+
+    @Override
+    public long length() {
+      return length;
+    }
+
+    private void endRow() {
+      length++;
+      if (++batch.size == batchSize) {
+        dispatch();
+      }
+    }
+
+    @Override
+    public StructVec.Builder appendNull() throws UncheckedIOException {
+      checkError();
+      if (validityBuilder == null) {
+        throw doNotSupportNull();
+      }
+      validityBuilder.appendBoolean(false);
+      endRow();
+      return this;
+    }
+
+    @Override
+    public StructVec.Builder appendRow(Consumer<? super RowBuilder> consumer) throws UncheckedIOException {
+      requireNonNull(consumer);
+      checkError();
+      try {
+        consumer.accept(rowBuilder);
+      } catch (RuntimeException | Error e) {
+        // the values already staged are not part of the next row
+        batch.clearRow(batch.size);
+        throw e;
+      }
+      if (validityBuilder != null) {
+        validityBuilder.appendBoolean(true);
+      }
+      endRow();
+      return this;
+    }
+
+    private class ParallelRowBuilderImpl implements RowBuilder {
+      private Column column(BaseBuilder<?> field) {
+        requireNonNull(field);
+        return batch.column(builderImpl(field).ordinal());
+      }
+
+      private RowBuilder stage(BaseBuilder<?> field, byte kind, long bits) {
+        column(field).set(batch.size, kind, bits);
+        return this;
+      }
+
+      private RowBuilder stage(BaseBuilder<?> field, byte kind, Object object) {
+        column(field).set(batch.size, kind, object);
+        return this;
+      }
+
+      @Override
+      public RowBuilder appendNull(BaseBuilder<?> field) {
+        var column = column(field);
+        if (column.kinds[batch.size] != NULL) {
+          throw fieldValueAlreadyAppended();
+        }
+        return this;  // the default value is null
+      }
+
+      @Override
+      public RowBuilder appendBoolean(U1Vec.Builder field, boolean value) {
+        return stage(field, BITS, value? 1: 0);
+      }
+
+      @Override
+      public RowBuilder appendByte(U8Vec.Builder field, byte value) {
+        return stage(field, BITS, value);
+      }
+
+      @Override
+      public RowBuilder appendShort(U16Vec.Builder field, short value) {
+        return stage(field, BITS, value);
+      }
+
+      @Override
+      public RowBuilder appendChar(U16Vec.Builder field, char value) {
+        return stage(field, BITS, value);
+      }
+
+      @Override
+      public RowBuilder appendInt(U32Vec.Builder field, int value) {
+        return stage(field, BITS, value);
+      }
+
+      @Override
+      public RowBuilder appendFloat(U32Vec.Builder field, float value) {
+        return stage(field, BITS, Float.floatToRawIntBits(value));
+      }
+
+      @Override
+      public RowBuilder appendLong(U64Vec.Builder field, long value) {
+        return stage(field, BITS, value);
+      }
+
+      @Override
+      public RowBuilder appendDouble(U64Vec.Builder field, double value) {
+        return stage(field, BITS, Double.doubleToRawLongBits(value));
+      }
+
+      @Override
+      public RowBuilder appendTextWrap(ListVec.Builder<U16Vec, U16Vec.Builder> field, TextWrap value) {
+        if (value == null) {
+          return appendNull(field);
+        }
+        // a TextWrap may reference a memory only accessible by the current thread
+        return stage(field, TEXT, value.toString());
+      }
+
+      @Override
+      public RowBuilder appendString(ListVec.Builder<U16Vec, U16Vec.Builder> field, String value) {
+        if (value == null) {
+          return appendNull(field);
+        }
+        return stage(field, TEXT, value);
+      }
+
+      @Override
+      public <D extends Vec, B extends BaseBuilder<D>> RowBuilder appendValues(ListVec.Builder<D, B> field, Consumer<? super B> consumer) {
+        requireNonNull(consumer);
+        return stage(field, VALUES, consumer);
+      }
+
+      @Override
+      public RowBuilder appendRow(StructVec.Builder field, Consumer<? super RowBuilder> consumer) {
+        requireNonNull(consumer);
+        return stage(field, ROW, consumer);
+      }
+    }
+
+    @Override
+    public StructVec toVec() {
+      close();
+      var fields = fieldBuilders.stream().<Vec>map(BaseBuilder::toVec).toList();
+      return StructVec.from(validityBuilder == null? null: validityBuilder.toVec(), fields);
+    }
+  }
 }
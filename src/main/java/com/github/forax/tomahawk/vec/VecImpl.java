@@ -19,6 +19,7 @@ import java.util.stream.DoubleStream;
 import java.util.stream.IntStream;
 import java.util.stream.LongStream;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import static java.nio.ByteOrder.LITTLE_ENDIAN;
 import static java.util.Objects.requireNonNull;
@@ -127,15 +128,24 @@ interface VecImpl {
       }
       ref.clear();
     }
+
+    private void unregisterIfPresent(MemorySegment memorySegment) {
+      var ref = weakMap.remove(memorySegment);
+      if (ref != null)  {
+        ref.clear();
+      }
+    }
   }
 
 
   /**
-   * Register a memory allocation if assertions are enabled
+   * Register a memory allocation if assertions are enabled.
+   * Segments that can not be closed (by example the ones lent by a {@link VecPool}) are tracked
+   * by their owner so they are not registered.
    * @param segment the allocated segment to track
    */
   static void register(MemorySegment segment) {
-    if (VecImpl.class.desiredAssertionStatus()) {
+    if (VecImpl.class.desiredAssertionStatus() && segment.hasAccessModes(MemorySegment.CLOSE)) {
       MemoryTracker.INSTANCE.register(segment);
     }
   }
@@ -150,6 +160,30 @@ interface VecImpl {
     }
   }
 
+  /**
+   * Releases the memory of a segment owned by a Vec.
+   * A segment lent by a {@link VecPool} is given back to its pool, a segment that can not be closed
+   * is owned by someone else and is left untouched, otherwise the segment is closed.
+   * The operations specialized for the segment (see {@link VecOp#specializeInt(Vec, Vec, Vec)}) are invalidated.
+   * This method is idempotent.
+   * @param segment the segment to release
+   */
+  static void release(MemorySegment segment) {
+    VecOps.Specializations.invalidate(segment);
+    if (VecPool.recycle(segment) || !segment.hasAccessModes(MemorySegment.CLOSE)) {
+      return;
+    }
+    if (segment.isAlive()) {
+      segment.close();
+      unregister(segment);
+      return;
+    }
+    // the segment may be a slice of a segment already closed (by example the buffers of an Arrow file)
+    if (VecImpl.class.desiredAssertionStatus()) {
+      MemoryTracker.INSTANCE.unregisterIfPresent(segment);
+    }
+  }
+
   record U1Impl(MemorySegment dataSegment, MemorySegment validitySegment) implements U1Vec {
     static final VarHandle HANDLE = ofSequence(ofValueBits(64, LITTLE_ENDIAN))
         .varHandle(long.class, sequenceElement());
@@ -173,14 +207,10 @@ interface VecImpl {
     @Override
     public void close() {
       try {
-        if (dataSegment.isAlive()) {
-          dataSegment.close();
-          unregister(dataSegment);
-        }
+        release(dataSegment);
       } finally {
-        if (validitySegment != null && validitySegment.isAlive()) {
-          validitySegment.close();
-          unregister(validitySegment);
+        if (validitySegment != null) {
+          release(validitySegment);
         }
       }
     }
@@ -260,14 +290,10 @@ interface VecImpl {
     @Override
     public void close() {
       try {
-        if (dataSegment.isAlive()) {
-          dataSegment.close();
-          unregister(dataSegment);
-        }
+        release(dataSegment);
       } finally {
-        if (validitySegment != null && validitySegment.isAlive()) {
-          validitySegment.close();
-          unregister(validitySegment);
+        if (validitySegment != null) {
+          release(validitySegment);
         }
       }
     }
@@ -304,6 +330,12 @@ interface VecImpl {
       return (byte) BYTE_HANDLE.get(dataSegment, index);
     }
 
+    @Override
+    public void getBytes(long index, byte[] array, int offset, int length) {
+      Objects.checkFromIndexSize(offset, length, array.length);
+      MemorySegment.ofArray(array).asSlice(offset, length).copyFrom(dataSegment.asSlice(index, length));
+    }
+
     @Override
     public void setByte(long index, byte value) {
       BYTE_HANDLE.set(dataSegment, index, value);
@@ -350,14 +382,10 @@ interface VecImpl {
     @Override
     public void close() {
       try {
-        if (dataSegment.isAlive()) {
-          dataSegment.close();
-          unregister(dataSegment);
-        }
+        release(dataSegment);
       } finally {
-        if (validitySegment != null && validitySegment.isAlive()) {
-          validitySegment.close();
-          unregister(validitySegment);
+        if (validitySegment != null) {
+          release(validitySegment);
         }
       }
     }
@@ -394,6 +422,14 @@ interface VecImpl {
       return (short) SHORT_HANDLE.get(dataSegment, index);
     }
 
+    @Override
+    public void getShorts(long index, short[] array, int offset, int length) {
+      Objects.checkFromIndexSize(offset, length, array.length);
+      // the files are little endian, the copy assumes that the platform is little endian too, like ValuesBox
+      MemorySegment.ofArray(array).asSlice((long) offset << 1, (long) length << 1)
+          .copyFrom(dataSegment.asSlice(index << 1, (long) length << 1));
+    }
+
     @Override
     public void setShort(long index, short value) {
       SHORT_HANDLE.set(dataSegment, index, value);
@@ -412,6 +448,13 @@ interface VecImpl {
       return (char) CHAR_HANDLE.get(dataSegment, index);
     }
 
+    @Override
+    public void getChars(long index, char[] array, int offset, int length) {
+      Objects.checkFromIndexSize(offset, length, array.length);
+      MemorySegment.ofArray(array).asSlice((long) offset << 1, (long) length << 1)
+          .copyFrom(dataSegment.asSlice(index << 1, (long) length << 1));
+    }
+
     @Override
     public void setChar(long index, char value) {
       CHAR_HANDLE.set(dataSegment, index, value);
@@ -481,14 +524,10 @@ interface VecImpl {
     @Override
     public void close() {
       try {
-        if (dataSegment.isAlive()) {
-          dataSegment.close();
-          unregister(dataSegment);
-        }
+        release(dataSegment);
       } finally {
-        if (validitySegment != null && validitySegment.isAlive()) {
-          validitySegment.close();
-          unregister(validitySegment);
+        if (validitySegment != null) {
+          release(validitySegment);
         }
       }
     }
@@ -525,6 +564,13 @@ interface VecImpl {
       return (int) INT_HANDLE.get(dataSegment, index);
     }
 
+    @Override
+    public void getInts(long index, int[] array, int offset, int length) {
+      Objects.checkFromIndexSize(offset, length, array.length);
+      MemorySegment.ofArray(array).asSlice((long) offset << 2, (long) length << 2)
+          .copyFrom(dataSegment.asSlice(index << 2, (long) length << 2));
+    }
+
     @Override
     public void setInt(long index, int value) {
       INT_HANDLE.set(dataSegment, index, value);
@@ -590,7 +636,7 @@ interface VecImpl {
 
     @Override
     public IntStream allInts() {
-      return LongStream.range(0, length()).mapToInt(this::getInt);
+      return StreamSupport.intStream(VecSpliterators.ints(dataSegment, validitySegment), false);
     }
 
     @Override
@@ -608,14 +654,10 @@ interface VecImpl {
     @Override
     public void close() {
       try {
-        if (dataSegment.isAlive()) {
-          dataSegment.close();
-          unregister(dataSegment);
-        }
+        release(dataSegment);
       } finally {
-        if (validitySegment != null && validitySegment.isAlive()) {
-          validitySegment.close();
-          unregister(validitySegment);
+        if (validitySegment != null) {
+          release(validitySegment);
         }
       }
     }
@@ -717,12 +759,12 @@ interface VecImpl {
 
     @Override
     public LongStream allLongs() {
-      return LongStream.range(0, length()).map(this::getLong);
+      return StreamSupport.longStream(VecSpliterators.longs(dataSegment, validitySegment), false);
     }
 
     @Override
     public DoubleStream allDoubles() {
-      return LongStream.range(0, length()).mapToDouble(this::getDouble);
+      return StreamSupport.doubleStream(VecSpliterators.doubles(dataSegment, validitySegment), false);
     }
   }
 
@@ -733,14 +775,10 @@ interface VecImpl {
         element.close();
       } finally {
         try {
-          if (offsetSegment.isAlive()) {
-            offsetSegment.close();
-            unregister(offsetSegment);
-          }
+          release(offsetSegment);
         } finally {
-          if (validitySegment != null && validitySegment.isAlive()) {
-            validitySegment.close();
-            unregister(validitySegment);
+          if (validitySegment != null) {
+            release(validitySegment);
           }
         }
       }
@@ -827,24 +865,29 @@ interface VecImpl {
 
     @Override
     public Stream<TextWrap> allTextWraps() {
-      return LongStream.range(0, length()).mapToObj(this::getTextWrap);
+      if (!(element instanceof U16Impl impl)) {
+        return LongStream.range(0, length()).mapToObj(this::getTextWrap);  // getTextWrap throws an exception
+      }
+      return StreamSupport.stream(VecSpliterators.textWraps(impl.dataSegment, offsetSegment, validitySegment, length()), false);
     }
   }
 
-  record StructImpl(MemorySegment validitySegment, List<Vec> fields) implements StructVec {
+  record StructImpl(MemorySegment validitySegment, List<Vec> fields, long fixedLength) implements StructVec {  // fixedLength is -1 if not explicit
     @Override
     public void close() throws UncheckedIOException {
       for(var field: fields) {
         field.close();
       }
-      if (validitySegment != null && validitySegment.isAlive()) {
-        validitySegment.close();
-        unregister(validitySegment);
+      if (validitySegment != null) {
+        release(validitySegment);
       }
     }
 
     @Override
     public long length() {
+      if (fixedLength != -1) {
+        return fixedLength;
+      }
       return fields.stream().mapToLong(Vec::length).min().orElse(0);
     }
 
@@ -870,7 +913,7 @@ interface VecImpl {
       if (length() > validity.length()) {
         throw invalidLength(this, validity);
       }
-      return StructVec.from(validity, fields);
+      return fixedLength != -1? StructVec.from(validity, fixedLength, fields): StructVec.from(validity, fields);
     }
 
     @Override
@@ -890,7 +933,174 @@ interface VecImpl {
       for(var i = removeEnd; i < fields.size(); i++) {
         list.add(fields.get(i));
       }
-      return new StructImpl(validitySegment, List.copyOf(list));
+      return new StructImpl(validitySegment, List.copyOf(list), fixedLength);
+    }
+
+    @Override
+    public StructVec.Cursor cursor() {
+      return new StructCursor(this);
+    }
+  }
+
+  final class StructCursor implements StructVec.Cursor {
+    private final StructImpl struct;
+    private final long length;
+    private final Vec[] fields;
+    // the typed fields, a field is null in the arrays of the other types
+    private final U1Vec[] u1s;
+    private final U8Vec[] u8s;
+    private final U16Vec[] u16s;
+    private final U32Vec[] u32s;
+    private final U64Vec[] u64s;
+    private final ListVec<?>[] lists;
+    private long index = -1;
+
+    private StructCursor(StructImpl struct) {
+      this.struct = struct;
+      this.length = struct.length();
+      this.fields = struct.fields.toArray(Vec[]::new);
+      var size = fields.length;
+      u1s = new U1Vec[size];
+      u8s = new U8Vec[size];
+      u16s = new U16Vec[size];
+      u32s = new U32Vec[size];
+      u64s = new U64Vec[size];
+      lists = new ListVec<?>[size];
+      for(var i = 0; i < size; i++) {
+        var field = fields[i];
+        if (field instanceof U1Vec u1Vec) {
+          u1s[i] = u1Vec;
+        } else if (field instanceof U8Vec u8Vec) {
+          u8s[i] = u8Vec;
+        } else if (field instanceof U16Vec u16Vec) {
+          u16s[i] = u16Vec;
+        } else if (field instanceof U32Vec u32Vec) {
+          u32s[i] = u32Vec;
+        } else if (field instanceof U64Vec u64Vec) {
+          u64s[i] = u64Vec;
+        } else if (field instanceof ListVec<?> listVec) {
+          lists[i] = listVec;
+        }
+      }
+    }
+
+    private static IllegalStateException notA(int field, String type) {
+      return new IllegalStateException("the field " + field + " is not a " + type);
+    }
+
+    @Override
+    public boolean advance() {
+      if (index + 1 >= length) {
+        index = length;
+        return false;
+      }
+      index++;
+      return true;
+    }
+
+    @Override
+    public long index() {
+      return index;
+    }
+
+    @Override
+    public boolean isNull() {
+      return struct.isNull(index);
+    }
+
+    @Override
+    public boolean isNull(int field) {
+      return fields[field].isNull(index);
+    }
+
+    @Override
+    public boolean getBoolean(int field) {
+      var vec = u1s[field];
+      if (vec == null) {
+        throw notA(field, "U1Vec");
+      }
+      return vec.getBoolean(index);
+    }
+
+    @Override
+    public byte getByte(int field) {
+      var vec = u8s[field];
+      if (vec == null) {
+        throw notA(field, "U8Vec");
+      }
+      return vec.getByte(index);
+    }
+
+    @Override
+    public short getShort(int field) {
+      var vec = u16s[field];
+      if (vec == null) {
+        throw notA(field, "U16Vec");
+      }
+      return vec.getShort(index);
+    }
+
+    @Override
+    public char getChar(int field) {
+      var vec = u16s[field];
+      if (vec == null) {
+        throw notA(field, "U16Vec");
+      }
+      return vec.getChar(index);
+    }
+
+    @Override
+    public int getInt(int field) {
+      var vec = u32s[field];
+      if (vec == null) {
+        throw notA(field, "U32Vec");
+      }
+      return vec.getInt(index);
+    }
+
+    @Override
+    public float getFloat(int field) {
+      var vec = u32s[field];
+      if (vec == null) {
+        throw notA(field, "U32Vec");
+      }
+      return vec.getFloat(index);
+    }
+
+    @Override
+    public long getLong(int field) {
+      var vec = u64s[field];
+      if (vec == null) {
+        throw notA(field, "U64Vec");
+      }
+      return vec.getLong(index);
+    }
+
+    @Override
+    public double getDouble(int field) {
+      var vec = u64s[field];
+      if (vec == null) {
+        throw notA(field, "U64Vec");
+      }
+      return vec.getDouble(index);
+    }
+
+    @Override
+    public TextWrap getTextWrap(int field) {
+      var vec = lists[field];
+      if (vec == null) {
+        throw notA(field, "ListVec");
+      }
+      return vec.getTextWrap(index);
+    }
+
+    @Override
+    public ValuesBox getValues(int field, ValuesBox box) {
+      var vec = lists[field];
+      if (vec == null) {
+        throw notA(field, "ListVec");
+      }
+      return vec.getValues(index, box);
     }
   }
 }
@@ -19,7 +19,56 @@ public interface VecOp {
     double apply(double v1, double v2);
   }
 
+  /**
+   * An operation specialized for some Vecs.
+   *
+   * @see #specializeInt(Vec, Vec, Vec)
+   */
+  interface BoundIntOp {
+    /**
+     * Applies the operation on the Vecs of the specialization
+     * @param binaryOp the operation
+     * @throws IllegalStateException if one of the Vecs has been closed
+     */
+    void applyInt(IntBinOp binaryOp);
+  }
+
+  /**
+   * The counters of the inlining cache of {@link #applyInt(Vec, Vec, Vec, IntBinOp)}.
+   * A miss specializes a kernel for the classes of the Vecs, a hit calls a kernel already specialized,
+   * once the cache is megamorphic, a call uses a table of kernels and is counted as a hit.
+   *
+   * @param hits the number of calls that reuse a kernel
+   * @param misses the number of calls that specialize a kernel
+   * @param megamorphic true if the cache has switched to a table of kernels
+   *
+   * @see #intCacheStats()
+   */
+  record CacheStats(long hits, long misses, boolean megamorphic) {}
+
   void applyInt(Vec dest, Vec vec1, Vec vec2, IntBinOp binaryOp);
+
+  /**
+   * Returns a snapshot of the counters of the inlining cache of {@link #applyInt(Vec, Vec, Vec, IntBinOp)}.
+   * @return a snapshot of the counters of the inlining cache
+   */
+  CacheStats intCacheStats();
+
+  /**
+   * Returns the operation {@link #applyInt(Vec, Vec, Vec, IntBinOp)} specialized for some Vecs.
+   * Once mapped, the address and the length of a Vec do not change until the Vec is closed,
+   * so the buffers and the loop bounds are computed once and bound as constants in a call site,
+   * if the returned operation is itself a constant (by example stored in a static final field),
+   * the JIT can remove the bound checks.
+   * The call site is invalidated when one of the Vecs is closed.
+   *
+   * @param dest the Vec that stores the results
+   * @param vec1 the first operand
+   * @param vec2 the second operand
+   * @return the operation specialized for the Vecs
+   * @throws IllegalArgumentException if a Vec is not a U8Vec, a U16Vec or a U32Vec
+   */
+  BoundIntOp specializeInt(Vec dest, Vec vec1, Vec vec2);
   void applyFloat(Vec dest, Vec vec1, Vec vec2, FloatBinOp binaryOp);
   void applyLong(Vec dest, Vec vec1, Vec vec2, LongBinOp binaryOp);
   void applyDouble(Vec dest, Vec vec1, Vec vec2, LongBinOp binaryOp);
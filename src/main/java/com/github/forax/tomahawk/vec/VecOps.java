@@ -1,6 +1,9 @@
 package com.github.forax.tomahawk.vec;
 
+import com.github.forax.tomahawk.vec.VecOp.BoundIntOp;
+import com.github.forax.tomahawk.vec.VecOp.CacheStats;
 import com.github.forax.tomahawk.vec.VecOp.IntBinOp;
+import jdk.incubator.foreign.MemorySegment;
 import jdk.incubator.vector.ByteVector;
 import jdk.incubator.vector.IntVector;
 import jdk.incubator.vector.ShortVector;
@@ -12,19 +15,40 @@ import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodHandles.Lookup;
 import java.lang.invoke.MutableCallSite;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.UndeclaredThrowableException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 import static java.lang.invoke.MethodType.methodType;
 import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static java.util.Objects.requireNonNull;
 
 /**
  * Implementation of VecOp
  */
 interface VecOps {
-  record VecOpImpl(MethodHandle applyInt, MethodHandle applyFloat, MethodHandle applyLong, MethodHandle applyDouble) implements VecOp {
+  record VecOpImpl(MethodHandle applyInt, MethodHandle applyFloat, MethodHandle applyLong, MethodHandle applyDouble,
+                   IntSpecies.CacheCounters intCacheCounters) implements VecOp {
+    @Override
+    public BoundIntOp specializeInt(Vec dest, Vec vec1, Vec vec2) {
+      requireNonNull(dest);
+      requireNonNull(vec1);
+      requireNonNull(vec2);
+      for(var vec: List.of(dest, vec1, vec2)) {
+        IntSpecies.dataSegment(vec);  // check that the Vec is supported
+      }
+      var callSite = new IntSpecies.SpecializedCallSite(IntSpecies.IntPlan.of(dest, vec1, vec2));
+      Specializations.register(callSite, dest, vec1, vec2);
+      return new BoundIntOpImpl(callSite.dynamicInvoker());
+    }
+
     @Override
     public void applyInt(Vec dest, Vec vec1, Vec vec2, IntBinOp binaryOp) {
+      intCacheCounters.calls.increment();  // counted here, once per operation, not by the guards of the cache
       try {
         applyInt.invokeExact(dest, vec1, vec2, binaryOp);
       } catch (RuntimeException | Error e) {
@@ -34,6 +58,11 @@ interface VecOps {
       }
     }
 
+    @Override
+    public CacheStats intCacheStats() {
+      return intCacheCounters.snapshot();
+    }
+
     @Override
     public void applyFloat(Vec dest, Vec vec1, Vec vec2, FloatBinOp binaryOp) {
       throw new UnsupportedOperationException("NYI");
@@ -50,9 +79,58 @@ interface VecOps {
     }
   }
 
+  record BoundIntOpImpl(MethodHandle applyInt) implements BoundIntOp {
+    @Override
+    public void applyInt(IntBinOp binaryOp) {
+      try {
+        applyInt.invokeExact(binaryOp);
+      } catch (RuntimeException | Error e) {
+        throw e;
+      } catch(Throwable t) {
+        throw new UndeclaredThrowableException(t);
+      }
+    }
+  }
+
+  /**
+   * The call sites specialized for the segments of some Vecs, a call site is invalidated
+   * when one of its segments is released, see {@link VecImpl#release(MemorySegment)}.
+   * The call sites are weakly referenced, so a specialized operation can be garbage collected.
+   */
+  final class Specializations {
+    private static final WeakHashMap<MemorySegment, List<WeakReference<IntSpecies.SpecializedCallSite>>> CALL_SITES = new WeakHashMap<>();
+
+    private Specializations() {
+      throw new AssertionError();
+    }
+
+    static void register(IntSpecies.SpecializedCallSite callSite, Vec... vecs) {
+      synchronized (CALL_SITES) {
+        for(var vec: vecs) {
+          CALL_SITES.computeIfAbsent(IntSpecies.dataSegment(vec), __ -> new ArrayList<>()).add(new WeakReference<>(callSite));
+        }
+      }
+    }
+
+    static void invalidate(MemorySegment segment) {
+      List<WeakReference<IntSpecies.SpecializedCallSite>> callSites;
+      synchronized (CALL_SITES) {
+        if (CALL_SITES.isEmpty() || (callSites = CALL_SITES.remove(segment)) == null) {
+          return;
+        }
+      }
+      for(var ref: callSites) {
+        var callSite = ref.get();
+        if (callSite != null) {
+          callSite.invalidate();
+        }
+      }
+    }
+  }
+
   static VecOp create(Lookup lookup) {
-    var applyInt = new IntSpecies.IntInliningCache().dynamicInvoker();
-    return new VecOpImpl(applyInt, null, null, null);
+    var intCache = new IntSpecies.IntInliningCache();
+    return new VecOpImpl(intCache.dynamicInvoker(), null, null, null, intCache.counters());
   }
 
 
@@ -69,8 +147,35 @@ interface VecOps {
       U32_SPECIES = VectorSpecies.of(int.class, shape);
     }
 
+    /**
+     * The counters of an {@link IntInliningCache}, a miss specializes a new kernel, once the cache is megamorphic
+     * all calls use a table of kernels indexed by the classes of the Vecs.
+     * The misses are counted on the slow path, the calls are counted by {@link VecOpImpl#applyInt(Vec, Vec, Vec, IntBinOp)},
+     * so the fast path stays a guard and a kernel call, the hits are the calls that are not misses.
+     */
+    static final class CacheCounters {
+      final LongAdder calls = new LongAdder();
+      private final LongAdder misses = new LongAdder();
+      private volatile boolean megamorphic;
+
+      CacheStats snapshot() {
+        var megamorphic = this.megamorphic;
+        var misses = this.misses.sum();
+        var calls = this.calls.sum();  // read after the misses, a call is counted before its miss
+        return new CacheStats(calls - misses, misses, megamorphic);
+      }
+    }
+
+    /**
+     * A polymorphic inlining cache, a chain of guards on the classes of the Vecs, each guard calls a kernel
+     * typed with the classes of the Vecs. The chain is bounded, after {@link #MAX_DEPTH} entries,
+     * the whole call site switches to a table-driven dispatch (see {@link #megamorphic(Vec, Vec, Vec, IntBinOp)}).
+     */
     static class IntInliningCache extends MutableCallSite {
-      private static final MethodHandle FALLBACK, DO_APPLY_INT, TYPE_CHECK;
+      static final int MAX_DEPTH = 8;
+
+      private static final MethodHandle FALLBACK, DO_APPLY_INT, TYPE_CHECK, MEGAMORPHIC;
+      private static final MethodHandle[] KERNELS;  // indexed by typeKey()
       static {
         try {
           var lookup = MethodHandles.lookup();
@@ -80,35 +185,96 @@ interface VecOps {
               methodType(void.class, Vec.class, Vec.class, Vec.class, IntBinOp.class));
           TYPE_CHECK = lookup.findStatic(IntInliningCache.class, "typeCheck",
               methodType(boolean.class, Vec.class, Vec.class, Vec.class, Class.class, Class.class, Class.class));
+          MEGAMORPHIC = lookup.findStatic(IntInliningCache.class, "megamorphic",
+              methodType(void.class, Vec.class, Vec.class, Vec.class, IntBinOp.class));
         } catch (NoSuchMethodException | IllegalAccessException e) {
           throw new AssertionError(e);
         }
+        var types = List.of(VecImpl.U8Impl.class, VecImpl.U16Impl.class, VecImpl.U32Impl.class);
+        KERNELS = new MethodHandle[types.size() * types.size() * types.size()];
+        for(var typeDest: types) {
+          for(var typeVec1: types) {
+            for(var typeVec2: types) {
+              KERNELS[(typeIndex(typeDest) * 3 + typeIndex(typeVec1)) * 3 + typeIndex(typeVec2)] = kernel(typeDest, typeVec1, typeVec2);
+            }
+          }
+        }
       }
 
+      private final IntInliningCache root;
+      private final CacheCounters counters;
+      private final int depth;
+
       public IntInliningCache() {
+        this(null, new CacheCounters(), 0);
+      }
+
+      private IntInliningCache(IntInliningCache root, CacheCounters counters, int depth) {
         super(methodType(void.class, Vec.class, Vec.class, Vec.class, IntBinOp.class));
+        this.root = root == null? this: root;
+        this.counters = counters;
+        this.depth = depth;
         setTarget(FALLBACK.bindTo(this));
       }
 
+      CacheCounters counters() {
+        return counters;
+      }
+
       @SuppressWarnings("unused")
       private static boolean typeCheck(Vec dest, Vec vec1, Vec vec2, Class<?> typeDest, Class<?> typeVec1, Class<?> typeVec2) {
         return dest.getClass() == typeDest && vec1.getClass() == typeVec1 && vec2.getClass() == typeVec2;
       }
 
+      // a kernel typed with the classes of the Vecs
+      private static MethodHandle kernel(Class<?> typeDest, Class<?> typeVec1, Class<?> typeVec2) {
+        return DO_APPLY_INT
+            .asType(methodType(void.class, typeDest, typeVec1, typeVec2, IntBinOp.class))  // please JIT !
+            .asType(DO_APPLY_INT.type());
+      }
+
+      private static int typeIndex(Class<?> type) {
+        if (type == VecImpl.U8Impl.class) {
+          return 0;
+        }
+        if (type == VecImpl.U16Impl.class) {
+          return 1;
+        }
+        if (type == VecImpl.U32Impl.class) {
+          return 2;
+        }
+        throw new IllegalArgumentException("only U8Vec, U16Vec and U32Vec are supported, " + type.getName());
+      }
+
+      // the classes of the 3 Vecs packed in one int
+      private static int typeKey(Vec dest, Vec vec1, Vec vec2) {
+        return (typeIndex(dest.getClass()) * 3 + typeIndex(vec1.getClass())) * 3 + typeIndex(vec2.getClass());
+      }
+
+      @SuppressWarnings("unused")
+      private static void megamorphic(Vec dest, Vec vec1, Vec vec2, IntBinOp binaryOp) throws Throwable {
+        KERNELS[typeKey(dest, vec1, vec2)].invokeExact(dest, vec1, vec2, binaryOp);
+      }
+
       @SuppressWarnings("unused")
-      private void fallback(Vec dest, Vec vec1, Vec vec2, IntBinOp binaryOp) {
+      private void fallback(Vec dest, Vec vec1, Vec vec2, IntBinOp binaryOp) throws Throwable {
+        counters.misses.increment();
+        if (depth == MAX_DEPTH) {
+          // too many classes, the guards are replaced by a table
+          counters.megamorphic = true;
+          root.setTarget(MEGAMORPHIC);
+          megamorphic(dest, vec1, vec2, binaryOp);
+          return;
+        }
+
         Class<?> typeDest = dest.getClass();
         Class<?> typeVec1 = vec1.getClass();
         Class<?> typeVec2 = vec2.getClass();
 
-        var target = DO_APPLY_INT
-            .asType(methodType(void.class, typeDest, typeVec1, typeVec2, IntBinOp.class))  // please JIT !
-            .asType(type());
-
         var guard = MethodHandles.guardWithTest(
             MethodHandles.insertArguments(TYPE_CHECK, 3, typeDest, typeVec1, typeVec2),
-            target,
-            new IntInliningCache().dynamicInvoker()
+            kernel(typeDest, typeVec1, typeVec2),
+            new IntInliningCache(root, counters, depth + 1).dynamicInvoker()
         );
         setTarget(guard);
 
@@ -116,24 +282,78 @@ interface VecOps {
       }
     }
 
+    /**
+     * The buffers and the loop bounds of an operation, they do not change until the Vecs are closed,
+     * so once bound to a {@link SpecializedCallSite} they are constants for the JIT (a record has trusted final fields).
+     */
+    record IntPlan(Vec vDest, Vec vec1, Vec vec2, ByteBuffer bufferDest, ByteBuffer buffer1, ByteBuffer buffer2,
+                   int iDestLoopBound, int i1LoopBound, int i2LoopBound) {
+      static IntPlan of(Vec vDest, Vec vec1, Vec vec2) {
+        var bufferDest = byteBuffer(vDest);
+        var buffer1 = byteBuffer(vec1);
+        var buffer2 = byteBuffer(vec2);
+        return new IntPlan(vDest, vec1, vec2, bufferDest, buffer1, buffer2,
+            bufferDest.capacity() - vectorByteSize(vDest),
+            buffer1.capacity() - vectorByteSize(vec1),
+            buffer2.capacity() - vectorByteSize(vec2));
+      }
+    }
+
+    /**
+     * A call site bound to an {@link IntPlan}, once one of the Vecs is closed, the call site throws an
+     * {@link IllegalStateException}.
+     */
+    static final class SpecializedCallSite extends MutableCallSite {
+      private static final MethodHandle APPLY_PLAN, CLOSED;
+      static {
+        try {
+          var lookup = MethodHandles.lookup();
+          APPLY_PLAN = lookup.findStatic(IntSpecies.class, "applyPlan",
+              methodType(void.class, IntPlan.class, IntBinOp.class));
+          CLOSED = lookup.findStatic(SpecializedCallSite.class, "closed",
+              methodType(void.class, IntBinOp.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+          throw new AssertionError(e);
+        }
+      }
+
+      SpecializedCallSite(IntPlan plan) {
+        super(methodType(void.class, IntBinOp.class));
+        setTarget(MethodHandles.insertArguments(APPLY_PLAN, 0, plan));
+      }
+
+      @SuppressWarnings("unused")
+      private static void closed(IntBinOp binaryOp) {
+        throw new IllegalStateException("a Vec of the specialized operation is closed");
+      }
+
+      void invalidate() {
+        setTarget(CLOSED);
+        syncAll(new MutableCallSite[] { this });  // the code that has inlined the plan is deoptimized
+      }
+    }
+
     @SuppressWarnings("unused")
     private static void doApplyInt(Vec vDest, Vec vec1, Vec vec2, IntBinOp binaryOp) {
-      var bufferDest = byteBuffer(vDest);
-      var buffer1 = byteBuffer(vec1);
-      var buffer2 = byteBuffer(vec2);
+      applyPlan(IntPlan.of(vDest, vec1, vec2), binaryOp);
+    }
+
+    private static void applyPlan(IntPlan plan, IntBinOp binaryOp) {
+      var vDest = plan.vDest;
+      var vec1 = plan.vec1;
+      var vec2 = plan.vec2;
+      var bufferDest = plan.bufferDest;
+      var buffer1 = plan.buffer1;
+      var buffer2 = plan.buffer2;
 
       var sliceLength = IntSpecies.U32_SPECIES.vectorByteSize();
       var sliceDest = sliceLength >> shift(vDest);
       var slice1 = sliceLength >> shift(vec1);
       var slice2 = sliceLength >> shift(vec2);
 
-      //System.err.println("slice1 " + slice1 + " slice2 " + slice2);
-
-      var iDestLoopBound = bufferDest.capacity() - vectorByteSize(vDest);
-      var i1LoopBound = buffer1.capacity() - vectorByteSize(vec1);
-      var i2LoopBound = buffer2.capacity() - vectorByteSize(vec2);
-
-      //System.err.println("i1LoopBound " + i1LoopBound + " i2LoopBound " + i2LoopBound);
+      var iDestLoopBound = plan.iDestLoopBound;
+      var i1LoopBound = plan.i1LoopBound;
+      var i2LoopBound = plan.i2LoopBound;
 
       // main loop
       var iDest = 0;
@@ -208,6 +428,19 @@ interface VecOps {
       throw new AssertionError();
     }
 
+    static MemorySegment dataSegment(Vec vec) {
+      if (vec instanceof VecImpl.U8Impl u8Impl) {
+        return u8Impl.dataSegment();
+      }
+      if (vec instanceof VecImpl.U16Impl u16Impl) {
+        return u16Impl.dataSegment();
+      }
+      if (vec instanceof VecImpl.U32Impl u32Impl) {
+        return u32Impl.dataSegment();
+      }
+      throw new IllegalArgumentException("only U8Vec, U16Vec and U32Vec are supported, " + vec);
+    }
+
     private static ByteBuffer byteBuffer(Vec vec) {
       if (vec instanceof VecImpl.U8Impl u8Impl) {
         return u8Impl.dataSegment().asByteBuffer().order(LITTLE_ENDIAN);
@@ -0,0 +1,300 @@
+package com.github.forax.tomahawk.vec;
+
+import jdk.incubator.foreign.MemorySegment;
+
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.WeakHashMap;
+
+/**
+ * A pool of native memory segments that can be reused to create short-lived Vecs.
+ *
+ * Allocating native memory (or mapping a new file) for each intermediary Vec of a query
+ * means paying a malloc/free and the page faults each time the query runs.
+ * A pool keeps the native memory released by a query in free lists, one per size class
+ * (a power of two), so the next query reuses already touched memory.
+ *
+ * The memory is lent through a {@link Scope}, all the segments allocated by a scope are
+ * given back to the pool at once when the scope is closed.
+ * Calling {@link Vec#close()} on a Vec created from a segment of a scope gives its memory back
+ * to the pool before the end of the scope.
+ *
+ * Example
+ * <pre>
+ *   try(var pool = VecPool.create()) {
+ *     for(var query: queries) {
+ *       try(var scope = pool.newScope()) {
+ *         var temp = U32Vec.from(null, scope.allocate(length &lt;&lt; 2));
+ *         ...
+ *       }  // the memory of temp is given back to the pool
+ *     }
+ *   }  // all the memory is de-allocated
+ * </pre>
+ *
+ * The pool tracks the segments it lends, so only those segments are given back to the pool.
+ * When a segment is given back, the memory is re-shared (see {@link MemorySegment#share()}), so the segment
+ * and all its slices are not alive anymore and can not be used to access the memory lent to another scope.
+ */
+public final class VecPool implements UncheckedCloseable {
+  /**
+   * Size of the smallest size class, a cache line.
+   */
+  private static final int MIN_SIZE_CLASS_SHIFT = 6;
+
+  /**
+   * Default size above which segments are not pooled anymore.
+   */
+  private static final long DEFAULT_MAX_POOLED_SIZE = 1L << 26;  // 64 MB
+
+  /**
+   * All the segments currently lent by a scope, the value is the lease.
+   * The keys are compared by identity, a slice of a lent segment is not a lent segment.
+   */
+  private static final WeakHashMap<MemorySegment, Lease> LEASES = new WeakHashMap<>();
+
+  private record Lease(Scope scope, MemorySegment block) {}
+
+  private final long maxPooledSize;
+  private final ArrayDeque<MemorySegment>[] freeLists;
+  private long pooledBytes;
+  private int openScopes;
+  private boolean closed;
+
+  private VecPool(long maxPooledSize) {
+    this.maxPooledSize = maxPooledSize;
+    @SuppressWarnings("unchecked")
+    var freeLists = (ArrayDeque<MemorySegment>[]) new ArrayDeque<?>[sizeClass(maxPooledSize) + 1];
+    this.freeLists = freeLists;
+  }
+
+  /**
+   * Creates a new pool that pools segments up to 64 MB.
+   * @return a new pool
+   */
+  public static VecPool create() {
+    return create(DEFAULT_MAX_POOLED_SIZE);
+  }
+
+  /**
+   * Creates a new pool.
+   * @param maxPooledSize the byte size above which segments are allocated and de-allocated
+   *                      without being pooled.
+   * @return a new pool
+   * @throws IllegalArgumentException if {@code maxPooledSize} is not positive
+   */
+  public static VecPool create(long maxPooledSize) {
+    if (maxPooledSize <= 0) {
+      throw new IllegalArgumentException("maxPooledSize <= 0");
+    }
+    return new VecPool(maxPooledSize);
+  }
+
+  private static int sizeClass(long byteSize) {
+    return Math.max(0, 64 - Long.numberOfLeadingZeros(byteSize - 1) - MIN_SIZE_CLASS_SHIFT);
+  }
+
+  /**
+   * Returns the number of bytes of native memory currently kept in the free lists.
+   * @return the number of bytes of native memory currently kept in the free lists.
+   */
+  public synchronized long pooledBytes() {
+    return pooledBytes;
+  }
+
+  /**
+   * Creates a new scope that lends segments from this pool.
+   * @return a new scope
+   * @throws IllegalStateException if this pool is closed
+   */
+  public synchronized Scope newScope() {
+    if (closed) {
+      throw new IllegalStateException("pool closed");
+    }
+    openScopes++;
+    return new Scope();
+  }
+
+  /**
+   * De-allocates all the segments stored in the free lists.
+   * @throws IllegalStateException if a scope is still open
+   */
+  @Override
+  public synchronized void close() throws UncheckedIOException {
+    if (closed) {
+      return;
+    }
+    if (openScopes != 0) {
+      throw new IllegalStateException("some scopes are still open");
+    }
+    closed = true;
+    for(var freeList: freeLists) {
+      if (freeList == null) {
+        continue;
+      }
+      for(var block: freeList) {
+        free(block);
+      }
+      freeList.clear();
+    }
+    pooledBytes = 0;
+  }
+
+  private static void free(MemorySegment block) {
+    block.close();
+    VecImpl.unregister(block);
+  }
+
+  private synchronized MemorySegment takeBlock(long byteSize) {
+    if (closed) {
+      throw new IllegalStateException("pool closed");
+    }
+    if (byteSize > maxPooledSize) {
+      return newBlock(byteSize);
+    }
+    var sizeClass = sizeClass(byteSize);
+    var freeList = freeLists[sizeClass];
+    if (freeList == null || freeList.isEmpty()) {
+      return newBlock(1L << (sizeClass + MIN_SIZE_CLASS_SHIFT));
+    }
+    var block = freeList.pop();
+    pooledBytes -= block.byteSize();
+    return block;
+  }
+
+  private static MemorySegment newBlock(long byteSize) {
+    // shared, so the Vecs can be used by any threads
+    var block = MemorySegment.allocateNative(byteSize, 1L << MIN_SIZE_CLASS_SHIFT).share();
+    VecImpl.register(block);
+    return block;
+  }
+
+  // kills the block and all the segments lent from it, returns a new segment on the same memory
+  private static MemorySegment renew(MemorySegment block) {
+    var renewed = block.share();
+    VecImpl.unregister(block);
+    VecImpl.register(renewed);
+    return renewed;
+  }
+
+  private synchronized void giveBack(MemorySegment block) {
+    var byteSize = block.byteSize();
+    if (closed || byteSize > maxPooledSize) {
+      free(block);
+      return;
+    }
+    block = renew(block);
+    var sizeClass = sizeClass(byteSize);
+    var freeList = freeLists[sizeClass];
+    if (freeList == null) {
+      freeList = freeLists[sizeClass] = new ArrayDeque<>();
+    }
+    freeList.push(block);  // LIFO, the last block released is the one with the hottest pages
+    pooledBytes += byteSize;
+  }
+
+  /**
+   * Gives the memory of a segment lent by a scope back to its pool.
+   * Do nothing if the segment is not lent by a scope (by example a slice of a lent segment)
+   * or was already given back.
+   * @param segment a segment
+   * @return true if the segment was lent by a scope, false otherwise.
+   */
+  static boolean recycle(MemorySegment segment) {
+    Lease lease;
+    synchronized (LEASES) {
+      lease = LEASES.remove(segment);
+    }
+    if (lease == null) {
+      return false;
+    }
+    lease.scope.recycle(segment, lease.block);
+    return true;
+  }
+
+  /**
+   * A scope lends segments from the pool, all the segments are given back to the pool
+   * when the scope is {@link #close() closed}.
+   */
+  public final class Scope implements UncheckedCloseable {
+    private final IdentityHashMap<MemorySegment, MemorySegment> segments = new IdentityHashMap<>();
+    private boolean closed;
+
+    private Scope() {}
+
+    /**
+     * Allocates a zeroed segment of {@code byteSize} bytes, aligned on a cache line.
+     * The returned segment can not be closed, the memory is given back to the pool either
+     * when the Vec created on it is closed or when this scope is closed, after that the segment
+     * and its slices are not alive anymore.
+     *
+     * @param byteSize the byte size of the segment
+     * @return a new segment
+     * @throws IllegalArgumentException if the byte size is not positive
+     * @throws IllegalStateException if this scope is closed
+     */
+    public MemorySegment allocate(long byteSize) {
+      if (byteSize <= 0) {
+        throw new IllegalArgumentException("byteSize <= 0");
+      }
+      synchronized (this) {
+        if (closed) {
+          throw new IllegalStateException("scope closed");
+        }
+      }
+      var block = takeBlock(byteSize);
+      var segment = block.asSlice(0, byteSize)
+          .withAccessModes(MemorySegment.READ | MemorySegment.WRITE);
+      segment.fill((byte) 0);
+      synchronized (LEASES) {
+        LEASES.put(segment, new Lease(this, block));
+      }
+      boolean closedMeanwhile;
+      synchronized (this) {
+        closedMeanwhile = closed;  // the scope may have been closed while taking the block
+        if (!closedMeanwhile) {
+          segments.put(segment, block);
+        }
+      }
+      if (closedMeanwhile) {
+        synchronized (LEASES) {
+          LEASES.remove(segment);
+        }
+        giveBack(block);
+        throw new IllegalStateException("scope closed");
+      }
+      return segment;
+    }
+
+    private void recycle(MemorySegment segment, MemorySegment block) {
+      synchronized (this) {
+        if (segments.remove(segment) == null) {
+          return;
+        }
+      }
+      giveBack(block);
+    }
+
+    /**
+     * Gives all the segments allocated by this scope back to the pool.
+     */
+    @Override
+    public void close() throws UncheckedIOException {
+      ArrayList<MemorySegment> lent;
+      synchronized (this) {
+        if (closed) {
+          return;
+        }
+        closed = true;
+        lent = new ArrayList<>(segments.keySet());
+      }
+      for(var segment: lent) {
+        VecPool.recycle(segment);
+      }
+      synchronized (VecPool.this) {
+        openScopes--;
+      }
+    }
+  }
+}
@@ -0,0 +1,331 @@
+package com.github.forax.tomahawk.vec;
+
+import jdk.incubator.foreign.MemorySegment;
+
+import java.nio.ByteOrder;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.DoubleConsumer;
+import java.util.function.IntConsumer;
+import java.util.function.LongConsumer;
+
+import static com.github.forax.tomahawk.vec.VecImpl.valueIsNull;
+
+/**
+ * Spliterators on the values of a Vec used by the methods {@code allXXX()}.
+ *
+ * A spliterator splits its range of indexes in two halves, the split index is a multiple of the number of values
+ * in a cache line, so it is aligned relative to the index 0, not to the address of the data segment;
+ * the ranges only start on a cache line boundary if the segment does (a mapped file or a segment of a VecPool),
+ * not necessarily for a slice or a Java array. A spliterator stops to split under {@link #CHUNK_SIZE} values.
+ * {@code forEachRemaining} copies the values by chunks of {@link #CHUNK_SIZE} values into a primitive array
+ * with a bulk copy of the segment and checks the validity 64 values at a time, instead of doing a bounds check
+ * and a validity check per value.
+ *
+ * A confined segment (by example a mapped Vec) can only be read by its owner thread, so a spliterator
+ * on a confined segment does not split, a parallel stream is then executed by the thread that calls
+ * the terminal operation. Only the Vecs with shared segments (by example allocated by a {@link VecPool})
+ * are processed in parallel.
+ */
+final class VecSpliterators {
+  private VecSpliterators() {
+    throw new AssertionError();
+  }
+
+  static final int CHUNK_SIZE = 1024;
+  private static final int CACHE_LINE_SIZE = 64;
+
+  // the data are stored in little endian, the bulk copy can only be used if the native order is the same
+  private static final boolean BULK_COPY = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+
+  private static final int CHARACTERISTICS = Spliterator.ORDERED | Spliterator.SIZED | Spliterator.SUBSIZED;
+
+  static Spliterator.OfInt ints(MemorySegment dataSegment, MemorySegment validitySegment) {
+    return new IntSpliterator(dataSegment, validitySegment, shared(dataSegment, validitySegment), 0, dataSegment.byteSize() >> 2);
+  }
+
+  static Spliterator.OfLong longs(MemorySegment dataSegment, MemorySegment validitySegment) {
+    return new LongSpliterator(dataSegment, validitySegment, shared(dataSegment, validitySegment), 0, dataSegment.byteSize() >> 3);
+  }
+
+  static Spliterator.OfDouble doubles(MemorySegment dataSegment, MemorySegment validitySegment) {
+    return new DoubleSpliterator(dataSegment, validitySegment, shared(dataSegment, validitySegment), 0, dataSegment.byteSize() >> 3);
+  }
+
+  static Spliterator<TextWrap> textWraps(MemorySegment charSegment, MemorySegment offsetSegment, MemorySegment validitySegment, long length) {
+    var shared = shared(charSegment, offsetSegment, validitySegment);
+    return new TextWrapSpliterator(charSegment, offsetSegment, validitySegment, shared, 0, length);
+  }
+
+  // true if all the segments can be read by any thread, a null segment is ignored
+  private static boolean shared(MemorySegment... segments) {
+    for(var segment: segments) {
+      if (segment != null && segment.ownerThread() != null) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isValid(MemorySegment validitySegment, long index) {
+    var bits = (long) VecImpl.U1Impl.HANDLE.get(validitySegment, index >>> 6);
+    return (bits & (1L << index)) != 0;
+  }
+
+  // throws a NullPointerException if one of the values of [start, end[ is null
+  private static void checkNoNull(MemorySegment validitySegment, long start, long end) {
+    if (validitySegment == null) {
+      return;
+    }
+    var startWord = start >>> 6;
+    var endWord = (end - 1) >>> 6;
+    for(var word = startWord; word <= endWord; word++) {
+      var mask = -1L;
+      if (word == startWord) {
+        mask &= -1L << start;
+      }
+      if (word == endWord) {
+        mask &= -1L >>> (63 - ((end - 1) & 63));
+      }
+      var bits = (long) VecImpl.U1Impl.HANDLE.get(validitySegment, word);
+      if ((~bits & mask) != 0) {
+        throw valueIsNull();
+      }
+    }
+  }
+
+  private static abstract class RangeSpliterator {
+    final MemorySegment dataSegment;
+    final MemorySegment validitySegment;
+    final boolean shared;  // false if one of the segments is confined, then the spliterator never splits
+    final int shift;  // log2 of the size of a value in bytes
+    long index;
+    final long end;
+
+    RangeSpliterator(MemorySegment dataSegment, MemorySegment validitySegment, boolean shared, int shift, long index, long end) {
+      this.dataSegment = dataSegment;
+      this.validitySegment = validitySegment;
+      this.shared = shared;
+      this.shift = shift;
+      this.index = index;
+      this.end = end;
+    }
+
+    // returns the index where to split, a multiple of the values per cache line, or -1,
+    // the current spliterator keeps the second half
+    final long splitIndex() {
+      if (!shared || end - index < 2 * CHUNK_SIZE) {
+        return -1;
+      }
+      var valuesPerLine = CACHE_LINE_SIZE >> shift;
+      var middle = (index + ((end - index) >>> 1)) & -valuesPerLine;
+      if (middle <= index) {
+        return -1;
+      }
+      var start = index;
+      index = middle;
+      return start;
+    }
+
+    public final long estimateSize() {
+      return end - index;
+    }
+
+    public final int characteristics() {
+      return CHARACTERISTICS;
+    }
+
+    // copies the values of [index, index + count[ into the buffer
+    final void copy(MemorySegment buffer, int count) {
+      checkNoNull(validitySegment, index, index + count);
+      var byteSize = (long) count << shift;
+      buffer.asSlice(0, byteSize).copyFrom(dataSegment.asSlice(index << shift, byteSize));
+    }
+  }
+
+  private static final class IntSpliterator extends RangeSpliterator implements Spliterator.OfInt {
+    IntSpliterator(MemorySegment dataSegment, MemorySegment validitySegment, boolean shared, long index, long end) {
+      super(dataSegment, validitySegment, shared, 2, index, end);
+    }
+
+    @Override
+    public boolean tryAdvance(IntConsumer action) {
+      if (index >= end) {
+        return false;
+      }
+      checkNoNull(validitySegment, index, index + 1);
+      action.accept((int) VecImpl.U32Impl.INT_HANDLE.get(dataSegment, index));
+      index++;
+      return true;
+    }
+
+    @Override
+    public void forEachRemaining(IntConsumer action) {
+      if (!BULK_COPY) {
+        while(tryAdvance(action)) {
+          // empty
+        }
+        return;
+      }
+      var array = new int[(int) Math.min(CHUNK_SIZE, end - index)];
+      var buffer = MemorySegment.ofArray(array);
+      while(index < end) {
+        var count = (int) Math.min(CHUNK_SIZE, end - index);
+        copy(buffer, count);
+        for(var i = 0; i < count; i++) {
+          action.accept(array[i]);
+        }
+        index += count;
+      }
+    }
+
+    @Override
+    public Spliterator.OfInt trySplit() {
+      var start = splitIndex();
+      return start == -1? null: new IntSpliterator(dataSegment, validitySegment, shared, start, index);
+    }
+  }
+
+  private static final class LongSpliterator extends RangeSpliterator implements Spliterator.OfLong {
+    LongSpliterator(MemorySegment dataSegment, MemorySegment validitySegment, boolean shared, long index, long end) {
+      super(dataSegment, validitySegment, shared, 3, index, end);
+    }
+
+    @Override
+    public boolean tryAdvance(LongConsumer action) {
+      if (index >= end) {
+        return false;
+      }
+      checkNoNull(validitySegment, index, index + 1);
+      action.accept((long) VecImpl.U64Impl.LONG_HANDLE.get(dataSegment, index));
+      index++;
+      return true;
+    }
+
+    @Override
+    public void forEachRemaining(LongConsumer action) {
+      if (!BULK_COPY) {
+        while(tryAdvance(action)) {
+          // empty
+        }
+        return;
+      }
+      var array = new long[(int) Math.min(CHUNK_SIZE, end - index)];
+      var buffer = MemorySegment.ofArray(array);
+      while(index < end) {
+        var count = (int) Math.min(CHUNK_SIZE, end - index);
+        copy(buffer, count);
+        for(var i = 0; i < count; i++) {
+          action.accept(array[i]);
+        }
+        index += count;
+      }
+    }
+
+    @Override
+    public Spliterator.OfLong trySplit() {
+      var start = splitIndex();
+      return start == -1? null: new LongSpliterator(dataSegment, validitySegment, shared, start, index);
+    }
+  }
+
+  private static final class DoubleSpliterator extends RangeSpliterator implements Spliterator.OfDouble {
+    DoubleSpliterator(MemorySegment dataSegment, MemorySegment validitySegment, boolean shared, long index, long end) {
+      super(dataSegment, validitySegment, shared, 3, index, end);
+    }
+
+    @Override
+    public boolean tryAdvance(DoubleConsumer action) {
+      if (index >= end) {
+        return false;
+      }
+      checkNoNull(validitySegment, index, index + 1);
+      action.accept((double) VecImpl.U64Impl.DOUBLE_HANDLE.get(dataSegment, index));
+      index++;
+      return true;
+    }
+
+    @Override
+    public void forEachRemaining(DoubleConsumer action) {
+      if (!BULK_COPY) {
+        while(tryAdvance(action)) {
+          // empty
+        }
+        return;
+      }
+      var array = new double[(int) Math.min(CHUNK_SIZE, end - index)];
+      var buffer = MemorySegment.ofArray(array);
+      while(index < end) {
+        var count = (int) Math.min(CHUNK_SIZE, end - index);
+        copy(buffer, count);
+        for(var i = 0; i < count; i++) {
+          action.accept(array[i]);
+        }
+        index += count;
+      }
+    }
+
+    @Override
+    public Spliterator.OfDouble trySplit() {
+      var start = splitIndex();
+      return start == -1? null: new DoubleSpliterator(dataSegment, validitySegment, shared, start, index);
+    }
+  }
+
+  // the data segment of the range are the offsets, a null value is a null TextWrap
+  private static final class TextWrapSpliterator extends RangeSpliterator implements Spliterator<TextWrap> {
+    private final MemorySegment charSegment;
+
+    TextWrapSpliterator(MemorySegment charSegment, MemorySegment offsetSegment, MemorySegment validitySegment, boolean shared, long index, long end) {
+      super(offsetSegment, validitySegment, shared, 2, index, end);
+      this.charSegment = charSegment;
+    }
+
+    private TextWrap textWrap(long index, int startOffset, int endOffset) {
+      if (validitySegment != null && !isValid(validitySegment, index)) {
+        return null;
+      }
+      return new TextWrap(charSegment, startOffset, endOffset - startOffset);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super TextWrap> action) {
+      if (index >= end) {
+        return false;
+      }
+      var startOffset = (int) VecImpl.U32Impl.INT_HANDLE.get(dataSegment, index);
+      var endOffset = (int) VecImpl.U32Impl.INT_HANDLE.get(dataSegment, index + 1);
+      action.accept(textWrap(index, startOffset, endOffset));
+      index++;
+      return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super TextWrap> action) {
+      if (!BULK_COPY) {
+        while(tryAdvance(action)) {
+          // empty
+        }
+        return;
+      }
+      // the offsets of a chunk of values are the count + 1 offsets starting at index
+      var offsets = new int[(int) Math.min(CHUNK_SIZE, end - index) + 1];
+      var buffer = MemorySegment.ofArray(offsets);
+      while(index < end) {
+        var count = (int) Math.min(CHUNK_SIZE, end - index);
+        var byteSize = (long) (count + 1) << 2;
+        buffer.asSlice(0, byteSize).copyFrom(dataSegment.asSlice(index << 2, byteSize));
+        for(var i = 0; i < count; i++) {
+          action.accept(textWrap(index + i, offsets[i], offsets[i + 1]));
+        }
+        index += count;
+      }
+    }
+
+    @Override
+    public Spliterator<TextWrap> trySplit() {
+      var start = splitIndex();
+      return start == -1? null: new TextWrapSpliterator(charSegment, dataSegment, validitySegment, shared, start, index);
+    }
+  }
+}
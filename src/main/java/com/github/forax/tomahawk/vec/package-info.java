@@ -69,6 +69,8 @@
  *        var u8vec = U8Vec.from(memorySegment);
  *        ...
  *      </pre>
+ *      For short-lived Vecs, a {@link com.github.forax.tomahawk.vec.VecPool} can lend segments
+ *      that are reused from one query to the next instead of being de-allocated.
  * </ul>
  *
  * Given that all Vecs are backed by a memory (mapped or not), this memory must be de-allocated
@@ -0,0 +1,133 @@
+package com.github.forax.tomahawk.blackpanda;
+
+import com.github.forax.tomahawk.blackpanda.QueryKernels.ColumnResolver;
+import com.github.forax.tomahawk.schema.Layout;
+import com.github.forax.tomahawk.vec.Vec;
+import org.junit.jupiter.api.Test;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.IntStream;
+
+import static com.github.forax.tomahawk.blackpanda.Expr.constant;
+import static com.github.forax.tomahawk.blackpanda.Query.col;
+import static com.github.forax.tomahawk.schema.Layout.int32;
+import static java.nio.file.Files.createTempDirectory;
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SuppressWarnings("static-method")
+public class ExprTest {
+  private static final ColumnResolver INTS = new ColumnResolver() {
+    @Override
+    public Layout layout(String name) {
+      return int32(false);
+    }
+
+    @Override
+    public Vec vec(String name) {
+      return null;  // the programs are not evaluated
+    }
+  };
+
+  @Test
+  public void commonSubExpressions() {
+    var a = col("a");
+    var b = col("b");
+    var sum = a.plus(b);
+    var program = ExprProgram.compile(sum.times(col("c")).minus(a).plus(b.plus(a)), INTS);
+    assertAll(
+        () -> assertEquals(7, program.nodeCount()),  // a, b, a + b, c, (a + b) * c, - a, + (a + b)
+        () -> assertEquals(4, program.registerCount()),  // a and a + b are live until the end
+        () -> assertFalse(program.nullable())
+    );
+  }
+
+  @Test
+  public void nonCommutativeSub() {
+    var program = ExprProgram.compile(col("a").minus(col("b")).times(col("b").minus(col("a"))), INTS);
+    assertEquals(5, program.nodeCount());
+  }
+
+  @Test
+  public void constantFolding() {
+    var program = ExprProgram.compile(constant(2).times(3).plus(constant(4)), INTS);
+    assertAll(
+        () -> assertEquals(1, program.nodeCount()),
+        () -> assertEquals(1, program.registerCount())
+    );
+  }
+
+  @Test
+  public void errors() {
+    assertAll(
+        () -> assertThrows(NullPointerException.class, () -> col("a").plus(null)),
+        () -> assertThrows(NullPointerException.class, () -> ExprProgram.compile(null, INTS)),
+        () -> assertThrows(IllegalArgumentException.class, () -> ExprProgram.compile(col("a"), new ColumnResolver() {
+          @Override
+          public Layout layout(String name) {
+            return Layout.double64(false);
+          }
+
+          @Override
+          public Vec vec(String name) {
+            throw new AssertionError();
+          }
+        }))
+    );
+  }
+
+  private static void deleteAll(Path directory) throws IOException {
+    try(var files = Files.walk(directory)) {
+      for(var path: files.sorted((p1, p2) -> p2.compareTo(p1)).toList()) {
+        Files.delete(path);
+      }
+    }
+  }
+
+  @Test
+  public void tableAddCol() throws IOException {
+    var directory = createTempDirectory("expr");
+    Closeable andClean = () -> deleteAll(directory);
+    try(andClean) {
+      var length = 3_000;  // several batches, the last one is not full
+      var csv = directory.resolve("values.csv");
+      var builder = new StringBuilder("a,b,c,name\n");
+      for(var i = 0; i < length; i++) {
+        builder.append(i % 100).append(',').append(i % 7 == 0? "": "" + i % 50).append(',').append(i % 1_000).append(",n").append(i).append('\n');
+      }
+      Files.writeString(csv, builder);
+      Files.createDirectories(directory.resolve("values.table"));
+      try(var table = DB.of(directory, "db").table("values")) {
+        table.importCSV(csv);
+        var a = col("a");
+        var sum = a.plus(col("b"));
+        var result = table.addCol("result", sum.times(col("c")).minus(a).plus(sum));
+        var product = table.addCol("product", col("a").times(col("c")).plus(1));
+
+        assertEquals(length, result.length());
+        for(var i = 0; i < length; i++) {
+          if (i % 7 == 0) {
+            assertEquals(null, result.get(i));
+          } else {
+            var expected = (i % 100 + i % 50) * (i % 1_000) - i % 100 + (i % 100 + i % 50);
+            assertEquals(expected, result.get(i));
+          }
+          assertEquals((i % 100) * (i % 1_000) + 1, product.get(i));
+        }
+        var expected = IntStream.range(0, length).filter(i -> (i % 100) * (i % 1_000) + 1 > 50_000).count();
+        assertEquals(expected, table.where(col("product").gt(50_000)).count());
+
+        assertThrows(IllegalArgumentException.class, () -> table.addCol("error", col("name").plus(1)));
+        assertThrows(IllegalStateException.class, () -> table.addCol("result", col("a")));
+        assertThrows(IllegalStateException.class, () -> table.addCol("error", col("unknown")));
+        assertTrue(table.where(col("result").isNull()).count() > 0);
+      }
+    }
+  }
+}
@@ -0,0 +1,505 @@
+package com.github.forax.tomahawk.blackpanda;
+
+import com.github.forax.tomahawk.schema.Layout;
+import com.github.forax.tomahawk.schema.SealPolicy;
+import com.github.forax.tomahawk.vec.ListVec;
+import com.github.forax.tomahawk.vec.StructVec;
+import com.github.forax.tomahawk.vec.U16Vec;
+import com.github.forax.tomahawk.vec.U1Vec;
+import com.github.forax.tomahawk.vec.U32Vec;
+import com.github.forax.tomahawk.vec.U64Vec;
+import org.junit.jupiter.api.Test;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
+
+import static com.github.forax.tomahawk.blackpanda.Aggregate.avg;
+import static com.github.forax.tomahawk.blackpanda.Aggregate.count;
+import static com.github.forax.tomahawk.blackpanda.Aggregate.max;
+import static com.github.forax.tomahawk.blackpanda.Aggregate.min;
+import static com.github.forax.tomahawk.blackpanda.Aggregate.sum;
+import static com.github.forax.tomahawk.blackpanda.Query.col;
+import static com.github.forax.tomahawk.schema.Layout.double64;
+import static com.github.forax.tomahawk.schema.Layout.field;
+import static com.github.forax.tomahawk.schema.Layout.int32;
+import static com.github.forax.tomahawk.schema.Layout.long64;
+import static com.github.forax.tomahawk.schema.Layout.string;
+import static com.github.forax.tomahawk.schema.Layout.struct;
+import static java.nio.file.Files.createTempDirectory;
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SuppressWarnings("static-method")
+public class QueryTest {
+  private static final Layout.StructLayout LAYOUT = struct(false,
+      field("name", string(false)),
+      field("city", string(true)),
+      field("age", int32(true)),
+      field("score", double64(false))
+  );
+
+  private static ListVec<U16Vec> strings(String... values) {
+    var offsets = new int[values.length + 1];
+    var builder = new StringBuilder();
+    var validity = new long[(values.length + 63) >>> 6];
+    for(var i = 0; i < values.length; i++) {
+      if (values[i] != null) {
+        builder.append(values[i]);
+        validity[i >>> 6] |= 1L << i;
+      }
+      offsets[i + 1] = builder.length();
+    }
+    return ListVec.from(U1Vec.wrap(validity), U32Vec.wrap(offsets), U16Vec.wrap(builder.toString().toCharArray()));
+  }
+
+  private static U32Vec ints(Integer... values) {
+    var data = new int[values.length];
+    var validity = new long[(values.length + 63) >>> 6];
+    for(var i = 0; i < values.length; i++) {
+      if (values[i] != null) {
+        data[i] = values[i];
+        validity[i >>> 6] |= 1L << i;
+      }
+    }
+    return U32Vec.wrap(data).withValidity(U1Vec.wrap(validity));
+  }
+
+  private static StructVec people() {
+    return StructVec.from(null,
+        strings("Bob", "Ana", "Joe", "Liz", "Tom", "Eva"),
+        strings("Paris", "Lyon", "Paris", null, "Lyon", "Paris"),
+        ints(25, 35, null, 42, 31, 19),
+        U64Vec.wrap(new double[] { 1.5, 2.0, 3.5, 4.0, 5.0, 6.5 }));
+  }
+
+  @Test
+  public void whereCount() {
+    try(var vec = people()) {
+      var query = Query.of(vec, LAYOUT);
+      assertAll(
+          () -> assertEquals(6, query.count()),
+          () -> assertEquals(3, query.where(col("age").gt(30)).count()),
+          () -> assertEquals(2, query.where(col("age").le(30)).count()),
+          () -> assertEquals(1, query.where(col("age").isNull()).count()),
+          () -> assertEquals(5, query.where(col("age").isNotNull()).count()),
+          () -> assertEquals(3, query.where(col("city").eq("Paris")).count()),
+          () -> assertEquals(2, query.where(col("city").eq("Paris").not()).count()),
+          () -> assertEquals(2, query.where(col("score").ge(5.0)).count()),
+          () -> assertEquals(0, query.where(col("age").gt(30)).where(col("city").eq("Lyon").not()).count()),
+          () -> assertEquals(5, query.where(col("age").lt(30).or(col("score").gt(3.0))).count())
+      );
+    }
+  }
+
+  @Test
+  public void threeValuedLogic() {
+    try(var vec = people()) {
+      var query = Query.of(vec, LAYOUT);
+      // the row with a null age is neither selected by a filter nor by its negation
+      assertAll(
+          () -> assertEquals(3, query.where(col("age").gt(30)).count()),
+          () -> assertEquals(2, query.where(col("age").gt(30).not()).count()),
+          () -> assertEquals(5, query.where(col("age").gt(30).or(col("score").gt(3.0))).count()),
+          () -> assertEquals(1, query.where(col("age").gt(30).not().and(col("score").gt(1.5))).count())
+      );
+    }
+  }
+
+  @Test
+  public void mask() {
+    try(var vec = people();
+        var mask = Query.of(vec, LAYOUT).where(col("age").gt(30)).mask()) {
+      assertAll(
+          () -> assertFalse(mask.getBoolean(0)),
+          () -> assertTrue(mask.getBoolean(1)),
+          () -> assertFalse(mask.getBoolean(2)),
+          () -> assertTrue(mask.getBoolean(3)),
+          () -> assertTrue(mask.getBoolean(4)),
+          () -> assertFalse(mask.getBoolean(5))
+      );
+    }
+  }
+
+  @Test
+  public void select() {
+    try(var vec = people();
+        var frame = Query.of(vec, LAYOUT).where(col("age").gt(30)).select("name", "city", "age")) {
+      assertAll(
+          () -> assertEquals(3, frame.length()),
+          () -> assertEquals(List.of("name", "city", "age"), frame.layout().fields().stream().map(Layout.Field::name).toList()),
+          () -> assertEquals("Ana", frame.get("name", 0)),
+          () -> assertEquals("Liz", frame.get("name", 1)),
+          () -> assertNull(frame.get("city", 1)),
+          () -> assertEquals(31, frame.get("age", 2)),
+          () -> assertEquals(Map.of("name", "Tom", "city", "Lyon", "age", 31), frame.rows().get(2))
+      );
+    }
+  }
+
+  @Test
+  public void selectAll() {
+    try(var vec = people();
+        var frame = Query.of(vec, LAYOUT).select("score", "age")) {
+      assertAll(
+          () -> assertEquals(6, frame.length()),
+          () -> assertEquals(6.5, frame.get("score", 5)),
+          () -> assertNull(frame.get("age", 2))
+      );
+    }
+  }
+
+  @Test
+  public void selectNothing() {
+    try(var vec = people();
+        var frame = Query.of(vec, LAYOUT).where(col("age").gt(100)).select("name", "age")) {
+      assertEquals(0, frame.length());
+      assertEquals(List.of(), frame.rows());
+    }
+  }
+
+  @Test
+  public void aggregate() {
+    try(var vec = people();
+        var frame = Query.of(vec, LAYOUT).aggregate(count(), count("age"), sum("age"), min("age"), max("score"), avg("age"))) {
+      assertAll(
+          () -> assertEquals(1, frame.length()),
+          () -> assertEquals(long64(false), frame.layout().fields().get(0).layout()),
+          () -> assertEquals(double64(true), frame.layout().fields().get(4).layout()),
+          () -> assertEquals(6L, frame.get("count", 0)),
+          () -> assertEquals(5L, frame.get("count_age", 0)),
+          () -> assertEquals(152L, frame.get("sum_age", 0)),
+          () -> assertEquals(19L, frame.get("min_age", 0)),
+          () -> assertEquals(6.5, frame.get("max_score", 0)),
+          () -> assertEquals(152.0 / 5, frame.get("avg_age", 0))
+      );
+    }
+  }
+
+  @Test
+  public void aggregateNoRow() {
+    try(var vec = people();
+        var frame = Query.of(vec, LAYOUT).where(col("age").gt(100)).aggregate(count(), sum("age"))) {
+      assertEquals(1, frame.length());
+      assertEquals(0L, frame.get("count", 0));
+      assertNull(frame.get("sum_age", 0));
+    }
+  }
+
+  @Test
+  public void groupBy() {
+    try(var vec = people();
+        var frame = Query.of(vec, LAYOUT).groupBy("city").aggregate(count(), sum("score").as("total"), max("age"))) {
+      assertAll(
+          () -> assertEquals(3, frame.length()),
+          () -> assertEquals(List.of(
+              Map.of("city", "Paris", "count", 3L, "total", 11.5, "max_age", 25L),
+              Map.of("city", "Lyon", "count", 2L, "total", 7.0, "max_age", 35L)
+          ), frame.rows().subList(0, 2)),
+          () -> assertNull(frame.get("city", 2)),
+          () -> assertEquals(1L, frame.get("count", 2)),
+          () -> assertEquals(42L, frame.get("max_age", 2))
+      );
+    }
+  }
+
+  @Test
+  public void groupByIntegralKey() {
+    var length = 10_000;
+    var layout = struct(false, field("key", int32(true)), field("value", int32(false)));
+    var keys = IntStream.range(0, length).mapToObj(i -> i % 7 == 0? null: i % 100).toArray(Integer[]::new);
+    var values = IntStream.range(0, length).boxed().toArray(Integer[]::new);
+    try(var vec = StructVec.from(null, ints(keys), ints(values));
+        var frame = Query.of(vec, layout).where(col("value").ge(1_000)).groupBy("key").aggregate(count(), sum("value"))) {
+      var expectedGroups = new HashSet<>(Arrays.asList(keys).subList(1_000, length));
+      assertEquals(expectedGroups.size(), frame.length());
+      for(var i = 0; i < frame.length(); i++) {
+        var key = (Integer) frame.get("key", i);
+        var expectedCount = IntStream.range(1_000, length).filter(v -> key == null? v % 7 == 0: v % 7 != 0 && v % 100 == key).count();
+        var expectedSum = IntStream.range(1_000, length).filter(v -> key == null? v % 7 == 0: v % 7 != 0 && v % 100 == key).asLongStream().sum();
+        assertEquals(expectedCount, frame.get("count", i));
+        assertEquals(expectedSum, frame.get("sum_value", i));
+      }
+    }
+  }
+
+  @Test
+  public void groupByCompositeKey() {
+    var length = 10_000;
+    var layout = struct(false, field("city", string(true)), field("score", double64(false)), field("value", int32(false)));
+    var cities = IntStream.range(0, length).mapToObj(i -> i % 5 == 0? null: "city" + i % 37).toArray(String[]::new);
+    var scores = IntStream.range(0, length).mapToDouble(i -> i % 3 * 0.5).toArray();
+    var values = IntStream.range(0, length).boxed().toArray(Integer[]::new);
+    try(var vec = StructVec.from(null, strings(cities), U64Vec.wrap(scores), ints(values));
+        var frame = Query.of(vec, layout).groupBy("city", "score").aggregate(count(), sum("value"))) {
+      var expectedCounts = new HashMap<List<Object>, Long>();
+      var expectedSums = new HashMap<List<Object>, Long>();
+      for(var i = 0; i < length; i++) {
+        var key = Arrays.<Object>asList(cities[i], scores[i]);
+        expectedCounts.merge(key, 1L, Long::sum);
+        expectedSums.merge(key, (long) i, Long::sum);
+      }
+      assertEquals(expectedCounts.size(), frame.length());
+      for(var i = 0; i < frame.length(); i++) {
+        var key = Arrays.asList(frame.get("city", i), frame.get("score", i));
+        assertEquals(expectedCounts.get(key), frame.get("count", i));
+        assertEquals(expectedSums.get(key), frame.get("sum_value", i));
+      }
+    }
+  }
+
+  @Test
+  public void largeFilter() {
+    var length = 100_000;
+    var layout = struct(false, field("value", long64(false)));
+    var data = IntStream.range(0, length).asLongStream().toArray();
+    try(var vec = StructVec.from(null, U64Vec.wrap(data));
+        var frame = Query.of(vec, layout).where(col("value").ge(10_000).and(col("value").lt(10_100).or(col("value").eq(99_999)))).select("value")) {
+      assertEquals(101, frame.length());
+      assertEquals(10_000L, frame.get("value", 0));
+      assertEquals(10_099L, frame.get("value", 99));
+      assertEquals(99_999L, frame.get("value", 100));
+    }
+  }
+
+  @Test
+  public void fusedPipeline() {
+    var length = 100_000;  // enough rows to compile the pipeline
+    var layout = struct(false, field("value", int32(true)), field("ratio", double64(false)));
+    var values = IntStream.range(0, length).mapToObj(i -> i % 3 == 0? null: i % 100).toArray(Integer[]::new);
+    var ratios = IntStream.range(0, length).mapToDouble(i -> i % 7 == 0? Double.NaN: i / 1_000.0).toArray();
+    try(var vec = StructVec.from(null, ints(values), U64Vec.wrap(ratios))) {
+      var query = Query.of(vec, layout);
+      var filters = List.of(
+          col("value").lt(10),
+          col("value").lt(10).not(),
+          col("value").isNull().or(col("ratio").ge(50.5)),
+          col("ratio").ne(1.0).and(col("value").ne(3)),
+          col("value").eq(5).or(col("value").eq(7)).not().and(col("ratio").le(99.0)));
+      for(var filter: filters) {
+        var filtered = query.where(filter);
+        try(var mask = filtered.mask();  // evaluated by the batch kernels
+            var frame = filtered.aggregate(count(), count("value"), sum("value"), min("value"), max("value"), avg("ratio"))) {
+          var rows = IntStream.range(0, length).filter(mask::getBoolean).toArray();
+          var nonNulls = Arrays.stream(rows).filter(i -> values[i] != null).map(i -> values[i]).toArray();
+          var row = frame.rows().get(0);
+          assertAll(
+              () -> assertEquals(rows.length, filtered.count()),
+              () -> assertEquals((long) rows.length, row.get("count")),
+              () -> assertEquals((long) nonNulls.length, row.get("count_value")),
+              () -> assertEquals(Arrays.stream(nonNulls).asLongStream().sum(), row.get("sum_value")),
+              () -> assertEquals((long) Arrays.stream(nonNulls).min().orElseThrow(), row.get("min_value")),
+              () -> assertEquals((long) Arrays.stream(nonNulls).max().orElseThrow(), row.get("max_value")),
+              () -> assertEquals(Arrays.stream(rows).mapToDouble(i -> ratios[i]).sum() / rows.length, (Double) row.get("avg_ratio"), 0.001)
+          );
+        }
+      }
+    }
+  }
+
+  @Test
+  public void errors() {
+    try(var vec = people()) {
+      var query = Query.of(vec, LAYOUT);
+      assertAll(
+          () -> assertThrows(IllegalStateException.class, () -> query.where(col("foo").gt(3)).count()),
+          () -> assertThrows(IllegalArgumentException.class, () -> query.where(col("name").gt(3)).count()),
+          () -> assertThrows(IllegalArgumentException.class, () -> query.where(col("age").eq("3")).count()),
+          () -> assertThrows(IllegalArgumentException.class, () -> query.aggregate(sum("name"))),
+          () -> assertThrows(IllegalArgumentException.class, () -> query.aggregate(count(), count())),
+          () -> assertThrows(IllegalArgumentException.class, () -> query.groupBy()),
+          () -> assertThrows(IllegalArgumentException.class, () -> query.select("name", "name"))
+      );
+    }
+  }
+
+  private static void deleteAll(Path directory) throws IOException {
+    try(var files = Files.walk(directory)) {
+      for(var path: files.sorted((p1, p2) -> p2.compareTo(p1)).toList()) {
+        Files.delete(path);
+      }
+    }
+  }
+
+  @Test
+  public void tableQuery() throws IOException {
+    var directory = createTempDirectory("query");
+    Closeable andClean = () -> deleteAll(directory);
+    try(andClean) {
+      var csv = directory.resolve("people.csv");
+      Files.writeString(csv, """
+          name,age,city
+          Bob,25,Paris
+          Ana,35,Lyon
+          Joe,,Paris
+          Liz,42,Lyon
+          """);
+      Files.createDirectories(directory.resolve("people.table"));
+      try(var table = DB.of(directory, "db").table("people")) {
+        table.importCSV(csv);
+        assertEquals(2, table.where(col("age").gt(30)).count());
+        try(var frame = table.where(col("age").gt(30)).select("name")) {
+          assertEquals(List.of(Map.of("name", "Ana"), Map.of("name", "Liz")), frame.rows());
+        }
+        try(var frame = table.groupBy("city").aggregate(count(), avg("age"))) {
+          assertEquals(List.of(
+              Map.of("city", "Paris", "count", 2L, "avg_age", 25.0),
+              Map.of("city", "Lyon", "count", 2L, "avg_age", 38.5)
+          ), frame.rows());
+        }
+      }
+    }
+  }
+
+  @Test
+  public void tableImportColumns() throws IOException {
+    var directory = createTempDirectory("query");
+    Closeable andClean = () -> deleteAll(directory);
+    try(andClean) {
+      var csv = directory.resolve("people.csv");
+      Files.writeString(csv, """
+          name,age,city
+          Bob,25,Paris
+          Ana,35,Lyon
+          """);
+      Files.createDirectories(directory.resolve("people.table"));
+      try(var table = DB.of(directory, "db").table("people")) {
+        table.importCSV(csv, "age", "name");
+        assertThrows(IllegalStateException.class, () -> table.col("city"));
+        try(var frame = table.where(col("age").gt(30)).select("name")) {
+          assertEquals(List.of(Map.of("name", "Ana")), frame.rows());
+        }
+      }
+    }
+  }
+
+  @Test
+  public void tableImportColumnsIntoExistingTable() throws IOException {
+    var directory = createTempDirectory("query");
+    Closeable andClean = () -> deleteAll(directory);
+    try(andClean) {
+      var csv = directory.resolve("people.csv");
+      Files.writeString(csv, """
+          name,age,city
+          Bob,25,Paris
+          Ana,35,Lyon
+          """);
+      var jsonLines = directory.resolve("people.jsonl");
+      Files.writeString(jsonLines, """
+          { "name": "Bob", "age": 25, "city": "Paris" }
+          { "name": "Ana", "age": 35, "city": "Lyon" }
+          """);
+      Files.createDirectories(directory.resolve("people.table"));
+      Files.createDirectories(directory.resolve("people2.table"));
+      var db = DB.of(directory, "db");
+      try(var table = db.table("people");
+          var table2 = db.table("people2")) {
+        table.importCSV(csv, "city");
+        table.importCSV(csv, "age", "name");
+        table2.importJSONLines(jsonLines, "age");  // empty layout
+        table2.importJSONLines(jsonLines, "city", "name");
+        for(var t: List.of(table, table2)) {
+          try(var frame = t.where(col("age").gt(30)).select("name", "city")) {
+            assertEquals(List.of(Map.of("name", "Ana", "city", "Lyon")), frame.rows());
+          }
+        }
+        assertThrows(IllegalArgumentException.class, () -> table2.importJSONLines(jsonLines, "unknown"));
+      }
+    }
+  }
+
+  @Test
+  public void tableParallelQuery() throws IOException {
+    var directory = createTempDirectory("query");
+    Closeable andClean = () -> deleteAll(directory);
+    try(andClean) {
+      var length = 300_000;  // several morsels
+      var csv = directory.resolve("values.csv");
+      var builder = new StringBuilder("id,key,value\n");
+      for(var i = 0; i < length; i++) {
+        builder.append(1_000_000 + i).append(',').append(i % 7).append(',').append(i % 10 == 0? "": "" + i % 1_000).append('\n');
+      }
+      Files.writeString(csv, builder);
+      Files.createDirectories(directory.resolve("values.table"));
+      try(var table = DB.of(directory, "db").table("values")) {
+        table.importCSV(csv);
+        var query = table.where(col("value").ge(990));
+        var expected = IntStream.range(0, length).filter(i -> i % 10 != 0 && i % 1_000 >= 990).boxed().toList();
+        assertEquals(expected.size(), query.count());
+        assertEquals(expected.size(), query.parallel(1).count());
+        try(var mask = query.parallel(4).mask()) {
+          assertEquals(expected, IntStream.range(0, length).filter(mask::getBoolean).boxed().toList());
+        }
+        try(var frame = query.parallel(4).select("id")) {
+          assertEquals(expected, frame.rows().stream().map(row -> (Integer) row.get("id") - 1_000_000).toList());
+        }
+        try(var frame = table.query().parallel(4).groupBy("key").aggregate(count(), count("value"), sum("value"), min("value"), max("value"));
+            var sequential = table.query().parallel(1).groupBy("key").aggregate(count(), count("value"), sum("value"), min("value"), max("value"))) {
+          assertEquals(sequential.rows(), frame.rows());
+          assertEquals(IntStream.range(0, 7).boxed().toList(), frame.rows().stream().map(row -> ((Number) row.get("key")).intValue()).toList());
+          assertEquals((long) length, frame.rows().stream().mapToLong(row -> (Long) row.get("count")).sum());
+        }
+        try(var frame = table.query().parallel(4).aggregate(count("value"), max("value"))) {
+          assertEquals(Map.of("count_value", length - length / 10L, "max_value", 999L), frame.rows().get(0));
+        }
+        assertThrows(IllegalArgumentException.class, () -> table.query().parallel(0));
+      }
+    }
+  }
+
+  @Test
+  public void tableIngestUnmapsRetiredColumns() throws IOException, InterruptedException, ExecutionException {
+    var directory = createTempDirectory("query");
+    Closeable andClean = () -> deleteAll(directory);
+    try(andClean) {
+      var builder = new StringBuilder("id,value\n");
+      for(var i = 0; i < 20_000; i++) {
+        builder.append(i).append(',').append(i % 100).append('\n');
+      }
+      Files.createDirectories(directory.resolve("values.table"));
+      var layout = struct(false, field("id", int32(false)), field("value", int32(false)));
+      try(var table = DB.of(directory, "db").table("values", layout)) {
+        var done = new AtomicBoolean();
+        var reader = new FutureTask<Void>(() -> {  // queries the table while the chunks are sealed
+          while(!done.get()) {
+            var query = table.where(col("value").lt(50));
+            assertTrue(query.count() <= table.length());
+          }
+          return null;
+        });
+        var seals = new int[1];
+        var maxRetiredCount = new int[1];
+        table.ingestCSV(new StringReader(builder.toString()), SealPolicy.of(100, Long.MAX_VALUE), t -> {
+          if (seals[0]++ == 0) {
+            new Thread(reader).start();
+          }
+          maxRetiredCount[0] = Math.max(maxRetiredCount[0], t.retiredCount());
+        });
+        done.set(true);
+        reader.get();  // rethrows the failure of the reader
+        assertAll(
+            () -> assertEquals(200, seals[0]),
+            () -> assertTrue(maxRetiredCount[0] <= 1),  // at most one query in flight
+            () -> assertEquals(0, table.retiredCount()),
+            () -> assertEquals(20_000, table.length()),
+            () -> assertEquals(10_000, table.where(col("value").lt(50)).count())
+        );
+      }
+    }
+  }
+}
\ No newline at end of file
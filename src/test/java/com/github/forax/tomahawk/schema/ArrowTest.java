@@ -0,0 +1,184 @@
+package com.github.forax.tomahawk.schema;
+
+import com.github.forax.tomahawk.schema.Layout.StructLayout;
+import com.github.forax.tomahawk.vec.ListVec;
+import com.github.forax.tomahawk.vec.StructVec;
+import com.github.forax.tomahawk.vec.U16Vec;
+import com.github.forax.tomahawk.vec.U1Vec;
+import com.github.forax.tomahawk.vec.U32Vec;
+import com.github.forax.tomahawk.vec.U64Vec;
+import com.github.forax.tomahawk.vec.ValuesBox;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static com.github.forax.tomahawk.schema.Layout.double64;
+import static com.github.forax.tomahawk.schema.Layout.field;
+import static com.github.forax.tomahawk.schema.Layout.int32;
+import static com.github.forax.tomahawk.schema.Layout.list;
+import static com.github.forax.tomahawk.schema.Layout.string;
+import static com.github.forax.tomahawk.schema.Layout.struct;
+import static com.github.forax.tomahawk.schema.Layout.u1;
+import static java.nio.file.Files.createTempDirectory;
+import static java.nio.file.Files.delete;
+import static java.nio.file.Files.list;
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@SuppressWarnings("static-method")
+public class ArrowTest {
+  private static final StructLayout LAYOUT = struct(false,
+      field("id",     int32(false)),
+      field("name",   string(true)),
+      field("price",  double64(true)),
+      field("admin",  u1(false)),
+      field("scores", list(true, int32(false))),
+      field("address", struct(true,
+          field("city", string(true))
+      ))
+  );
+
+  private static void fetch(Path directory) throws IOException {
+    var json = IntStream.range(0, 100)
+        .mapToObj(i -> i % 10 == 0?
+            "{ \"id\": " + i + ", \"admin\": false, \"address\": null }":
+            "{ \"id\": " + i + ", \"name\": \"n\u00e9" + i + "\", \"price\": " + i + ".5, \"admin\": " + (i % 2 == 0) +
+                ", \"scores\": [" + i + ", " + (i + 1) + "], \"address\": { \"city\": \"city" + i + "\" } }")
+        .collect(Collectors.joining("\n", "", "\n"));
+    var path = directory.resolve("data.ndjson");
+    Files.writeString(path, json);
+    JSON.fetchLines(path, LAYOUT, directory, "table", 2);
+    delete(path);
+  }
+
+  private static void check(StructVec vec) {
+    var id = (U32Vec) vec.fields().get(0);
+    var name = vec.fields().get(1).asListOf(U16Vec.class);
+    var price = (U64Vec) vec.fields().get(2);
+    var admin = (U1Vec) vec.fields().get(3);
+    var scores = vec.fields().get(4).asListOf(U32Vec.class);
+    var address = vec.fields().get(5).asStruct();
+    var city = address.fields().get(0).asListOf(U16Vec.class);
+    var box = new ValuesBox();
+    for(var i = 0; i < 100; i++) {
+      assertEquals(i, id.getInt(i));
+      if (i % 10 == 0) {
+        assertEquals(null, name.getString(i));
+        assertEquals(true, price.isNull(i));
+        assertEquals(false, admin.getBoolean(i));
+        assertEquals(true, scores.isNull(i));
+        assertEquals(true, address.isNull(i));
+      } else {
+        assertEquals("n\u00e9" + i, name.getString(i));
+        assertEquals(i + .5, price.getDouble(i));
+        assertEquals(i % 2 == 0, admin.getBoolean(i));
+        scores.getValues(i, box);
+        assertArrayEquals(new int[] { i, i + 1 }, box.intArray(scores.element()));
+        assertEquals(false, address.isNull(i));
+        assertEquals("city" + i, city.getString(i));
+      }
+    }
+  }
+
+  @Test
+  public void exportAndMap() throws IOException {
+    var directory = createTempDirectory("arrow");
+    Closeable andClean = () -> {
+      for (var temp : list(directory).toList()) {
+        delete(temp);
+      }
+      delete(directory);
+    };
+    try(andClean) {
+      fetch(directory);
+      var path = directory.resolve("table.arrow");
+      Arrow.export(directory, "table", LAYOUT, path);
+      assertEquals(LAYOUT, Arrow.layout(path));
+      try(var recordBatches = Arrow.map(path)) {
+        assertEquals(1, recordBatches.batches().size());
+        check(recordBatches.batches().get(0));
+      }
+    }
+  }
+
+  @Test
+  public void exportStreamAndRead() throws IOException {
+    var directory = createTempDirectory("arrow");
+    Closeable andClean = () -> {
+      for (var temp : list(directory).toList()) {
+        delete(temp);
+      }
+      delete(directory);
+    };
+    try(andClean) {
+      fetch(directory);
+      var output = new ByteArrayOutputStream();
+      Arrow.exportStream(directory, "table", LAYOUT, output);
+      try(var recordBatches = Arrow.readStream(new ByteArrayInputStream(output.toByteArray()))) {
+        assertEquals(LAYOUT, recordBatches.layout());
+        assertEquals(1, recordBatches.batches().size());
+        check(recordBatches.batches().get(0));
+      }
+    }
+  }
+
+  @Test
+  public void exportLongStrings() throws IOException {
+    var directory = createTempDirectory("arrow");
+    Closeable andClean = () -> {
+      for (var temp : list(directory).toList()) {
+        delete(temp);
+      }
+      delete(directory);
+    };
+    try(andClean) {
+      var layout = struct(false, field("text", string(false)));
+      try(var builder = (StructVec.Builder) Layout.builder(directory, "table", layout)) {
+        @SuppressWarnings("unchecked")
+        var textBuilder = (ListVec.Builder<U16Vec, U16Vec.Builder>) builder.fieldBuilders().get(0);
+        for(var i = 0; i < 100; i++) {
+          var text = ("\u00e9" + i).repeat(1_000);  // the encoded texts do not fit in one chunk
+          builder.appendRow(row -> row.appendString(textBuilder, text));
+        }
+      }
+      var path = directory.resolve("table.arrow");
+      Arrow.export(directory, "table", layout, path);
+      var output = new ByteArrayOutputStream();
+      Arrow.exportStream(directory, "table", layout, output);
+      try(var mapped = Arrow.map(path);   // the texts are decoded, so the body is not used
+          var read = Arrow.readStream(new ByteArrayInputStream(output.toByteArray()))) {
+        for(var recordBatches: List.of(mapped, read)) {
+          var text = recordBatches.batches().get(0).fields().get(0).asListOf(U16Vec.class);
+          assertEquals(100, text.length());
+          for(var i = 0; i < 100; i++) {
+            assertEquals(("\u00e9" + i).repeat(1_000), text.getString(i));
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void mapNotAnArrowFile() throws IOException {
+    var path = Files.createTempFile("arrow", "");
+    try {
+      Files.writeString(path, "this is not an arrow file");
+      assertAll(
+          () -> assertThrows(IllegalArgumentException.class, () -> Arrow.map(path)),
+          () -> assertThrows(IOException.class, () -> Arrow.readStream(new ByteArrayInputStream(Files.readAllBytes(path))))
+      );
+    } finally {
+      Files.deleteIfExists(path);
+    }
+  }
+}
@@ -1,24 +1,57 @@
 package com.github.forax.tomahawk.schema;
 
 import com.github.forax.tomahawk.schema.Layout.StructLayout;
+import com.github.forax.tomahawk.vec.AsyncWriteOption;
 import com.github.forax.tomahawk.vec.TextWrap;
 import com.github.forax.tomahawk.vec.U16Vec;
+import com.github.forax.tomahawk.vec.U1Vec;
+import com.github.forax.tomahawk.vec.U32Vec;
+import com.github.forax.tomahawk.vec.U64Vec;
+import com.github.forax.tomahawk.vec.U8Vec;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.PipedReader;
+import java.io.PipedWriter;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
+import static com.github.forax.tomahawk.schema.Layout.byte8;
+import static com.github.forax.tomahawk.schema.Layout.char16;
 import static com.github.forax.tomahawk.schema.Layout.double64;
 import static com.github.forax.tomahawk.schema.Layout.field;
+import static com.github.forax.tomahawk.schema.Layout.float32;
 import static com.github.forax.tomahawk.schema.Layout.int32;
+import static com.github.forax.tomahawk.schema.Layout.long64;
+import static com.github.forax.tomahawk.schema.Layout.short16;
 import static com.github.forax.tomahawk.schema.Layout.string;
 import static com.github.forax.tomahawk.schema.Layout.struct;
+import static com.github.forax.tomahawk.schema.Layout.u1;
 import static java.nio.file.Files.createTempDirectory;
 import static java.nio.file.Files.delete;
 import static java.nio.file.Files.list;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static org.junit.jupiter.api.Assertions.assertAll;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @SuppressWarnings("static-method")
 public class CSVTest {
@@ -88,4 +121,578 @@ public class CSVTest {
       }
     }
   }
-}
\ No newline at end of file
+
+  @Test
+  public void fetchAsync() throws IOException {
+    var layout = struct(false,
+        field("id",   int32(true)),
+        field("name", string(false))
+    );
+    var directory = createTempDirectory("async");
+    Closeable andClean = () -> {
+      for (var temp : list(directory).toList()) {
+        delete(temp);
+      }
+      delete(directory);
+    };
+    try(andClean) {
+      var csv = IntStream.range(0, 10_000)
+          .mapToObj(i -> (i % 3 == 0? "": "" + i) + ",name" + i)
+          .collect(Collectors.joining("\n", "id,name\n", "\n"));
+      CSV.fetch(csv, layout, directory, "async", AsyncWriteOption.of(4_096, 2));
+      try(var vec = Layout.map(directory, "async", layout).asStruct()) {
+        var id = (U32Vec) vec.fields().get(layout.fieldIndex("id"));
+        var name = vec.fields().get(layout.fieldIndex("name")).asListOf(U16Vec.class);
+        assertEquals(10_000, vec.length());
+        for(var i = 0; i < 10_000; i++) {
+          assertEquals(i % 3 == 0, id.isNull(i));
+          if (i % 3 != 0) {
+            assertEquals(i, id.getInt(i));
+          }
+          assertEquals("name" + i, name.getString(i));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void fetchAppend() throws IOException {
+    var layout = struct(false,
+        field("id",   int32(true)),
+        field("name", string(true))
+    );
+    var directory = createTempDirectory("append");
+    Closeable andClean = () -> {
+      for (var temp : list(directory).toList()) {
+        delete(temp);
+      }
+      delete(directory);
+    };
+    try(andClean) {
+      for(var start = 0; start < 200; start += 100) {  // 100 is not a multiple of 64
+        var csv = IntStream.range(start, start + 100)
+            .mapToObj(i -> i % 5 == 0? ",": i + ",name" + i)
+            .collect(Collectors.joining("\n", "id,name\n", "\n"));
+        CSV.fetch(csv, layout, directory, "append", CREATE, APPEND);
+      }
+      try(var vec = Layout.map(directory, "append", layout).asStruct()) {
+        var id = (U32Vec) vec.fields().get(layout.fieldIndex("id"));
+        var name = vec.fields().get(layout.fieldIndex("name")).asListOf(U16Vec.class);
+        assertEquals(200, vec.length());
+        for(var i = 0; i < 200; i++) {
+          if (i % 5 == 0) {
+            assertEquals(true, id.isNull(i));
+            assertEquals(null, name.getString(i));
+          } else {
+            assertEquals(i, id.getInt(i));
+            assertEquals("name" + i, name.getString(i));
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void ingest() throws IOException {
+    var layout = struct(false,
+        field("id",   int32(true)),
+        field("name", string(true))
+    );
+    var directory = createTempDirectory("ingest");
+    Closeable andClean = () -> {
+      for (var temp : list(directory).toList()) {
+        delete(temp);
+      }
+      delete(directory);
+    };
+    try(andClean) {
+      var csv = IntStream.range(0, 250)
+          .mapToObj(i -> i % 5 == 0? ",": i + ",name" + i)
+          .collect(Collectors.joining("\n", "id,name\n", "\n"));
+      var lengths = new ArrayList<Long>();
+      CSV.ingest(new StringReader(csv), layout, directory, "ingest", SealPolicy.of(100, Long.MAX_VALUE), length -> {
+        try(var vec = Layout.map(directory, "ingest", layout).asStruct()) {  // the sealed rows are visible
+          assertEquals(length, vec.length());
+          var id = (U32Vec) vec.fields().get(layout.fieldIndex("id"));
+          assertEquals(length - 1, id.getInt(length - 1));
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+        lengths.add(length);
+      });
+      assertEquals(List.of(100L, 200L, 250L), lengths);
+      try(var vec = Layout.map(directory, "ingest", layout).asStruct()) {
+        var id = (U32Vec) vec.fields().get(layout.fieldIndex("id"));
+        var name = vec.fields().get(layout.fieldIndex("name")).asListOf(U16Vec.class);
+        assertEquals(250, vec.length());
+        for(var i = 0; i < 250; i++) {
+          if (i % 5 == 0) {
+            assertEquals(true, id.isNull(i));
+            assertEquals(null, name.getString(i));
+          } else {
+            assertEquals(i, id.getInt(i));
+            assertEquals("name" + i, name.getString(i));
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void ingestSealedByTimer() throws IOException, InterruptedException, ExecutionException, TimeoutException {
+    var layout = struct(false, field("id", int32(false)));
+    var directory = createTempDirectory("ingest");
+    Closeable andClean = () -> {
+      for (var temp : list(directory).toList()) {
+        delete(temp);
+      }
+      delete(directory);
+    };
+    try(andClean) {
+      var writer = new PipedWriter();
+      var reader = new PipedReader(writer);
+      var lengths = new LinkedBlockingQueue<Long>();
+      var ingestion = CompletableFuture.runAsync(() -> {
+        try {
+          CSV.ingest(reader, layout, directory, "ingest", SealPolicy.of(1_000, 50), lengths::add);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+      writer.write("id\n1\n2\n3\n");
+      writer.flush();
+      var length = lengths.poll(10, TimeUnit.SECONDS);  // the stream blocks, the rows are sealed by the timer
+      assertNotNull(length);
+      assertTrue(length >= 2);  // the parser may wait for the next character to end the last row
+      try(var vec = Layout.map(directory, "ingest", layout).asStruct()) {
+        assertEquals(length, vec.length());
+      }
+      writer.write("4\n5\n");
+      writer.close();
+      ingestion.get(10, TimeUnit.SECONDS);
+      try(var vec = Layout.map(directory, "ingest", layout).asStruct()) {
+        var id = (U32Vec) vec.fields().get(0);
+        assertAll(
+            () -> assertEquals(5, vec.length()),
+            () -> assertEquals(5, id.getInt(4))
+        );
+      }
+    }
+  }
+
+  @Test
+  public void export() throws IOException {
+    var layout = struct(false,
+        field("id",      int32(true)),
+        field("comment", string(true)),
+        field("price",   double64(false)),
+        field("sold",    u1(false))
+    );
+    var csv = """
+        id,comment,price,sold
+        1,plain,12.5,true
+        ,"with, comma",-3.0,false
+        -2147483648,"with ""quote""\",1.0E-5,true
+        42,,100000.0,false
+        7,\u00e9t\u00e9 \uD83D\uDE00,0.0,true
+        """;
+    var directory = createTempDirectory("export");
+    Closeable andClean = () -> {
+      for (var temp : list(directory).toList()) {
+        delete(temp);
+      }
+      delete(directory);
+    };
+    try(andClean) {
+      CSV.fetch(csv, layout, directory, "export");
+      try(var vec = Layout.map(directory, "export", layout).asStruct()) {
+        var output = new ByteArrayOutputStream();
+        CSV.export(vec, layout, output);
+        assertEquals(csv, output.toString(StandardCharsets.UTF_8));
+      }
+    }
+  }
+
+  @Test
+  public void exportDecimalEdgeValues() throws IOException {
+    var layout = struct(false,
+        field("double", double64(false)),
+        field("float",  float32(false))
+    );
+    var values = new double[] {
+        1e-7, 1e21, 1e7, 9999999.0, 1e-3, 0.001, 9.999e-4, 0.1, 1.0 / 3,
+        Double.MIN_VALUE, 3 * Double.MIN_VALUE, 2.2250738585072009E-308,
+        Double.MIN_NORMAL, Double.MAX_VALUE, Math.PI, -0.0, 0.0, -1.5,
+        Float.MIN_VALUE, Float.MAX_VALUE, 1.17549421E-38, 3.4e-45, 2.0E-44
+    };
+    var csv = Arrays.stream(values)
+        .mapToObj(value -> Double.toString(value) + "," + Float.toString((float) value))
+        .collect(Collectors.joining("\n", "double,float\n", "\n"))
+        // Double.toString() and Float.toString() are not the shortest for those values before JDK 19
+        + """
+        1.0E23,1.0E23
+        2.0E23,2.0E23
+        9.9E-324,0.0
+        9.9E-323,0.0
+        1.23456789E8,1.2345679E8
+        9.007199254740992E15,9.007199E15
+        1.1754943508222875E-38,1.1754944E-38
+        """;
+    var directory = createTempDirectory("export-decimal");
+    Closeable andClean = () -> {
+      for (var temp : list(directory).toList()) {
+        delete(temp);
+      }
+      delete(directory);
+    };
+    try(andClean) {
+      CSV.fetch(csv, layout, directory, "export");
+      try(var vec = Layout.map(directory, "export", layout).asStruct()) {
+        var output = new ByteArrayOutputStream();
+        CSV.export(vec, layout, output);
+        assertEquals(csv, output.toString(StandardCharsets.UTF_8));
+      }
+    }
+  }
+
+  @Test
+  public void exportDecimalRoundTrip() throws IOException {
+    var layout = struct(false,
+        field("double", double64(false)),
+        field("float",  float32(false))
+    );
+    var random = new Random(0);
+    var doubles = new ArrayList<Double>();
+    var floats = new ArrayList<Float>();
+    while(doubles.size() < 10_000) {
+      var value = Double.longBitsToDouble(random.nextLong());
+      var floatValue = Float.intBitsToFloat(random.nextInt());
+      if (Double.isFinite(value) && Float.isFinite(floatValue)) {
+        doubles.add(value);
+        floats.add(floatValue);
+      }
+    }
+    var csv = IntStream.range(0, doubles.size())
+        .mapToObj(i -> doubles.get(i) + "," + floats.get(i))
+        .collect(Collectors.joining("\n", "double,float\n", "\n"));
+    var directory = createTempDirectory("export-decimal");
+    Closeable andClean = () -> {
+      for (var temp : list(directory).toList()) {
+        delete(temp);
+      }
+      delete(directory);
+    };
+    try(andClean) {
+      CSV.fetch(csv, layout, directory, "export");
+      try(var vec = Layout.map(directory, "export", layout).asStruct()) {
+        var output = new ByteArrayOutputStream();
+        CSV.export(vec, layout, output);
+        var lines = output.toString(StandardCharsets.UTF_8).lines().skip(1).toList();
+        assertEquals(doubles.size(), lines.size());
+        for(var i = 0; i < lines.size(); i++) {
+          var line = lines.get(i);
+          var comma = line.indexOf(',');
+          var doubleText = line.substring(0, comma);
+          var floatText = line.substring(comma + 1);
+          var index = i;
+          assertAll(
+              () -> assertEquals(doubles.get(index), Double.parseDouble(doubleText)),
+              () -> assertEquals(floats.get(index), Float.parseFloat(floatText)),
+              // the shortest decimal is never longer than the one of the JDK
+              () -> assertTrue(doubleText.length() <= doubles.get(index).toString().length(), doubleText),
+              () -> assertTrue(floatText.length() <= floats.get(index).toString().length(), floatText)
+          );
+        }
+      }
+    }
+  }
+
+  @Test
+  public void exportFetchEmptyTextAndNull() throws IOException {
+    var layout = struct(false,
+        field("id",      int32(false)),
+        field("comment", string(true))
+    );
+    var csv = """
+        id,comment
+        1,""
+        2,
+        3,text
+        """;
+    var directory = createTempDirectory("export-empty");
+    Closeable andClean = () -> {
+      for (var temp : list(directory).toList()) {
+        delete(temp);
+      }
+      delete(directory);
+    };
+    try(andClean) {
+      CSV.fetch(csv, layout, directory, "reader");
+      var path = directory.resolve("data.csv");
+      try(var vec = Layout.map(directory, "reader", layout).asStruct()) {
+        CSV.export(vec, layout, path);
+      }
+      assertEquals(csv, Files.readString(path));
+      CSV.fetch(path, layout, directory, "tokenizer");
+      for(var name: List.of("reader", "tokenizer")) {
+        try(var vec = Layout.map(directory, name, layout).asStruct()) {
+          var comment = vec.fields().get(1).asListOf(U16Vec.class);
+          assertAll(
+              () -> assertEquals(3, vec.length()),
+              () -> assertEquals(false, comment.isNull(0)),
+              () -> assertEquals("", comment.getString(0)),
+              () -> assertEquals(true, comment.isNull(1)),
+              () -> assertEquals("text", comment.getString(2))
+          );
+        }
+      }
+    }
+  }
+
+  @Test
+  public void fetchParallel() throws IOException {
+    var layout = struct(false,
+        field("id",      int32(true)),
+        field("comment", string(true)),
+        field("price",   double64(false))
+    );
+    var directory = createTempDirectory("parallel");
+    Closeable andClean = () -> {
+      for (var temp : list(directory).toList()) {
+        delete(temp);
+      }
+      delete(directory);
+    };
+    try(andClean) {
+      var csv = IntStream.range(0, 1_000)
+          .mapToObj(i -> (i % 7 == 0? "": "" + i) + ",\"line " + i + "\nwith \"\"quotes\"\", and a newline\"," + i / 2.0)
+          .collect(Collectors.joining("\n", "id,comment,price\n", "\n"));
+      var path = directory.resolve("data.csv");
+      Files.writeString(path, csv);
+      CSV.fetchParallel(path, layout, directory, "parallel", 4);
+      delete(path);
+      try(var vec = Layout.map(directory, "parallel", layout).asStruct()) {
+        var id = (U32Vec) vec.fields().get(0);
+        var comment = vec.fields().get(1).asListOf(U16Vec.class);
+        var price = (U64Vec) vec.fields().get(2);
+        assertEquals(1_000, vec.length());
+        for(var i = 0; i < 1_000; i++) {
+          if (i % 7 == 0) {
+            assertEquals(true, id.isNull(i));
+          } else {
+            assertEquals(i, id.getInt(i));
+          }
+          assertEquals("line " + i + "\nwith \"quotes\", and a newline", comment.getString(i));
+          assertEquals(i / 2.0, price.getDouble(i));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void fetchParallelProjection() throws IOException {
+    var layout = struct(false,
+        field("id",    int32(false)),
+        field("price", double64(false))
+    );
+    var directory = createTempDirectory("projection");
+    Closeable andClean = () -> {
+      for (var temp : list(directory).toList()) {
+        delete(temp);
+      }
+      delete(directory);
+    };
+    try(andClean) {
+      // the skipped columns are not valid numbers and contain quotes, they are never decoded
+      var csv = IntStream.range(0, 1_000)
+          .mapToObj(i -> i + ",\"not, a \"\"number\"\"\",x" + i + "," + i / 2.0)
+          .collect(Collectors.joining("\n", "id,comment,code,price\n", "\n"));
+      var path = directory.resolve("data.csv");
+      Files.writeString(path, csv);
+      CSV.fetchParallel(path, layout, header -> !header.equals("comment") && !header.equals("code"), directory, "projection", 4);
+      delete(path);
+      try(var vec = Layout.map(directory, "projection", layout).asStruct()) {
+        var id = (U32Vec) vec.fields().get(0);
+        var price = (U64Vec) vec.fields().get(1);
+        assertEquals(1_000, vec.length());
+        for(var i = 0; i < 1_000; i++) {
+          assertEquals(i, id.getInt(i));
+          assertEquals(i / 2.0, price.getDouble(i));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void fetchProjectionUnknownColumn() throws IOException {
+    var layout = struct(false,
+        field("id", int32(false))
+    );
+    var directory = createTempDirectory("projection");
+    Closeable andClean = () -> {
+      for (var temp : list(directory).toList()) {
+        delete(temp);
+      }
+      delete(directory);
+    };
+    try(andClean) {
+      var path = directory.resolve("data.csv");
+      Files.writeString(path, "id,price\n1,2.0\n");
+      assertThrows(IOException.class, () -> CSV.fetch(path, layout, __ -> true, directory, "projection"));
+    }
+  }
+
+  @Test
+  public void fetchMappedFile() throws IOException {
+    var csv = "name,flag,letter,small,count,ratio,total,score\r\n"
+        + "\"caf\u00e9 \"\"\ud83d\ude00\"\"\",TRUE,\u00e9,-128,-2147483648,1.5e3,9223372036854775807,0.1\r\n"
+        + ",false,x,127,2147483647,-0.25,-9223372036854775808,12345678901234567890.5\r\n"
+        + "plain,,,,,,,\r\n";
+    var layout = struct(false,
+        field("name",   string(true)),
+        field("flag",   u1(true)),
+        field("letter", char16(true)),
+        field("small",  byte8(true)),
+        field("count",  int32(true)),
+        field("ratio",  float32(true)),
+        field("total",  long64(true)),
+        field("score",  double64(true))
+    );
+    var directory = createTempDirectory("mapped");
+    Closeable andClean = () -> {
+      for (var temp : list(directory).toList()) {
+        delete(temp);
+      }
+      delete(directory);
+    };
+    try(andClean) {
+      var path = directory.resolve("data.csv");
+      Files.writeString(path, csv);
+      CSV.fetch(path, layout, directory, "mapped");
+      delete(path);
+      try(var vec = Layout.map(directory, "mapped", layout).asStruct()) {
+        var fields = vec.fields();
+        var name = fields.get(0).asListOf(U16Vec.class);
+        var flag = (U1Vec) fields.get(1);
+        var letter = (U16Vec) fields.get(2);
+        var small = (U8Vec) fields.get(3);
+        var count = (U32Vec) fields.get(4);
+        var ratio = (U32Vec) fields.get(5);
+        var total = (U64Vec) fields.get(6);
+        var score = (U64Vec) fields.get(7);
+        assertAll(
+            () -> assertEquals(3, vec.length()),
+            () -> assertEquals("caf\u00e9 \"\ud83d\ude00\"", name.getString(0)),
+            () -> assertEquals(null, name.getString(1)),
+            () -> assertEquals("plain", name.getString(2)),
+            () -> assertEquals(true, flag.getBoolean(0)),
+            () -> assertEquals(false, flag.getBoolean(1)),
+            () -> assertEquals(true, flag.isNull(2)),
+            () -> assertEquals('\u00e9', letter.getChar(0)),
+            () -> assertEquals('x', letter.getChar(1)),
+            () -> assertEquals(-128, small.getByte(0)),
+            () -> assertEquals(127, small.getByte(1)),
+            () -> assertEquals(Integer.MIN_VALUE, count.getInt(0)),
+            () -> assertEquals(Integer.MAX_VALUE, count.getInt(1)),
+            () -> assertEquals(1.5e3f, ratio.getFloat(0)),
+            () -> assertEquals(-0.25f, ratio.getFloat(1)),
+            () -> assertEquals(Long.MAX_VALUE, total.getLong(0)),
+            () -> assertEquals(Long.MIN_VALUE, total.getLong(1)),
+            () -> assertEquals(0.1, score.getDouble(0)),
+            () -> assertEquals(12345678901234567890.5, score.getDouble(1)),
+            () -> assertEquals(true, score.isNull(2))
+        );
+      }
+    }
+  }
+
+  @Test
+  public void fetchMappedFileInvalid() throws IOException {
+    var layout = struct(false,
+        field("a", int32(false)),
+        field("b", int32(false))
+    );
+    var directory = createTempDirectory("invalid");
+    Closeable andClean = () -> {
+      for (var temp : list(directory).toList()) {
+        delete(temp);
+      }
+      delete(directory);
+    };
+    try(andClean) {
+      var path = directory.resolve("data.csv");
+      Files.writeString(path, "a,b\n1\n");
+      assertThrows(IOException.class, () -> CSV.fetch(path, layout, directory, "invalid"));
+      Files.writeString(path, "a,b\n1,2,3\n");
+      assertThrows(IOException.class, () -> CSV.fetch(path, layout, directory, "invalid"));
+      Files.writeString(path, "a,b\n1,2147483648\n");
+      assertThrows(NumberFormatException.class, () -> CSV.fetch(path, layout, directory, "invalid"));
+    }
+  }
+
+  @Test
+  public void inferLayout() throws IOException {
+    var csv = """
+        name,age,married,score,population,ratio,code
+        Bob,42,true,3.5,100000,0.1234567,A1
+        Ana,,FALSE,-12.25,-5,2,B2
+        Jay,127,false,,3000000000,1e300,3
+        """;
+    var layout = CSV.inferLayout(new StringReader(csv), 100);
+    assertAll(
+        () -> assertEquals(List.of("name", "age", "married", "score", "population", "ratio", "code"),
+            layout.fields().stream().map(Layout.Field::name).toList()),
+        () -> assertEquals(string(false), layout.field("name").layout()),
+        () -> assertEquals(byte8(true), layout.field("age").layout()),
+        () -> assertEquals(u1(false), layout.field("married").layout()),
+        () -> assertEquals(float32(true), layout.field("score").layout()),
+        () -> assertEquals(long64(false), layout.field("population").layout()),
+        () -> assertEquals(double64(false), layout.field("ratio").layout()),
+        () -> assertEquals(string(false), layout.field("code").layout())
+    );
+  }
+
+  @Test
+  public void inferLayoutLargeIntegers() throws IOException {
+    var csv = """
+        max,min,overflow
+        9223372036854775807,-9223372036854775808,9223372036854775808
+        1000000000000000000,0,1
+        """;
+    var layout = CSV.inferLayout(new StringReader(csv), 100);
+    assertAll(
+        () -> assertEquals(long64(false), layout.field("max").layout()),
+        () -> assertEquals(long64(false), layout.field("min").layout()),
+        () -> assertEquals(double64(false), layout.field("overflow").layout())
+    );
+  }
+
+  @Test
+  public void inferLayoutAndFetch() throws IOException {
+    var csv = """
+        id,value
+        1,1000
+        2,
+        """;
+    var layout = CSV.inferLayout(new StringReader(csv), 1);  // only the first row
+    assertEquals(struct(false, field("id", byte8(false)), field("value", short16(false))), layout);
+    var directory = createTempDirectory("infer");
+    Closeable andClean = () -> {
+      for (var temp : list(directory).toList()) {
+        delete(temp);
+      }
+      delete(directory);
+    };
+    try(andClean) {
+      CSV.fetch("""
+          id,value
+          1,1000
+          2,-7
+          """, layout, directory, "infer");
+      try(var vec = Layout.map(directory, "infer", layout).asStruct()) {
+        var value = (U16Vec) vec.fields().get(1);
+        assertEquals(-7, value.getShort(1));
+      }
+    }
+  }
+}
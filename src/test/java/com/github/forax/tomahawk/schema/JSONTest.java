@@ -4,22 +4,32 @@ import com.github.forax.tomahawk.vec.ListVec;
 import com.github.forax.tomahawk.vec.TextWrap;
 import com.github.forax.tomahawk.vec.U16Vec;
 import com.github.forax.tomahawk.vec.U1Vec;
+import com.github.forax.tomahawk.vec.U32Vec;
 import com.github.forax.tomahawk.vec.U8Vec;
 import com.github.forax.tomahawk.vec.ValuesBox;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.StringReader;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.List;
 import java.util.Objects;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.LongStream;
 
 import static com.github.forax.tomahawk.schema.Layout.byte8;
+import static com.github.forax.tomahawk.schema.Layout.double64;
 import static com.github.forax.tomahawk.schema.Layout.field;
+import static com.github.forax.tomahawk.schema.Layout.float32;
 import static com.github.forax.tomahawk.schema.Layout.int32;
 import static com.github.forax.tomahawk.schema.Layout.list;
+import static com.github.forax.tomahawk.schema.Layout.long64;
+import static com.github.forax.tomahawk.schema.Layout.short16;
 import static com.github.forax.tomahawk.schema.Layout.string;
 import static com.github.forax.tomahawk.schema.Layout.struct;
 import static com.github.forax.tomahawk.schema.Layout.u1;
@@ -28,6 +38,7 @@ import static java.nio.file.Files.delete;
 import static java.nio.file.Files.list;
 import static java.util.Objects.requireNonNull;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 @SuppressWarnings("static-method")
 public class JSONTest {
@@ -157,4 +168,166 @@ public class JSONTest {
       }
     }
   }
-}
\ No newline at end of file
+
+  @Test
+  public void inferLayout() throws IOException {
+    var json = """
+        [
+          { "name": "Bob", "age": 42, "married": false, "score": 1.5, "tags": ["a", "b"], "id": 12345678901 },
+          { "name": "Ana", "married": true, "score": 2, "tags": [], "id": 1 },
+          { "name": null, "age": 300, "married": false, "score": 0.1234567, "tags": ["c"], "id": 2 }
+        ]
+        """;
+    var layout = JSON.inferLayout(new StringReader(json), 100);
+    assertEquals(struct(false,
+        field("name",    string(true)),
+        field("age",     short16(true)),
+        field("married", u1(false)),
+        field("score",   double64(false)),
+        field("tags",    list(false, string(false))),
+        field("id",      long64(false))
+    ), layout);
+  }
+
+  @Test
+  public void inferLayoutAndFetch() throws IOException {
+    var json = """
+        [
+          { "id": 1, "price": 2, "label": "foo" },
+          { "id": 2, "price": 3.5, "label": "bar" }
+        ]
+        """;
+    var layout = JSON.inferLayout(new StringReader(json), 100);
+    assertEquals(struct(false, field("id", byte8(false)), field("price", float32(false)), field("label", string(false))), layout);
+    var directory = createTempDirectory("infer");
+    Closeable andClean = () -> {
+      for (var temp : list(directory).toList()) {
+        delete(temp);
+      }
+      delete(directory);
+    };
+    try(andClean) {
+      JSON.fetch(json, layout, directory, "infer");
+      try(var vec = Layout.map(directory, "infer", layout).asStruct()) {
+        var price = (U32Vec) vec.fields().get(1);
+        assertEquals(2f, price.getFloat(0));
+        assertEquals(3.5f, price.getFloat(1));
+      }
+    }
+  }
+
+  @Test
+  public void inferLayoutIncompatibleValues() {
+    assertThrows(IOException.class, () -> JSON.inferLayout(new StringReader("[ { \"a\": 1 }, { \"a\": \"foo\" } ]"), 100));
+  }
+
+  @Test
+  public void fetchLines() throws IOException {
+    var layout = struct(false,
+        field("id",    int32(false)),
+        field("name",  string(true)),
+        field("admin", u1(true))
+    );
+    var directory = createTempDirectory("lines");
+    Closeable andClean = () -> {
+      for (var temp : list(directory).toList()) {
+        delete(temp);
+      }
+      delete(directory);
+    };
+    try(andClean) {
+      var json = IntStream.range(0, 1_000)
+          .mapToObj(i -> i % 3 == 0?
+              "{ \"id\": " + i + " }":
+              "{ \"name\": \"user " + i + "\", \"admin\": " + (i % 2 == 0) + ", \"id\": " + i + " }")
+          .collect(Collectors.joining("\n", "", "\n"));
+      var path = directory.resolve("data.ndjson");
+      Files.writeString(path, json);
+      JSON.fetchLines(path, layout, directory, "lines", 4);
+      delete(path);
+      try(var vec = Layout.map(directory, "lines", layout).asStruct()) {
+        var id = (U32Vec) vec.fields().get(0);
+        var name = vec.fields().get(1).asListOf(U16Vec.class);
+        var admin = (U1Vec) vec.fields().get(2);
+        for(var i = 0; i < 1_000; i++) {
+          assertEquals(i, id.getInt(i));
+          if (i % 3 == 0) {
+            assertEquals(null, name.getString(i));
+            assertEquals(true, admin.isNull(i));
+          } else {
+            assertEquals("user " + i, name.getString(i));
+            assertEquals(i % 2 == 0, admin.getBoolean(i));
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void fetchLinesProjection() throws IOException {
+    var layout = struct(false,
+        field("id",    int32(false)),
+        field("admin", u1(true))
+    );
+    var directory = createTempDirectory("projection");
+    Closeable andClean = () -> {
+      for (var temp : list(directory).toList()) {
+        delete(temp);
+      }
+      delete(directory);
+    };
+    try(andClean) {
+      var json = IntStream.range(0, 1_000)
+          .mapToObj(i -> "{ \"id\": " + i + ", \"tags\": [ { \"name\": \"tag" + i + "\" }, 3 ], \"admin\": " + (i % 2 == 0) + ", \"name\": \"user " + i + "\" }")
+          .collect(Collectors.joining("\n", "", "\n"));
+      var path = directory.resolve("data.ndjson");
+      Files.writeString(path, json);
+      JSON.fetchLines(path, layout, field -> !field.equals("name") && !field.equals("tags"), directory, "projection", 4);
+      delete(path);
+      try(var vec = Layout.map(directory, "projection", layout).asStruct()) {
+        var id = (U32Vec) vec.fields().get(0);
+        var admin = (U1Vec) vec.fields().get(1);
+        for(var i = 0; i < 1_000; i++) {
+          assertEquals(i, id.getInt(i));
+          assertEquals(i % 2 == 0, admin.getBoolean(i));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void exportLines() throws IOException {
+    var layout = struct(false,
+        field("name",   string(false)),
+        field("age",    int32(true)),
+        field("score",  float32(true)),
+        field("phones", list(true, string(false))),
+        field("address", struct(true,
+            field("city", string(true))
+        ))
+    );
+    var json = """
+        {"name":"Joe","age":18,"score":1.5,"phones":["555-111-1111","555-222-2222"],"address":{"city":"Paris"}}
+        {"name":"A \\"quoted\\" name\\n","age":null,"score":-2.0,"phones":[],"address":{"city":null}}
+        {"name":"Jack","age":37,"score":null,"phones":null,"address":{"city":"\u00c9vry"}}
+        """;
+    var directory = createTempDirectory("export");
+    Closeable andClean = () -> {
+      for (var temp : list(directory).toList()) {
+        delete(temp);
+      }
+      delete(directory);
+    };
+    try(andClean) {
+      var path = directory.resolve("data.ndjson");
+      Files.writeString(path, json);
+      JSON.fetchLines(path, layout, directory, "export", 2);
+      delete(path);
+      try(var vec = Layout.map(directory, "export", layout)) {
+        var output = new ByteArrayOutputStream();
+        JSON.exportLines(vec, layout, output);
+        assertEquals(json, output.toString(StandardCharsets.UTF_8));
+      }
+    }
+  }
+}
@@ -1,10 +1,28 @@
 package com.github.forax.tomahawk.schema;
 
+import static org.junit.jupiter.api.Assertions.assertAll;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import org.junit.jupiter.api.Test;
 
+import com.github.forax.tomahawk.vec.ListVec;
+import com.github.forax.tomahawk.vec.StructVec;
+import com.github.forax.tomahawk.vec.U16Vec;
+import com.github.forax.tomahawk.vec.U1Vec;
+import com.github.forax.tomahawk.vec.U32Vec;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 
 import static com.github.forax.tomahawk.schema.Layout.field;
 import static com.github.forax.tomahawk.schema.Layout.list;
@@ -13,6 +31,10 @@ import static com.github.forax.tomahawk.schema.Layout.struct;
 import static com.github.forax.tomahawk.schema.Layout.u1;
 import static com.github.forax.tomahawk.schema.Layout.int32;
 import static com.github.forax.tomahawk.schema.Layout.byte8;
+import static java.nio.file.Files.createTempDirectory;
+import static java.nio.file.Files.delete;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
 
 @SuppressWarnings("static-method")
 public class LayoutTest {
@@ -81,4 +103,320 @@ public class LayoutTest {
         layout.field("user").layout().fields());
     assertEquals(list(true, string(false)), layout.field("addresses").layout());
   }
-}
\ No newline at end of file
+
+  @Test
+  public void mapProjection() throws IOException {
+    var directory = createTempDirectory("layout");
+    Closeable andClean = () -> {
+      for (var temp : Files.list(directory).toList()) {
+        delete(temp);
+      }
+      delete(directory);
+    };
+    try(andClean) {
+      var layout = struct(false,
+          field("id", int32(false)),
+          field("name", string(true)),
+          field("admin", u1(false))
+      );
+      try(var builder = (StructVec.Builder) Layout.builder(directory, "table", layout)) {
+        var idBuilder = (U32Vec.Builder) builder.fieldBuilders().get(0);
+        @SuppressWarnings("unchecked")
+        var nameBuilder = (ListVec.Builder<U16Vec, U16Vec.Builder>) builder.fieldBuilders().get(1);
+        var adminBuilder = (U1Vec.Builder) builder.fieldBuilders().get(2);
+        for(var i = 0; i < 10; i++) {
+          var id = i;
+          builder.appendRow(row -> row
+              .appendInt(idBuilder, id)
+              .appendString(nameBuilder, "name" + id)
+              .appendBoolean(adminBuilder, id % 2 == 0));
+        }
+      }
+      // the files of the column "name" are not needed
+      for(var path: LayoutHelper.files(directory, "table", layout.project("name"))) {
+        delete(path);
+      }
+
+      assertEquals(List.of("admin", "id"), layout.project("admin", "id").fields().stream().map(Layout.Field::name).toList());
+      try(var vec = Layout.map(directory, "table", layout, "admin", "id")) {
+        var admin = (U1Vec) vec.fields().get(0);
+        var id = (U32Vec) vec.fields().get(1);
+        assertEquals(true, admin.getBoolean(4));
+        assertEquals(7, id.getInt(7));
+      }
+      assertThrows(IllegalArgumentException.class, () -> layout.project("foo"));
+      assertThrows(IllegalArgumentException.class, () -> layout.project("id", "id"));
+    }
+  }
+
+  public record User(int id, String name, boolean admin) {}
+  public record Admin(boolean admin, int id) {}
+
+  @Test
+  public void mapRecords() throws IOException {
+    var directory = createTempDirectory("layout");
+    Closeable andClean = () -> {
+      for (var temp : Files.list(directory).toList()) {
+        delete(temp);
+      }
+      delete(directory);
+    };
+    try(andClean) {
+      var layout = struct(false,
+          field("id", int32(false)),
+          field("name", string(true)),
+          field("admin", u1(false))
+      );
+      try(var builder = (StructVec.Builder) Layout.builder(directory, "table", layout)) {
+        for(var i = 0; i < 10; i++) {
+          builder.appendRecord(new User(i, i == 3? null: "name" + i, i % 2 == 0), MethodHandles.lookup());
+        }
+      }
+      try(var vec = (StructVec) Layout.map(directory, "table", layout)) {
+        var users = vec.asRecords(User.class, MethodHandles.lookup());
+        assertEquals(new User(2, "name2", true), users.get(2));
+        assertEquals(new User(3, null, false), users.get(3));
+      }
+      var adminLayout = layout.project(Admin.class);
+      assertEquals(List.of("admin", "id"), adminLayout.fields().stream().map(Layout.Field::name).toList());
+      try(var vec = (StructVec) Layout.map(directory, "table", adminLayout)) {
+        var admins = vec.asRecords(Admin.class, MethodHandles.lookup());
+        assertEquals(List.of(new Admin(true, 0), new Admin(false, 1), new Admin(true, 2)), admins.stream().limit(3).toList());
+      }
+      try(var vec = (StructVec) Layout.map(directory, "table", layout)) {
+        var fieldNames = layout.fields().stream().map(Layout.Field::name).toList();
+        var admins = vec.asRecords(Admin.class, fieldNames, MethodHandles.lookup());
+        assertEquals(new Admin(false, 3), admins.get(3));
+      }
+      assertThrows(IllegalArgumentException.class, () -> struct(false, field("id", int32(false))).project(Admin.class));
+    }
+  }
+
+  @Test
+  public void mapLazily() throws IOException {
+    var directory = createTempDirectory("layout");
+    Closeable andClean = () -> {
+      for (var temp : Files.list(directory).toList()) {
+        delete(temp);
+      }
+      delete(directory);
+    };
+    try(andClean) {
+      var layout = struct(false,
+          field("id", int32(false)),
+          field("name", string(true)),
+          field("admin", u1(false))
+      );
+      try(var builder = (StructVec.Builder) Layout.builder(directory, "table", layout)) {
+        var idBuilder = (U32Vec.Builder) builder.fieldBuilders().get(0);
+        @SuppressWarnings("unchecked")
+        var nameBuilder = (ListVec.Builder<U16Vec, U16Vec.Builder>) builder.fieldBuilders().get(1);
+        var adminBuilder = (U1Vec.Builder) builder.fieldBuilders().get(2);
+        for(var i = 0; i < 10; i++) {
+          var id = i;
+          builder.appendRow(row -> row
+              .appendInt(idBuilder, id)
+              .appendString(nameBuilder, "name" + id)
+              .appendBoolean(adminBuilder, id % 2 == 0));
+        }
+      }
+
+      try(var lazyStruct = Layout.mapLazily(directory, "table", layout)) {
+        assertEquals(10, lazyStruct.length());
+        assertFalse(lazyStruct.isMapped(0));
+        assertFalse(lazyStruct.isMapped(1));
+        assertFalse(lazyStruct.isMapped(2));
+
+        var name = lazyStruct.field("name").asListOf(U16Vec.class);
+        assertEquals("name3", name.getString(3));
+        assertFalse(lazyStruct.isMapped(0));
+        assertTrue(lazyStruct.isMapped(1));
+        assertFalse(lazyStruct.isMapped(2));
+
+        lazyStruct.unmap(1);
+        assertFalse(lazyStruct.isMapped(1));
+        assertEquals("name4", lazyStruct.field(1).asListOf(U16Vec.class).getString(4));
+
+        var structVec = lazyStruct.toStructVec();
+        assertEquals(10, structVec.length());
+        assertEquals(7, ((U32Vec) structVec.fields().get(0)).getInt(7));
+        assertTrue(((U1Vec) structVec.fields().get(2)).getBoolean(8));
+      }
+    }
+  }
+
+  @Test
+  public void mapLazilySharedBetweenThreads() throws IOException, InterruptedException {
+    var directory = createTempDirectory("layout");
+    Closeable andClean = () -> {
+      for (var temp : Files.list(directory).toList()) {
+        delete(temp);
+      }
+      delete(directory);
+    };
+    try(andClean) {
+      var layout = struct(true, field("id", int32(false)));
+      try(var builder = (StructVec.Builder) Layout.builder(directory, "table", layout)) {
+        var idBuilder = (U32Vec.Builder) builder.fieldBuilders().get(0);
+        for(var i = 0; i < 10; i++) {
+          var id = i;
+          builder.appendRow(row -> row.appendInt(idBuilder, id));
+        }
+      }
+      try(var lazyStruct = Layout.mapLazily(directory, "table", layout)) {
+        var holder = new StructVec[1];
+        var thread = new Thread(() -> holder[0] = lazyStruct.toStructVec());  // mapped by another thread
+        thread.start();
+        thread.join();
+        var structVec = holder[0];
+        assertAll(
+            () -> assertSame(structVec.fields().get(0), lazyStruct.field(0)),
+            () -> assertEquals(7, ((U32Vec) structVec.fields().get(0)).getInt(7)),
+            () -> assertFalse(structVec.isNull(3))
+        );
+      }
+    }
+  }
+
+  @Test
+  public void mapLazilyBooleanLength() throws IOException {
+    var directory = createTempDirectory("layout");
+    Closeable andClean = () -> {
+      for (var temp : Files.list(directory).toList()) {
+        delete(temp);
+      }
+      delete(directory);
+    };
+    try(andClean) {
+      var layout = struct(false, field("admin", u1(false)));
+      for(var count: new int[] { 10, 5 }) {
+        long length;
+        try(var builder = (StructVec.Builder) Layout.builder(directory, "table", layout, CREATE, APPEND)) {
+          var adminBuilder = (U1Vec.Builder) builder.fieldBuilders().get(0);
+          for(var i = 0; i < count; i++) {
+            var admin = i % 2 == 0;
+            builder.appendRow(row -> row.appendBoolean(adminBuilder, admin));
+          }
+          length = builder.length();
+        }
+        LayoutHelper.saveLength(directory, "table", length);
+      }
+      try(var lazyStruct = Layout.mapLazily(directory, "table", layout)) {
+        assertEquals(15, lazyStruct.length());
+        var admin = (U1Vec) lazyStruct.field("admin");
+        assertAll(
+            () -> assertTrue(admin.getBoolean(8)),
+            () -> assertFalse(admin.getBoolean(9)),
+            () -> assertTrue(admin.getBoolean(10)),
+            () -> assertTrue(admin.getBoolean(14))
+        );
+      }
+    }
+  }
+
+  @Test
+  public void remapLazily() throws IOException {
+    var directory = createTempDirectory("layout");
+    Closeable andClean = () -> {
+      for (var temp : Files.list(directory).toList()) {
+        delete(temp);
+      }
+      delete(directory);
+    };
+    try(andClean) {
+      var layout = struct(false, field("id", int32(false)), field("age", int32(false)));
+      try(var builder = (StructVec.Builder) Layout.builder(directory, "table", layout)) {
+        var idBuilder = (U32Vec.Builder) builder.fieldBuilders().get(0);
+        var ageBuilder = (U32Vec.Builder) builder.fieldBuilders().get(1);
+        for(var i = 0; i < 10; i++) {
+          var id = i;
+          builder.appendRow(row -> row.appendInt(idBuilder, id).appendInt(ageBuilder, 20 + id));
+        }
+      }
+      var lazyStruct = Layout.mapLazily(directory, "table", layout);
+      var id = (U32Vec) lazyStruct.field("id");
+      lazyStruct.field("age");
+
+      var remapped = lazyStruct.remap(layout, Set.of("age"));
+      assertAll(
+          () -> assertThrows(IllegalStateException.class, () -> lazyStruct.field(0)),
+          () -> assertTrue(remapped.isMapped(0)),
+          () -> assertFalse(remapped.isMapped(1)),
+          () -> assertSame(id, remapped.field("id")),
+          () -> assertEquals(7, id.getInt(7)),
+          () -> assertEquals(27, ((U32Vec) remapped.field("age")).getInt(7)),
+          () -> assertEquals(10, remapped.length())
+      );
+
+      // the new column has no file yet, the length is not computed again
+      var newLayout = struct(false, field("id", int32(false)), field("age", int32(false)), field("name", string(true)));
+      try(var withName = remapped.remap(newLayout, Set.of("name"))) {
+        assertAll(
+            () -> assertSame(id, withName.field("id")),
+            () -> assertTrue(withName.isMapped(1)),
+            () -> assertFalse(withName.isMapped(2)),
+            () -> assertEquals(10, withName.length())
+        );
+      }
+    }
+  }
+
+  @Test
+  public void concatBooleans() throws IOException {
+    var directory = createTempDirectory("layout");
+    var lengths = new long[] { 70, 0, 3, 64, 130, 1 };
+    var chunkDirectories = new ArrayList<Path>();
+    Closeable andClean = () -> {
+      for(var chunkDirectory: chunkDirectories) {
+        for (var temp : Files.list(chunkDirectory).toList()) {
+          delete(temp);
+        }
+        delete(chunkDirectory);
+      }
+      for (var temp : Files.list(directory).toList()) {
+        delete(temp);
+      }
+      delete(directory);
+    };
+    try(andClean) {
+      var layout = u1(true);
+      var index = 0;
+      for(var length: lengths) {
+        var chunkDirectory = createTempDirectory("chunk");
+        chunkDirectories.add(chunkDirectory);
+        try(var builder = (U1Vec.Builder) Layout.builder(chunkDirectory, "column", layout)) {
+          for(var i = 0; i < length; i++, index++) {
+            if (index % 7 == 0) {
+              builder.appendNull();
+            } else {
+              builder.appendBoolean(index % 3 == 0);
+            }
+          }
+        }
+      }
+      LayoutHelper.concat(directory, "column", layout, chunkDirectories, lengths);
+
+      var total = index;
+      for(var file: LayoutHelper.files(directory, "column", layout)) {  // the validity and the data
+        assertEquals((total + 63) / 64 * 8, Files.size(file));
+      }
+      try(var column = (U1Vec) LayoutHelper.map(directory, "column", layout)) {
+        for(var i = 0; i < total; i++) {
+          if (i % 7 == 0) {
+            assertTrue(column.isNull(i));
+          } else {
+            assertEquals(i % 3 == 0, column.getBoolean(i), "index " + i);
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void mapLazilyUnknownField() {
+    var lazyStruct = Layout.mapLazily(Path.of("."), "table", struct(false, field("id", int32(false))));
+    assertThrows(IllegalStateException.class, () -> lazyStruct.field("unknown"));
+    lazyStruct.close();
+    assertThrows(IllegalStateException.class, () -> lazyStruct.field(0));
+  }
+}
@@ -0,0 +1,142 @@
+package com.github.forax.tomahawk.schema;
+
+import com.github.forax.tomahawk.vec.U32Vec;
+import org.junit.jupiter.api.Test;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import static com.github.forax.tomahawk.schema.Layout.field;
+import static com.github.forax.tomahawk.schema.Layout.int32;
+import static com.github.forax.tomahawk.schema.Layout.struct;
+import static java.nio.file.Files.createTempDirectory;
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SuppressWarnings("static-method")
+public class PartitionedTableTest {
+  private static final Layout.StructLayout LAYOUT = struct(false,
+      field("value", int32(false))
+  );
+
+  private static void deleteAll(Path directory) throws IOException {
+    try(var files = Files.walk(directory)) {
+      for(var path: files.sorted((p1, p2) -> p2.compareTo(p1)).toList()) {
+        Files.delete(path);
+      }
+    }
+  }
+
+  private static void appendValues(PartitionedTable table, String day, int from, int to) throws IOException {
+    table.appendRows(day, builder -> {
+      var valueBuilder = (U32Vec.Builder) builder.fieldBuilders().get(0);
+      for(var i = from; i < to; i++) {
+        var value = i;
+        builder.appendRow(row -> row.appendInt(valueBuilder, value));
+      }
+    });
+  }
+
+  @Test
+  public void partitionsAndPruning() throws IOException {
+    var directory = createTempDirectory("partitioned");
+    Closeable andClean = () -> deleteAll(directory);
+    try(andClean) {
+      var table = PartitionedTable.open(directory, "events", "day", LAYOUT);
+      appendValues(table, "2026-10-15", 0, 10);
+      appendValues(table, "2026-10-16", 10, 30);
+      appendValues(table, "2026-10-17", 30, 60);
+      appendValues(table, "2026-10-16", 30, 35);  // append to an existing partition
+      assertTrue(Files.isDirectory(directory.resolve("day=2026-10-16")));
+
+      var reopened = PartitionedTable.open(directory, "events", "day", LAYOUT);
+      assertEquals(List.of("2026-10-15", "2026-10-16", "2026-10-17"), reopened.partitions());
+
+      var lengths = reopened.scan(day -> day.compareTo("2026-10-16") >= 0, (day, columns) -> day + ":" + columns.length(), 2);
+      assertEquals(List.of("2026-10-16:25", "2026-10-17:30"), lengths);
+
+      try(var columns = reopened.partition("2026-10-16")) {
+        var value = (U32Vec) columns.field("value");
+        assertEquals(10, value.getInt(0));
+        assertEquals(34, value.getInt(24));
+      }
+    }
+  }
+
+  @Test
+  public void scanWhileAppending() throws IOException, InterruptedException, ExecutionException {
+    var directory = createTempDirectory("partitioned");
+    Closeable andClean = () -> deleteAll(directory);
+    try(andClean) {
+      var table = PartitionedTable.open(directory, "events", "day", LAYOUT);
+      var writer = new FutureTask<Void>(() -> {
+        for(var i = 0; i < 100; i++) {
+          appendValues(table, "day-%03d".formatted(i), 0, 10);
+        }
+        return null;
+      });
+      new Thread(writer).start();
+      while(!writer.isDone()) {
+        // each partition seen by the scan is fully written
+        var lengths = table.scan(__ -> true, (day, columns) -> columns.length(), 2);
+        assertTrue(lengths.stream().allMatch(length -> length == 10), "" + lengths);
+      }
+      writer.get();
+      assertEquals(100, table.partitions().size());
+      assertEquals(1_000L, table.scan(__ -> true, (day, columns) -> columns.length(), 2).stream().mapToLong(l -> l).sum());
+    }
+  }
+
+  @Test
+  public void escapedKeyValues() throws IOException {
+    var directory = createTempDirectory("partitioned");
+    Closeable andClean = () -> deleteAll(directory);
+    try(andClean) {
+      var table = PartitionedTable.open(directory, "table", "city", LAYOUT);
+      appendValues(table, "a/b=c", 0, 1);
+      appendValues(table, "..", 0, 2);
+      appendValues(table, "s\u00e3o paulo", 0, 3);
+      appendValues(table, "", 0, 4);
+      var reopened = PartitionedTable.open(directory, "table", "city", LAYOUT);
+      assertEquals(List.of("", "..", "a/b=c", "s\u00e3o paulo"), reopened.partitions());
+      assertEquals(List.of(4L, 2L, 1L, 3L), reopened.scan(__ -> true, (city, columns) -> columns.length(), 1));
+    }
+  }
+
+  @Test
+  public void escapeAndUnescape() {
+    assertAll(
+        () -> assertEquals("2026-10-16", PartitionedTable.escape("2026-10-16")),
+        () -> assertEquals("a%2Fb%3Dc", PartitionedTable.escape("a/b=c")),
+        () -> assertEquals("%2E.", PartitionedTable.escape("..")),
+        () -> assertEquals("s%C3%A3o%20paulo", PartitionedTable.escape("s\u00e3o paulo")),
+        () -> assertEquals("s\u00e3o paulo", PartitionedTable.unescape("s%C3%A3o%20paulo")),
+        () -> assertEquals("\ud83d\ude00", PartitionedTable.unescape(PartitionedTable.escape("\ud83d\ude00")))
+    );
+  }
+
+  @Test
+  public void keyIsNotAColumn() {
+    assertThrows(IllegalArgumentException.class,
+        () -> PartitionedTable.open(Path.of("."), "table", "value", LAYOUT));
+  }
+
+  @Test
+  public void noPartition() throws IOException {
+    var directory = createTempDirectory("partitioned");
+    Closeable andClean = () -> deleteAll(directory);
+    try(andClean) {
+      var table = PartitionedTable.open(directory, "table", "day", LAYOUT);
+      assertFalse(table.partitions().contains("2026-10-16"));
+      assertThrows(IllegalStateException.class, () -> table.partition("2026-10-16"));
+    }
+  }
+}
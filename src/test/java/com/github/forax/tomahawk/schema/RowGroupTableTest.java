@@ -0,0 +1,187 @@
+package com.github.forax.tomahawk.schema;
+
+import com.github.forax.tomahawk.vec.U32Vec;
+import com.github.forax.tomahawk.vec.U64Vec;
+import org.junit.jupiter.api.Test;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static com.github.forax.tomahawk.schema.Layout.double64;
+import static com.github.forax.tomahawk.schema.Layout.field;
+import static com.github.forax.tomahawk.schema.Layout.int32;
+import static com.github.forax.tomahawk.schema.Layout.string;
+import static com.github.forax.tomahawk.schema.Layout.struct;
+import static java.nio.file.Files.createTempDirectory;
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SuppressWarnings("static-method")
+public class RowGroupTableTest {
+  private static final Layout.StructLayout LAYOUT = struct(false,
+      field("id", int32(false)),
+      field("price", double64(true)),
+      field("name", string(true))
+  );
+
+  private static void deleteAll(Path directory) throws IOException {
+    try(var files = Files.walk(directory)) {
+      for(var path: files.sorted((p1, p2) -> p2.compareTo(p1)).toList()) {
+        Files.delete(path);
+      }
+    }
+  }
+
+  private static void appendRowGroups(RowGroupTable table) throws IOException {
+    for(var group = 0; group < 4; group++) {
+      var base = group * 100;
+      table.appendRowGroup(builder -> {
+        var idBuilder = (U32Vec.Builder) builder.fieldBuilders().get(0);
+        var priceBuilder = (U64Vec.Builder) builder.fieldBuilders().get(1);
+        for(var i = 0; i < 100; i++) {
+          var id = base + i;
+          builder.appendRow(row -> {
+            row.appendInt(idBuilder, id);
+            if (id % 10 == 0) {
+              row.appendNull(priceBuilder);
+            } else {
+              row.appendDouble(priceBuilder, id + .5);
+            }
+          });
+        }
+      });
+    }
+  }
+
+  @Test
+  public void zoneMaps() throws IOException {
+    var directory = createTempDirectory("row-group");
+    Closeable andClean = () -> deleteAll(directory);
+    try(andClean) {
+      var table = RowGroupTable.open(directory, "table", LAYOUT);
+      appendRowGroups(table);
+      assertEquals(400, table.length());
+
+      var reopened = RowGroupTable.open(directory, "table", LAYOUT);
+      assertEquals(table.rowGroups(), reopened.rowGroups());
+      var rowGroup = reopened.rowGroups().get(2);
+      assertEquals(100, rowGroup.length());
+      assertEquals(new RowGroupTable.ColumnStats(0, 200, 299), rowGroup.stats().get("id"));
+      assertEquals(new RowGroupTable.ColumnStats(10, 201.5, 299.5), rowGroup.stats().get("price"));
+      assertNull(rowGroup.stats().get("name"));
+      assertTrue(rowGroup.mayContain("id", 250, 1_000));
+      assertFalse(rowGroup.mayContain("id", 300, 1_000));
+      assertTrue(rowGroup.mayContain("name", 0, 0));
+    }
+  }
+
+  @Test
+  public void scanSkipsRowGroups() throws IOException {
+    var directory = createTempDirectory("row-group");
+    Closeable andClean = () -> deleteAll(directory);
+    try(andClean) {
+      var table = RowGroupTable.open(directory, "table", LAYOUT);
+      appendRowGroups(table);
+
+      var sums = table.scan(rowGroup -> rowGroup.mayContain("id", 150, 250), columns -> {
+        assertFalse(columns.isMapped(1));
+        var id = (U32Vec) columns.field("id");
+        var sum = 0L;
+        for(var i = 0L; i < id.length(); i++) {
+          sum += id.getInt(i);
+        }
+        assertFalse(columns.isMapped(1));
+        return sum;
+      }, 2);
+      assertEquals(List.of(14_950L, 24_950L), sums);
+
+      var lengths = table.scan(columns -> columns.length());
+      assertEquals(List.of(100L, 100L, 100L, 100L), lengths);
+    }
+  }
+
+  @Test
+  public void scanWithExecutor() throws IOException {
+    var directory = createTempDirectory("row-group");
+    Closeable andClean = () -> deleteAll(directory);
+    try(andClean) {
+      var table = RowGroupTable.open(directory, "table", LAYOUT);
+      appendRowGroups(table);
+      var rowGroups = table.rowGroups();
+      assertThrows(UnsupportedOperationException.class, () -> rowGroups.remove(0));
+
+      var taskCount = new AtomicInteger();
+      Executor executor = command -> {
+        taskCount.incrementAndGet();
+        command.run();
+      };
+      var lengths = table.scan(__ -> true, columns -> columns.length(), 3, executor);
+      assertEquals(List.of(100L, 100L, 100L, 100L), lengths);
+      assertEquals(3, taskCount.get());  // at most parallelism tasks
+    }
+  }
+
+  @Test
+  public void appendRowGroupsConcurrently() throws IOException, InterruptedException, ExecutionException {
+    var directory = createTempDirectory("row-group");
+    Closeable andClean = () -> deleteAll(directory);
+    try(andClean) {
+      var table = RowGroupTable.open(directory, "table", LAYOUT);
+      var writers = IntStream.range(0, 4).mapToObj(__ -> new FutureTask<Void>(() -> {
+        appendRowGroups(table);
+        return null;
+      })).toList();
+      writers.forEach(writer -> new Thread(writer).start());
+      for(var writer: writers) {
+        writer.get();
+      }
+      var directories = table.rowGroups().stream().map(RowGroupTable.RowGroup::directory).distinct().count();
+      assertAll(
+          () -> assertEquals(16, table.rowGroups().size()),
+          () -> assertEquals(16, directories),
+          () -> assertEquals(1_600, table.length()),
+          () -> assertEquals(16, RowGroupTable.open(directory, "table", LAYOUT).rowGroups().size())
+      );
+    }
+  }
+
+  @Test
+  public void appendRowGroupFailure() throws IOException {
+    var directory = createTempDirectory("row-group");
+    Closeable andClean = () -> deleteAll(directory);
+    try(andClean) {
+      var table = RowGroupTable.open(directory, "table", LAYOUT);
+      assertThrows(IllegalStateException.class, () -> table.appendRowGroup(builder -> {
+        throw new IllegalStateException("oops");
+      }));
+      assertEquals(List.of(), table.rowGroups());
+      assertEquals(List.of(), RowGroupTable.open(directory, "table", LAYOUT).rowGroups());
+    }
+  }
+
+  @Test
+  public void scanPropagatesIOException() throws IOException {
+    var directory = createTempDirectory("row-group");
+    Closeable andClean = () -> deleteAll(directory);
+    try(andClean) {
+      var table = RowGroupTable.open(directory, "table", LAYOUT);
+      appendRowGroups(table);
+      assertThrows(IOException.class, () -> table.scan(columns -> {
+        throw new UncheckedIOException(new IOException("oops"));
+      }));
+    }
+  }
+}
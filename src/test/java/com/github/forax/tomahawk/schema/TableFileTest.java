@@ -0,0 +1,178 @@
+package com.github.forax.tomahawk.schema;
+
+import com.github.forax.tomahawk.schema.Layout.StructLayout;
+import com.github.forax.tomahawk.vec.StructVec;
+import com.github.forax.tomahawk.vec.U16Vec;
+import com.github.forax.tomahawk.vec.U1Vec;
+import com.github.forax.tomahawk.vec.U32Vec;
+import com.github.forax.tomahawk.vec.U64Vec;
+import com.github.forax.tomahawk.vec.ValuesBox;
+import org.junit.jupiter.api.Test;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static com.github.forax.tomahawk.schema.Layout.double64;
+import static com.github.forax.tomahawk.schema.Layout.field;
+import static com.github.forax.tomahawk.schema.Layout.int32;
+import static com.github.forax.tomahawk.schema.Layout.list;
+import static com.github.forax.tomahawk.schema.Layout.string;
+import static com.github.forax.tomahawk.schema.Layout.struct;
+import static com.github.forax.tomahawk.schema.Layout.u1;
+import static java.nio.file.Files.createTempDirectory;
+import static java.nio.file.Files.delete;
+import static java.nio.file.Files.list;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@SuppressWarnings("static-method")
+public class TableFileTest {
+  private static final StructLayout LAYOUT = struct(false,
+      field("id",     int32(false)),
+      field("name",   string(true)),
+      field("price",  double64(true)),
+      field("admin",  u1(false)),
+      field("scores", list(true, int32(false))),
+      field("address", struct(true,
+          field("city", string(true))
+      ))
+  );
+
+  private static void fetch(Path directory) throws IOException {
+    var json = IntStream.range(0, 100)
+        .mapToObj(i -> i % 10 == 0?
+            "{ \"id\": " + i + ", \"admin\": false, \"address\": null }":
+            "{ \"id\": " + i + ", \"name\": \"n\u00e9" + i + "\", \"price\": " + i + ".5, \"admin\": " + (i % 2 == 0) +
+                ", \"scores\": [" + i + ", " + (i + 1) + "], \"address\": { \"city\": \"city" + i + "\" } }")
+        .collect(Collectors.joining("\n", "", "\n"));
+    var path = directory.resolve("data.ndjson");
+    Files.writeString(path, json);
+    JSON.fetchLines(path, LAYOUT, directory, "table", 2);
+    delete(path);
+  }
+
+  @Test
+  public void packAndMap() throws IOException {
+    var directory = createTempDirectory("table-file");
+    Closeable andClean = () -> {
+      for (var temp : list(directory).toList()) {
+        delete(temp);
+      }
+      delete(directory);
+    };
+    try(andClean) {
+      fetch(directory);
+      var path = directory.resolve("table.tmhk");
+      TableFile.pack(directory, "table", LAYOUT, path);
+      assertEquals(LAYOUT, TableFile.layout(path));
+      try(var vec = (StructVec) TableFile.map(path)) {
+        var id = (U32Vec) vec.fields().get(0);
+        var name = vec.fields().get(1).asListOf(U16Vec.class);
+        var price = (U64Vec) vec.fields().get(2);
+        var admin = (U1Vec) vec.fields().get(3);
+        var scores = vec.fields().get(4).asListOf(U32Vec.class);
+        var address = vec.fields().get(5).asStruct();
+        var city = address.fields().get(0).asListOf(U16Vec.class);
+        var box = new ValuesBox();
+        assertEquals(100, vec.length());
+        for(var i = 0; i < 100; i++) {
+          assertEquals(i, id.getInt(i));
+          if (i % 10 == 0) {
+            assertEquals(null, name.getString(i));
+            assertEquals(true, price.isNull(i));
+            assertEquals(false, admin.getBoolean(i));
+            assertEquals(true, scores.isNull(i));
+            assertEquals(true, address.isNull(i));
+          } else {
+            assertEquals("n\u00e9" + i, name.getString(i));
+            assertEquals(i + .5, price.getDouble(i));
+            assertEquals(i % 2 == 0, admin.getBoolean(i));
+            scores.getValues(i, box);
+            assertArrayEquals(new int[] { i, i + 1 }, box.intArray(scores.element()));
+            assertEquals(false, address.isNull(i));
+            assertEquals("city" + i, city.getString(i));
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void packRegionsAreAligned() throws IOException {
+    var directory = createTempDirectory("table-file");
+    Closeable andClean = () -> {
+      for (var temp : list(directory).toList()) {
+        delete(temp);
+      }
+      delete(directory);
+    };
+    try(andClean) {
+      var layout = struct(false, field("value", int32(true)));
+      try(var builder = (StructVec.Builder) Layout.builder(directory, "table", layout)) {
+        var valueBuilder = (U32Vec.Builder) builder.fieldBuilders().get(0);
+        for(var i = 0; i < 3; i++) {
+          valueBuilder.appendInt(i);
+        }
+      }
+      var path = directory.resolve("table.tmhk");
+      TableFile.pack(directory, "table", layout, path);
+      var buffer = ByteBuffer.wrap(Files.readAllBytes(path)).order(ByteOrder.LITTLE_ENDIAN);
+      var footerOffset = buffer.getLong(buffer.limit() - 16);
+      assertEquals(2, buffer.getLong((int) footerOffset));  // validity + data
+      for(var i = 0; i < 2; i++) {
+        assertEquals(0, buffer.getLong((int) footerOffset + 8 + (i << 4)) % 64);
+      }
+      try(var vec = (StructVec) TableFile.map(path)) {
+        var value = (U32Vec) vec.fields().get(0);
+        assertEquals(3, value.length());
+        assertEquals(2, value.getInt(2));
+      }
+    }
+  }
+
+  @Test
+  public void packBooleansOnly() throws IOException {
+    var directory = createTempDirectory("table-file");
+    Closeable andClean = () -> {
+      for (var temp : list(directory).toList()) {
+        delete(temp);
+      }
+      delete(directory);
+    };
+    try(andClean) {
+      // the length of a column of booleans is rounded to 64 in the files, the length is stored in the footer
+      var layout = struct(false, field("flag", u1(false)));
+      var csv = IntStream.range(0, 70)
+          .mapToObj(i -> "" + (i % 3 == 0))
+          .collect(Collectors.joining("\n", "flag\n", "\n"));
+      CSV.fetch(csv, layout, directory, "table");
+      var path = directory.resolve("table.tmhk");
+      TableFile.pack(directory, "table", layout, path);
+      try(var vec = (StructVec) TableFile.map(path)) {
+        var flag = (U1Vec) vec.fields().get(0);
+        assertEquals(70, vec.length());
+        for(var i = 0; i < 70; i++) {
+          assertEquals(i % 3 == 0, flag.getBoolean(i));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void mapNotATableFile() throws IOException {
+    var path = Files.createTempFile("table-file", "");
+    try {
+      Files.writeString(path, "this is not a table file, this is not a table file, this is not a table file");
+      assertThrows(IllegalArgumentException.class, () -> TableFile.map(path));
+    } finally {
+      Files.deleteIfExists(path);
+    }
+  }
+}
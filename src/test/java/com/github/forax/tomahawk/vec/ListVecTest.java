@@ -5,6 +5,8 @@ import org.junit.jupiter.api.Test;
 import java.io.Closeable;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.stream.IntStream;
 import java.util.stream.LongStream;
 
 import static java.nio.file.Files.list;
@@ -93,4 +95,30 @@ public class ListVecTest {
       }
     }
   }
+
+  @Test
+  public void allTextWrapsSplit() {
+    var length = 5_000;
+    var offsets = new int[length + 1];
+    var builder = new StringBuilder();
+    var validity = new long[(length + 63) >>> 6];
+    for(var i = 0; i < length; i++) {
+      if (i % 3 != 0) {
+        builder.append(i);
+        validity[i >>> 6] |= 1L << i;
+      }
+      offsets[i + 1] = builder.length();
+    }
+    try(var vec = ListVec.from(U1Vec.wrap(validity), U32Vec.wrap(offsets), U16Vec.wrap(builder.toString().toCharArray()))) {
+      var expected = IntStream.range(0, length).mapToObj(i -> i % 3 == 0? null: "" + i).toList();
+      assertEquals(expected, vec.allTextWraps().map(textWrap -> textWrap == null? null: textWrap.toString()).toList());
+
+      var spliterator = vec.allTextWraps().spliterator();
+      var prefix = spliterator.trySplit();
+      var list = new ArrayList<String>();
+      prefix.forEachRemaining(textWrap -> list.add(textWrap == null? null: textWrap.toString()));
+      spliterator.forEachRemaining(textWrap -> list.add(textWrap == null? null: textWrap.toString()));
+      assertEquals(expected, list);
+    }
+  }
 }
@@ -4,11 +4,16 @@ import org.junit.jupiter.api.Test;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.lang.invoke.MethodHandles;
 import java.nio.file.Files;
+import java.util.List;
 import java.util.stream.IntStream;
 
 import static java.nio.file.Files.list;
+import static org.junit.jupiter.api.Assertions.assertAll;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @SuppressWarnings("static-method")
@@ -61,4 +66,163 @@ public class StructVecTest {
       }
     }
   }
+
+  @Test
+  public void cursor() {
+    var ints = U32Vec.wrap(new int[] { 10, 0, 30, 40 }).withValidity(U1Vec.wrap(new long[] { 0b1101 }));
+    var longs = U64Vec.wrap(new long[] { 1L, 2L, 3L, 4L });
+    var texts = ListVec.from(U1Vec.wrap(new long[] { 0b0111 }), U32Vec.wrap(new int[] { 0, 3, 6, 9, 9 }), U16Vec.wrap("foobarbaz".toCharArray()));
+    try(var vec = StructVec.from(null, ints, longs, texts)) {
+      var cursor = vec.cursor();
+      assertEquals(-1, cursor.index());
+      var sum = 0L;
+      var nulls = 0;
+      var builder = new StringBuilder();
+      while(cursor.advance()) {
+        assertFalse(cursor.isNull());
+        if (cursor.isNull(0)) {
+          nulls++;
+        } else {
+          sum += cursor.getInt(0);
+        }
+        sum += cursor.getLong(1);
+        var textWrap = cursor.getTextWrap(2);
+        builder.append(textWrap == null? "null": textWrap.toString()).append(cursor.getValues(2, new ValuesBox()).validity).append(';');
+      }
+      assertEquals(4, cursor.index());
+      assertFalse(cursor.advance());
+      assertEquals(80 + 10, sum);
+      assertEquals(1, nulls);
+      assertEquals("footrue;bartrue;baztrue;nullfalse;", builder.toString());
+    }
+  }
+
+  @Test
+  public void cursorErrors() {
+    try(var vec = StructVec.from(null, U32Vec.wrap(new int[] { 1, 2 }).withValidity(U1Vec.wrap(new long[] { 0b01 })), U8Vec.wrap(new byte[] { 3, 4 }))) {
+      var cursor = vec.cursor();
+      assertTrue(cursor.advance());
+      assertAll(
+          () -> assertEquals(1, cursor.getInt(0)),
+          () -> assertEquals(3, cursor.getByte(1)),
+          () -> assertThrows(IllegalStateException.class, () -> cursor.getLong(0)),
+          () -> assertThrows(IllegalStateException.class, () -> cursor.getTextWrap(1))
+      );
+      assertTrue(cursor.advance());
+      assertThrows(NullPointerException.class, () -> cursor.getInt(0));
+      assertFalse(cursor.advance());
+    }
+  }
+
+  record Person(String name, int age, Double score) {}
+  public record Point(int x, int y) {}
+
+  @Test
+  public void asRecords() {
+    var names = ListVec.from(null, U32Vec.wrap(new int[] { 0, 3, 6 }), U16Vec.wrap("BobAna".toCharArray()));
+    var ages = U32Vec.wrap(new int[] { 25, 35 });
+    var scores = U64Vec.wrap(new double[] { 1.5, 0 }).withValidity(U1Vec.wrap(new long[] { 0b01 }));
+    try(var vec = StructVec.from(null, names, ages, scores)) {
+      var persons = vec.asRecords(Person.class, MethodHandles.lookup());
+      assertAll(
+          () -> assertEquals(2, persons.length()),
+          () -> assertEquals(new Person("Bob", 25, 1.5), persons.get(0)),
+          () -> assertEquals(new Person("Ana", 35, null), persons.get(1)),
+          () -> assertEquals(List.of(new Person("Bob", 25, 1.5), new Person("Ana", 35, null)), persons.stream().toList()),
+          () -> assertThrows(IndexOutOfBoundsException.class, () -> persons.get(2)),
+          () -> assertThrows(IllegalArgumentException.class, () -> vec.asRecords(Point.class, MethodHandles.lookup())),
+          () -> assertThrows(NullPointerException.class, () -> vec.asRecords(null, MethodHandles.lookup()))
+      );
+    }
+    try(var vec = StructVec.from(null, U32Vec.wrap(new int[] { 1 }), U64Vec.wrap(new long[] { 2L }))) {
+      assertThrows(IllegalArgumentException.class, () -> vec.asRecords(Point.class, MethodHandles.lookup()));
+    }
+  }
+
+  public record Score(Double score, String name) {}
+
+  @Test
+  public void asRecordsByName() {
+    var names = ListVec.from(null, U32Vec.wrap(new int[] { 0, 3, 6 }), U16Vec.wrap("BobAna".toCharArray()));
+    var ages = U32Vec.wrap(new int[] { 25, 35 });
+    var scores = U64Vec.wrap(new double[] { 1.5, 0 }).withValidity(U1Vec.wrap(new long[] { 0b01 }));
+    var fieldNames = List.of("name", "age", "score");
+    try(var vec = StructVec.from(null, names, ages, scores)) {
+      var persons = vec.asRecords(Person.class, fieldNames, MethodHandles.lookup());
+      var scoresByName = vec.asRecords(Score.class, fieldNames, MethodHandles.lookup());
+      assertAll(
+          () -> assertEquals(new Person("Ana", 35, null), persons.get(1)),
+          () -> assertEquals(List.of(new Score(1.5, "Bob"), new Score(null, "Ana")), scoresByName.stream().toList()),
+          () -> assertEquals(new Score(1.5, "Bob"), vec.asRecords(Score.class, fieldNames, MethodHandles.lookup()).get(0)),
+          () -> assertThrows(IllegalArgumentException.class, () -> vec.asRecords(Point.class, fieldNames, MethodHandles.lookup())),
+          () -> assertThrows(IllegalArgumentException.class, () -> vec.asRecords(Score.class, List.of("name", "score"), MethodHandles.lookup())),
+          () -> assertThrows(IllegalArgumentException.class, () -> vec.asRecords(Score.class, List.of("score", "age", "name"), MethodHandles.lookup())),
+          () -> assertThrows(IllegalArgumentException.class, () -> vec.asRecords(Person.class, fieldNames, MethodHandles.publicLookup()))
+      );
+    }
+  }
+
+  @Test
+  public void appendRecordByName() throws IOException {
+    var dir = Files.createTempDirectory("vec-struct");
+    Closeable andClean = () -> {
+      try(var stream = list(dir)) {
+        for(var path: stream.toList()) {
+          Files.delete(path);
+        }
+      }
+      Files.delete(dir);
+    };
+    try(andClean) {
+      var fieldNames = List.of("y", "id", "x");
+      StructVec vec;
+      try(var validity = U1Vec.builder(null, dir.resolve("id_validity"));
+          var y = U32Vec.builder(null, dir.resolve("y"));
+          var id = U64Vec.builder(validity, dir.resolve("id"));
+          var x = U32Vec.builder(null, dir.resolve("x"));
+          var builder = StructVec.builder(null, y, id, x)) {
+        IntStream.range(0, 100).forEach(i -> builder.appendRecord(new Point(i, -i), fieldNames, MethodHandles.lookup()));
+        assertThrows(IllegalArgumentException.class, () -> builder.appendRecord(new Point(0, 0), List.of("y", "x"), MethodHandles.lookup()));
+        vec = builder.toVec();
+      }
+      try(vec) {
+        var points = vec.asRecords(Point.class, fieldNames, MethodHandles.lookup());
+        assertAll(
+            () -> assertEquals(100, points.length()),
+            () -> assertEquals(new Point(57, -57), points.get(57)),
+            () -> assertEquals(-57, ((U32Vec) vec.fields().get(0)).getInt(57)),
+            () -> assertTrue(vec.fields().get(1).isNull(57))
+        );
+      }
+    }
+  }
+
+  @Test
+  public void appendRecord() throws IOException {
+    var dir = Files.createTempDirectory("vec-struct");
+    Closeable andClean = () -> {
+      try(var stream = list(dir)) {
+        for(var path: stream.toList()) {
+          Files.delete(path);
+        }
+      }
+      Files.delete(dir);
+    };
+    try(andClean) {
+      StructVec vec;
+      try(var x = U32Vec.builder(null, dir.resolve("x"));
+          var y = U32Vec.builder(null, dir.resolve("y"));
+          var builder = StructVec.builder(null, x, y)) {
+        IntStream.range(0, 1_000).forEach(i -> builder.appendRecord(new Point(i, -i), MethodHandles.lookup()));
+        assertThrows(IllegalArgumentException.class, () -> builder.appendRecord(new Person("Bob", 25, null), MethodHandles.lookup()));
+        vec = builder.toVec();
+      }
+      try(vec) {
+        var points = vec.asRecords(Point.class, MethodHandles.lookup());
+        assertEquals(1_000, points.length());
+        assertEquals(new Point(757, -757), points.get(757));
+        assertEquals(IntStream.range(0, 1_000).sum(), points.stream().mapToInt(Point::x).sum());
+      }
+    }
+  }
 }
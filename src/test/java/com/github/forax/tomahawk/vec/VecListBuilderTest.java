@@ -1,6 +1,7 @@
 package com.github.forax.tomahawk.vec;
 
 import static java.nio.file.Files.createTempFile;
+import static java.nio.file.StandardOpenOption.APPEND;
 import static java.nio.file.StandardOpenOption.CREATE;
 import static org.junit.jupiter.api.Assertions.assertAll;
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -45,6 +46,47 @@ public class VecListBuilderTest {
     }
   }
 
+  @Test
+  public void builderAppend() throws IOException {
+    var pathData = createTempFile("list-vec--builder-append--", ".dtst");
+    var pathOffset = createTempFile("list-vec-offset--builder-append--", ".dtst");
+    var pathValidity = createTempFile("list-vec-validity--builder-append--", ".dtst");
+    try {
+      try (var validity = U1Vec.builder(null, pathValidity, CREATE);
+           var offset = U32Vec.builder(null, pathOffset, CREATE);
+           var data = U16Vec.builder(null, pathData, CREATE);
+           var builder = ListVec.builder(validity, offset, data)) {
+        builder
+            .appendString("foo")
+            .appendNull();
+      }
+      ListVec<U16Vec> vec;
+      try (var validity = U1Vec.builder(null, pathValidity, APPEND);
+           var offset = U32Vec.builder(null, pathOffset, APPEND);
+           var data = U16Vec.builder(null, pathData, APPEND);
+           var builder = ListVec.builder(validity, offset, data)) {
+        assertEquals(2, builder.length());
+        builder
+            .appendString("bar")
+            .appendString("baz");
+        vec = builder.toVec();
+      }
+      try(vec) {
+        assertAll(
+            () -> assertEquals(4, vec.length()),
+            () -> assertEquals("foo", vec.getString(0)),
+            () -> assertEquals(null, vec.getString(1)),
+            () -> assertEquals("bar", vec.getString(2)),
+            () -> assertEquals("baz", vec.getString(3))
+        );
+      }
+    } finally {
+      Files.deleteIfExists(pathValidity);
+      Files.deleteIfExists(pathOffset);
+      Files.deleteIfExists(pathData);
+    }
+  }
+
   /*@Test
   public void builderNullableBoxed() throws IOException {
     var pathMask = Files.createTempFile("utf8vec-mask--builder--", ".dtst");
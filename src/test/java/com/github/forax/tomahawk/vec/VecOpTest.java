@@ -1,6 +1,9 @@
 package com.github.forax.tomahawk.vec;
 
+import static org.junit.jupiter.api.Assertions.assertAll;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.Closeable;
 import java.io.IOException;
@@ -13,6 +16,7 @@ import java.util.function.Function;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
@@ -82,4 +86,120 @@ public class VecOpTest {
       }
     }
   }
-}
\ No newline at end of file
+
+  @ParameterizedTest
+  @MethodSource("provideIntVecs")
+  public void specializeInt(Function<Path, Vec> factory1, Function<Path, Vec> factory2) throws IOException {
+    var pathDest = Files.createTempFile("vDest", "");
+    var path1 = Files.createTempFile("v1", "");
+    var path2 = Files.createTempFile("v2", "");
+    Closeable andClean = () -> {
+      Files.delete(pathDest);
+      Files.delete(path1);
+      Files.delete(path2);
+    };
+    try(andClean)  {
+      try(var vDest = U32Vec.mapNew(null, pathDest, 64);
+          var v2 = factory2.apply(path2)) {
+        var v1 = factory1.apply(path1);
+        var op = VEC_OP.specializeInt(vDest, v1, v2);
+        for(var k = 0; k < 2; k++) {  // the plan is reused
+          op.applyInt((a, b) -> a + b);
+          for(var i = 0; i < vDest.length(); i++) {
+            assertEquals(i * 2, vDest.getInt(i));
+          }
+        }
+        v1.close();
+        assertThrows(IllegalStateException.class, () -> op.applyInt((a, b) -> a + b));
+      }
+    }
+  }
+
+  @Test
+  public void specializeIntNotSupported() {
+    try(var vDest = U32Vec.wrap(new int[64]);
+        var vec = U64Vec.wrap(new long[64])) {
+      assertThrows(IllegalArgumentException.class, () -> VEC_OP.specializeInt(vDest, vec, vDest));
+      assertThrows(NullPointerException.class, () -> VEC_OP.specializeInt(vDest, null, vDest));
+    }
+  }
+
+  private static int[] ints(Vec vec) {
+    var values = new int[(int) vec.length()];
+    for(var i = 0; i < values.length; i++) {
+      if (vec instanceof U8Vec u8Vec) {
+        values[i] = u8Vec.getByte(i);
+      } else if (vec instanceof U16Vec u16Vec) {
+        values[i] = u16Vec.getShort(i);
+      } else {
+        values[i] = ((U32Vec) vec).getInt(i);
+      }
+    }
+    return values;
+  }
+
+  // the result is truncated to the size of the destination
+  private static int narrow(Vec vDest, int value) {
+    if (vDest instanceof U8Vec) {
+      return (byte) value;
+    }
+    if (vDest instanceof U16Vec) {
+      return (short) value;
+    }
+    return value;
+  }
+
+  @Test
+  public void applyIntMegamorphic() throws IOException {
+    var vecOp = VecOp.of(MethodHandles.lookup());
+    var path8 = Files.createTempFile("v8", "");
+    var path16 = Files.createTempFile("v16", "");
+    var path32 = Files.createTempFile("v32", "");
+    Closeable andClean = () -> {
+      Files.delete(path8);
+      Files.delete(path16);
+      Files.delete(path32);
+    };
+    try(andClean) {
+      try(var v8 = U8Vec.mapNew(null, path8, 64);
+          var v16 = U16Vec.mapNew(null, path16, 64);
+          var v32 = U32Vec.mapNew(null, path32, 64)) {
+        for(var i = 0; i < 64; i++) {
+          v8.setByte(i, (byte) (i - 32));
+          v16.setShort(i, (short) (i * 1_000));
+          v32.setInt(i, i * 100_000);
+        }
+        var vecs = List.<Vec>of(v8, v16, v32);
+        var triples = vecs.size() * vecs.size() * vecs.size();
+        var maxEntries = VecOps.IntSpecies.IntInliningCache.MAX_DEPTH;
+        var call = 0;
+        for(var vDest: vecs) {
+          for(var v1: vecs) {
+            for(var v2: vecs) {
+              for(var k = 0; k < 2; k++) {  // the second call is a hit or a megamorphic call
+                var values1 = ints(v1);
+                var values2 = ints(v2);
+                vecOp.applyInt(vDest, v1, v2, (a, b) -> a + b);
+                var result = ints(vDest);
+                for(var i = 0; i < 64; i++) {
+                  assertEquals(narrow(vDest, values1[i] + values2[i]), result[i], "call " + call + " index " + i);
+                }
+                call++;
+              }
+              // the cache switches to the table after maxEntries specialized kernels
+              assertEquals(call > 2 * maxEntries, vecOp.intCacheStats().megamorphic());
+            }
+          }
+        }
+        var stats = vecOp.intCacheStats();
+        var callCount = call;
+        assertAll(
+            () -> assertEquals(2 * triples, callCount),
+            () -> assertEquals(maxEntries + 1, stats.misses()),  // the last miss switches to the table
+            () -> assertEquals(callCount - maxEntries - 1, stats.hits()),
+            () -> assertTrue(stats.megamorphic())
+        );
+      }
+    }
+  }
+}
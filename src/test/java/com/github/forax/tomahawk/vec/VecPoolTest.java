@@ -0,0 +1,158 @@
+package com.github.forax.tomahawk.vec;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import jdk.incubator.foreign.MemorySegment;
+import org.junit.jupiter.api.Test;
+
+@SuppressWarnings("static-method")
+public class VecPoolTest {
+  @Test
+  public void allocateAndReuse() {
+    try(var pool = VecPool.create()) {
+      for(var query = 0; query < 3; query++) {
+        try(var scope = pool.newScope()) {
+          var vec = U32Vec.from(null, scope.allocate(100 << 2));
+          assertEquals(100, vec.length());
+          assertEquals(0, vec.getInt(42));  // memory is zeroed
+          vec.setInt(42, 777);
+          assertEquals(777, vec.getInt(42));
+        }
+        assertEquals(512, pool.pooledBytes());  // 400 bytes rounded to the size class
+      }
+    }
+  }
+
+  @Test
+  public void closeVecGivesMemoryBack() {
+    try(var pool = VecPool.create()) {
+      try(var scope = pool.newScope()) {
+        var vec1 = U8Vec.from(null, scope.allocate(64));
+        var vec2 = U64Vec.from(null, scope.allocate(64 << 3));
+        vec1.close();
+        vec1.close();  // idempotent
+        assertEquals(64, pool.pooledBytes());
+        var vec3 = U8Vec.from(null, scope.allocate(10));  // reuse the memory of vec1
+        assertAll(
+            () -> assertEquals(0, pool.pooledBytes()),
+            () -> assertEquals(10, vec3.length()),
+            () -> assertEquals(64, vec2.length())
+        );
+      }
+      assertEquals(64 + 512, pool.pooledBytes());
+    }
+  }
+
+  @Test
+  public void nullableVecFromScope() {
+    try(var pool = VecPool.create();
+        var scope = pool.newScope()) {
+      var validity = U1Vec.from(null, scope.allocate(8));
+      var vec = U16Vec.from(validity, scope.allocate(64 << 1));
+      vec.setShort(3, (short) 12);
+      vec.setNull(4);
+      assertAll(
+          () -> assertEquals(12, vec.getShort(3)),
+          () -> assertEquals(true, vec.isNull(4))
+      );
+      vec.close();
+      assertEquals(64 + 128, pool.pooledBytes());
+    }
+  }
+
+  @Test
+  public void releasedSegmentIsNotAlive() {
+    try(var pool = VecPool.create()) {
+      MemorySegment segment, slice;
+      try(var scope = pool.newScope()) {
+        segment = scope.allocate(64 << 2);
+        slice = segment.asSlice(0, 32 << 2);
+        var vec = U32Vec.from(null, segment);
+        vec.close();
+        assertAll(
+            () -> assertFalse(segment.isAlive()),
+            () -> assertFalse(slice.isAlive()),
+            () -> assertThrows(IllegalStateException.class, () -> vec.getInt(0))
+        );
+        var vec2 = U32Vec.from(null, scope.allocate(64 << 2));  // reuse the memory of vec
+        vec2.setInt(0, 42);
+        assertEquals(42, vec2.getInt(0));
+      }
+    }
+  }
+
+  @Test
+  public void closeVecOnSliceDoesNotGiveMemoryBack() {
+    try(var pool = VecPool.create()) {
+      try(var scope = pool.newScope()) {
+        var segment = scope.allocate(64 << 2);
+        var vec = U32Vec.from(null, segment.asSlice(0, 32 << 2));
+        vec.close();
+        assertAll(
+            () -> assertEquals(0, pool.pooledBytes()),
+            () -> assertTrue(segment.isAlive())
+        );
+      }
+      assertEquals(256, pool.pooledBytes());
+    }
+  }
+
+  @Test
+  public void notPooledAboveMaxSize() {
+    try(var pool = VecPool.create(1024)) {
+      try(var scope = pool.newScope()) {
+        var vec = U8Vec.from(null, scope.allocate(4096));
+        assertEquals(4096, vec.length());
+      }
+      assertEquals(0, pool.pooledBytes());
+    }
+  }
+
+  @Test
+  public void closePoolWithOpenScope() {
+    var pool = VecPool.create();
+    var scope = pool.newScope();
+    assertThrows(IllegalStateException.class, pool::close);
+    scope.close();
+    pool.close();
+    assertThrows(IllegalStateException.class, pool::newScope);
+  }
+
+  @Test
+  public void allocateAfterScopeClosed() {
+    try(var pool = VecPool.create()) {
+      var scope = pool.newScope();
+      scope.close();
+      assertThrows(IllegalStateException.class, () -> scope.allocate(8));
+    }
+  }
+
+  @Test
+  public void allocateWhileScopeCloses() throws InterruptedException {
+    for(var round = 0; round < 100; round++) {
+      try(var pool = VecPool.create()) {
+        var scope = pool.newScope();
+        var allocated = new int[1];
+        var thread = new Thread(() -> {
+          try {
+            for(;;) {
+              scope.allocate(64);
+              allocated[0]++;
+            }
+          } catch(IllegalStateException e) {
+            // scope closed
+          }
+        });
+        thread.start();
+        Thread.sleep(1);
+        scope.close();
+        thread.join();
+        assertTrue(pool.pooledBytes() >= allocated[0] * 64L);  // all the lent segments are given back
+      }
+    }
+  }
+}
\ No newline at end of file
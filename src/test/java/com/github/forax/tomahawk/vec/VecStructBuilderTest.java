@@ -5,10 +5,13 @@ import static java.nio.file.StandardOpenOption.CREATE;
 import static org.junit.jupiter.api.Assertions.assertAll;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.IOException;
 import java.nio.file.Files;
+import java.util.List;
+import java.util.stream.IntStream;
 
 import org.junit.jupiter.api.Test;
 
@@ -137,4 +140,172 @@ public class VecStructBuilderTest {
       Files.deleteIfExists(pathDouble);
     }
   }
+
+  @Test
+  public void parallelBuilder() throws IOException {
+    var pathNameData = createTempFile("struct-vec-name-element--", ".dtst");
+    var pathNameOffset = createTempFile("struct-vec-name-offset--", ".dtst");
+    var pathNameValidity = createTempFile("struct-vec-name-validity--", ".dtst");
+    var pathAge = createTempFile("struct-vec-age--", ".dtst");
+    var pathAgeValidity = createTempFile("struct-vec-age-validity--", ".dtst");
+    var pathSalary = createTempFile("struct-vec-salary--", ".dtst");
+    var pathSalaryValidity = createTempFile("struct-vec-salary-validity--", ".dtst");
+    var pathValidity = createTempFile("struct-vec-validity--", ".dtst");
+    try {
+      StructVec vec;
+      try (var nameValidityB = U1Vec.builder(null, pathNameValidity, CREATE);
+           var nameOffsetB = U32Vec.builder(null, pathNameOffset, CREATE);
+           var nameDataB = U16Vec.builder(null, pathNameData, CREATE);
+           var nameB = ListVec.builder(nameValidityB, nameOffsetB, nameDataB);
+           var ageValidityB = U1Vec.builder(null, pathAgeValidity, CREATE);
+           var ageB = U32Vec.builder(ageValidityB, pathAge, CREATE);
+           var salaryValidityB = U1Vec.builder(null, pathSalaryValidity, CREATE);
+           var salaryB = U64Vec.builder(salaryValidityB, pathSalary, CREATE);
+           var validityB = U1Vec.builder(null, pathValidity, CREATE);
+           var builder = StructVec.parallelBuilder(validityB, null, 100, 3, List.of(nameB, ageB, salaryB))) {
+        IntStream.range(0, 10_000).forEach(i -> {
+          if (i % 10 == 9) {
+            builder.appendNull();
+            return;
+          }
+          builder.appendRow(row -> {
+            if (i % 3 == 0) {
+              row.appendValues(nameB, b -> b.appendString("person" + i));
+            } else {
+              row.appendString(nameB, "person" + i);
+            }
+            if (i % 2 == 0) {
+              row.appendInt(ageB, i);
+            }
+            row.appendDouble(salaryB, i * 1.5);
+          });
+        });
+        assertEquals(10_000, builder.length());
+        vec = builder.toVec();
+      }
+      try(vec) {
+        var name = vec.fields().get(0).asListOf(U16Vec.class);
+        var age = vec.fields().get(1).as(U32Vec.class);
+        var salary = vec.fields().get(2).as(U64Vec.class);
+        assertEquals(10_000, vec.length());
+        IntStream.range(0, 10_000).forEach(i -> {
+          if (i % 10 == 9) {
+            assertTrue(vec.isNull(i));
+            assertTrue(name.isNull(i));
+            assertTrue(age.isNull(i));
+            return;
+          }
+          assertFalse(vec.isNull(i));
+          assertEquals("person" + i, name.getString(i));
+          if (i % 2 == 0) {
+            assertEquals(i, age.getInt(i));
+          } else {
+            assertTrue(age.isNull(i));
+          }
+          assertEquals(i * 1.5, salary.getDouble(i));
+        });
+      }
+    } finally {
+      Files.deleteIfExists(pathValidity);
+      Files.deleteIfExists(pathSalaryValidity);
+      Files.deleteIfExists(pathSalary);
+      Files.deleteIfExists(pathAgeValidity);
+      Files.deleteIfExists(pathAge);
+      Files.deleteIfExists(pathNameValidity);
+      Files.deleteIfExists(pathNameOffset);
+      Files.deleteIfExists(pathNameData);
+    }
+  }
+
+  @Test
+  public void parallelBuilderValueAlreadyAppended() throws IOException {
+    var pathInt = createTempFile("struct-vec-int--", ".dtst");
+    try {
+      try (var intBuilder = U32Vec.builder(null, pathInt);
+           var builder = StructVec.parallelBuilder(null, intBuilder)) {
+        assertThrows(IllegalStateException.class,
+            () -> builder.appendRow(row -> row.appendInt(intBuilder, 1).appendInt(intBuilder, 2)));
+      }
+    } finally {
+      Files.deleteIfExists(pathInt);
+    }
+  }
+
+  @Test
+  public void parallelBuilderFailedRowIsDiscarded() throws IOException {
+    var pathInt = createTempFile("struct-vec-int--", ".dtst");
+    var pathIntValidity = createTempFile("struct-vec-int-validity--", ".dtst");
+    try {
+      StructVec vec;
+      try (var intValidityBuilder = U1Vec.builder(null, pathIntValidity);
+           var intBuilder = U32Vec.builder(intValidityBuilder, pathInt);
+           var builder = StructVec.parallelBuilder(null, intBuilder)) {
+        assertThrows(IllegalArgumentException.class, () -> builder.appendRow(row -> {
+          row.appendInt(intBuilder, 42);
+          throw new IllegalArgumentException();
+        }));
+        builder.appendRow(row -> {});
+        builder.appendRow(row -> row.appendInt(intBuilder, 3));
+        vec = builder.toVec();
+      }
+      try(vec) {
+        var ints = vec.fields().get(0).as(U32Vec.class);
+        assertAll(
+            () -> assertEquals(2, vec.length()),
+            () -> assertTrue(ints.isNull(0)),
+            () -> assertEquals(3, ints.getInt(1))
+        );
+      }
+    } finally {
+      Files.deleteIfExists(pathIntValidity);
+      Files.deleteIfExists(pathInt);
+    }
+  }
+
+  @Test
+  public void parallelBuilderWorkerFailure() throws IOException {
+    var pathOffset = createTempFile("struct-vec-offset--", ".dtst");
+    var pathData = createTempFile("struct-vec-data--", ".dtst");
+    try {
+      try (var offsetBuilder = U32Vec.builder(null, pathOffset);
+           var dataBuilder = U32Vec.builder(null, pathData);
+           var listBuilder = ListVec.builder(null, offsetBuilder, dataBuilder);
+           var builder = StructVec.parallelBuilder(null, null, 100, 2, List.of(listBuilder))) {
+        var exception = assertThrows(IllegalStateException.class, () -> {
+          for(var i = 0; i < 1_000; i++) {
+            var value = i;
+            builder.appendRow(row -> row.appendValues(listBuilder, b -> {
+              if (value == 150) {
+                throw new IllegalArgumentException("invalid value " + value);
+              }
+              b.appendInt(value);
+            }));
+          }
+        });
+        assertAll(
+            () -> assertTrue(exception.getMessage().contains("150")),
+            () -> assertEquals(IllegalArgumentException.class, exception.getCause().getClass()),
+            () -> assertThrows(IllegalStateException.class, () -> builder.appendRow(row -> {}))
+        );
+      }
+    } finally {
+      Files.deleteIfExists(pathData);
+      Files.deleteIfExists(pathOffset);
+    }
+  }
+
+  @Test
+  public void parallelBuilderInvalidArguments() throws IOException {
+    var pathInt = createTempFile("struct-vec-int--", ".dtst");
+    try {
+      try (var intBuilder = U32Vec.builder(null, pathInt)) {
+        assertAll(
+            () -> assertThrows(IllegalArgumentException.class, () -> StructVec.parallelBuilder(null, null, 0, 2, List.of(intBuilder))),
+            () -> assertThrows(IllegalArgumentException.class, () -> StructVec.parallelBuilder(null, null, 100, 1, List.of(intBuilder)))
+        );
+      }
+    } finally {
+      Files.deleteIfExists(pathInt);
+    }
+  }
 }
@@ -44,4 +44,22 @@ public class VecU1Test {
       }
     }
   }
+
+  @Test
+  public void builderSetBitsThenClearedBits() throws IOException {
+    var path = Files.createTempFile("vec-u1", "");
+    Closeable andClean = () -> Files.delete(path);
+    try(andClean) {
+      U1Vec vec;
+      try(var builder = U1Vec.builder(null, path)) {
+        LongStream.range(0, 200).forEach(i -> builder.appendBoolean(i < 100));
+        vec = builder.toVec();
+      }
+      try(vec) {
+        for(var i = 0; i < 200; i++) {
+          assertEquals(i < 100, vec.getBoolean(i), "index " + i);
+        }
+      }
+    }
+  }
 }
\ No newline at end of file
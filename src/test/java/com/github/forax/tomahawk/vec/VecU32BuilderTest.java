@@ -1,6 +1,7 @@
 package com.github.forax.tomahawk.vec;
 
 import static java.nio.file.Files.createTempFile;
+import static java.nio.file.StandardOpenOption.APPEND;
 import static java.nio.file.StandardOpenOption.CREATE;
 import static java.util.stream.IntStream.range;
 import static org.junit.jupiter.api.Assertions.assertAll;
@@ -168,4 +169,145 @@ public class VecU32BuilderTest {
     }
     Files.delete(path);
   }
-}
\ No newline at end of file
+
+  @Test
+  public void builderAsync() throws IOException {
+    var pathValidity = createTempFile("u32-vec-validity--builder-async--", ".dtst");
+    var pathData = createTempFile("u32-vec-element--builder-async--", ".dtst");
+    try {
+      U32Vec vec;
+      var asyncOption = AsyncWriteOption.of(1_000, 2);  // smaller than the builder buffer
+      try (var validity = U1Vec.builder(null, pathValidity, CREATE, asyncOption);
+           var builder = U32Vec.builder(validity, pathData, CREATE, asyncOption)) {
+        range(0, 100_000).forEach(i -> {
+          if (i % 7 == 0) {
+            builder.appendNull();
+          } else {
+            builder.appendInt(i);
+          }
+        });
+        vec = builder.toVec();
+      }
+      try(vec) {
+        assertEquals(100_000, vec.length());
+        range(0, 100_000).forEach(i -> {
+          if (i % 7 == 0) {
+            assertTrue(vec.isNull(i));
+          } else {
+            assertEquals(i, vec.getInt(i));
+          }
+        });
+      }
+    } finally {
+      Files.deleteIfExists(pathData);
+      Files.deleteIfExists(pathValidity);
+    }
+  }
+
+  @Test
+  public void builderAppend() throws IOException {
+    var pathValidity = createTempFile("u32-vec-validity--builder-append--", ".dtst");
+    var pathData = createTempFile("u32-vec--builder-append--", ".dtst");
+    try {
+      for(var start = 0; start < 300; start += 100) {  // 100 is not a multiple of 64
+        try (var validityBuilder = U1Vec.builder(null, pathValidity, CREATE, APPEND);
+             var builder = U32Vec.builder(validityBuilder, pathData, CREATE, APPEND)) {
+          assertEquals(start, builder.length());
+          range(start, start + 100).forEach(i -> {
+            if (i % 3 == 0) {
+              builder.appendNull();
+            } else {
+              builder.appendInt(i);
+            }
+          });
+        }
+      }
+      try(var vec = U32Vec.map(U1Vec.map(null, pathValidity), pathData)) {
+        assertEquals(300, vec.length());
+        range(0, 300).forEach(i -> {
+          if (i % 3 == 0) {
+            assertTrue(vec.isNull(i));
+          } else {
+            assertEquals(i, vec.getInt(i));
+          }
+        });
+      }
+    } finally {
+      Files.deleteIfExists(pathData);
+      Files.deleteIfExists(pathValidity);
+    }
+  }
+
+  @Test
+  public void builderAppendDoesNotShrinkMappedValidity() throws IOException {
+    var pathValidity = createTempFile("u32-vec-validity--builder-append--", ".dtst");
+    var pathData = createTempFile("u32-vec--builder-append--", ".dtst");
+    try {
+      try (var validityBuilder = U1Vec.builder(null, pathValidity, CREATE, APPEND);
+           var builder = U32Vec.builder(validityBuilder, pathData, CREATE, APPEND)) {
+        range(0, 100).forEach(i -> builder.appendNull());
+      }
+      try(var reader = U1Vec.map(null, pathValidity)) {  // a reader maps the validity while the builder appends
+        try (var validityBuilder = U1Vec.builder(null, pathValidity, CREATE, APPEND);
+             var builder = U32Vec.builder(validityBuilder, pathData, CREATE, APPEND)) {
+          assertEquals(16, Files.size(pathValidity));  // the partial word is not truncated
+          range(100, 200).forEach(builder::appendInt);
+        }
+        assertFalse(reader.getBoolean(99));
+      }
+      try(var vec = U32Vec.map(U1Vec.map(null, pathValidity), pathData)) {
+        assertEquals(200, vec.length());
+        range(0, 200).forEach(i -> {
+          if (i < 100) {
+            assertTrue(vec.isNull(i));
+          } else {
+            assertEquals(i, vec.getInt(i));
+          }
+        });
+      }
+    } finally {
+      Files.deleteIfExists(pathData);
+      Files.deleteIfExists(pathValidity);
+    }
+  }
+
+  @Test
+  public void asyncWriteOptionInvalid() {
+    assertAll(
+        () -> assertThrows(IllegalArgumentException.class, () -> AsyncWriteOption.of(0, 2)),
+        () -> assertThrows(IllegalArgumentException.class, () -> AsyncWriteOption.of(1024, 0))
+    );
+  }
+
+  @Test
+  public void builderWithBulkInts() throws IOException {
+    var pathValidity = createTempFile("u32-vec-validity--builder--", ".dtst");
+    var pathData = createTempFile("u32-vec-element--builder--", ".dtst");
+    try {
+      var array = range(0, 5_000).toArray();  // more than a buffer
+      U32Vec vec;
+      try (var validity = U1Vec.builder(null, pathValidity, CREATE);
+           var builder = U32Vec.builder(validity, pathData, CREATE)) {
+        assertThrows(IndexOutOfBoundsException.class, () -> builder.appendInts(array, 4_999, 2));
+        builder
+            .appendInt(-1)
+            .appendInts(array, 10, 4_000)
+            .appendNull()
+            .appendInts(array, 0, 70);
+        vec = builder.toVec();
+      }
+      try(vec) {
+        assertAll(
+            () -> assertEquals(4_072, vec.length()),
+            () -> assertEquals(-1, vec.getInt(0)),
+            () -> assertTrue(range(0, 4_000).allMatch(i -> vec.getInt(1 + i) == 10 + i)),
+            () -> assertTrue(vec.isNull(4_001)),
+            () -> assertTrue(range(0, 70).allMatch(i -> vec.getInt(4_002 + i) == i))
+        );
+      }
+    } finally {
+      Files.deleteIfExists(pathData);
+      Files.deleteIfExists(pathValidity);
+    }
+  }
+}
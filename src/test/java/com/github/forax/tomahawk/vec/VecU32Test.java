@@ -2,6 +2,7 @@ package com.github.forax.tomahawk.vec;
 
 import static java.nio.file.Files.list;
 import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
@@ -87,6 +88,23 @@ public class VecU32Test {
     }
   }
 
+  @ParameterizedTest
+  @MethodSource("provideIntVecs")
+  public void getBulkInts(LongFunction<? extends U32Vec> factory) {
+    try(var vec = factory.apply(10)) {
+      for(var i = 0; i < 10; i++) {
+        vec.setInt(i, i * 10 - 50);
+      }
+      var array = new int[6];
+      vec.getInts(3, array, 1, 4);
+      assertAll(
+          () -> assertArrayEquals(new int[] { 0, -20, -10, 0, 10, 0 }, array),
+          () -> assertThrows(IndexOutOfBoundsException.class, () -> vec.getInts(8, array, 0, 4)),
+          () -> assertThrows(IndexOutOfBoundsException.class, () -> vec.getInts(0, array, 4, 4))
+      );
+    }
+  }
+
   @ParameterizedTest
   @MethodSource("provideIntVecs")
   public void getBoxInts(LongFunction<? extends U32Vec> factory) {
@@ -272,4 +290,72 @@ public class VecU32Test {
       }
     }
   }
-}
\ No newline at end of file
+
+  @Test
+  public void allIntsSplit() {
+    try(var pool = VecPool.create();
+        var scope = pool.newScope()) {
+      var vec = U32Vec.from(null, scope.allocate(10_000 << 2));  // shared, a confined segment is not split
+      for(var i = 0; i < 10_000; i++) {
+        vec.setInt(i, i);
+      }
+      var spliterator = vec.allInts().spliterator();
+      var prefix = spliterator.trySplit();
+      assertAll(
+          () -> assertEquals(0, (10_000 - spliterator.estimateSize()) % 16),  // a multiple of 16 values from the index 0
+          () -> assertEquals(10_000, prefix.estimateSize() + spliterator.estimateSize())
+      );
+      var sum = new long[1];
+      prefix.forEachRemaining((int value) -> sum[0] += value);
+      assertTrue(spliterator.tryAdvance((int value) -> sum[0] += value));
+      spliterator.forEachRemaining((int value) -> sum[0] += value);
+      assertEquals(LongStream.range(0, 10_000).sum(), sum[0]);
+    }
+  }
+
+  @Test
+  public void allIntsParallel() {
+    try(var pool = VecPool.create();
+        var scope = pool.newScope()) {
+      var vec = U32Vec.from(null, scope.allocate(100_000 << 2));  // shared by the threads
+      for(var i = 0; i < 100_000; i++) {
+        vec.setInt(i, i);
+      }
+      assertAll(
+          () -> assertEquals(LongStream.range(0, 100_000).sum(), vec.allInts().parallel().asLongStream().sum()),
+          () -> assertEquals(100_000, vec.allInts().parallel().count()),
+          () -> assertEquals(42, vec.allInts().skip(42).findFirst().orElseThrow())
+      );
+    }
+  }
+
+  @Test
+  public void allIntsParallelMapped() throws IOException {
+    var path = Files.createTempFile("all-ints-parallel", "");
+    Closeable andClean = () -> Files.delete(path);
+    try(andClean) {
+      try(var vec = U32Vec.mapNew(null, path, 100_000)) {  // confined, not split
+        for(var i = 0; i < 100_000; i++) {
+          vec.setInt(i, i);
+        }
+        assertAll(
+            () -> assertEquals(LongStream.range(0, 100_000).sum(), vec.allInts().parallel().asLongStream().sum()),
+            () -> assertEquals(100_000, vec.allInts().parallel().count())
+        );
+      }
+    }
+  }
+
+  @Test
+  public void allIntsWithNull() {
+    try(var vec = U32Vec.wrap(new int[3_000]).withValidity(U1Vec.wrap(new long[47]))) {
+      for(var i = 0; i < 3_000; i++) {
+        vec.setInt(i, 1);
+      }
+      assertEquals(3_000, vec.allInts().sum());
+      vec.setNull(2_500);
+      assertThrows(NullPointerException.class, () -> vec.allInts().sum());
+      assertEquals(2_500, vec.allInts().limit(2_500).sum());
+    }
+  }
+}
@@ -256,4 +256,22 @@ public class VecU64Test {
       }
     }
   }
-}
\ No newline at end of file
+
+  @Test
+  public void allLongsAndDoublesParallel() {
+    try(var pool = VecPool.create();
+        var scope = pool.newScope()) {
+      var longs = U64Vec.from(null, scope.allocate(100_000 << 3));  // shared by the threads
+      var doubles = U64Vec.from(null, scope.allocate(100_000 << 3));
+      for(var i = 0; i < 100_000; i++) {
+        longs.setLong(i, i);
+        doubles.setDouble(i, 0.5);
+      }
+      assertAll(
+          () -> assertEquals(LongStream.range(0, 100_000).sum(), longs.allLongs().parallel().sum()),
+          () -> assertEquals(50_000.0, doubles.allDoubles().parallel().sum()),
+          () -> assertEquals(LongStream.range(0, 100_000).boxed().toList(), longs.allLongs().parallel().boxed().toList())
+      );
+    }
+  }
+}